@@ -225,6 +225,14 @@ public class ArraySortedMap<K, V> extends ImmutableSortedMap<K, V> {
     return findKey(key);
   }
 
+  @Override
+  public K getKeyAt(int index) {
+    if (index < 0 || index >= this.keys.length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.keys.length);
+    }
+    return this.keys[index];
+  }
+
   @Override
   public Comparator<K> getComparator() {
     return comparator;
@@ -54,6 +54,13 @@ public abstract class ImmutableSortedMap<K, V> implements Iterable<Map.Entry<K,
 
   public abstract int indexOf(K key);
 
+  /**
+   * Returns the key at the given position in the map's ordering.
+   *
+   * @throws IndexOutOfBoundsException if the index is negative or not less than size()
+   */
+  public abstract K getKeyAt(int index);
+
   public abstract Comparator<K> getComparator();
 
   @Override
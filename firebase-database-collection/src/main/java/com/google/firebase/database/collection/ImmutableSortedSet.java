@@ -127,4 +127,13 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
   public int indexOf(T entry) {
     return this.map.indexOf(entry);
   }
+
+  /**
+   * Returns the entry at the given position in the set's ordering.
+   *
+   * @throws IndexOutOfBoundsException if the index is negative or not less than size()
+   */
+  public T getEntryAt(int index) {
+    return this.map.getKeyAt(index);
+  }
 }
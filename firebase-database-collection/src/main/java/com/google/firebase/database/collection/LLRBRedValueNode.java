@@ -36,11 +36,6 @@ public class LLRBRedValueNode<K, V> extends LLRBValueNode<K, V> {
     return true;
   }
 
-  @Override
-  public int size() {
-    return this.getLeft().size() + 1 + this.getRight().size();
-  }
-
   @Override
   protected LLRBValueNode<K, V> copy(K key, V value, LLRBNode<K, V> left, LLRBNode<K, V> right) {
     K newKey = key == null ? this.getKey() : key;
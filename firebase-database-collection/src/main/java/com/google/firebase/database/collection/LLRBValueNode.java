@@ -27,11 +27,21 @@ public abstract class LLRBValueNode<K, V> implements LLRBNode<K, V> {
   private LLRBNode<K, V> left;
   private final LLRBNode<K, V> right;
 
+  /**
+   * The number of nodes in the subtree rooted at this node (including this node). Every node
+   * stores its subtree size so that size() is constant time and positional lookups (indexOf(),
+   * getKeyAt()) only need to descend a single path of the tree.
+   *
+   * <p>Needs to be mutable because left node can be updated via setLeft.
+   */
+  private int size;
+
   LLRBValueNode(K key, V value, LLRBNode<K, V> left, LLRBNode<K, V> right) {
     this.key = key;
     this.value = value;
     this.left = left == null ? LLRBEmptyNode.<K, V>getInstance() : left;
     this.right = right == null ? LLRBEmptyNode.<K, V>getInstance() : right;
+    this.size = this.left.size() + 1 + this.right.size();
   }
 
   @Override
@@ -133,6 +143,11 @@ public abstract class LLRBValueNode<K, V> implements LLRBNode<K, V> {
     return false;
   }
 
+  @Override
+  public int size() {
+    return size;
+  }
+
   @Override
   public LLRBNode<K, V> getMin() {
     if (left.isEmpty()) {
@@ -178,9 +193,11 @@ public abstract class LLRBValueNode<K, V> implements LLRBNode<K, V> {
     return false;
   }
 
-  // For use by the builder, which is package local
+  // For use by the builder, which is package local. The builder must attach subtrees bottom-up, as
+  // the sizes of this node's ancestors are not updated.
   void setLeft(LLRBNode<K, V> left) {
     this.left = left;
+    this.size = left.size() + 1 + right.size();
   }
 
   private LLRBNode<K, V> removeMin() {
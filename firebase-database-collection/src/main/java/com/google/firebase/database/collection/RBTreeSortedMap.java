@@ -20,6 +20,9 @@ import java.util.*;
  * This is a red-black tree backed implementation of ImmutableSortedMap. This has better asymptotic
  * complexity for large collections, but performs worse in practice than an ArraySortedMap for small
  * collections. It also uses about twice as much memory.
+ *
+ * <p>Every node of the tree stores the size of its subtree, which makes size() constant time and
+ * allows indexOf() and getKeyAt() to run in logarithmic time.
  */
 public class RBTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
 
@@ -207,6 +210,26 @@ public class RBTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
     return -1;
   }
 
+  @Override
+  public K getKeyAt(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+    LLRBNode<K, V> node = root;
+    while (true) {
+      int leftSize = node.getLeft().size();
+      if (index < leftSize) {
+        node = node.getLeft();
+      } else if (index == leftSize) {
+        return node.getKey();
+      } else {
+        // Skip all nodes left of the node plus the node itself
+        index -= leftSize + 1;
+        node = node.getRight();
+      }
+    }
+  }
+
   @Override
   public Comparator<K> getComparator() {
     return comparator;
@@ -285,8 +308,8 @@ public class RBTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
     private final Map<B, C> values;
     private final ImmutableSortedMap.Builder.KeyTranslator<A, B> keyTranslator;
 
-    private LLRBValueNode<A, C> root;
-    private LLRBValueNode<A, C> leaf;
+    // The pennants of the tree, from the root down its left spine.
+    private final List<LLRBValueNode<A, C>> pennants = new ArrayList<>();
 
     private Builder(
         List<A> keys, Map<B, C> values, ImmutableSortedMap.Builder.KeyTranslator<A, B> translator) {
@@ -324,13 +347,21 @@ public class RBTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
       } else {
         node = new LLRBBlackValueNode<>(key, getValue(key), null, treeRoot);
       }
-      if (root == null) {
-        root = node;
-        leaf = node;
-      } else {
-        leaf.setLeft(node);
-        leaf = node;
+      pennants.add(node);
+    }
+
+    /**
+     * Links the pennants along the left spine of the tree. Pennants are linked from the bottom up,
+     * so that every subtree size is final by the time its parent is linked.
+     */
+    private LLRBNode<A, C> linkPennants() {
+      LLRBNode<A, C> root = LLRBEmptyNode.getInstance();
+      for (int i = pennants.size() - 1; i >= 0; i--) {
+        LLRBValueNode<A, C> pennant = pennants.get(i);
+        pennant.setLeft(root);
+        root = pennant;
       }
+      return root;
     }
 
     public static <A, B, C> RBTreeSortedMap<A, C> buildFrom(
@@ -353,8 +384,7 @@ public class RBTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
           builder.buildPennant(LLRBNode.Color.RED, next.chunkSize, index);
         }
       }
-      return new RBTreeSortedMap<>(
-          builder.root == null ? LLRBEmptyNode.getInstance() : builder.root, comparator);
+      return new RBTreeSortedMap<>(builder.linkPennants(), comparator);
     }
   }
 }
@@ -225,6 +225,20 @@ public class ArraySortedMapTest {
     }
   }
 
+  @Test
+  public void indexOfAndKeyAtAreCorrect() {
+    for (Map<Integer, Integer> any : someMaps(integers(), integers())) {
+      List<Integer> expectedKeys = new ArrayList<>(any.keySet());
+      Collections.sort(expectedKeys);
+
+      ImmutableSortedMap<Integer, Integer> map = ArraySortedMap.fromMap(any, IntComparator);
+      for (int i = 0; i < expectedKeys.size(); ++i) {
+        assertEquals(i, map.indexOf(expectedKeys.get(i)));
+        assertEquals(expectedKeys.get(i), map.getKeyAt(i));
+      }
+    }
+  }
+
   @Test
   public void iterationIsInOrder() {
     for (Map<Integer, Integer> any : someMaps(integers(), integers())) {
@@ -280,6 +280,65 @@ public class RBTreeSortedMapTest {
     }
   }
 
+  @Test
+  public void indexOfAndKeyAtAreCorrect() {
+    for (Map<Integer, Integer> any : someMaps(integers(), integers())) {
+      List<Integer> expectedKeys = new ArrayList<>(any.keySet());
+      Collections.sort(expectedKeys);
+
+      ImmutableSortedMap<Integer, Integer> map = RBTreeSortedMap.fromMap(any, IntComparator);
+      for (int i = 0; i < expectedKeys.size(); ++i) {
+        assertEquals(i, map.indexOf(expectedKeys.get(i)));
+        assertEquals(expectedKeys.get(i), map.getKeyAt(i));
+      }
+    }
+  }
+
+  @Test
+  public void sizesAreMaintainedAcrossInsertsAndRemovals() {
+    for (Map<Integer, Integer> any : someMaps(integers(), integers())) {
+      List<Integer> keys = new ArrayList<>(any.keySet());
+      ImmutableSortedMap<Integer, Integer> map = new RBTreeSortedMap<>(IntComparator);
+      for (Integer key : keys) {
+        map = map.insert(key, any.get(key));
+      }
+      // Remove every other key to exercise the rebalancing code paths.
+      List<Integer> expectedKeys = new ArrayList<>();
+      for (int i = 0; i < keys.size(); ++i) {
+        if (i % 2 == 0) {
+          map = map.remove(keys.get(i));
+        } else {
+          expectedKeys.add(keys.get(i));
+        }
+      }
+      Collections.sort(expectedKeys);
+
+      assertEquals(expectedKeys.size(), map.size());
+      for (int i = 0; i < expectedKeys.size(); ++i) {
+        assertEquals(i, map.indexOf(expectedKeys.get(i)));
+        assertEquals(expectedKeys.get(i), map.getKeyAt(i));
+      }
+    }
+  }
+
+  @Test
+  public void getKeyAtThrowsExceptionIfIndexIsOutOfBounds() {
+    ImmutableSortedMap<Integer, Integer> map = new RBTreeSortedMap<>(IntComparator);
+    map = map.insert(1, 1).insert(2, 2);
+    try {
+      map.getKeyAt(2);
+      Assert.fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+    try {
+      map.getKeyAt(-1);
+      Assert.fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+
   @Test
   public void equalsIsCorrect() {
     ImmutableSortedMap<Integer, Integer> map;
@@ -314,7 +314,11 @@ public class CustomClassMapper {
   private static <T> BeanMapper<T> loadOrCreateBeanMapperForClass(Class<T> clazz) {
     BeanMapper<T> mapper = (BeanMapper<T>) mappers.get(clazz);
     if (mapper == null) {
-      mapper = new BeanMapper<T>(clazz);
+      GeneratedMapper<T> generatedMapper = GeneratedMapper.forClass(clazz);
+      mapper =
+          generatedMapper != null
+              ? new BeanMapper<T>(clazz, generatedMapper)
+              : new BeanMapper<T>(clazz);
       // Inserting without checking is fine because mappers are "pure" and it's okay
       // if we create and use multiple by different threads temporarily
       mappers.put(clazz, mapper);
@@ -436,8 +440,17 @@ public class CustomClassMapper {
     private final Map<String, Method> setters;
     private final Map<String, Field> fields;
 
+    // The mapper generated for the class, which replaces reflection if present. Null otherwise.
+    private final GeneratedMapper<T> generatedMapper;
+    // The index of each property of the generated mapper.
+    private final Map<String, Integer> generatedProperties;
+    private final GeneratedMapper.Property[] generatedPropertyList;
+
     public BeanMapper(Class<T> clazz) {
       this.clazz = clazz;
+      this.generatedMapper = null;
+      this.generatedProperties = Collections.emptyMap();
+      this.generatedPropertyList = null;
       this.throwOnUnknownProperties = clazz.isAnnotationPresent(ThrowOnExtraProperties.class);
       this.warnOnUnknownProperties = !clazz.isAnnotationPresent(IgnoreExtraProperties.class);
       this.properties = new HashMap<>();
@@ -536,6 +549,26 @@ public class CustomClassMapper {
       }
     }
 
+    /** Creates a mapper that accesses the properties of the class with generated code. */
+    public BeanMapper(Class<T> clazz, GeneratedMapper<T> generatedMapper) {
+      this.clazz = clazz;
+      this.throwOnUnknownProperties = clazz.isAnnotationPresent(ThrowOnExtraProperties.class);
+      this.warnOnUnknownProperties = !clazz.isAnnotationPresent(IgnoreExtraProperties.class);
+      this.constructor = null;
+      this.properties = new HashMap<>();
+      this.getters = Collections.emptyMap();
+      this.setters = Collections.emptyMap();
+      this.fields = Collections.emptyMap();
+      this.generatedMapper = generatedMapper;
+      this.generatedProperties = new HashMap<>();
+      this.generatedPropertyList = generatedMapper.getProperties();
+      for (int i = 0; i < generatedPropertyList.length; i++) {
+        String propertyName = generatedPropertyList[i].name;
+        addProperty(propertyName);
+        generatedProperties.put(propertyName, i);
+      }
+    }
+
     private void addProperty(String property) {
       String oldValue = this.properties.put(property.toLowerCase(), property);
       if (oldValue != null && !property.equals(oldValue)) {
@@ -551,6 +584,9 @@ public class CustomClassMapper {
     }
 
     public T deserialize(Map<String, Object> values, Map<TypeVariable<Class<T>>, Type> types) {
+      if (this.generatedMapper != null) {
+        return deserializeGenerated(values);
+      }
       if (this.constructor == null) {
         throw new DatabaseException(
             "Class "
@@ -595,26 +631,49 @@ public class CustomClassMapper {
             throw new RuntimeException(e);
           }
         } else {
-          String message =
-              "No setter/field for "
-                  + propertyName
-                  + " found "
-                  + "on class "
-                  + this.clazz.getName();
-          if (this.properties.containsKey(propertyName.toLowerCase())) {
-            message += " (fields/setters are case sensitive!)";
-          }
-          if (this.throwOnUnknownProperties) {
-            throw new DatabaseException(message);
-          } else if (this.warnOnUnknownProperties) {
-            // TODO: replace Android logging with "our" logging
-            Log.w(LOG_TAG, message);
-          }
+          unknownProperty(propertyName);
         }
       }
       return instance;
     }
 
+    private T deserializeGenerated(Map<String, Object> values) {
+      T instance = this.generatedMapper.newInstance();
+      if (instance == null) {
+        throw new DatabaseException(
+            "Class "
+                + this.clazz.getName()
+                + " does not define a no-argument constructor. If you are using ProGuard, make "
+                + "sure these constructors are not stripped.");
+      }
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        String propertyName = entry.getKey();
+        Integer index = this.generatedProperties.get(propertyName);
+        Type type = index != null ? this.generatedPropertyList[index].type : null;
+        if (type != null) {
+          Object value = CustomClassMapper.deserializeToType(entry.getValue(), type);
+          this.generatedMapper.set(instance, index, value);
+        } else {
+          unknownProperty(propertyName);
+        }
+      }
+      return instance;
+    }
+
+    private void unknownProperty(String propertyName) {
+      String message =
+          "No setter/field for " + propertyName + " found " + "on class " + this.clazz.getName();
+      if (this.properties.containsKey(propertyName.toLowerCase())) {
+        message += " (fields/setters are case sensitive!)";
+      }
+      if (this.throwOnUnknownProperties) {
+        throw new DatabaseException(message);
+      } else if (this.warnOnUnknownProperties) {
+        // TODO: replace Android logging with "our" logging
+        Log.w(LOG_TAG, message);
+      }
+    }
+
     private Type resolveType(Type type, Map<TypeVariable<Class<T>>, Type> types) {
       if (type instanceof TypeVariable) {
         Type resolvedType = types.get(type);
@@ -639,7 +698,9 @@ public class CustomClassMapper {
       Map<String, Object> result = new HashMap<>();
       for (String property : this.properties.values()) {
         Object propertyValue;
-        if (this.getters.containsKey(property)) {
+        if (this.generatedMapper != null) {
+          propertyValue = this.generatedMapper.get(object, this.generatedProperties.get(property));
+        } else if (this.getters.containsKey(property)) {
           Method getter = this.getters.get(property);
           try {
             propertyValue = getter.invoke(object);
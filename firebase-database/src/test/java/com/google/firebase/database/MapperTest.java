@@ -841,6 +841,29 @@ public class MapperTest {
   private static class NonGenericTypeIndicatorSubclassConcreteSubclass
       extends GenericTypeIndicatorSubclass<GenericBean<String>> {}
 
+  @GenerateMapper
+  @ThrowOnExtraProperties
+  static class GeneratedMapperBean {
+    public String name;
+    public int count;
+    public List<String> tags;
+
+    @PropertyName("renamed")
+    public String original;
+
+    @Exclude public String excluded;
+
+    private boolean active;
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+  }
+
   private static <T> T deserialize(String jsonString, Class<T> clazz) {
     Map<String, Object> json = fromSingleQuotedString(jsonString);
     return CustomClassMapper.convertToCustomClass(json, clazz);
@@ -1989,4 +2012,35 @@ public class MapperTest {
         deserialize("{'value': 'value'}", NonConflictingGenericSetterSubBean.class);
     assertEquals("subsetter:value", bean.value);
   }
+
+  @Test
+  public void generatedMapperRoundTrip() {
+    GeneratedMapperBean bean = new GeneratedMapperBean();
+    bean.name = "bean";
+    bean.count = 42;
+    bean.tags = Arrays.asList("a", "b");
+    bean.original = "original";
+    bean.excluded = "excluded";
+    bean.active = true;
+    assertJson(
+        "{'name': 'bean', 'count': 42, 'tags': ['a', 'b'], 'renamed': 'original', 'active': true}",
+        serialize(bean));
+
+    bean =
+        deserialize(
+            "{'name': 'bean', 'count': 42, 'tags': ['a', 'b'], 'renamed': 'original', "
+                + "'active': true}",
+            GeneratedMapperBean.class);
+    assertEquals("bean", bean.name);
+    assertEquals(42, bean.count);
+    assertEquals(Arrays.asList("a", "b"), bean.tags);
+    assertEquals("original", bean.original);
+    assertNull(bean.excluded);
+    assertEquals(true, bean.isActive());
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void generatedMapperThrowsOnUnknownProperties() {
+    deserialize("{'name': 'bean', 'unknown': 'value'}", GeneratedMapperBean.class);
+  }
 }
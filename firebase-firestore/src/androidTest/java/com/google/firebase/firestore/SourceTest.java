@@ -216,6 +216,32 @@ public final class SourceTest {
         toDataMap(qrySnap));
   }
 
+  @Test
+  public void getCollectionFromCacheInPages() {
+    Map<String, Map<String, Object>> initialDocs =
+        map(
+            "doc1", map("key1", "value1"),
+            "doc2", map("key2", "value2"),
+            "doc3", map("key3", "value3"));
+    CollectionReference colRef = testCollectionWithDocs(initialDocs);
+
+    waitFor(colRef.get());
+    waitFor(colRef.getFirestore().disableNetwork());
+    colRef.document("doc4").set(map("key4", "value4"));
+
+    QueryCachePager pager = colRef.getFromCacheInPages(3);
+    Task<QuerySnapshot> firstPage = pager.next();
+    Task<QuerySnapshot> secondPage = pager.next();
+    Task<QuerySnapshot> thirdPage = pager.next();
+    waitFor(thirdPage);
+
+    assertTrue(firstPage.getResult().getMetadata().isFromCache());
+    assertEquals(initialDocs, toDataMap(firstPage.getResult()));
+    assertTrue(secondPage.getResult().getMetadata().hasPendingWrites());
+    assertEquals(map("doc4", map("key4", "value4")), toDataMap(secondPage.getResult()));
+    assertTrue(thirdPage.getResult().isEmpty());
+  }
+
   @Test
   public void getDocumentWhileOnlineWithSourceEqualToServer() {
     Map<String, Object> initialData = map("key", "value");
@@ -35,7 +35,6 @@ import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.auth.EmptyCredentialsProvider;
 import com.google.firebase.firestore.core.DatabaseInfo;
-import com.google.firebase.firestore.local.Persistence;
 import com.google.firebase.firestore.local.SQLitePersistence;
 import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.testutil.provider.FirestoreProvider;
@@ -99,6 +98,7 @@ public class IntegrationTestUtil {
         .setHost(provider.firestoreHost())
         .setPersistenceEnabled(true)
         .setTimestampsInSnapshotsEnabled(enabled)
+        .setQueryIndexingEnabled(true)
         .build();
   }
 
@@ -146,9 +146,6 @@ public class IntegrationTestUtil {
     // This unfortunately is a global setting that affects existing Firestore clients.
     Logger.setLogLevel(logLevel);
 
-    // TODO: Remove this once this is ready to ship.
-    Persistence.INDEXING_SUPPORT_ENABLED = true;
-
     Context context = InstrumentationRegistry.getContext();
     DatabaseId databaseId = DatabaseId.forDatabase(projectId, DatabaseId.DEFAULT_DATABASE_ID);
     String persistenceKey = "db" + firestoreStatus.size();
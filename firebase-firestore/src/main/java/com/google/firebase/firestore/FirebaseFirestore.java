@@ -37,6 +37,7 @@ import com.google.firebase.firestore.core.FirestoreClient;
 import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Executors;
 import com.google.firebase.firestore.util.Logger;
 import com.google.firebase.firestore.util.Logger.Level;
 import java.util.concurrent.Executor;
@@ -212,7 +213,7 @@ public class FirebaseFirestore {
           new FirestoreClient(
               context,
               databaseInfo,
-              settings.isPersistenceEnabled(),
+              settings,
               credentialsProvider,
               asyncQueue);
     }
@@ -355,6 +356,39 @@ public class FirebaseFirestore {
     return client.disableNetwork();
   }
 
+  /**
+   * Returns the throughput counters of the pipeline that sends this instance's writes to the
+   * backend, e.g. the number of writes sent and acknowledged and the average time it took to
+   * acknowledge them. Useful to tune {@link FirebaseFirestoreSettings.Builder#setMaxPendingWrites}.
+   *
+   * @return A Task that will be resolved with the current counters.
+   */
+  @PublicApi
+  public Task<WritePipelineMetrics> getWritePipelineMetrics() {
+    ensureClientConfigured();
+    return client
+        .getWritePipelineStats()
+        .continueWith(
+            Executors.DIRECT_EXECUTOR, task -> new WritePipelineMetrics(task.getResult()));
+  }
+
+  /**
+   * Sets the listener that receives the metrics of the operations this instance runs against its
+   * local cache, e.g. the time spent in each transaction and the number of rows and documents it
+   * read. Operations aren't tracked while no listener is set.
+   *
+   * @param listener The listener to report operations to, or null to stop reporting them.
+   */
+  @PublicApi
+  public void setMetricsListener(@Nullable MetricsListener listener) {
+    asyncQueue
+        .getMetrics()
+        .setListener(
+            listener == null
+                ? null
+                : operation -> listener.onOperation(new OperationMetrics(operation)));
+  }
+
   /** Globally enables / disables Firestore logging for the SDK. */
   @PublicApi
   public static void setLoggingEnabled(boolean loggingEnabled) {
@@ -26,6 +26,24 @@ import com.google.firebase.annotations.PublicApi;
 public final class FirebaseFirestoreSettings {
   private static final String DEFAULT_HOST = "firestore.googleapis.com";
   private static final boolean DEFAULT_TIMESTAMPS_IN_SNAPSHOTS_ENABLED = false;
+  private static final long MINIMUM_CACHE_BYTES = 1 * 1024 * 1024; // 1 MB
+  private static final long DEFAULT_CACHE_SIZE_BYTES = 100 * 1024 * 1024; // 100 MB
+  private static final int DEFAULT_MAX_PENDING_WRITES = 10;
+  private static final boolean DEFAULT_ADAPTIVE_WRITE_PIPELINE_ENABLED = false;
+  private static final boolean DEFAULT_WRITE_COALESCING_ENABLED = false;
+  private static final int MAXIMUM_COALESCED_WRITE_OPERATIONS = 500;
+  private static final long DEFAULT_MAX_COALESCED_WRITE_BYTES = 1 * 1024 * 1024; // 1 MB
+  private static final boolean DEFAULT_CONCURRENT_CACHE_READS_ENABLED = false;
+  private static final boolean DEFAULT_BACKGROUND_DECODING_ENABLED = false;
+  private static final boolean DEFAULT_EXISTENCE_FILTER_RECOVERY_ENABLED = false;
+  private static final boolean DEFAULT_PRIORITY_LANES_ENABLED = false;
+  private static final boolean DEFAULT_QUERY_INDEXING_ENABLED = false;
+
+  /**
+   * Constant to use with {@link FirebaseFirestoreSettings.Builder#setCacheSizeBytes(long)} to
+   * disable garbage collection.
+   */
+  @PublicApi public static final long CACHE_SIZE_UNLIMITED = -1;
 
   /** A Builder for creating {@link FirebaseFirestoreSettings}. */
   @PublicApi
@@ -34,6 +52,17 @@ public final class FirebaseFirestoreSettings {
     private boolean sslEnabled;
     private boolean persistenceEnabled;
     private boolean timestampsInSnapshotsEnabled;
+    private long cacheSizeBytes;
+    private int maxPendingWrites;
+    private boolean adaptiveWritePipelineEnabled;
+    private boolean writeCoalescingEnabled;
+    private int maxCoalescedWriteOperations;
+    private long maxCoalescedWriteBytes;
+    private boolean concurrentCacheReadsEnabled;
+    private boolean backgroundDecodingEnabled;
+    private boolean existenceFilterRecoveryEnabled;
+    private boolean priorityLanesEnabled;
+    private boolean queryIndexingEnabled;
 
     /** Constructs a new FirebaseFirestoreSettings Builder object. */
     @PublicApi
@@ -42,6 +71,17 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = true;
       persistenceEnabled = true;
       timestampsInSnapshotsEnabled = DEFAULT_TIMESTAMPS_IN_SNAPSHOTS_ENABLED;
+      cacheSizeBytes = DEFAULT_CACHE_SIZE_BYTES;
+      maxPendingWrites = DEFAULT_MAX_PENDING_WRITES;
+      adaptiveWritePipelineEnabled = DEFAULT_ADAPTIVE_WRITE_PIPELINE_ENABLED;
+      writeCoalescingEnabled = DEFAULT_WRITE_COALESCING_ENABLED;
+      maxCoalescedWriteOperations = MAXIMUM_COALESCED_WRITE_OPERATIONS;
+      maxCoalescedWriteBytes = DEFAULT_MAX_COALESCED_WRITE_BYTES;
+      concurrentCacheReadsEnabled = DEFAULT_CONCURRENT_CACHE_READS_ENABLED;
+      backgroundDecodingEnabled = DEFAULT_BACKGROUND_DECODING_ENABLED;
+      existenceFilterRecoveryEnabled = DEFAULT_EXISTENCE_FILTER_RECOVERY_ENABLED;
+      priorityLanesEnabled = DEFAULT_PRIORITY_LANES_ENABLED;
+      queryIndexingEnabled = DEFAULT_QUERY_INDEXING_ENABLED;
     }
 
     /**
@@ -55,6 +95,17 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = settings.sslEnabled;
       persistenceEnabled = settings.persistenceEnabled;
       timestampsInSnapshotsEnabled = settings.timestampsInSnapshotsEnabled;
+      cacheSizeBytes = settings.cacheSizeBytes;
+      maxPendingWrites = settings.maxPendingWrites;
+      adaptiveWritePipelineEnabled = settings.adaptiveWritePipelineEnabled;
+      writeCoalescingEnabled = settings.writeCoalescingEnabled;
+      maxCoalescedWriteOperations = settings.maxCoalescedWriteOperations;
+      maxCoalescedWriteBytes = settings.maxCoalescedWriteBytes;
+      concurrentCacheReadsEnabled = settings.concurrentCacheReadsEnabled;
+      backgroundDecodingEnabled = settings.backgroundDecodingEnabled;
+      existenceFilterRecoveryEnabled = settings.existenceFilterRecoveryEnabled;
+      priorityLanesEnabled = settings.priorityLanesEnabled;
+      queryIndexingEnabled = settings.queryIndexingEnabled;
     }
 
     /**
@@ -124,6 +175,204 @@ public final class FirebaseFirestoreSettings {
       return this;
     }
 
+    /**
+     * Sets an approximate cache size threshold for the on-disk data. If the cache grows beyond this
+     * size, Firestore will start removing data that hasn't been recently used. The size is not a
+     * guarantee that the cache will stay below that size, only that if the cache exceeds the given
+     * size, cleanup will be attempted.
+     *
+     * <p>By default, collection is enabled with a cache size of 100 MB. The minimum value is 1 MB.
+     *
+     * @param value The cache size in bytes, or {@link #CACHE_SIZE_UNLIMITED} to disable garbage
+     *     collection.
+     * @return A settings object on which the cache size is configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setCacheSizeBytes(long value) {
+      if (value != CACHE_SIZE_UNLIMITED && value < MINIMUM_CACHE_BYTES) {
+        throw new IllegalArgumentException(
+            "Cache size must be set to at least " + MINIMUM_CACHE_BYTES + " bytes");
+      }
+      this.cacheSizeBytes = value;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of write batches that Firestore sends to the backend before waiting
+     * for their acknowledgement. Raising this value can speed up uploading a large number of writes
+     * that were made while offline.
+     *
+     * <p>The default is 10 pending writes.
+     *
+     * @param value The maximum number of pending writes, which must be at least 1.
+     * @return A settings object on which the maximum number of pending writes is configured as
+     *     specified by the given {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setMaxPendingWrites(int value) {
+      if (value < 1) {
+        throw new IllegalArgumentException("Maximum number of pending writes must be at least 1");
+      }
+      this.maxPendingWrites = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables adapting the number of pending writes to the observed write latency.
+     *
+     * <p>When enabled, Firestore starts out with at most 10 pending writes (or the value set via
+     * {@link #setMaxPendingWrites(int)}, if smaller) and sends more writes at once as long as the
+     * backend acknowledges them quickly, up to the value set via {@link #setMaxPendingWrites(int)}.
+     * Slow acknowledgements and errors reduce the number of pending writes again. The default is to
+     * always allow the maximum number of pending writes.
+     *
+     * @return A settings object on which adaptive write pipelining is configured as specified by
+     *     the given {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setAdaptiveWritePipelineEnabled(boolean value) {
+      this.adaptiveWritePipelineEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables combining consecutive writes into a single request to the backend. This
+     * reduces the number of requests sent for apps that perform many small writes in quick
+     * succession. Each write is still acknowledged (or rejected) individually. The default is to
+     * send every write in a request of its own.
+     *
+     * @return A settings object on which write coalescing is configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setWriteCoalescingEnabled(boolean value) {
+      this.writeCoalescingEnabled = value;
+      return this;
+    }
+
+    /**
+     * Sets the limits for requests that combine several writes when write coalescing is enabled.
+     * A single write that exceeds these limits is still sent in a request of its own.
+     *
+     * <p>By default, a combined request holds at most 500 operations and 1 MB of data.
+     *
+     * @param maxOperations The maximum number of operations (sets, updates and deletes) in a
+     *     combined request, between 1 and 500.
+     * @param maxBytes The maximum size of the operations in a combined request, in bytes.
+     * @return A settings object on which the write coalescing limits are configured as specified.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setWriteCoalescingLimits(int maxOperations, long maxBytes) {
+      if (maxOperations < 1 || maxOperations > MAXIMUM_COALESCED_WRITE_OPERATIONS) {
+        throw new IllegalArgumentException(
+            "Maximum number of operations per request must be between 1 and "
+                + MAXIMUM_COALESCED_WRITE_OPERATIONS);
+      }
+      if (maxBytes < 1) {
+        throw new IllegalArgumentException("Maximum request size must be at least 1 byte");
+      }
+      this.maxCoalescedWriteOperations = maxOperations;
+      this.maxCoalescedWriteBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Enables or disables reading from the local persistent storage concurrently with writing to
+     * it. When enabled, the local storage is kept in write-ahead logging mode, and reads with
+     * {@link Source#CACHE} no longer wait for queued writes and snapshots to be written to local
+     * storage. Each such read still sees all writes made before it was started. The default is to
+     * perform all reads and writes one at a time.
+     *
+     * <p>This setting has no effect if local persistent storage is disabled.
+     *
+     * @return A settings object on which concurrent cache reads are configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setConcurrentCacheReadsEnabled(boolean value) {
+      this.concurrentCacheReadsEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables decoding the documents of query results received from the backend on
+     * background threads. When enabled, large query results (e.g. the initial results of a query
+     * that matches thousands of documents) are decoded in parallel before Firestore processes them,
+     * instead of one document at a time. Results are still processed in the order they were
+     * received. The default is to decode all documents on Firestore's worker thread.
+     *
+     * @return A settings object on which background decoding is configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setBackgroundDecodingEnabled(boolean value) {
+      this.backgroundDecodingEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables resolving inconsistencies between the local cache and the backend that
+     * are caused by missed deletes without downloading the affected query results again. When
+     * enabled and the backend reports fewer results for a listened-to query than the client
+     * knows of, Firestore first asks the backend which of the known documents no longer exist,
+     * without downloading their contents, and only downloads all results again if that doesn't
+     * resolve the inconsistency. The default is to always download all results again.
+     *
+     * @return A settings object on which existence filter recovery is configured as specified by
+     *     the given {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setExistenceFilterRecoveryEnabled(boolean value) {
+      this.existenceFilterRecoveryEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables priority lanes on Firestore's worker thread. When enabled, writes,
+     * listens, cache reads and other operations no longer wait for queued bulk work to finish,
+     * namely for updates received from the backend to be applied and for the offline cache to be
+     * garbage collected. Operations still run in the order they were made, and the bulk work is
+     * only delayed by a limited number of operations. The default is to run all work in the order
+     * it was queued.
+     *
+     * @return A settings object on which priority lanes are configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setPriorityLanesEnabled(boolean value) {
+      this.priorityLanesEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables executing queries against the local cache using a persisted index of
+     * the fields of all cached documents. When enabled, queries with filters or orderBy
+     * constraints only read the cached documents that can match them, instead of all cached
+     * documents of the queried collection, at the cost of additional writes to local persistent
+     * storage whenever a cached document changes. The default is to scan the queried collection.
+     *
+     * <p>This setting has no effect if local persistent storage is disabled.
+     *
+     * @return A settings object on which query indexing is configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    @PublicApi
+    public Builder setQueryIndexingEnabled(boolean value) {
+      this.queryIndexingEnabled = value;
+      return this;
+    }
+
     @NonNull
     @PublicApi
     public FirebaseFirestoreSettings build() {
@@ -139,6 +388,17 @@ public final class FirebaseFirestoreSettings {
   private final boolean sslEnabled;
   private final boolean persistenceEnabled;
   private final boolean timestampsInSnapshotsEnabled;
+  private final long cacheSizeBytes;
+  private final int maxPendingWrites;
+  private final boolean adaptiveWritePipelineEnabled;
+  private final boolean writeCoalescingEnabled;
+  private final int maxCoalescedWriteOperations;
+  private final long maxCoalescedWriteBytes;
+  private final boolean concurrentCacheReadsEnabled;
+  private final boolean backgroundDecodingEnabled;
+  private final boolean existenceFilterRecoveryEnabled;
+  private final boolean priorityLanesEnabled;
+  private final boolean queryIndexingEnabled;
 
   /** Constructs a FirebaseFirestoreSettings object based on the values in the Builder. */
   private FirebaseFirestoreSettings(Builder builder) {
@@ -146,6 +406,17 @@ public final class FirebaseFirestoreSettings {
     sslEnabled = builder.sslEnabled;
     persistenceEnabled = builder.persistenceEnabled;
     timestampsInSnapshotsEnabled = builder.timestampsInSnapshotsEnabled;
+    cacheSizeBytes = builder.cacheSizeBytes;
+    maxPendingWrites = builder.maxPendingWrites;
+    adaptiveWritePipelineEnabled = builder.adaptiveWritePipelineEnabled;
+    writeCoalescingEnabled = builder.writeCoalescingEnabled;
+    maxCoalescedWriteOperations = builder.maxCoalescedWriteOperations;
+    maxCoalescedWriteBytes = builder.maxCoalescedWriteBytes;
+    concurrentCacheReadsEnabled = builder.concurrentCacheReadsEnabled;
+    backgroundDecodingEnabled = builder.backgroundDecodingEnabled;
+    existenceFilterRecoveryEnabled = builder.existenceFilterRecoveryEnabled;
+    priorityLanesEnabled = builder.priorityLanesEnabled;
+    queryIndexingEnabled = builder.queryIndexingEnabled;
   }
 
   @Override
@@ -161,7 +432,18 @@ public final class FirebaseFirestoreSettings {
     return host.equals(that.host)
         && sslEnabled == that.sslEnabled
         && persistenceEnabled == that.persistenceEnabled
-        && timestampsInSnapshotsEnabled == that.timestampsInSnapshotsEnabled;
+        && timestampsInSnapshotsEnabled == that.timestampsInSnapshotsEnabled
+        && cacheSizeBytes == that.cacheSizeBytes
+        && maxPendingWrites == that.maxPendingWrites
+        && adaptiveWritePipelineEnabled == that.adaptiveWritePipelineEnabled
+        && writeCoalescingEnabled == that.writeCoalescingEnabled
+        && maxCoalescedWriteOperations == that.maxCoalescedWriteOperations
+        && maxCoalescedWriteBytes == that.maxCoalescedWriteBytes
+        && concurrentCacheReadsEnabled == that.concurrentCacheReadsEnabled
+        && backgroundDecodingEnabled == that.backgroundDecodingEnabled
+        && existenceFilterRecoveryEnabled == that.existenceFilterRecoveryEnabled
+        && priorityLanesEnabled == that.priorityLanesEnabled
+        && queryIndexingEnabled == that.queryIndexingEnabled;
   }
 
   @Override
@@ -170,6 +452,17 @@ public final class FirebaseFirestoreSettings {
     result = 31 * result + (sslEnabled ? 1 : 0);
     result = 31 * result + (persistenceEnabled ? 1 : 0);
     result = 31 * result + (timestampsInSnapshotsEnabled ? 1 : 0);
+    result = 31 * result + (int) (cacheSizeBytes ^ (cacheSizeBytes >>> 32));
+    result = 31 * result + maxPendingWrites;
+    result = 31 * result + (adaptiveWritePipelineEnabled ? 1 : 0);
+    result = 31 * result + (writeCoalescingEnabled ? 1 : 0);
+    result = 31 * result + maxCoalescedWriteOperations;
+    result = 31 * result + (int) (maxCoalescedWriteBytes ^ (maxCoalescedWriteBytes >>> 32));
+    result = 31 * result + (concurrentCacheReadsEnabled ? 1 : 0);
+    result = 31 * result + (backgroundDecodingEnabled ? 1 : 0);
+    result = 31 * result + (existenceFilterRecoveryEnabled ? 1 : 0);
+    result = 31 * result + (priorityLanesEnabled ? 1 : 0);
+    result = 31 * result + (queryIndexingEnabled ? 1 : 0);
     return result;
   }
 
@@ -181,6 +474,17 @@ public final class FirebaseFirestoreSettings {
         .add("sslEnabled", sslEnabled)
         .add("persistenceEnabled", persistenceEnabled)
         .add("timestampsInSnapshotsEnabled", timestampsInSnapshotsEnabled)
+        .add("cacheSizeBytes", cacheSizeBytes)
+        .add("maxPendingWrites", maxPendingWrites)
+        .add("adaptiveWritePipelineEnabled", adaptiveWritePipelineEnabled)
+        .add("writeCoalescingEnabled", writeCoalescingEnabled)
+        .add("maxCoalescedWriteOperations", maxCoalescedWriteOperations)
+        .add("maxCoalescedWriteBytes", maxCoalescedWriteBytes)
+        .add("concurrentCacheReadsEnabled", concurrentCacheReadsEnabled)
+        .add("backgroundDecodingEnabled", backgroundDecodingEnabled)
+        .add("existenceFilterRecoveryEnabled", existenceFilterRecoveryEnabled)
+        .add("priorityLanesEnabled", priorityLanesEnabled)
+        .add("queryIndexingEnabled", queryIndexingEnabled)
         .toString();
   }
 
@@ -211,4 +515,84 @@ public final class FirebaseFirestoreSettings {
   public boolean areTimestampsInSnapshotsEnabled() {
     return timestampsInSnapshotsEnabled;
   }
+
+  /**
+   * Returns the threshold for the cache size above which the SDK will attempt to collect the least
+   * recently used documents.
+   */
+  @PublicApi
+  public long getCacheSizeBytes() {
+    return cacheSizeBytes;
+  }
+
+  /**
+   * Returns the maximum number of write batches that are sent to the backend before waiting for
+   * their acknowledgement.
+   */
+  @PublicApi
+  public int getMaxPendingWrites() {
+    return maxPendingWrites;
+  }
+
+  /**
+   * Returns whether or not the number of pending writes is adapted to the observed write latency.
+   */
+  @PublicApi
+  public boolean isAdaptiveWritePipelineEnabled() {
+    return adaptiveWritePipelineEnabled;
+  }
+
+  /** Returns whether or not consecutive writes are combined into a single request. */
+  @PublicApi
+  public boolean isWriteCoalescingEnabled() {
+    return writeCoalescingEnabled;
+  }
+
+  /** Returns the maximum number of operations in a request that combines several writes. */
+  @PublicApi
+  public int getMaxCoalescedWriteOperations() {
+    return maxCoalescedWriteOperations;
+  }
+
+  /** Returns the maximum size in bytes of a request that combines several writes. */
+  @PublicApi
+  public long getMaxCoalescedWriteBytes() {
+    return maxCoalescedWriteBytes;
+  }
+
+  /** Returns whether or not reads from local persistent storage run concurrently with writes. */
+  @PublicApi
+  public boolean areConcurrentCacheReadsEnabled() {
+    return concurrentCacheReadsEnabled;
+  }
+
+  /** Returns whether or not documents received from the backend are decoded in the background. */
+  @PublicApi
+  public boolean isBackgroundDecodingEnabled() {
+    return backgroundDecodingEnabled;
+  }
+
+  /**
+   * Returns whether or not inconsistencies caused by missed deletes are resolved without
+   * downloading the affected query results again.
+   */
+  @PublicApi
+  public boolean isExistenceFilterRecoveryEnabled() {
+    return existenceFilterRecoveryEnabled;
+  }
+
+  /**
+   * Returns whether or not operations run before queued bulk work, such as applying updates from
+   * the backend.
+   */
+  @PublicApi
+  public boolean arePriorityLanesEnabled() {
+    return priorityLanesEnabled;
+  }
+
+  /** Returns whether or not queries against the local cache use a persisted field index. */
+  @PublicApi
+  public boolean isQueryIndexingEnabled() {
+    return queryIndexingEnabled;
+  }
 }
@@ -0,0 +1,37 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import android.support.annotation.NonNull;
+import com.google.firebase.annotations.PublicApi;
+
+/**
+ * A listener that receives the metrics of the operations a FirebaseFirestore instance runs against
+ * its local cache. Set with {@link FirebaseFirestore#setMetricsListener}.
+ */
+@PublicApi
+public interface MetricsListener {
+  /**
+   * Called after each operation that read from or wrote to the local cache.
+   *
+   * <p>Called on the thread that ran the operation, which is Firestore's worker thread for most
+   * operations. Implementations must return quickly and must not call back into Firestore.
+   * Exceptions thrown by this method are logged and otherwise ignored.
+   *
+   * @param metrics The work done by the operation.
+   */
+  @PublicApi
+  void onOperation(@NonNull OperationMetrics metrics);
+}
@@ -0,0 +1,174 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.firebase.annotations.PublicApi;
+import com.google.firebase.firestore.util.Metrics;
+
+/**
+ * The work done by an operation that Firestore ran against its local cache, as reported to a
+ * {@link MetricsListener}.
+ *
+ * <p><b>Subclassing Note</b>: Firestore classes are not meant to be subclassed except for use in
+ * test mocks. Subclassing is not supported in production code and new SDK releases may break code
+ * that does so.
+ */
+@PublicApi
+public final class OperationMetrics {
+  private final String taskCategory;
+  private final int queueDepth;
+  @Nullable private final String transactionName;
+  private final int transactionCount;
+  private final long durationNanos;
+  private final long transactionDurationNanos;
+  private final long queueLatencyNanos;
+  private final int rowsRead;
+  private final int rowsWritten;
+  private final int documentsDecoded;
+  private final int viewsComputed;
+  private final int viewsSkipped;
+
+  OperationMetrics(Metrics.Operation operation) {
+    taskCategory = operation.getCategory();
+    queueDepth = operation.getQueueDepth();
+    transactionName = operation.getTransactionName();
+    transactionCount = operation.getTransactionCount();
+    durationNanos = operation.getDurationNanos();
+    transactionDurationNanos = operation.getTransactionDurationNanos();
+    queueLatencyNanos = operation.getQueueLatencyNanos();
+    rowsRead = operation.getRowsRead();
+    rowsWritten = operation.getRowsWritten();
+    documentsDecoded = operation.getDocumentsDecoded();
+    viewsComputed = operation.getViewsComputed();
+    viewsSkipped = operation.getViewsSkipped();
+  }
+
+  /**
+   * @return The kind of task the operation ran as. "NORMAL" for user operations and most other
+   *     work, "BACKGROUND" for bulk work such as applying updates from the backend, "CACHE_READ"
+   *     for concurrent cache reads, or the name of the timer that ran it, e.g.
+   *     "GARBAGE_COLLECTION".
+   */
+  @NonNull
+  @PublicApi
+  public String getTaskCategory() {
+    return taskCategory;
+  }
+
+  /** @return The number of other tasks that were waiting to be run when the operation started. */
+  @PublicApi
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return The name of the first local cache transaction the operation ran (e.g. "Locally write
+   *     mutations" or "Execute query").
+   */
+  @Nullable
+  @PublicApi
+  public String getTransactionName() {
+    return transactionName;
+  }
+
+  /** @return The number of local cache transactions the operation ran. */
+  @PublicApi
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  /** @return How long the operation ran, in nanoseconds. */
+  @PublicApi
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /** @return How long the operation's local cache transactions ran in total, in nanoseconds. */
+  @PublicApi
+  public long getTransactionDurationNanos() {
+    return transactionDurationNanos;
+  }
+
+  /** @return How long the operation waited to be run after it was scheduled, in nanoseconds. */
+  @PublicApi
+  public long getQueueLatencyNanos() {
+    return queueLatencyNanos;
+  }
+
+  /** @return The number of rows the operation read from the local cache database. */
+  @PublicApi
+  public int getRowsRead() {
+    return rowsRead;
+  }
+
+  /** @return The number of rows the operation inserted, updated or deleted. */
+  @PublicApi
+  public int getRowsWritten() {
+    return rowsWritten;
+  }
+
+  /** @return The number of documents the operation decoded from the local cache. */
+  @PublicApi
+  public int getDocumentsDecoded() {
+    return documentsDecoded;
+  }
+
+  /** @return The number of times the operation recomputed the results of a query. */
+  @PublicApi
+  public int getViewsComputed() {
+    return viewsComputed;
+  }
+
+  /**
+   * @return The number of times the operation skipped recomputing the results of an active query,
+   *     since none of the documents it changed could affect them.
+   */
+  @PublicApi
+  public int getViewsSkipped() {
+    return viewsSkipped;
+  }
+
+  @Override
+  public String toString() {
+    return "OperationMetrics{"
+        + "taskCategory="
+        + taskCategory
+        + ", queueDepth="
+        + queueDepth
+        + ", transactionName="
+        + transactionName
+        + ", transactionCount="
+        + transactionCount
+        + ", durationNanos="
+        + durationNanos
+        + ", transactionDurationNanos="
+        + transactionDurationNanos
+        + ", queueLatencyNanos="
+        + queueLatencyNanos
+        + ", rowsRead="
+        + rowsRead
+        + ", rowsWritten="
+        + rowsWritten
+        + ", documentsDecoded="
+        + documentsDecoded
+        + ", viewsComputed="
+        + viewsComputed
+        + ", viewsSkipped="
+        + viewsSkipped
+        + '}';
+  }
+}
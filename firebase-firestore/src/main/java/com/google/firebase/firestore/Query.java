@@ -702,6 +702,24 @@ public class Query {
     }
   }
 
+  /**
+   * Creates a pager that reads the results of this query from the local cache in pages of up to
+   * {@code pageSize} documents. Unlike {@code get(Source.CACHE)}, this doesn't load all results
+   * into memory at once.
+   *
+   * @param pageSize The maximum number of documents per page.
+   * @return A pager that reads the pages in query order.
+   */
+  @NonNull
+  @PublicApi
+  public QueryCachePager getFromCacheInPages(int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid page size (" + pageSize + "). Page size must be positive.");
+    }
+    return new QueryCachePager(this, pageSize);
+  }
+
   private Task<QuerySnapshot> getViaSnapshotListener(Source source) {
     final TaskCompletionSource<QuerySnapshot> res = new TaskCompletionSource<>();
     final TaskCompletionSource<ListenerRegistration> registration = new TaskCompletionSource<>();
@@ -0,0 +1,132 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import android.support.annotation.NonNull;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.annotations.PublicApi;
+import com.google.firebase.firestore.core.ViewSnapshot;
+import com.google.firebase.firestore.model.DocumentSet;
+import com.google.firebase.firestore.util.Executors;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the results of a query from the local cache one page at a time, in query order.
+ *
+ * <p>Unlike {@code get(Source.CACHE)}, which loads all results at once, a pager only holds on to
+ * the documents of the page it is reading. This makes it suitable for reading large cached
+ * collections, e.g. to export them.
+ *
+ * <p>Each page is read separately, starting after the last document of the previous page. Changes
+ * made to the cache between two reads are reflected in the pages that haven't been read yet.
+ *
+ * <p><b>Subclassing Note</b>: Firestore classes are not meant to be subclassed except for use in
+ * test mocks. Subclassing is not supported in production code and new SDK releases may break code
+ * that does so.
+ */
+@PublicApi
+public class QueryCachePager {
+
+  private final Query query;
+  private final int pageSize;
+
+  /** The number of documents that can still be read before the query's limit is reached. */
+  private long remaining;
+
+  /** The last document of the last page, which the next page starts after. */
+  @Nullable private DocumentSnapshot lastDocument;
+
+  /** The task for the most recently requested page, which the next page is chained to. */
+  @Nullable private Task<QuerySnapshot> lastPage;
+
+  QueryCachePager(Query query, int pageSize) {
+    this.query = query;
+    this.pageSize = pageSize;
+    this.remaining = query.query.hasLimit() ? query.query.getLimit() : Long.MAX_VALUE;
+  }
+
+  /**
+   * Reads the next page of results from the local cache.
+   *
+   * <p>Pages are always read in order, so this can be called again before the Task of the previous
+   * page has completed. If reading a page fails, the next call reads the same page again.
+   *
+   * @return A Task that will be resolved with the next page of results, which is empty once all
+   *     results have been read.
+   */
+  @NonNull
+  @PublicApi
+  public synchronized Task<QuerySnapshot> next() {
+    Task<QuerySnapshot> page =
+        lastPage == null
+            ? readNextPage()
+            : lastPage.continueWithTask(Executors.DIRECT_EXECUTOR, previous -> readNextPage());
+    lastPage = page;
+    return page;
+  }
+
+  private synchronized Task<QuerySnapshot> readNextPage() {
+    if (remaining == 0) {
+      return Tasks.forResult(emptyPage());
+    }
+
+    com.google.firebase.firestore.core.Query pageQuery =
+        (lastDocument != null ? query.startAfter(lastDocument) : query)
+            .query.limit(Math.min(pageSize, remaining));
+    return query
+        .getFirestore()
+        .getClient()
+        .getDocumentPageFromLocalCache(pageQuery)
+        .continueWith(
+            Executors.DIRECT_EXECUTOR,
+            (Task<ViewSnapshot> viewSnap) -> {
+              QuerySnapshot page =
+                  new QuerySnapshot(
+                      new Query(pageQuery, query.getFirestore()),
+                      viewSnap.getResult(),
+                      query.getFirestore());
+              onPageRead(page, pageQuery.getLimit());
+              return page;
+            });
+  }
+
+  private synchronized void onPageRead(QuerySnapshot page, long limit) {
+    List<DocumentSnapshot> documents = page.getDocuments();
+    if (documents.size() < limit) {
+      // The cache doesn't have any further results.
+      remaining = 0;
+    } else {
+      remaining -= documents.size();
+      lastDocument = documents.get(documents.size() - 1);
+    }
+  }
+
+  private QuerySnapshot emptyPage() {
+    DocumentSet emptyDocuments = DocumentSet.emptySet(query.query.comparator());
+    ViewSnapshot snapshot =
+        new ViewSnapshot(
+            query.query,
+            emptyDocuments,
+            emptyDocuments,
+            Collections.emptyList(),
+            /* isFromCache= */ true,
+            /* hasPendingWrites= */ false,
+            /* didSyncStateChange= */ false);
+    return new QuerySnapshot(query, snapshot, query.getFirestore());
+  }
+}
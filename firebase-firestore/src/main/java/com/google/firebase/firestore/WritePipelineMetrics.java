@@ -0,0 +1,118 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import com.google.firebase.annotations.PublicApi;
+import com.google.firebase.firestore.remote.WriteWindow;
+
+/**
+ * The throughput counters of the pipeline that sends writes to the backend, as returned by {@link
+ * FirebaseFirestore#getWritePipelineMetrics()}. The counters cover the time since the instance
+ * started.
+ *
+ * <p><b>Subclassing Note</b>: Firestore classes are not meant to be subclassed except for use in
+ * test mocks. Subclassing is not supported in production code and new SDK releases may break code
+ * that does so.
+ */
+@PublicApi
+public final class WritePipelineMetrics {
+  private final int maxPendingWrites;
+  private final int largestMaxPendingWrites;
+  private final long batchesSent;
+  private final long mutationsSent;
+  private final long batchesAcknowledged;
+  private final long batchesRejected;
+  private final long averageAckLatencyMs;
+
+  WritePipelineMetrics(WriteWindow.Stats stats) {
+    maxPendingWrites = stats.getWindowSize();
+    largestMaxPendingWrites = stats.getLargestWindowSize();
+    batchesSent = stats.getBatchesSent();
+    mutationsSent = stats.getMutationsSent();
+    batchesAcknowledged = stats.getBatchesAcknowledged();
+    batchesRejected = stats.getBatchesRejected();
+    averageAckLatencyMs = stats.getAverageAckLatencyMs();
+  }
+
+  /**
+   * @return The number of writes that may currently be sent before waiting for their
+   *     acknowledgement. Only differs from the value set via {@link
+   *     FirebaseFirestoreSettings.Builder#setMaxPendingWrites(int)} if adaptive write pipelining is
+   *     enabled.
+   */
+  @PublicApi
+  public int getMaxPendingWrites() {
+    return maxPendingWrites;
+  }
+
+  /** @return The largest number of writes that were allowed to be pending at the same time. */
+  @PublicApi
+  public int getLargestMaxPendingWrites() {
+    return largestMaxPendingWrites;
+  }
+
+  /** @return The number of write batches sent to the backend, including retries. */
+  @PublicApi
+  public long getBatchesSent() {
+    return batchesSent;
+  }
+
+  /** @return The number of mutations sent to the backend, including retries. */
+  @PublicApi
+  public long getMutationsSent() {
+    return mutationsSent;
+  }
+
+  /** @return The number of write batches acknowledged by the backend. */
+  @PublicApi
+  public long getBatchesAcknowledged() {
+    return batchesAcknowledged;
+  }
+
+  /** @return The number of write batches rejected by the backend. */
+  @PublicApi
+  public long getBatchesRejected() {
+    return batchesRejected;
+  }
+
+  /**
+   * @return The average time between sending a write batch and receiving its acknowledgement, in
+   *     milliseconds.
+   */
+  @PublicApi
+  public long getAverageAckLatencyMs() {
+    return averageAckLatencyMs;
+  }
+
+  @Override
+  public String toString() {
+    return "WritePipelineMetrics{"
+        + "maxPendingWrites="
+        + maxPendingWrites
+        + ", largestMaxPendingWrites="
+        + largestMaxPendingWrites
+        + ", batchesSent="
+        + batchesSent
+        + ", mutationsSent="
+        + mutationsSent
+        + ", batchesAcknowledged="
+        + batchesAcknowledged
+        + ", batchesRejected="
+        + batchesRejected
+        + ", averageAckLatencyMs="
+        + averageAckLatencyMs
+        + '}';
+  }
+}
@@ -19,6 +19,7 @@ import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.value.DoubleValue;
 import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.model.value.NullValue;
+import javax.annotation.Nullable;
 
 /** Interface used for all query filters. */
 public abstract class Filter {
@@ -74,6 +75,15 @@ public abstract class Filter {
   /** Returns true if a document matches the filter. */
   public abstract boolean matches(Document doc);
 
+  /**
+   * Returns true if a document with the given value in the filter's field matches the filter. Only
+   * valid for filters on fields other than the document key.
+   *
+   * @param fieldValue The value of the field in the document, or null if the document doesn't
+   *     have the field.
+   */
+  abstract boolean matchesValue(@Nullable FieldValue fieldValue);
+
   /** A unique ID identifying the filter; used when serializing queries. */
   public abstract String getCanonicalId();
 }
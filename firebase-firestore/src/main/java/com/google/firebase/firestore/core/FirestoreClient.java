@@ -27,6 +27,7 @@ import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.auth.CredentialsProvider;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.core.EventManager.ListenOptions;
@@ -35,6 +36,7 @@ import com.google.firebase.firestore.local.LocalStore;
 import com.google.firebase.firestore.local.MemoryPersistence;
 import com.google.firebase.firestore.local.Persistence;
 import com.google.firebase.firestore.local.SQLitePersistence;
+import com.google.firebase.firestore.local.Scheduler;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
@@ -45,12 +47,15 @@ import com.google.firebase.firestore.remote.Datastore;
 import com.google.firebase.firestore.remote.RemoteEvent;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firebase.firestore.remote.RemoteStore;
+import com.google.firebase.firestore.remote.WriteWindow;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.Logger;
 import io.grpc.Status;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -61,6 +66,12 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
 
   private static final String LOG_TAG = "FirestoreClient";
 
+  /** The number of threads that read from the local cache concurrently with the worker queue. */
+  private static final int CACHE_READ_THREADS = 2;
+
+  /** The maximum number of threads that decode documents received from the backend. */
+  private static final int MAX_DECODING_THREADS = 4;
+
   private final DatabaseInfo databaseInfo;
   private final CredentialsProvider credentialsProvider;
   private final AsyncQueue asyncQueue;
@@ -71,10 +82,19 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
   private SyncEngine syncEngine;
   private EventManager eventManager;
 
+  // LRU-related
+  @Nullable private Scheduler lruScheduler;
+
+  /** Runs cache reads off the worker queue, if the persistence layer supports concurrent reads. */
+  @Nullable private ExecutorService cacheReadExecutor;
+
+  /** Decodes documents received from the backend off the worker queue, if enabled. */
+  @Nullable private ExecutorService decodeExecutor;
+
   public FirestoreClient(
       final Context context,
       DatabaseInfo databaseInfo,
-      final boolean usePersistence,
+      FirebaseFirestoreSettings settings,
       CredentialsProvider credentialsProvider,
       final AsyncQueue asyncQueue) {
     this.databaseInfo = databaseInfo;
@@ -105,7 +125,7 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
           try {
             // Block on initial user being available
             User initialUser = Tasks.await(firstUser.getTask());
-            initialize(context, initialUser, usePersistence);
+            initialize(context, initialUser, settings);
           } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
           }
@@ -120,12 +140,26 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
     return asyncQueue.enqueue(() -> remoteStore.enableNetwork());
   }
 
+  /** Returns the throughput counters of the write pipeline of the RemoteStore. */
+  public Task<WriteWindow.Stats> getWritePipelineStats() {
+    return asyncQueue.enqueue(() -> remoteStore.getWritePipelineStats());
+  }
+
   /** Shuts down this client, cancels all writes / listeners, and releases all resources. */
   public Task<Void> shutdown() {
     credentialsProvider.removeChangeListener();
     return asyncQueue.enqueue(
         () -> {
+          if (lruScheduler != null) {
+            lruScheduler.stop();
+          }
           remoteStore.shutdown();
+          if (cacheReadExecutor != null) {
+            cacheReadExecutor.shutdown();
+          }
+          if (decodeExecutor != null) {
+            decodeExecutor.shutdown();
+          }
           persistence.shutdown();
         });
   }
@@ -144,8 +178,7 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
   }
 
   public Task<Document> getDocumentFromLocalCache(DocumentKey docKey) {
-    return asyncQueue
-        .enqueue(() -> localStore.readDocument(docKey))
+    return readFromLocalCache(reader -> reader.readDocument(docKey))
         .continueWith(
             (result) -> {
               @Nullable MaybeDocument maybeDoc = result.getResult();
@@ -165,18 +198,69 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
   }
 
   public Task<ViewSnapshot> getDocumentsFromLocalCache(Query query) {
-    return asyncQueue.enqueue(
+    return readFromLocalCache(reader -> createCacheSnapshot(query, reader.executeQuery(query)));
+  }
+
+  /**
+   * Reads the results of a query with a limit from the local cache, without loading all of the
+   * documents in the queried collection into memory at once. Used to read large cached results in
+   * pages.
+   */
+  public Task<ViewSnapshot> getDocumentPageFromLocalCache(Query query) {
+    hardAssert(query.hasLimit(), "Pages can only be read for queries with a limit");
+    return readFromLocalCache(reader -> createCacheSnapshot(query, reader.executeQuery(query)));
+  }
+
+  private static ViewSnapshot createCacheSnapshot(
+      Query query, ImmutableSortedMap<DocumentKey, Document> docs) {
+    View view =
+        new View(
+            query,
+            new ImmutableSortedSet<DocumentKey>(Collections.emptyList(), DocumentKey::compareTo));
+    View.DocumentChanges viewDocChanges = view.computeDocChanges(docs);
+    return view.applyChanges(viewDocChanges).getSnapshot();
+  }
+
+  /**
+   * Runs the given read against the local cache once all previously queued operations have been
+   * applied. If the persistence layer supports concurrent reads, the read itself runs on the cache
+   * read executor, so that it doesn't hold up operations queued after it. The read is started on
+   * the worker queue, so it reads the view of the user at that point even if the user changes
+   * before it runs.
+   */
+  private <T> Task<T> readFromLocalCache(Function<LocalStore.CacheReader, T> read) {
+    TaskCompletionSource<T> source = new TaskCompletionSource<>();
+    asyncQueue.enqueueAndForget(
         () -> {
-          ImmutableSortedMap<DocumentKey, Document> docs = localStore.executeQuery(query);
-
-          View view =
-              new View(
-                  query,
-                  new ImmutableSortedSet<DocumentKey>(
-                      Collections.emptyList(), DocumentKey::compareTo));
-          View.DocumentChanges viewDocChanges = view.computeDocChanges(docs);
-          return view.applyChanges(viewDocChanges).getSnapshot();
+          LocalStore.CacheReader reader = localStore.startCacheRead();
+          if (cacheReadExecutor != null) {
+            cacheReadExecutor.execute(
+                asyncQueue
+                    .getMetrics()
+                    .track(
+                        "CACHE_READ",
+                        () -> {
+                          try {
+                            source.setResult(read.apply(reader));
+                          } catch (Exception e) {
+                            source.setException(e);
+                          } finally {
+                            reader.finish();
+                          }
+                        }));
+          } else {
+            try {
+              source.setResult(read.apply(reader));
+            } catch (RuntimeException e) {
+              // Fail the worker queue, just like for reads enqueued directly.
+              source.setException(e);
+              throw e;
+            } finally {
+              reader.finish();
+            }
+          }
         });
+    return source.getTask();
   }
 
   /** Writes mutations. The returned task will be notified when it's written to the backend. */
@@ -194,27 +278,62 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
         () -> syncEngine.transaction(asyncQueue, updateFunction, retries));
   }
 
-  private void initialize(Context context, User user, boolean usePersistence) {
+  private void initialize(Context context, User user, FirebaseFirestoreSettings settings) {
     // Note: The initialization work must all be synchronous (we can't dispatch more work) since
     // external write/listen operations could get queued to run before that subsequent work
     // completes.
     Logger.debug(LOG_TAG, "Initializing. user=%s", user.getUid());
 
-    if (usePersistence) {
+    asyncQueue.setPriorityLanesEnabled(settings.arePriorityLanesEnabled());
+
+    SQLitePersistence sqlitePersistence = null;
+    if (settings.isPersistenceEnabled()) {
       LocalSerializer serializer =
           new LocalSerializer(new RemoteSerializer(databaseInfo.getDatabaseId()));
-      persistence =
+      sqlitePersistence =
           new SQLitePersistence(
-              context, databaseInfo.getPersistenceKey(), databaseInfo.getDatabaseId(), serializer);
+              context,
+              databaseInfo.getPersistenceKey(),
+              databaseInfo.getDatabaseId(),
+              serializer,
+              settings.getCacheSizeBytes(),
+              settings.areConcurrentCacheReadsEnabled());
+      persistence = sqlitePersistence;
     } else {
       persistence = MemoryPersistence.createEagerGcMemoryPersistence();
     }
 
     persistence.start();
-    localStore = new LocalStore(persistence, user);
+    localStore = new LocalStore(persistence, user, settings.isQueryIndexingEnabled());
+
+    if (persistence.supportsConcurrentReads()) {
+      cacheReadExecutor =
+          Executors.newFixedThreadPool(
+              CACHE_READ_THREADS,
+              runnable -> {
+                Thread thread = new Thread(runnable, "FirestoreCacheReader");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+
+    if (settings.isBackgroundDecodingEnabled()) {
+      int threads =
+          Math.max(
+              1, Math.min(MAX_DECODING_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+      decodeExecutor =
+          Executors.newFixedThreadPool(
+              threads,
+              runnable -> {
+                Thread thread = new Thread(runnable, "FirestoreDecoder");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
 
-    Datastore datastore = new Datastore(databaseInfo, asyncQueue, credentialsProvider);
-    remoteStore = new RemoteStore(this, localStore, datastore, asyncQueue);
+    Datastore datastore =
+        new Datastore(databaseInfo, asyncQueue, credentialsProvider, decodeExecutor);
+    remoteStore = new RemoteStore(this, localStore, datastore, asyncQueue, settings);
 
     syncEngine = new SyncEngine(localStore, remoteStore, user);
     eventManager = new EventManager(syncEngine);
@@ -223,6 +342,11 @@ public final class FirestoreClient implements RemoteStore.RemoteStoreCallback {
     // queue, etc.) so must be started after LocalStore.
     localStore.start();
     remoteStore.start();
+
+    if (sqlitePersistence != null) {
+      lruScheduler = sqlitePersistence.newGarbageCollectionScheduler(asyncQueue, localStore);
+      lruScheduler.start();
+    }
   }
 
   @Override
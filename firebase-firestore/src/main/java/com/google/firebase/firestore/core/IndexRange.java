@@ -27,11 +27,13 @@ public class IndexRange {
   @Nullable private final FieldValue start;
   @Nullable private final FieldValue end;
   private final FieldPath fieldPath;
+  private final boolean descending;
 
   private IndexRange(Builder builder) {
     this.fieldPath = builder.fieldPath;
     this.start = builder.start;
     this.end = builder.end;
+    this.descending = builder.descending;
   }
 
   /** Returns the field path to use for the index lookup. */
@@ -51,6 +53,11 @@ public class IndexRange {
     return end;
   }
 
+  /** Returns whether the cursor should iterate from the end of the range to its start. */
+  public boolean isDescending() {
+    return descending;
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -60,6 +67,7 @@ public class IndexRange {
     private FieldPath fieldPath;
     private FieldValue start;
     private FieldValue end;
+    private boolean descending;
 
     /** Specifies the field path for the index lookup. */
     public Builder setFieldPath(FieldPath fieldPath) {
@@ -79,6 +87,26 @@ public class IndexRange {
       return this;
     }
 
+    /** Specifies whether the index lookup should return entries in descending order. */
+    public Builder setDescending(boolean descending) {
+      this.descending = descending;
+      return this;
+    }
+
+    public FieldPath getFieldPath() {
+      return fieldPath;
+    }
+
+    @Nullable
+    public FieldValue getStart() {
+      return start;
+    }
+
+    @Nullable
+    public FieldValue getEnd() {
+      return end;
+    }
+
     public IndexRange build() {
       hardAssert(fieldPath != null, "Field path must be specified");
       return new IndexRange(this);
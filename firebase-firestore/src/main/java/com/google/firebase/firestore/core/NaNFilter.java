@@ -18,6 +18,7 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.value.DoubleValue;
 import com.google.firebase.firestore.model.value.FieldValue;
+import javax.annotation.Nullable;
 
 /** Filter that matches NaN (not-a-number) fields. */
 public class NaNFilter extends Filter {
@@ -34,7 +35,11 @@ public class NaNFilter extends Filter {
 
   @Override
   public boolean matches(Document doc) {
-    FieldValue fieldValue = doc.getField(fieldPath);
+    return matchesValue(doc.getField(fieldPath));
+  }
+
+  @Override
+  boolean matchesValue(@Nullable FieldValue fieldValue) {
     return fieldValue != null && fieldValue.equals(DoubleValue.NaN);
   }
 
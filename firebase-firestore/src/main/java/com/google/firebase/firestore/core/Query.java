@@ -22,6 +22,7 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.util.Assert;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -53,6 +54,13 @@ public final class Query {
 
   private List<OrderBy> memoizedOrderBy;
 
+  // The following are derived from the (immutable) query on first use. Since they are always
+  // derived the same way, racing threads at worst compute them more than once.
+  private @Nullable String memoizedCanonicalId;
+  private @Nullable QueryMatcher memoizedMatcher;
+  private @Nullable QueryComparator memoizedComparator;
+  private int memoizedHashCode;
+
   private final List<Filter> filters;
 
   private final ResourcePath path;
@@ -288,76 +296,70 @@ public final class Query {
     return memoizedOrderBy;
   }
 
-  private boolean matchesPath(Document doc) {
-    ResourcePath docPath = doc.getKey().getPath();
-    if (DocumentKey.isDocumentKey(path)) {
-      return path.equals(docPath);
-    } else {
-      return path.isPrefixOf(docPath) && path.length() == docPath.length() - 1;
-    }
-  }
-
-  private boolean matchesFilters(Document doc) {
-    for (Filter filter : filters) {
-      if (!filter.matches(doc)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
-  /** A document must have a value for every ordering clause in order to show up in the results. */
-  private boolean matchesOrderBy(Document doc) {
-    for (OrderBy order : explicitSortOrder) {
-      // order by key always matches
-      if (!order.getField().equals(FieldPath.KEY_PATH) && (doc.getField(order.field) == null)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
-  /** Makes sure a document is within the bounds, if provided. */
-  private boolean matchesBounds(Document doc) {
-    if (startAt != null && !startAt.sortsBeforeDocument(getOrderBy(), doc)) {
-      return false;
-    }
-    if (endAt != null && endAt.sortsBeforeDocument(getOrderBy(), doc)) {
-      return false;
-    }
-    return true;
-  }
-
-  /** Returns true if the document matches the constraints of this query. */
+  /**
+   * Returns true if the document matches the constraints of this query (its path, filters, order-by
+   * fields and bounds).
+   */
   public boolean matches(Document doc) {
-    return matchesPath(doc) && matchesOrderBy(doc) && matchesFilters(doc) && matchesBounds(doc);
+    QueryMatcher matcher = memoizedMatcher;
+    if (matcher == null) {
+      matcher = new QueryMatcher(this);
+      memoizedMatcher = matcher;
+    }
+    return matcher.matches(doc);
   }
 
   /** Returns a comparator that will sort documents according to this Query's sort order. */
   public Comparator<Document> comparator() {
-    return new QueryComparator(getOrderBy());
+    QueryComparator comparator = memoizedComparator;
+    if (comparator == null) {
+      comparator = new QueryComparator(getOrderBy());
+      memoizedComparator = comparator;
+    }
+    return comparator;
   }
 
+  /**
+   * Compares documents by a list of order-by components. The components are flattened into arrays
+   * up front, so that comparing doesn't need to look at the OrderBy objects.
+   */
   private static class QueryComparator implements Comparator<Document> {
-    private final List<OrderBy> sortOrder;
+    /** The fields to compare by, with null marking the document key. */
+    private final FieldPath[] fields;
+
+    private final int[] modifiers;
 
     QueryComparator(List<OrderBy> order) {
       boolean hasKeyOrdering = false;
-      for (OrderBy orderBy : order) {
-        hasKeyOrdering = hasKeyOrdering || orderBy.getField().equals(FieldPath.KEY_PATH);
+      fields = new FieldPath[order.size()];
+      modifiers = new int[order.size()];
+      for (int i = 0; i < order.size(); i++) {
+        OrderBy orderBy = order.get(i);
+        boolean keyOrdering = orderBy.getField().equals(FieldPath.KEY_PATH);
+        hasKeyOrdering = hasKeyOrdering || keyOrdering;
+        fields[i] = keyOrdering ? null : orderBy.getField();
+        modifiers[i] = orderBy.getDirection().getComparisonModifier();
       }
       if (!hasKeyOrdering) {
         throw new IllegalArgumentException("QueryComparator needs to have a key ordering");
       }
-      this.sortOrder = order;
     }
 
     @Override
     public int compare(Document doc1, Document doc2) {
-      for (OrderBy order : sortOrder) {
-        int comp = order.compare(doc1, doc2);
+      for (int i = 0; i < fields.length; i++) {
+        int comp;
+        if (fields[i] == null) {
+          comp = doc1.getKey().compareTo(doc2.getKey());
+        } else {
+          FieldValue v1 = doc1.getField(fields[i]);
+          FieldValue v2 = doc2.getField(fields[i]);
+          hardAssert(
+              v1 != null && v2 != null, "Trying to compare documents on fields that don't exist.");
+          comp = v1.compareTo(v2);
+        }
         if (comp != 0) {
-          return comp;
+          return modifiers[i] * comp;
         }
       }
       return 0;
@@ -369,7 +371,13 @@ public final class Query {
    * canonical ids for a query exactly.
    */
   public String getCanonicalId() {
-    // TODO: Cache the return value.
+    if (memoizedCanonicalId == null) {
+      memoizedCanonicalId = computeCanonicalId();
+    }
+    return memoizedCanonicalId;
+  }
+
+  private String computeCanonicalId() {
     StringBuilder builder = new StringBuilder();
     builder.append(getPath().canonicalString());
 
@@ -436,6 +444,13 @@ public final class Query {
 
   @Override
   public int hashCode() {
+    if (memoizedHashCode == 0) {
+      memoizedHashCode = computeHashCode();
+    }
+    return memoizedHashCode;
+  }
+
+  private int computeHashCode() {
     int result = getOrderBy().hashCode();
     result = 31 * result + filters.hashCode();
     result = 31 * result + path.hashCode();
@@ -0,0 +1,202 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.FieldPath;
+import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.model.value.FieldValue;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The constraints of a Query, compiled into a form that can be evaluated against many documents
+ * without re-deriving anything from the query.
+ *
+ * <p>The matcher reads every (non-key) field that the query constrains at most once per document,
+ * by assigning each distinct field a slot that the order-by, filter and bound checks share.
+ */
+final class QueryMatcher {
+
+  /** Marks an order-by component or filter on the document key instead of a field. */
+  private static final int KEY_SLOT = -1;
+
+  private final ResourcePath path;
+  private final boolean documentKeyPath;
+
+  /** The distinct fields read by the query, indexed by slot. */
+  private final FieldPath[] fields;
+
+  /** The slots of the explicit order-by fields, which documents must have to match. */
+  private final int[] requiredSlots;
+
+  private final Filter[] filters;
+  private final int[] filterSlots;
+
+  /** The slots and comparison modifiers of the (implicit and explicit) order-by components. */
+  private final int[] orderBySlots;
+
+  private final int[] orderByModifiers;
+
+  private final @Nullable Bound startAt;
+  private final @Nullable Bound endAt;
+
+  QueryMatcher(Query query) {
+    path = query.getPath();
+    documentKeyPath = DocumentKey.isDocumentKey(path);
+
+    List<FieldPath> slots = new ArrayList<>();
+
+    List<OrderBy> explicitOrderBy = query.getExplicitOrderBy();
+    List<Integer> required = new ArrayList<>();
+    for (OrderBy orderBy : explicitOrderBy) {
+      int slot = slotFor(slots, orderBy.getField());
+      if (slot != KEY_SLOT) {
+        required.add(slot);
+      }
+    }
+    requiredSlots = toArray(required);
+
+    List<Filter> queryFilters = query.getFilters();
+    filters = queryFilters.toArray(new Filter[queryFilters.size()]);
+    filterSlots = new int[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      filterSlots[i] = slotFor(slots, filters[i].getField());
+    }
+
+    startAt = query.getStartAt();
+    endAt = query.getEndAt();
+    if (startAt != null || endAt != null) {
+      List<OrderBy> orderBy = query.getOrderBy();
+      orderBySlots = new int[orderBy.size()];
+      orderByModifiers = new int[orderBy.size()];
+      for (int i = 0; i < orderBy.size(); i++) {
+        orderBySlots[i] = slotFor(slots, orderBy.get(i).getField());
+        orderByModifiers[i] = orderBy.get(i).getDirection().getComparisonModifier();
+      }
+    } else {
+      orderBySlots = new int[0];
+      orderByModifiers = new int[0];
+    }
+
+    fields = slots.toArray(new FieldPath[slots.size()]);
+  }
+
+  /** Returns true if the document matches the constraints of the query. */
+  boolean matches(Document doc) {
+    if (!matchesPath(doc)) {
+      return false;
+    }
+
+    // Slots are filled in as the fields are needed. A field that a document doesn't have leaves
+    // its slot empty, but also makes the document fail the check that first reads it.
+    FieldValue[] values = new FieldValue[fields.length];
+
+    // A document must have a value for every ordering clause in order to show up in the results.
+    for (int slot : requiredSlots) {
+      if (read(doc, values, slot) == null) {
+        return false;
+      }
+    }
+
+    for (int i = 0; i < filters.length; i++) {
+      Filter filter = filters[i];
+      int slot = filterSlots[i];
+      if (slot == KEY_SLOT ? !filter.matches(doc) : !filter.matchesValue(read(doc, values, slot))) {
+        return false;
+      }
+    }
+
+    if (startAt != null && !sortsBeforeDocument(startAt, doc, values)) {
+      return false;
+    }
+    return endAt == null || !sortsBeforeDocument(endAt, doc, values);
+  }
+
+  private boolean matchesPath(Document doc) {
+    ResourcePath docPath = doc.getKey().getPath();
+    if (documentKeyPath) {
+      return path.equals(docPath);
+    } else {
+      return path.length() == docPath.length() - 1 && path.isPrefixOf(docPath);
+    }
+  }
+
+  /** Equivalent to {@link Bound#sortsBeforeDocument}, reading field values from the slots. */
+  private boolean sortsBeforeDocument(Bound bound, Document doc, FieldValue[] values) {
+    List<FieldValue> position = bound.getPosition();
+    hardAssert(
+        position.size() <= orderBySlots.length, "Bound has more components than query's orderBy");
+    int comparison = 0;
+    for (int i = 0; i < position.size(); i++) {
+      FieldValue component = position.get(i);
+      int slot = orderBySlots[i];
+      if (slot == KEY_SLOT) {
+        Object refValue = component.value();
+        hardAssert(
+            refValue instanceof DocumentKey,
+            "Bound has a non-key value where the key path is being used %s",
+            component);
+        comparison = ((DocumentKey) refValue).compareTo(doc.getKey());
+      } else {
+        FieldValue docValue = read(doc, values, slot);
+        hardAssert(
+            docValue != null, "Field should exist since document matched the orderBy already.");
+        comparison = component.compareTo(docValue);
+      }
+
+      comparison *= orderByModifiers[i];
+      if (comparison != 0) {
+        break;
+      }
+    }
+
+    return bound.isBefore() ? comparison <= 0 : comparison < 0;
+  }
+
+  private @Nullable FieldValue read(Document doc, FieldValue[] values, int slot) {
+    FieldValue value = values[slot];
+    if (value == null) {
+      value = doc.getField(fields[slot]);
+      values[slot] = value;
+    }
+    return value;
+  }
+
+  /** Returns the slot for the given field, adding one if necessary. */
+  private static int slotFor(List<FieldPath> slots, FieldPath field) {
+    if (field.isKeyField()) {
+      return KEY_SLOT;
+    }
+    int slot = slots.indexOf(field);
+    if (slot < 0) {
+      slot = slots.size();
+      slots.add(field);
+    }
+    return slot;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.model.DocumentCollections.emptyMaybeDocumentMap;
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the active QueryViews by the path of their query, so that the SyncEngine only has to
+ * recompute the views whose results a set of document changes might actually affect.
+ *
+ * <p>A document can only ever be part of the results of a query on its own path (for document
+ * queries) or on its parent collection (for collection queries), so the path narrows the views down
+ * to the ones on the same collection. Within those, a change is only relevant if the view currently
+ * contains the document, or if the new version of the document matches the query's filters and
+ * orderBy fields.
+ */
+final class QueryViewIndex {
+
+  private final Map<ResourcePath, List<QueryView>> viewsByPath = new HashMap<>();
+
+  void add(QueryView queryView) {
+    ResourcePath path = queryView.getQuery().getPath();
+    List<QueryView> views = viewsByPath.get(path);
+    if (views == null) {
+      views = new ArrayList<>();
+      viewsByPath.put(path, views);
+    }
+    views.add(queryView);
+  }
+
+  void remove(QueryView queryView) {
+    ResourcePath path = queryView.getQuery().getPath();
+    List<QueryView> views = viewsByPath.get(path);
+    hardAssert(views != null && views.remove(queryView), "QueryView was not indexed: %s", path);
+    if (views.isEmpty()) {
+      viewsByPath.remove(path);
+    }
+  }
+
+  /**
+   * Returns the views whose results might be affected by the given changes, each mapped to the
+   * subset of the changes that is relevant to it. Views that are not in the result can skip the
+   * changes entirely.
+   */
+  Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> getAffectedViews(
+      ImmutableSortedMap<DocumentKey, MaybeDocument> changes) {
+    if (changes.isEmpty() || viewsByPath.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affectedViews = new HashMap<>();
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : changes) {
+      ResourcePath documentPath = entry.getKey().getPath();
+      addIfAffected(affectedViews, viewsByPath.get(documentPath.popLast()), entry);
+      addIfAffected(affectedViews, viewsByPath.get(documentPath), entry);
+    }
+    return affectedViews;
+  }
+
+  private static void addIfAffected(
+      Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affectedViews,
+      List<QueryView> candidates,
+      Map.Entry<DocumentKey, MaybeDocument> change) {
+    if (candidates == null) {
+      return;
+    }
+    for (QueryView queryView : candidates) {
+      if (queryView.getView().isAffectedBy(change.getKey(), change.getValue())) {
+        ImmutableSortedMap<DocumentKey, MaybeDocument> viewChanges = affectedViews.get(queryView);
+        if (viewChanges == null) {
+          viewChanges = emptyMaybeDocumentMap();
+        }
+        affectedViews.put(queryView, viewChanges.insert(change.getKey(), change.getValue()));
+      }
+    }
+  }
+}
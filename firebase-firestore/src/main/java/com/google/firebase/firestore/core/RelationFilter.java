@@ -22,6 +22,7 @@ import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.value.ArrayValue;
 import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.util.Assert;
+import javax.annotation.Nullable;
 
 /** Represents a filter to be applied to query. */
 public class RelationFilter extends Filter {
@@ -66,13 +67,15 @@ public class RelationFilter extends Filter {
       int comparison = DocumentKey.comparator().compare(doc.getKey(), (DocumentKey) refValue);
       return matchesComparison(comparison);
     } else {
-      FieldValue value = doc.getField(field);
-      return value != null && matchesValue(doc.getField(field));
+      return matchesValue(doc.getField(field));
     }
   }
 
-  private boolean matchesValue(FieldValue other) {
-    if (operator == Operator.ARRAY_CONTAINS) {
+  @Override
+  boolean matchesValue(@Nullable FieldValue other) {
+    if (other == null) {
+      return false;
+    } else if (operator == Operator.ARRAY_CONTAINS) {
       return other instanceof ArrayValue && ((ArrayValue) other).getInternalValue().contains(value);
     } else {
       // Only compare types with matching backend order (such as double and int).
@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.core;
 
+import static com.google.firebase.firestore.model.DocumentCollections.emptyMaybeDocumentMap;
 import static com.google.firebase.firestore.util.Assert.fail;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
@@ -45,6 +46,7 @@ import com.google.firebase.firestore.remote.RemoteStore;
 import com.google.firebase.firestore.remote.TargetChange;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.Logger;
+import com.google.firebase.firestore.util.Metrics;
 import com.google.firebase.firestore.util.Util;
 import io.grpc.Status;
 import java.util.ArrayList;
@@ -110,6 +112,9 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
   /** QueryViews for all active queries, indexed by target ID. */
   private final Map<Integer, QueryView> queryViewsByTarget;
 
+  /** QueryViews for all active queries, indexed by the path of the query. */
+  private final QueryViewIndex queryViewIndex;
+
   /**
    * When a document is in limbo, we create a special listen to resolve it. This maps the
    * DocumentKey of each limbo document to the target ID of the listen resolving it.
@@ -141,6 +146,7 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
 
     queryViewsByQuery = new HashMap<>();
     queryViewsByTarget = new HashMap<>();
+    queryViewIndex = new QueryViewIndex();
 
     limboTargetsByKey = new HashMap<>();
     limboResolutionsByTarget = new HashMap<>();
@@ -185,6 +191,7 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
     QueryView queryView = new QueryView(query, queryData.getTargetId(), view);
     queryViewsByQuery.put(query, queryView);
     queryViewsByTarget.put(queryData.getTargetId(), queryView);
+    queryViewIndex.add(queryView);
     callback.onViewSnapshots(Collections.singletonList(viewChange.getSnapshot()));
 
     remoteStore.listen(queryData);
@@ -371,6 +378,7 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
               SnapshotVersion.NONE,
               /* targetChanges= */ Collections.emptyMap(),
               /* targetMismatches= */ Collections.emptySet(),
+              /* targetVerifications= */ Collections.emptyMap(),
               documentUpdates,
               limboDocuments);
       handleRemoteEvent(event);
@@ -434,6 +442,7 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
   private void removeAndCleanup(QueryView view) {
     queryViewsByQuery.remove(view.getQuery());
     queryViewsByTarget.remove(view.getTargetId());
+    queryViewIndex.remove(view);
 
     ImmutableSortedSet<DocumentKey> limboKeys =
         limboDocumentRefs.referencesForId(view.getTargetId());
@@ -460,16 +469,32 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
   /**
    * Computes a new snapshot from the changes and calls the registered callback with the new
    * snapshot.
+   *
+   * <p>Only views that the changes might affect, or that have a target change in the remote event,
+   * are recomputed. All other views would not produce a snapshot and are skipped.
    */
   private void emitNewSnapshot(
       ImmutableSortedMap<DocumentKey, MaybeDocument> changes, @Nullable RemoteEvent remoteEvent) {
     List<ViewSnapshot> newSnapshots = new ArrayList<>();
     List<LocalViewChanges> documentChangesInAllViews = new ArrayList<>();
 
+    Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affectedViews =
+        queryViewIndex.getAffectedViews(changes);
+
     for (Map.Entry<Query, QueryView> entry : queryViewsByQuery.entrySet()) {
       QueryView queryView = entry.getValue();
+      ImmutableSortedMap<DocumentKey, MaybeDocument> viewChanges = affectedViews.get(queryView);
+      if (viewChanges == null) {
+        if (remoteEvent == null
+            || !remoteEvent.getTargetChanges().containsKey(queryView.getTargetId())) {
+          Metrics.recordViewSkipped();
+          continue;
+        }
+        viewChanges = emptyMaybeDocumentMap();
+      }
+
       View view = queryView.getView();
-      View.DocumentChanges viewDocChanges = view.computeDocChanges(changes);
+      View.DocumentChanges viewDocChanges = view.computeDocChanges(viewChanges);
       if (viewDocChanges.needsRefill()) {
         // The query has a limit and some docs were removed/updated, so we need to re-run the query
         // against the local store to make sure we didn't lose any good docs that had been past the
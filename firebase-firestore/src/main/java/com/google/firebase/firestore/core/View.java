@@ -26,6 +26,7 @@ import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.DocumentSet;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.remote.TargetChange;
+import com.google.firebase.firestore.util.Metrics;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -89,6 +90,12 @@ public class View {
   /** Documents in the view but not in the remote target */
   private ImmutableSortedSet<DocumentKey> limboDocuments;
 
+  /**
+   * Documents whose limbo state may have changed since {@link #limboDocuments} was last updated,
+   * i.e. documents that were changed in the view or added to or removed from the remote target.
+   */
+  private ImmutableSortedSet<DocumentKey> limboCandidates;
+
   /** Documents that have local changes */
   private ImmutableSortedSet<DocumentKey> mutatedKeys;
 
@@ -98,6 +105,7 @@ public class View {
     documentSet = DocumentSet.emptySet(query.comparator());
     syncedDocuments = remoteDocuments;
     limboDocuments = DocumentKey.emptyKeySet();
+    limboCandidates = DocumentKey.emptyKeySet();
     mutatedKeys = DocumentKey.emptyKeySet();
   }
 
@@ -126,6 +134,7 @@ public class View {
    */
   public <D extends MaybeDocument> DocumentChanges computeDocChanges(
       ImmutableSortedMap<DocumentKey, D> docChanges, @Nullable DocumentChanges previousChanges) {
+    Metrics.recordViewComputed();
     DocumentViewChangeSet changeSet =
         previousChanges != null ? previousChanges.changeSet : new DocumentViewChangeSet();
     DocumentSet oldDocumentSet =
@@ -210,7 +219,6 @@ public class View {
     }
 
     if (query.hasLimit()) {
-      // TODO: Make QuerySnapshot size be constant time.
       while (newDocumentSet.size() > query.getLimit()) {
         Document oldDoc = newDocumentSet.getLastDocument();
         newDocumentSet = newDocumentSet.remove(oldDoc.getKey());
@@ -263,6 +271,9 @@ public class View {
           }
           return query.comparator().compare(o1.getDocument(), o2.getDocument());
         });
+    for (DocumentViewChange change : viewChanges) {
+      limboCandidates = limboCandidates.insert(change.getDocument().getKey());
+    }
     applyTargetChange(targetChange);
     List<LimboDocumentChange> limboDocumentChanges = updateLimboDocuments();
     boolean synced = limboDocuments.size() == 0 && current;
@@ -309,6 +320,7 @@ public class View {
     if (targetChange != null) {
       for (DocumentKey documentKey : targetChange.getAddedDocuments()) {
         syncedDocuments = syncedDocuments.insert(documentKey);
+        limboCandidates = limboCandidates.insert(documentKey);
       }
       for (DocumentKey documentKey : targetChange.getModifiedDocuments()) {
         hardAssert(
@@ -318,6 +330,7 @@ public class View {
       }
       for (DocumentKey documentKey : targetChange.getRemovedDocuments()) {
         syncedDocuments = syncedDocuments.remove(documentKey);
+        limboCandidates = limboCandidates.insert(documentKey);
       }
       current = targetChange.isCurrent();
     }
@@ -329,31 +342,27 @@ public class View {
       return Collections.emptyList();
     }
 
-    // TODO: Do this incrementally so that it's not quadratic when updating many
-    // documents.
-    ImmutableSortedSet<DocumentKey> oldLimboDocs = limboDocuments;
-    limboDocuments = DocumentKey.emptyKeySet();
-    for (Document doc : documentSet) {
-      if (shouldBeLimboDoc(doc.getKey())) {
-        limboDocuments = limboDocuments.insert(doc.getKey());
-      }
-    }
-
-    // Diff the new limbo docs with the old limbo docs.
-    List<LimboDocumentChange> changes =
-        new ArrayList<>(oldLimboDocs.size() + limboDocuments.size());
-    for (DocumentKey key : oldLimboDocs) {
-      if (!limboDocuments.contains(key)) {
-        changes.add(new LimboDocumentChange(LimboDocumentChange.Type.REMOVED, key));
+    // Only documents that changed since the last update can have changed their limbo state, so
+    // this is proportional to the size of the changes rather than the size of the view. Candidates
+    // accumulate while the view is not current.
+    List<LimboDocumentChange> removedChanges = new ArrayList<>();
+    List<LimboDocumentChange> addedChanges = new ArrayList<>();
+    for (DocumentKey key : limboCandidates) {
+      boolean wasLimboDoc = limboDocuments.contains(key);
+      boolean isLimboDoc = shouldBeLimboDoc(key);
+      if (wasLimboDoc && !isLimboDoc) {
+        limboDocuments = limboDocuments.remove(key);
+        removedChanges.add(new LimboDocumentChange(LimboDocumentChange.Type.REMOVED, key));
+      } else if (!wasLimboDoc && isLimboDoc) {
+        limboDocuments = limboDocuments.insert(key);
+        addedChanges.add(new LimboDocumentChange(LimboDocumentChange.Type.ADDED, key));
       }
     }
+    limboCandidates = DocumentKey.emptyKeySet();
 
-    for (DocumentKey key : limboDocuments) {
-      if (!oldLimboDocs.contains(key)) {
-        changes.add(new LimboDocumentChange(LimboDocumentChange.Type.ADDED, key));
-      }
-    }
-    return changes;
+    // Report removals before additions.
+    removedChanges.addAll(addedChanges);
+    return removedChanges;
   }
 
   private boolean shouldBeLimboDoc(DocumentKey key) {
@@ -379,6 +388,18 @@ public class View {
     return true;
   }
 
+  /**
+   * Returns whether applying the given document change could change this view, i.e. whether the
+   * view currently contains the document or the new version of the document matches the query.
+   * Changes for which this returns false are ignored by computeDocChanges().
+   */
+  boolean isAffectedBy(DocumentKey key, MaybeDocument maybeDoc) {
+    if (documentSet.getDocument(key) != null) {
+      return true;
+    }
+    return maybeDoc instanceof Document && query.matches((Document) maybeDoc);
+  }
+
   ImmutableSortedSet<DocumentKey> getLimboDocuments() {
     return limboDocuments;
   }
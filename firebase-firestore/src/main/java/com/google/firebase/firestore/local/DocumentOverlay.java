@@ -0,0 +1,262 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.FieldPath;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.mutation.DeleteMutation;
+import com.google.firebase.firestore.model.mutation.FieldMask;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import com.google.firebase.firestore.model.mutation.PatchMutation;
+import com.google.firebase.firestore.model.mutation.Precondition;
+import com.google.firebase.firestore.model.mutation.SetMutation;
+import com.google.firebase.firestore.model.value.FieldValue;
+import com.google.firebase.firestore.model.value.ObjectValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The pending mutations of a single document, collapsed so that its local view can be computed by
+ * applying them to its remote version without reading each of the batches they are part of.
+ *
+ * <p>Unconditional sets, deletes and patches (i.e. the writes made outside of transactions, other
+ * than transforms) are squashed into a single mutation where the result is the same: a patch
+ * followed by a patch becomes a patch of both masks, and anything followed by a set or delete is
+ * dropped. Other mutations depend on the document they are applied to (e.g. the previous value of
+ * a server timestamp), so they are kept as part of a step with the other mutations of their batch.
+ * For the writes of a typical app, an overlay thus consists of a single mutation no matter how many
+ * batches affect the document.
+ */
+final class DocumentOverlay {
+
+  /** The overlay of a document without pending mutations. */
+  static final DocumentOverlay EMPTY =
+      new DocumentOverlay(Collections.emptyList(), Collections.emptyList());
+
+  /**
+   * The IDs of the batches whose mutations are part of the overlay, in order. Batches whose
+   * mutations were entirely overwritten by a later batch are left out.
+   */
+  private final List<Integer> batchIds;
+
+  /**
+   * The steps to apply to the remote version of the document, in order. Each step only contains
+   * mutations of the document, and is either a single squashed mutation or the mutations of a batch
+   * that can't be squashed.
+   */
+  private final List<MutationBatch> steps;
+
+  DocumentOverlay(List<Integer> batchIds, List<MutationBatch> steps) {
+    this.batchIds = batchIds;
+    this.steps = steps;
+  }
+
+  /** Returns the overlay of the given batches affecting the given document, in order. */
+  static DocumentOverlay create(DocumentKey key, List<MutationBatch> batches) {
+    DocumentOverlay overlay = EMPTY;
+    for (MutationBatch batch : batches) {
+      overlay = overlay.withBatch(key, batch);
+    }
+    return overlay;
+  }
+
+  boolean isEmpty() {
+    return steps.isEmpty();
+  }
+
+  List<Integer> getBatchIds() {
+    return batchIds;
+  }
+
+  List<MutationBatch> getSteps() {
+    return steps;
+  }
+
+  /** Applies the overlay to the remote version of the document to get its local view. */
+  @Nullable
+  MaybeDocument applyToLocalView(DocumentKey key, @Nullable MaybeDocument maybeDoc) {
+    for (MutationBatch step : steps) {
+      maybeDoc = step.applyToLocalView(key, maybeDoc);
+    }
+    return maybeDoc;
+  }
+
+  /**
+   * Returns the overlay of the given document with the given batch applied after this one. The
+   * batch must have a higher batch ID than the batches of this overlay.
+   */
+  DocumentOverlay withBatch(DocumentKey key, MutationBatch batch) {
+    List<Mutation> mutations = new ArrayList<>(1);
+    boolean squashable = true;
+    for (Mutation mutation : batch.getMutations()) {
+      if (mutation.getKey().equals(key)) {
+        mutations.add(mutation);
+        squashable &= isSquashable(mutation);
+      }
+    }
+    if (mutations.isEmpty()) {
+      return this;
+    }
+
+    List<Integer> newBatchIds = new ArrayList<>(batchIds);
+    List<MutationBatch> newSteps = new ArrayList<>(steps);
+    if (!squashable) {
+      newSteps.add(new MutationBatch(batch.getBatchId(), batch.getLocalWriteTime(), mutations));
+    } else {
+      for (Mutation mutation : mutations) {
+        if (overwrites(mutation, newSteps)) {
+          newBatchIds.clear();
+          newSteps.clear();
+        }
+
+        Mutation squashed = null;
+        int last = newSteps.size() - 1;
+        if (last >= 0 && isSquashedStep(newSteps.get(last))) {
+          squashed = squash(newSteps.get(last).getMutations().get(0), mutation);
+        }
+        if (squashed != null) {
+          newSteps.set(last, squashedStep(batch, squashed));
+        } else {
+          newSteps.add(squashedStep(batch, mutation));
+        }
+      }
+    }
+    newBatchIds.add(batch.getBatchId());
+    return new DocumentOverlay(newBatchIds, newSteps);
+  }
+
+  /**
+   * Returns whether the result of applying the mutation doesn't depend on any of the given steps.
+   * Sets keep the version of the document they are applied to, which is only the same for all
+   * earlier steps as long as none of them is a delete.
+   */
+  private static boolean overwrites(Mutation mutation, List<MutationBatch> steps) {
+    if (!mutation.getPrecondition().isNone()) {
+      return false;
+    } else if (mutation instanceof DeleteMutation) {
+      return true;
+    } else if (!(mutation instanceof SetMutation)) {
+      return false;
+    }
+
+    for (MutationBatch step : steps) {
+      for (Mutation stepMutation : step.getMutations()) {
+        if (stepMutation instanceof DeleteMutation) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a single mutation that has the same effect as applying {@code first} and then {@code
+   * second} to any document, or null if there is none.
+   */
+  @Nullable
+  private static Mutation squash(Mutation first, Mutation second) {
+    boolean secondIsConditional = !second.getPrecondition().isNone();
+    if (first instanceof DeleteMutation) {
+      // A conditional patch of a deleted document does nothing. Anything else creates a document
+      // with the version of the deleted one, which a single mutation can't express.
+      return second instanceof PatchMutation && secondIsConditional ? first : null;
+    } else if (second instanceof DeleteMutation) {
+      return second;
+    } else if (second instanceof SetMutation) {
+      return second;
+    }
+
+    PatchMutation patch = (PatchMutation) second;
+    if (first instanceof SetMutation) {
+      ObjectValue value = patchObject(((SetMutation) first).getValue(), patch);
+      return new SetMutation(first.getKey(), value, Precondition.NONE);
+    } else if (first.getPrecondition().isNone() || secondIsConditional) {
+      // The first patch decides whether the document exists for the second one, unless the second
+      // one applies to missing documents while the first one doesn't.
+      PatchMutation firstPatch = (PatchMutation) first;
+      Set<FieldPath> mask = new LinkedHashSet<>(firstPatch.getMask().getMask());
+      mask.addAll(patch.getMask().getMask());
+      return new PatchMutation(
+          first.getKey(),
+          patchObject(firstPatch.getValue(), patch),
+          FieldMask.fromCollection(new ArrayList<>(mask)),
+          first.getPrecondition());
+    } else {
+      return null;
+    }
+  }
+
+  /** Applies the fields of the patch to the given object, as the patch does to a document. */
+  private static ObjectValue patchObject(ObjectValue value, PatchMutation patch) {
+    for (FieldPath path : patch.getMask().getMask()) {
+      FieldValue newValue = patch.getValue().get(path);
+      value = newValue == null ? value.delete(path) : value.set(path, newValue);
+    }
+    return value;
+  }
+
+  /**
+   * Returns whether the mutation's effect only depends on the existence and data of the document
+   * it is applied to, such that it can be squashed with the mutations before and after it.
+   */
+  private static boolean isSquashable(Mutation mutation) {
+    Precondition precondition = mutation.getPrecondition();
+    if (mutation instanceof SetMutation || mutation instanceof DeleteMutation) {
+      return precondition.isNone();
+    } else if (mutation instanceof PatchMutation) {
+      return precondition.isNone() || Boolean.TRUE.equals(precondition.getExists());
+    } else {
+      return false;
+    }
+  }
+
+  private static boolean isSquashedStep(MutationBatch step) {
+    return step.getMutations().size() == 1 && isSquashable(step.getMutations().get(0));
+  }
+
+  private static MutationBatch squashedStep(MutationBatch batch, Mutation mutation) {
+    return new MutationBatch(
+        batch.getBatchId(), batch.getLocalWriteTime(), Collections.singletonList(mutation));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    DocumentOverlay that = (DocumentOverlay) o;
+    return batchIds.equals(that.batchIds) && steps.equals(that.steps);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * batchIds.hashCode() + steps.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "DocumentOverlay(batchIds=" + batchIds + ", steps=" + steps + ')';
+  }
+}
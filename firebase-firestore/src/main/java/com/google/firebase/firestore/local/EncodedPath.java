@@ -17,8 +17,10 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import com.google.firebase.firestore.model.BasePath;
+import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.ResourcePath;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -68,12 +70,24 @@ import java.util.List;
  */
 final class EncodedPath {
 
+  private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
   private static final char ESCAPE = '\u0001';
 
   private static final char ENCODED_SEPARATOR = '\u0001';
   private static final char ENCODED_NUL = '\u0010';
   private static final char ENCODED_ESCAPE = '\u0011';
 
+  /**
+   * Encodes a document ID so that SQLite sorts it in the same order as {@link DocumentKey}. SQLite
+   * compares TEXT as UTF-8, which sorts characters outside the Basic Multilingual Plane after
+   * U+E000..U+FFFF, while Java strings compare by their UTF-16 code units. Storing the UTF-16BE
+   * bytes in a BLOB makes SQLite's byte-wise comparison match the latter.
+   */
+  static byte[] encodeDocumentId(String documentId) {
+    return documentId.getBytes(UTF_16BE);
+  }
+
   /** Encodes a path into a SQLite-compatible string form. */
   static <B extends BasePath<B>> String encode(B path) {
     StringBuilder result = new StringBuilder();
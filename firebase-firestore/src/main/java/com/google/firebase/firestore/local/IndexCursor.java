@@ -14,34 +14,67 @@
 
 package com.google.firebase.firestore.local;
 
+import android.database.Cursor;
+import android.support.annotation.Nullable;
 import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.ResourcePath;
 import java.io.Closeable;
 
 /**
- * A cursor used to iterate through entries in an index. Each entry is returned merely as a
- * DocumentKey (and a separate lookup must be done to read the document contents), since the actual
- * index entries may be lossy and should not be relied upon.
- *
- * <p>TODO: We could probably avoid one final document lookup for most queries by exposing the
- * (lossy) index entry, or at least the typeOrder for it (since the type itself will never be
- * lossy).
+ * A cursor used to iterate through entries in an index. Each entry is returned as a DocumentKey
+ * (and a separate lookup must be done to read the document contents) together with its encoded
+ * index value. Since the index entries may be lossy, and may be stale for documents that have been
+ * removed from the cache, the encoded value can only be used to reason about the position of the
+ * cursor, not about the document itself.
  */
 public class IndexCursor implements Closeable {
+  private final Cursor cursor;
+  private final ResourcePath collectionPath;
+
+  IndexCursor(Cursor cursor, ResourcePath collectionPath) {
+    this.cursor = cursor;
+    this.collectionPath = collectionPath;
+  }
+
   /**
    * Advances the cursor (to the first result if this is the first call), returning false if there
    * are no more items.
    */
   public boolean next() {
-    throw new RuntimeException("Not yet implemented.");
+    return cursor.moveToNext();
   }
 
   /** Returns the DocumentKey for the current index entry (throws if there are no more entries). */
   public DocumentKey getDocumentKey() {
-    throw new RuntimeException("Not yet implemented.");
+    return DocumentKey.fromPath(collectionPath.append(cursor.getString(0)));
+  }
+
+  /**
+   * Returns the encoded (type, component 1, component 2) value of the current index entry (throws
+   * if there are no more entries).
+   */
+  Object[] getEncodedValue() {
+    return new Object[] {getComponent(1), getComponent(2), getComponent(3)};
+  }
+
+  @Nullable
+  private Object getComponent(int column) {
+    switch (cursor.getType(column)) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return cursor.getLong(column);
+      case Cursor.FIELD_TYPE_FLOAT:
+        return cursor.getDouble(column);
+      case Cursor.FIELD_TYPE_STRING:
+        return cursor.getString(column);
+      case Cursor.FIELD_TYPE_BLOB:
+        return cursor.getBlob(column);
+      default:
+        return null;
+    }
   }
 
   @Override
   public void close() {
-    throw new RuntimeException("Not yet implemented.");
+    cursor.close();
   }
 }
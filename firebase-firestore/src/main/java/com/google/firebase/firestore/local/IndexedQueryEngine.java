@@ -19,12 +19,15 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.core.Bound;
 import com.google.firebase.firestore.core.Filter;
 import com.google.firebase.firestore.core.Filter.Operator;
 import com.google.firebase.firestore.core.IndexRange;
 import com.google.firebase.firestore.core.IndexRange.Builder;
 import com.google.firebase.firestore.core.NaNFilter;
 import com.google.firebase.firestore.core.NullFilter;
+import com.google.firebase.firestore.core.OrderBy;
+import com.google.firebase.firestore.core.OrderBy.Direction;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.core.RelationFilter;
 import com.google.firebase.firestore.model.Document;
@@ -40,7 +43,10 @@ import com.google.firebase.firestore.model.value.NullValue;
 import com.google.firebase.firestore.model.value.ObjectValue;
 import com.google.firebase.firestore.util.Assert;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * An indexed implementation of {@link QueryEngine} which performs fairly efficient queries.
@@ -78,7 +84,8 @@ import java.util.List;
  * first explicitly specified field in the orderBy clause. Fields in an orderBy only match documents
  * that contains these fields and can hence optimize our lookups by providing some selectivity.
  *
- * <p>A full collection scan is therefore only needed when no filters or orderBy constraints are
+ * <p>Filters on the document key and array-contains filters cannot be served from the index. A
+ * full collection scan is therefore only needed when no other filters or orderBy constraints are
  * specified.
  */
 public class IndexedQueryEngine implements QueryEngine {
@@ -117,11 +124,6 @@ public class IndexedQueryEngine implements QueryEngine {
     if (indexRange != null) {
       filteredResults = performQueryUsingIndex(query, indexRange);
     } else {
-      hardAssert(
-          query.getFilters().isEmpty(),
-          "If there are any filters, we should be able to use an index.");
-      // TODO: Call overlay.getCollectionDocuments(query.getPath()) and filter the
-      // results (there may still be startAt/endAt bounds that apply).
       filteredResults = localDocuments.getDocumentsMatchingQuery(query);
     }
 
@@ -130,23 +132,65 @@ public class IndexedQueryEngine implements QueryEngine {
 
   /**
    * Applies 'filter' to the index cursor, looks up the relevant documents from the local documents
-   * view and returns all matches.
+   * view and returns all matches (or the first matches in query order, if the query has a limit).
+   *
+   * <p>If the index is on the query's first orderBy field, the cursor returns documents in query
+   * order, up to the lossy index encoding. The lookup then stops as soon as the limit has been
+   * reached and the cursor has moved past the index entry of the last match, since none of the
+   * remaining documents can sort before it. This decision is based on the cursor's index entry
+   * rather than on the document it points to: the entry may be stale (e.g. for a document that was
+   * garbage collected and re-added with a different value), and a stale entry says nothing about
+   * the entries that follow it.
    */
   private ImmutableSortedMap<DocumentKey, Document> performQueryUsingIndex(
       Query query, IndexRange indexRange) {
-    ImmutableSortedMap<DocumentKey, Document> results = DocumentCollections.emptyDocumentMap();
+    FieldPath fieldPath = indexRange.getFieldPath();
+    int limit = query.hasLimit() ? (int) Math.min(query.getLimit(), Integer.MAX_VALUE) : -1;
+    OrderBy firstOrderBy = query.getOrderBy().get(0);
+    boolean inQueryOrder = limit >= 0 && firstOrderBy.getField().equals(fieldPath);
+    int direction = firstOrderBy.getDirection() == Direction.ASCENDING ? 1 : -1;
+
+    TreeSet<Document> matches = new TreeSet<>(query.comparator());
+    QueryCost cost = new QueryCost(query, "index scan on " + fieldPath.canonicalString());
     IndexCursor cursor = collectionIndex.getCursor(query.getPath(), indexRange);
     try {
       while (cursor.next()) {
-        Document document = (Document) localDocuments.getDocument(cursor.getDocumentKey());
+        if (inQueryOrder && matches.size() == limit) {
+          Object[] lastEntry =
+              SQLiteCollectionIndex.encodeFieldValue(matches.last().getField(fieldPath));
+          int position =
+              SQLiteCollectionIndex.compareEncodedValues(cursor.getEncodedValue(), lastEntry);
+          if (position * direction > 0) {
+            break;
+          }
+        }
+
+        DocumentKey key = cursor.getDocumentKey();
+        MaybeDocument maybeDoc = localDocuments.getDocument(key);
+        cost.recordDocumentRead();
+        // Index entries for documents that have since been garbage collected are not removed
+        // eagerly, so the document may no longer exist.
+        if (!(maybeDoc instanceof Document)) {
+          continue;
+        }
+
+        Document document = (Document) maybeDoc;
         if (query.matches(document)) {
-          results = results.insert(cursor.getDocumentKey(), document);
+          matches.add(document);
+          if (limit >= 0 && matches.size() > limit) {
+            matches.pollLast();
+          }
         }
       }
     } finally {
       cursor.close();
     }
 
+    ImmutableSortedMap<DocumentKey, Document> results = DocumentCollections.emptyDocumentMap();
+    for (Document document : matches) {
+      results = results.insert(document.getKey(), document);
+    }
+    cost.report(results.size());
     return results;
   }
 
@@ -178,44 +222,97 @@ public class IndexedQueryEngine implements QueryEngine {
 
   /**
    * Returns an optimized {@code IndexRange} for this query. The {@code IndexRange} is computed
-   * based on the estimated selectivity of the query filters and orderBy constraints. If no filters
-   * or orderBy constraints are specified, it returns null.
+   * based on the estimated selectivity of the query filters and orderBy constraints, and is
+   * narrowed by the query's startAt/endAt bounds if it is on the query's first orderBy field. If
+   * no filters or orderBy constraints are specified, it returns null.
    */
   @Nullable
   @VisibleForTesting
   static IndexRange extractBestIndexRange(Query query) {
-    // TODO: consider any startAt/endAt bounds on the query.
+    Builder indexRange = extractBestIndexRangeForFilters(query);
+    if (indexRange == null) {
+      return null;
+    }
 
+    OrderBy firstOrderBy = query.getOrderBy().get(0);
+    if (firstOrderBy.getField().equals(indexRange.getFieldPath())) {
+      boolean descending = firstOrderBy.getDirection() == Direction.DESCENDING;
+      indexRange.setDescending(descending);
+      // In descending order, the query's startAt bound is the upper end of the range.
+      FieldValue lowerBound = boundValue(descending ? query.getEndAt() : query.getStartAt());
+      FieldValue upperBound = boundValue(descending ? query.getStartAt() : query.getEndAt());
+      if (lowerBound != null
+          && (indexRange.getStart() == null || lowerBound.compareTo(indexRange.getStart()) > 0)) {
+        indexRange.setStart(lowerBound);
+      }
+      if (upperBound != null
+          && (indexRange.getEnd() == null || upperBound.compareTo(indexRange.getEnd()) < 0)) {
+        indexRange.setEnd(upperBound);
+      }
+    }
+    return indexRange.build();
+  }
+
+  /**
+   * Returns the value of the first orderBy field at the given bound. The bound is inclusive or
+   * exclusive depending on the values of the remaining orderBy fields, so the value is always
+   * treated as inclusive.
+   */
+  @Nullable
+  private static FieldValue boundValue(@Nullable Bound bound) {
+    return bound != null ? bound.getPosition().get(0) : null;
+  }
+
+  /** Returns a range for the most selective filter, or for the first orderBy field, if any. */
+  @Nullable
+  private static Builder extractBestIndexRangeForFilters(Query query) {
     double currentSelectivity = -1;
+    Filter selectedFilter = null;
 
-    if (!query.getFilters().isEmpty()) {
-      Filter selectedFilter = null;
-      for (Filter currentFilter : query.getFilters()) {
-        double estimatedSelectivity = estimateFilterSelectivity(currentFilter);
-        if (estimatedSelectivity > currentSelectivity) {
-          selectedFilter = currentFilter;
-          currentSelectivity = estimatedSelectivity;
-        }
+    for (Filter currentFilter : query.getFilters()) {
+      if (!isIndexable(currentFilter)) {
+        continue;
       }
-      hardAssert(selectedFilter != null, "Filter should be defined");
-      return convertFilterToIndexRange(selectedFilter);
-    } else {
-      // If there are no filters, use the first orderBy constraint when performing the index lookup.
-      // This index lookup will remove results that do not contain the field we use for ordering.
-      FieldPath orderPath = query.getOrderBy().get(0).getField();
-      if (!orderPath.equals(FieldPath.KEY_PATH)) {
-        return IndexRange.builder().setFieldPath(query.getOrderBy().get(0).getField()).build();
+      double estimatedSelectivity = estimateFilterSelectivity(currentFilter);
+      if (estimatedSelectivity > currentSelectivity) {
+        selectedFilter = currentFilter;
+        currentSelectivity = estimatedSelectivity;
       }
     }
 
+    if (selectedFilter != null) {
+      return convertFilterToIndexRange(selectedFilter);
+    }
+
+    // If there are no indexable filters, use the first orderBy constraint when performing the
+    // index lookup. This index lookup will remove results that do not contain the field we use for
+    // ordering.
+    FieldPath orderPath = query.getOrderBy().get(0).getField();
+    if (!orderPath.isKeyField()) {
+      return IndexRange.builder().setFieldPath(orderPath);
+    }
+
     return null;
   }
 
   /**
-   * Creates an {@code IndexRange} that is guaranteed to capture all values that match the given
-   * filter. The determined {@code IndexRange} is likely overselective and requires post-filtering.
+   * Returns whether the filter can be served from the collection index. The index contains neither
+   * document keys nor individual array elements.
    */
-  private static IndexRange convertFilterToIndexRange(Filter filter) {
+  private static boolean isIndexable(Filter filter) {
+    if (filter.getField().isKeyField()) {
+      return false;
+    }
+    return !(filter instanceof RelationFilter)
+        || ((RelationFilter) filter).getOperator() != Operator.ARRAY_CONTAINS;
+  }
+
+  /**
+   * Creates an {@code IndexRange} builder that is guaranteed to capture all values that match the
+   * given filter. The determined {@code IndexRange} is likely overselective and requires
+   * post-filtering.
+   */
+  private static Builder convertFilterToIndexRange(Filter filter) {
     Builder indexRange = IndexRange.builder().setFieldPath(filter.getField());
     if (filter instanceof RelationFilter) {
       RelationFilter relationFilter = (RelationFilter) filter;
@@ -233,7 +330,6 @@ public class IndexedQueryEngine implements QueryEngine {
           indexRange.setStart(filterValue);
           break;
         default:
-          // TODO: Add support for ARRAY_CONTAINS.
           throw Assert.fail("Unexpected operator in query filter");
       }
     } else if (filter instanceof NaNFilter) {
@@ -241,13 +337,74 @@ public class IndexedQueryEngine implements QueryEngine {
     } else if (filter instanceof NullFilter) {
       indexRange.setStart(NullValue.nullValue()).setEnd(NullValue.nullValue());
     }
-    return indexRange.build();
+    return indexRange;
   }
 
   @Override
-  public void handleDocumentChange(MaybeDocument oldDocument, MaybeDocument newDocument) {
-    // TODO: Determine changed fields and make appropriate addEntry() / removeEntry()
-    // on SQLiteCollectionIndex.
-    throw new RuntimeException("Not yet implemented.");
+  public void start() {
+    String indexedUid = collectionIndex.getIndexedUid();
+    if (indexedUid == null) {
+      // The index is new (e.g. after a schema upgrade), so build it from the local view of all
+      // cached documents.
+      for (DocumentKey key : collectionIndex.getAllDocumentKeys()) {
+        handleDocumentChange(null, localDocuments.getDocument(key));
+      }
+    } else if (!indexedUid.equals(collectionIndex.getUid())) {
+      // The index holds the entries of a different user. Both users share the remote documents, so
+      // only the entries of documents with pending mutations need to be rebuilt.
+      List<DocumentKey> keys = collectionIndex.getDocumentKeysWithMutations(indexedUid);
+      collectionIndex.transferEntries(indexedUid);
+      collectionIndex.removeDocuments(keys);
+      for (DocumentKey key : keys) {
+        handleDocumentChange(null, localDocuments.getDocument(key));
+      }
+    }
+  }
+
+  @Override
+  public void handleDocumentChange(
+      @Nullable MaybeDocument oldDocument, @Nullable MaybeDocument newDocument) {
+    Map<FieldPath, FieldValue> oldEntries = extractIndexEntries(oldDocument);
+    Map<FieldPath, FieldValue> newEntries = extractIndexEntries(newDocument);
+
+    // Removals are processed first since different values (e.g. 1 and 1.0) can share an entry.
+    for (Map.Entry<FieldPath, FieldValue> entry : oldEntries.entrySet()) {
+      FieldPath fieldPath = entry.getKey();
+      if (!entry.getValue().equals(newEntries.get(fieldPath))) {
+        collectionIndex.removeEntry(fieldPath, entry.getValue(), oldDocument.getKey());
+      }
+    }
+
+    for (Map.Entry<FieldPath, FieldValue> entry : newEntries.entrySet()) {
+      FieldPath fieldPath = entry.getKey();
+      if (!entry.getValue().equals(oldEntries.get(fieldPath))) {
+        collectionIndex.addEntry(fieldPath, entry.getValue(), newDocument.getKey());
+      }
+    }
+  }
+
+  /**
+   * Returns all field paths and values of the document that should be indexed. Nested objects are
+   * indexed both as a whole and for each of their fields.
+   */
+  private static Map<FieldPath, FieldValue> extractIndexEntries(
+      @Nullable MaybeDocument maybeDocument) {
+    Map<FieldPath, FieldValue> entries = new HashMap<>();
+    if (maybeDocument instanceof Document) {
+      extractIndexEntries(FieldPath.EMPTY_PATH, ((Document) maybeDocument).getData(), entries);
+    }
+    return entries;
+  }
+
+  private static void extractIndexEntries(
+      FieldPath parentPath, ObjectValue objectValue, Map<FieldPath, FieldValue> entries) {
+    for (Map.Entry<String, FieldValue> field : objectValue.getInternalValue()) {
+      FieldPath fieldPath = parentPath.append(field.getKey());
+      FieldValue fieldValue = field.getValue();
+      entries.put(fieldPath, fieldValue);
+      if (fieldValue instanceof ObjectValue) {
+        extractIndexEntries(fieldPath, (ObjectValue) fieldValue, entries);
+      }
+    }
   }
 }
@@ -16,9 +16,9 @@ package com.google.firebase.firestore.local;
 
 import static com.google.firebase.firestore.model.DocumentCollections.emptyDocumentMap;
 import static com.google.firebase.firestore.model.DocumentCollections.emptyMaybeDocumentMap;
-import static com.google.firebase.firestore.util.Assert.fail;
 
 import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.core.OrderBy;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
@@ -28,18 +28,26 @@ import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.annotation.Nullable;
 
 /**
  * A readonly view of the local state of all documents we're tracking (i.e. we have a cached version
  * in remoteDocumentCache or local mutations for the document). The view is computed by applying the
- * mutations in the MutationQueue to the RemoteDocumentCache.
+ * mutations in the MutationQueue to the RemoteDocumentCache. Documents are looked up by applying
+ * their overlay (see {@link MutationQueue#getDocumentOverlay}), which collapses the mutations of
+ * all batches affecting the document, so a lookup doesn't read or apply each of the batches.
  */
 // TODO: Turn this into the UnifiedDocumentCache / whatever.
 final class LocalDocumentsView {
 
+  /** The maximum number of cached documents to read at once when scanning a collection. */
+  private static final int COLLECTION_SCAN_CHUNK_SIZE = 100;
+
   private final RemoteDocumentCache remoteDocumentCache;
   private final MutationQueue mutationQueue;
 
@@ -55,19 +63,8 @@ final class LocalDocumentsView {
    */
   @Nullable
   MaybeDocument getDocument(DocumentKey key) {
-    List<MutationBatch> batches = mutationQueue.getAllMutationBatchesAffectingDocumentKey(key);
-    return getDocument(key, batches);
-  }
-
-  // Internal version of {@code getDocument} that allows reusing batches.
-  @Nullable
-  private MaybeDocument getDocument(DocumentKey key, List<MutationBatch> inBatches) {
-    @Nullable MaybeDocument document = remoteDocumentCache.get(key);
-    for (MutationBatch batch : inBatches) {
-      document = batch.applyToLocalView(key, document);
-    }
-
-    return document;
+    DocumentOverlay overlay = mutationQueue.getDocumentOverlay(key);
+    return overlay.applyToLocalView(key, remoteDocumentCache.get(key));
   }
 
   /**
@@ -79,11 +76,13 @@ final class LocalDocumentsView {
   ImmutableSortedMap<DocumentKey, MaybeDocument> getDocuments(Iterable<DocumentKey> keys) {
     ImmutableSortedMap<DocumentKey, MaybeDocument> results = emptyMaybeDocumentMap();
 
-    List<MutationBatch> batches = mutationQueue.getAllMutationBatchesAffectingDocumentKeys(keys);
-    for (DocumentKey key : keys) {
-      // TODO: PERF: Consider fetching all remote documents at once rather than
-      // one-by-one.
-      MaybeDocument maybeDoc = getDocument(key, batches);
+    Map<DocumentKey, DocumentOverlay> overlays = mutationQueue.getDocumentOverlays(keys);
+    Map<DocumentKey, MaybeDocument> baseDocs = remoteDocumentCache.getAll(keys);
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : baseDocs.entrySet()) {
+      DocumentKey key = entry.getKey();
+      DocumentOverlay overlay = overlays.get(key);
+      MaybeDocument maybeDoc =
+          overlay != null ? overlay.applyToLocalView(key, entry.getValue()) : entry.getValue();
       // TODO: Don't conflate missing / deleted.
       if (maybeDoc == null) {
         maybeDoc = new NoDocument(key, SnapshotVersion.NONE);
@@ -120,41 +119,113 @@ final class LocalDocumentsView {
     return result;
   }
 
-  /** Queries the remote documents and overlays mutations. */
+  /**
+   * Queries the remote documents and overlays mutations.
+   *
+   * <p>The collection is scanned in chunks, keeping only the best {@code limit} matches seen so far
+   * (plus the documents with pending mutations), so memory use is proportional to the query's limit
+   * rather than the size of the collection. For queries ordered by document key, the scan also
+   * starts at the query's startAt bound and stops at its endAt bound or as soon as the limit has
+   * been reached.
+   *
+   * <p>Queries ordered by a field can't bound the scan this way, since the remote document cache
+   * has no index on field values. Every page of a field-ordered query therefore scans the whole
+   * collection, with only memory use bounded by the limit.
+   */
   private ImmutableSortedMap<DocumentKey, Document> getDocumentsMatchingCollectionQuery(
       Query query) {
-    ImmutableSortedMap<DocumentKey, Document> results =
-        remoteDocumentCache.getAllDocumentsMatchingQuery(query);
-
-    List<MutationBatch> matchingBatches = mutationQueue.getAllMutationBatchesAffectingQuery(query);
-    for (MutationBatch batch : matchingBatches) {
+    ResourcePath collectionPath = query.getPath();
+    int limit = query.hasLimit() ? (int) Math.min(query.getLimit(), Integer.MAX_VALUE) : -1;
+    TreeSet<Document> matches = new TreeSet<>(query.comparator());
+
+    // Queries are always ordered by key last, so a single orderBy is the key.
+    List<OrderBy> orderBy = query.getOrderBy();
+    boolean keyOrdered =
+        orderBy.size() == 1 && orderBy.get(0).getDirection() == OrderBy.Direction.ASCENDING;
+    QueryCost cost = new QueryCost(query, keyOrdered ? "key range scan" : "collection scan");
+
+    // Documents with pending mutations may have moved anywhere in the query's order, so their local
+    // view is matched up front and their remote versions are skipped during the scan.
+    Set<DocumentKey> mutatedKeys = new HashSet<>();
+    for (MutationBatch batch : mutationQueue.getAllMutationBatchesAffectingQuery(query)) {
       for (Mutation mutation : batch.getMutations()) {
-        // Only process documents belonging to the collection.
-        if (!query.getPath().isImmediateParentOf(mutation.getKey().getPath())) {
-          continue;
-        }
-
-        DocumentKey key = mutation.getKey();
-        MaybeDocument baseDoc = results.get(key);
-        MaybeDocument mutatedDoc =
-            mutation.applyToLocalView(baseDoc, baseDoc, batch.getLocalWriteTime());
-        if (mutatedDoc == null || mutatedDoc instanceof NoDocument) {
-          results = results.remove(key);
-        } else if (mutatedDoc instanceof Document) {
-          results = results.insert(key, (Document) mutatedDoc);
-        } else {
-          throw fail("Unknown document type: " + mutatedDoc);
+        if (collectionPath.isImmediateParentOf(mutation.getKey().getPath())) {
+          mutatedKeys.add(mutation.getKey());
         }
       }
     }
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : getDocuments(mutatedKeys)) {
+      cost.recordDocumentRead();
+      addMatch(query, limit, matches, entry.getValue());
+    }
+
+    DocumentKey start = null;
+    boolean inclusive = false;
+    DocumentKey end = null;
+    if (keyOrdered && query.getStartAt() != null) {
+      start = (DocumentKey) query.getStartAt().getPosition().get(0).value();
+      inclusive = query.getStartAt().isBefore();
+    }
+    if (keyOrdered && query.getEndAt() != null) {
+      end = (DocumentKey) query.getEndAt().getPosition().get(0).value();
+    }
 
-    // Finally, filter out any documents that don't actually match the query.
-    for (Map.Entry<DocumentKey, Document> docEntry : results) {
-      if (!query.matches(docEntry.getValue())) {
-        results = results.remove(docEntry.getKey());
+    boolean done = false;
+    while (!done) {
+      List<MaybeDocument> chunk =
+          remoteDocumentCache.getCollectionChunk(
+              collectionPath, start, inclusive, COLLECTION_SCAN_CHUNK_SIZE);
+      for (MaybeDocument maybeDoc : chunk) {
+        // In key order, all remaining documents sort after this one, so once it is past the end
+        // bound or can't make it into a full set of matches, neither can they.
+        if (keyOrdered && isPastScanEnd(maybeDoc.getKey(), end, limit, matches)) {
+          done = true;
+          break;
+        }
+        cost.recordDocumentRead();
+        if (!mutatedKeys.contains(maybeDoc.getKey())) {
+          addMatch(query, limit, matches, maybeDoc);
+        }
       }
+      if (chunk.size() < COLLECTION_SCAN_CHUNK_SIZE) {
+        break;
+      }
+
+      start = chunk.get(chunk.size() - 1).getKey();
+      inclusive = false;
     }
 
+    ImmutableSortedMap<DocumentKey, Document> results = emptyDocumentMap();
+    for (Document doc : matches) {
+      results = results.insert(doc.getKey(), doc);
+    }
+    cost.report(results.size());
     return results;
   }
+
+  /**
+   * Returns whether a key-ordered scan can stop at {@code key}, because it is after the query's
+   * endAt bound or after the last of {@code limit} matches.
+   */
+  private static boolean isPastScanEnd(
+      DocumentKey key, @Nullable DocumentKey end, int limit, TreeSet<Document> matches) {
+    if (end != null && key.compareTo(end) > 0) {
+      return true;
+    }
+    return matches.size() == limit && matches.last().getKey().compareTo(key) < 0;
+  }
+
+  /**
+   * Adds the document to the given matches if it matches the query, evicting the last match if
+   * there are more than {@code limit} matches (unless {@code limit} is negative).
+   */
+  private static void addMatch(
+      Query query, int limit, TreeSet<Document> matches, MaybeDocument maybeDoc) {
+    if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
+      matches.add((Document) maybeDoc);
+      if (limit >= 0 && matches.size() > limit) {
+        matches.pollLast();
+      }
+    }
+  }
 }
@@ -29,6 +29,7 @@ import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.model.value.ObjectValue;
 import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firebase.firestore.util.Metrics;
 import com.google.protobuf.ByteString;
 import java.util.ArrayList;
 import java.util.List;
@@ -60,6 +61,7 @@ public final class LocalSerializer {
 
   /** Decodes a MaybeDocument proto to the equivalent model. */
   MaybeDocument decodeMaybeDocument(com.google.firebase.firestore.proto.MaybeDocument proto) {
+    Metrics.recordDocumentDecoded();
     switch (proto.getDocumentTypeCase()) {
       case DOCUMENT:
         return decodeDocument(proto.getDocument());
@@ -78,6 +80,13 @@ public final class LocalSerializer {
    * server.
    */
   private com.google.firestore.v1beta1.Document encodeDocument(Document document) {
+    // Documents that were decoded lazily and never fully decoded or modified can be written back
+    // as is, without decoding and re-encoding their fields.
+    com.google.firestore.v1beta1.Document proto = document.getProto();
+    if (proto != null) {
+      return proto;
+    }
+
     com.google.firestore.v1beta1.Document.Builder builder =
         com.google.firestore.v1beta1.Document.newBuilder();
     builder.setName(rpcSerializer.encodeKey(document.getKey()));
@@ -95,9 +104,9 @@ public final class LocalSerializer {
   /** Decodes a Document proto to the equivalent model. */
   private Document decodeDocument(com.google.firestore.v1beta1.Document document) {
     DocumentKey key = rpcSerializer.decodeKey(document.getName());
-    ObjectValue value = rpcSerializer.decodeFields(document.getFieldsMap());
     SnapshotVersion version = rpcSerializer.decodeVersion(document.getUpdateTime());
-    return new Document(key, version, value, false);
+    return new Document(
+        key, version, /*hasLocalMutations=*/ false, document, rpcSerializer::decodeValue);
   }
 
   /** Encodes a NoDocument value to the equivalent proto. */
@@ -143,6 +152,28 @@ public final class LocalSerializer {
     return new MutationBatch(batchId, localWriteTime, mutations);
   }
 
+  /** Encodes a DocumentOverlay model for local storage. */
+  com.google.firebase.firestore.proto.DocumentOverlay encodeDocumentOverlay(
+      DocumentOverlay overlay) {
+    com.google.firebase.firestore.proto.DocumentOverlay.Builder result =
+        com.google.firebase.firestore.proto.DocumentOverlay.newBuilder()
+            .addAllBatchIds(overlay.getBatchIds());
+    for (MutationBatch step : overlay.getSteps()) {
+      result.addSteps(encodeMutationBatch(step));
+    }
+    return result.build();
+  }
+
+  /** Decodes a DocumentOverlay proto into a DocumentOverlay model. */
+  DocumentOverlay decodeDocumentOverlay(
+      com.google.firebase.firestore.proto.DocumentOverlay overlay) {
+    List<MutationBatch> steps = new ArrayList<>(overlay.getStepsCount());
+    for (com.google.firebase.firestore.proto.WriteBatch step : overlay.getStepsList()) {
+      steps.add(decodeMutationBatch(step));
+    }
+    return new DocumentOverlay(new ArrayList<>(overlay.getBatchIdsList()), steps);
+  }
+
   com.google.firebase.firestore.proto.Target encodeQueryData(QueryData queryData) {
     hardAssert(
         QueryPurpose.LISTEN.equals(queryData.getPurpose()),
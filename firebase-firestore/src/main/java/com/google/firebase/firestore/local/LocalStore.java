@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.model.DocumentCollections.emptyMaybeDocumentMap;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -110,6 +111,21 @@ public final class LocalStore {
   /** Performs queries over the localDocuments (and potentially maintains indexes). */
   private QueryEngine queryEngine;
 
+  /** Guards activeCacheReads. */
+  private final Object cacheReadLock = new Object();
+
+  /** The number of reads started by startCacheRead() that haven't been finished yet. */
+  private int activeCacheReads;
+
+  /** Whether the queryEngine maintains indexes that must be notified of document changes. */
+  private boolean queryEngineIndexed;
+
+  /** Whether queries should use the persisted collection index, if supported by persistence. */
+  private final boolean indexingEnabled;
+
+  /** The persisted collection index if it is supported by persistence but indexing is disabled. */
+  @Nullable private SQLiteCollectionIndex unusedCollectionIndex;
+
   /** The set of document references maintained by any local views. */
   private final ReferenceSet localViewReferences;
 
@@ -134,16 +150,20 @@ public final class LocalStore {
   private final List<MutationBatchResult> heldBatchResults;
 
   public LocalStore(Persistence persistence, User initialUser) {
+    this(persistence, initialUser, /* indexingEnabled= */ false);
+  }
+
+  public LocalStore(Persistence persistence, User initialUser, boolean indexingEnabled) {
     hardAssert(
         persistence.isStarted(), "LocalStore was passed an unstarted persistence implementation");
     this.persistence = persistence;
+    this.indexingEnabled = indexingEnabled;
     queryCache = persistence.getQueryCache();
     targetIdGenerator = TargetIdGenerator.getLocalStoreIdGenerator(queryCache.getHighestTargetId());
     mutationQueue = persistence.getMutationQueue(initialUser);
     remoteDocuments = persistence.getRemoteDocumentCache();
     localDocuments = new LocalDocumentsView(remoteDocuments, mutationQueue);
-    // TODO: Use IndexedQueryEngine as appropriate.
-    queryEngine = new SimpleQueryEngine(localDocuments);
+    createQueryEngine(initialUser);
 
     localViewReferences = new ReferenceSet();
     persistence.getReferenceDelegate().setAdditionalReferences(localViewReferences);
@@ -154,6 +174,44 @@ public final class LocalStore {
 
   public void start() {
     startMutationQueue();
+    startQueryEngine();
+  }
+
+  /**
+   * Creates the query engine for the given user, using the persisted collection index if indexing
+   * is enabled and supported by the persistence layer.
+   */
+  private void createQueryEngine(User user) {
+    SQLiteCollectionIndex collectionIndex = persistence.getCollectionIndex(user);
+    if (collectionIndex != null && indexingEnabled) {
+      queryEngine = new IndexedQueryEngine(localDocuments, collectionIndex);
+      queryEngineIndexed = true;
+      unusedCollectionIndex = null;
+    } else {
+      queryEngine = new SimpleQueryEngine(localDocuments);
+      queryEngineIndexed = false;
+      unusedCollectionIndex = collectionIndex;
+    }
+  }
+
+  private void startQueryEngine() {
+    if (queryEngineIndexed) {
+      persistence.runTransaction("Start QueryEngine", () -> queryEngine.start());
+      return;
+    }
+
+    // Drop any entries left behind from when indexing was enabled, since they are no longer kept up
+    // to date. Checking for them first keeps a write off the start-up path of clients that never
+    // enabled indexing.
+    SQLiteCollectionIndex collectionIndex = unusedCollectionIndex;
+    if (collectionIndex != null
+        && persistence.runSnapshotRead(
+            "Check collection index", () -> collectionIndex.getIndexedUid() != null)) {
+      persistence.runTransaction("Clear collection index", () -> collectionIndex.clear());
+    }
+
+    // The SimpleQueryEngine keeps no persisted state, so it needs no transaction to start.
+    queryEngine.start();
   }
 
   private void startMutationQueue() {
@@ -185,6 +243,10 @@ public final class LocalStore {
   // PORTING NOTE: no shutdown for LocalStore or persistence components on Android.
 
   public ImmutableSortedMap<DocumentKey, MaybeDocument> handleUserChange(User user) {
+    // Reads started before the user change still use the components of the previous user, which
+    // read persisted state that the user change updates (e.g. the owner of the collection index).
+    awaitCacheReads();
+
     // Swap out the mutation queue, grabbing the pending mutation batches before and after.
     List<MutationBatch> oldBatches = mutationQueue.getAllMutationBatches();
 
@@ -195,8 +257,8 @@ public final class LocalStore {
 
     // Recreate our LocalDocumentsView using the new MutationQueue.
     localDocuments = new LocalDocumentsView(remoteDocuments, mutationQueue);
-    // TODO: Use IndexedQueryEngine as appropriate.
-    queryEngine = new SimpleQueryEngine(localDocuments);
+    createQueryEngine(user);
+    startQueryEngine();
 
     // Union the old/new changed keys.
     ImmutableSortedSet<DocumentKey> changedKeys = DocumentKey.emptyKeySet();
@@ -215,16 +277,22 @@ public final class LocalStore {
   /** Accepts locally generated Mutations and commits them to storage. */
   public LocalWriteResult writeLocally(List<Mutation> mutations) {
     Timestamp localWriteTime = Timestamp.now();
-    // TODO: Call queryEngine.handleDocumentChange() appropriately.
-    MutationBatch batch =
-        persistence.runTransaction(
-            "Locally write mutations",
-            () -> mutationQueue.addMutationBatch(localWriteTime, mutations));
-
-    Set<DocumentKey> keys = batch.getKeys();
-    ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
-        localDocuments.getDocuments(keys);
-    return new LocalWriteResult(batch.getBatchId(), changedDocuments);
+    return persistence.runTransaction(
+        "Locally write mutations",
+        () -> {
+          Set<DocumentKey> keys = new HashSet<>();
+          for (Mutation mutation : mutations) {
+            keys.add(mutation.getKey());
+          }
+          ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments =
+              getDocumentsBeforeChange(keys);
+
+          MutationBatch batch = mutationQueue.addMutationBatch(localWriteTime, mutations);
+          ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
+              localDocuments.getDocuments(keys);
+          notifyQueryEngine(oldDocuments, changedDocuments);
+          return new LocalWriteResult(batch.getBatchId(), changedDocuments);
+        });
   }
 
   /**
@@ -250,15 +318,20 @@ public final class LocalStore {
           mutationQueue.acknowledgeBatch(batchResult.getBatch(), batchResult.getStreamToken());
 
           Set<DocumentKey> affected;
+          ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments = emptyMaybeDocumentMap();
           if (shouldHoldBatchResult(batchResult.getCommitVersion())) {
             heldBatchResults.add(batchResult);
             affected = Collections.emptySet();
           } else {
+            oldDocuments = getDocumentsBeforeChange(batchResult.getBatch().getKeys());
             affected = releaseBatchResults(singletonList(batchResult));
           }
 
           mutationQueue.performConsistencyCheck();
-          return localDocuments.getDocuments(affected);
+          ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
+              localDocuments.getDocuments(affected);
+          notifyQueryEngine(oldDocuments, changedDocuments);
+          return changedDocuments;
         });
   }
 
@@ -269,8 +342,6 @@ public final class LocalStore {
    * @return The resulting (modified) documents.
    */
   public ImmutableSortedMap<DocumentKey, MaybeDocument> rejectBatch(int batchId) {
-    // TODO: Call queryEngine.handleDocumentChange() appropriately.
-
     return persistence.runTransaction(
         "Reject batch",
         () -> {
@@ -280,9 +351,14 @@ public final class LocalStore {
           int lastAcked = mutationQueue.getHighestAcknowledgedBatchId();
           hardAssert(batchId > lastAcked, "Acknowledged batches can't be rejected.");
 
+          ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments =
+              getDocumentsBeforeChange(toReject.getKeys());
           Set<DocumentKey> affectedKeys = removeMutationBatch(toReject);
           mutationQueue.performConsistencyCheck();
-          return localDocuments.getDocuments(affectedKeys);
+          ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
+              localDocuments.getDocuments(affectedKeys);
+          notifyQueryEngine(oldDocuments, changedDocuments);
+          return changedDocuments;
         });
   }
 
@@ -320,7 +396,6 @@ public final class LocalStore {
    * <p>LocalDocuments are re-calculated if there are remaining mutations in the queue.
    */
   public ImmutableSortedMap<DocumentKey, MaybeDocument> applyRemoteEvent(RemoteEvent remoteEvent) {
-    // TODO: Call queryEngine.handleDocumentChange() appropriately.
     return persistence.runTransaction(
         "Apply remote event",
         () -> {
@@ -375,11 +450,24 @@ public final class LocalStore {
           Set<DocumentKey> changedDocKeys = new HashSet<>();
           Map<DocumentKey, MaybeDocument> documentUpdates = remoteEvent.getDocumentUpdates();
           Set<DocumentKey> limboDocuments = remoteEvent.getResolvedLimboDocuments();
+
+          ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments = emptyMaybeDocumentMap();
+          if (queryEngineIndexed) {
+            Set<DocumentKey> potentiallyChangedKeys = new HashSet<>(documentUpdates.keySet());
+            potentiallyChangedKeys.addAll(getHeldBatchKeys());
+            oldDocuments = localDocuments.getDocuments(potentiallyChangedKeys);
+          }
+
+          // Each loop iteration only affects its "own" doc, so it's safe to get all the remote
+          // documents in advance in a single call.
+          Map<DocumentKey, MaybeDocument> existingDocs =
+              remoteDocuments.getAll(documentUpdates.keySet());
+
           for (Entry<DocumentKey, MaybeDocument> entry : documentUpdates.entrySet()) {
             DocumentKey key = entry.getKey();
             MaybeDocument doc = entry.getValue();
             changedDocKeys.add(key);
-            MaybeDocument existingDoc = remoteDocuments.get(key);
+            MaybeDocument existingDoc = existingDocs.get(key);
             // If a document update isn't authoritative, make sure we don't
             // apply an old document version to the remote cache. We make an
             // exception for SnapshotVersion.MIN which can happen for
@@ -423,7 +511,10 @@ public final class LocalStore {
 
           // Union the two key sets.
           changedDocKeys.addAll(releasedWriteKeys);
-          return localDocuments.getDocuments(changedDocKeys);
+          ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
+              localDocuments.getDocuments(changedDocKeys);
+          notifyQueryEngine(oldDocuments, changedDocuments);
+          return changedDocuments;
         });
   }
 
@@ -494,7 +585,12 @@ public final class LocalStore {
   /** Returns the current value of a document with a given key, or null if not found. */
   @Nullable
   public MaybeDocument readDocument(DocumentKey key) {
-    return localDocuments.getDocument(key);
+    return readDocument(localDocuments, key);
+  }
+
+  @Nullable
+  private MaybeDocument readDocument(LocalDocumentsView documents, DocumentKey key) {
+    return persistence.runSnapshotRead("Read document", () -> documents.getDocument(key));
   }
 
   /**
@@ -565,14 +661,102 @@ public final class LocalStore {
           // If this was the last watch target, then we won't get any more watch snapshots, so we
           // should release any held batch results.
           if (targetIds.size() == 0) {
-            releaseHeldBatchResults();
+            ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments =
+                getDocumentsBeforeChange(getHeldBatchKeys());
+            Set<DocumentKey> releasedKeys = releaseHeldBatchResults();
+            if (queryEngineIndexed) {
+              notifyQueryEngine(oldDocuments, localDocuments.getDocuments(releasedKeys));
+            }
           }
         });
   }
 
-  /** Runs the given query against all the documents in the local store and returns the results. */
+  /**
+   * Runs a pass of LRU garbage collection, sparing the targets that are currently being listened
+   * to.
+   */
+  LruGarbageCollector.Results collectGarbage(LruGarbageCollector garbageCollector) {
+    return persistence.runTransaction("Collect garbage", () -> garbageCollector.collect(targetIds));
+  }
+
+  /**
+   * Runs the given query against all the documents in the local store and returns the results. For
+   * queries with a limit, only holds on to as many documents as the limit allows while doing so.
+   */
   public ImmutableSortedMap<DocumentKey, Document> executeQuery(Query query) {
-    return queryEngine.getDocumentsMatchingQuery(query);
+    return executeQuery(queryEngine, query);
+  }
+
+  private ImmutableSortedMap<DocumentKey, Document> executeQuery(QueryEngine engine, Query query) {
+    return persistence.runSnapshotRead(
+        "Execute query", () -> engine.getDocumentsMatchingQuery(query));
+  }
+
+  /**
+   * Starts a read of the local view of the current user. If the persistence layer supports
+   * concurrent reads, the returned reader may be used from any thread while operations on this
+   * LocalStore continue, until it is finished.
+   *
+   * <p>The reader keeps using the components of the user it was started for. A user change waits
+   * until all readers started before it have been finished.
+   */
+  public CacheReader startCacheRead() {
+    synchronized (cacheReadLock) {
+      activeCacheReads++;
+    }
+    return new CacheReader(localDocuments, queryEngine);
+  }
+
+  /** Blocks until all readers started by startCacheRead() have been finished. */
+  private void awaitCacheReads() {
+    boolean interrupted = false;
+    synchronized (cacheReadLock) {
+      while (activeCacheReads > 0) {
+        try {
+          cacheReadLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A read of the local view of a single user, started by {@link #startCacheRead}. */
+  public final class CacheReader {
+    private final LocalDocumentsView localDocuments;
+    private final QueryEngine queryEngine;
+    private boolean finished;
+
+    private CacheReader(LocalDocumentsView localDocuments, QueryEngine queryEngine) {
+      this.localDocuments = localDocuments;
+      this.queryEngine = queryEngine;
+    }
+
+    /** Returns the value of a document with a given key, or null if not found. */
+    @Nullable
+    public MaybeDocument readDocument(DocumentKey key) {
+      hardAssert(!finished, "Cache read has already been finished");
+      return LocalStore.this.readDocument(localDocuments, key);
+    }
+
+    /** Runs the given query against all the documents in the local store (see executeQuery()). */
+    public ImmutableSortedMap<DocumentKey, Document> executeQuery(Query query) {
+      hardAssert(!finished, "Cache read has already been finished");
+      return LocalStore.this.executeQuery(queryEngine, query);
+    }
+
+    /** Finishes the read, allowing the user to change. Must be called exactly once. */
+    public void finish() {
+      hardAssert(!finished, "Cache read has already been finished");
+      finished = true;
+      synchronized (cacheReadLock) {
+        activeCacheReads--;
+        cacheReadLock.notifyAll();
+      }
+    }
   }
 
   /**
@@ -606,6 +790,43 @@ public final class LocalStore {
     }
   }
 
+  /** Returns the keys of all documents written by held batch results. */
+  private Set<DocumentKey> getHeldBatchKeys() {
+    Set<DocumentKey> keys = new HashSet<>();
+    for (MutationBatchResult batchResult : heldBatchResults) {
+      keys.addAll(batchResult.getBatch().getKeys());
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the local view of the given documents before they are changed if the query engine
+   * needs to be notified of the change, or an empty map otherwise.
+   */
+  private ImmutableSortedMap<DocumentKey, MaybeDocument> getDocumentsBeforeChange(
+      Iterable<DocumentKey> keys) {
+    return queryEngineIndexed ? localDocuments.getDocuments(keys) : emptyMaybeDocumentMap();
+  }
+
+  /**
+   * Notifies the query engine of changes to the local view of documents so that it can update its
+   * indexes.
+   *
+   * @param oldDocuments The local view of the documents before the change, as returned by {@link
+   *     #getDocumentsBeforeChange}.
+   * @param newDocuments The local view of the documents after the change.
+   */
+  private void notifyQueryEngine(
+      ImmutableSortedMap<DocumentKey, MaybeDocument> oldDocuments,
+      ImmutableSortedMap<DocumentKey, MaybeDocument> newDocuments) {
+    if (!queryEngineIndexed) {
+      return;
+    }
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : newDocuments) {
+      queryEngine.handleDocumentChange(oldDocuments.get(entry.getKey()), entry.getValue());
+    }
+  }
+
   private boolean isRemoteUpToVersion(SnapshotVersion snapshotVersion) {
     // If there are no watch targets, then we won't get remote snapshots, and are always
     // "up-to-date."
@@ -620,7 +841,6 @@ public final class LocalStore {
 
   private Set<DocumentKey> releaseBatchResults(List<MutationBatchResult> batchResults) {
     ArrayList<MutationBatch> batches = new ArrayList<>(batchResults.size());
-    // TODO: Call queryEngine.handleDocumentChange() as appropriate.
     for (MutationBatchResult batchResult : batchResults) {
       applyBatchResult(batchResult);
       batches.add(batchResult.getBatch());
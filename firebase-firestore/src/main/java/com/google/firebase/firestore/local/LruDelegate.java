@@ -47,6 +47,9 @@ interface LruDelegate {
    */
   int removeOrphanedDocuments(long upperBound);
 
+  /** Returns an estimate of the number of bytes used to store the cache. */
+  long getByteSize();
+
   /** Access to the underlying LRU Garbage collector instance. */
   LruGarbageCollector getGarbageCollector();
 }
@@ -14,17 +14,176 @@
 
 package com.google.firebase.firestore.local;
 
+import android.util.SparseArray;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.core.ListenSequence;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Logger;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /** Implements the steps for LRU garbage collection. */
 class LruGarbageCollector {
+  /** How long we wait to try running LRU GC after SDK initialization. */
+  private static final long INITIAL_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+  /** Minimum amount of time between GC checks, after the first one. */
+  private static final long REGULAR_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final String LOG_TAG = "LruGarbageCollector";
+
+  /** Passing this as the cache size threshold disables collection entirely. */
+  public static final long GC_DISABLED = -1;
+
+  /** Configures when and how much LRU garbage collection runs. */
+  public static class Params {
+    /**
+     * The following two constants are estimates for how we want to tune the garbage collector. If
+     * we encounter a large cache, we don't want to spend a large chunk of time GCing all of it, we
+     * would rather make some progress and then try again later. We also don't want to collect
+     * everything that we possibly could, as our thesis is that recently used items are more likely
+     * to be used again.
+     */
+    private static final int DEFAULT_COLLECTION_PERCENTILE = 10;
+
+    private static final int DEFAULT_MAX_SEQUENCE_NUMBERS_TO_COLLECT = 1000;
+
+    /** Returns the parameters for the default cache size of FirebaseFirestoreSettings. */
+    public static Params Default() {
+      long cacheSizeBytes = new FirebaseFirestoreSettings.Builder().build().getCacheSizeBytes();
+      return WithCacheSizeBytes(cacheSizeBytes);
+    }
+
+    public static Params Disabled() {
+      return new Params(
+          GC_DISABLED, DEFAULT_COLLECTION_PERCENTILE, DEFAULT_MAX_SEQUENCE_NUMBERS_TO_COLLECT);
+    }
+
+    public static Params WithCacheSizeBytes(long cacheSizeBytes) {
+      return new Params(
+          cacheSizeBytes, DEFAULT_COLLECTION_PERCENTILE, DEFAULT_MAX_SEQUENCE_NUMBERS_TO_COLLECT);
+    }
+
+    final long minBytesThreshold;
+    final int percentileToCollect;
+    final int maximumSequenceNumbersToCollect;
+
+    Params(long minBytesThreshold, int percentileToCollect, int maximumSequenceNumbersToCollect) {
+      this.minBytesThreshold = minBytesThreshold;
+      this.percentileToCollect = percentileToCollect;
+      this.maximumSequenceNumbersToCollect = maximumSequenceNumbersToCollect;
+    }
+  }
+
+  /** Describes the results of a single garbage collection run. */
+  public static class Results {
+    private final boolean hasRun;
+    private final int sequenceNumbersCollected;
+    private final int targetsRemoved;
+    private final int documentsRemoved;
+    private final long durationMs;
+
+    static Results DidNotRun() {
+      return new Results(/* hasRun= */ false, 0, 0, 0, 0);
+    }
+
+    Results(
+        boolean hasRun,
+        int sequenceNumbersCollected,
+        int targetsRemoved,
+        int documentsRemoved,
+        long durationMs) {
+      this.hasRun = hasRun;
+      this.sequenceNumbersCollected = sequenceNumbersCollected;
+      this.targetsRemoved = targetsRemoved;
+      this.documentsRemoved = documentsRemoved;
+      this.durationMs = durationMs;
+    }
+
+    /** Returns whether collection ran, i.e. the cache size threshold was exceeded. */
+    public boolean hasRun() {
+      return hasRun;
+    }
+
+    public int getSequenceNumbersCollected() {
+      return sequenceNumbersCollected;
+    }
+
+    public int getTargetsRemoved() {
+      return targetsRemoved;
+    }
+
+    public int getDocumentsRemoved() {
+      return documentsRemoved;
+    }
+
+    /** Returns the wall time spent collecting, in milliseconds. */
+    public long getDurationMs() {
+      return durationMs;
+    }
+  }
+
+  /**
+   * This class is responsible for the scheduling of LRU garbage collection. It handles checking
+   * whether or not GC is enabled, as well as which delay to use before the next run.
+   */
+  public class GCScheduler implements Scheduler {
+    private final AsyncQueue asyncQueue;
+    private final LocalStore localStore;
+    private boolean hasRun = false;
+    @Nullable private AsyncQueue.DelayedTask gcTask;
+
+    GCScheduler(AsyncQueue asyncQueue, LocalStore localStore) {
+      this.asyncQueue = asyncQueue;
+      this.localStore = localStore;
+    }
+
+    /** Schedules the first collection run, unless collection is disabled. */
+    @Override
+    public void start() {
+      if (params.minBytesThreshold != GC_DISABLED) {
+        scheduleGC();
+      }
+    }
+
+    /** Cancels any pending collection run. Must be called on the AsyncQueue. */
+    @Override
+    public void stop() {
+      if (gcTask != null) {
+        gcTask.cancel();
+        gcTask = null;
+      }
+    }
+
+    private void scheduleGC() {
+      long delay = hasRun ? REGULAR_GC_DELAY_MS : INITIAL_GC_DELAY_MS;
+      gcTask =
+          asyncQueue.enqueueAfterDelay(
+              AsyncQueue.TimerId.GARBAGE_COLLECTION,
+              delay,
+              () -> {
+                gcTask = null;
+                localStore.collectGarbage(LruGarbageCollector.this);
+                hasRun = true;
+                scheduleGC();
+              });
+    }
+  }
+
   private final LruDelegate delegate;
+  private final Params params;
 
-  LruGarbageCollector(LruDelegate delegate) {
+  LruGarbageCollector(LruDelegate delegate, Params params) {
     this.delegate = delegate;
+    this.params = params;
+  }
+
+  /** A helper method to create a new scheduler. */
+  public GCScheduler newScheduler(AsyncQueue asyncQueue, LocalStore localStore) {
+    return new GCScheduler(asyncQueue, localStore);
   }
 
   /** Given a percentile of target to collect, returns the number of targets to collect. */
@@ -91,4 +250,86 @@ class LruGarbageCollector {
   int removeOrphanedDocuments(long upperBound) {
     return delegate.removeOrphanedDocuments(upperBound);
   }
+
+  /**
+   * Runs a garbage collection pass if the estimated cache size exceeds the configured threshold.
+   * Targets in {@code activeTargets} are never removed.
+   */
+  Results collect(SparseArray<?> activeTargets) {
+    if (params.minBytesThreshold == GC_DISABLED) {
+      Logger.debug(LOG_TAG, "Garbage collection skipped; disabled");
+      return Results.DidNotRun();
+    }
+
+    long cacheSize = getByteSize();
+    if (cacheSize < params.minBytesThreshold) {
+      Logger.debug(
+          LOG_TAG,
+          "Garbage collection skipped; Cache size %d is lower than threshold %d",
+          cacheSize,
+          params.minBytesThreshold);
+      return Results.DidNotRun();
+    }
+
+    Set<Integer> activeTargetIds = new HashSet<>();
+    for (int i = 0; i < activeTargets.size(); i++) {
+      activeTargetIds.add(activeTargets.keyAt(i));
+    }
+    return runGarbageCollection(activeTargetIds);
+  }
+
+  private Results runGarbageCollection(Set<Integer> activeTargetIds) {
+    long startTs = System.currentTimeMillis();
+    int sequenceNumbers = calculateQueryCount(params.percentileToCollect);
+    // Cap at the configured max
+    if (sequenceNumbers > params.maximumSequenceNumbersToCollect) {
+      Logger.debug(
+          LOG_TAG,
+          "Capping sequence numbers to collect down to the maximum of %d from %d",
+          params.maximumSequenceNumbersToCollect,
+          sequenceNumbers);
+      sequenceNumbers = params.maximumSequenceNumbersToCollect;
+    }
+    long countedTargetsTs = System.currentTimeMillis();
+
+    long upperBound = nthSequenceNumber(sequenceNumbers);
+    long foundUpperBoundTs = System.currentTimeMillis();
+
+    int numTargetsRemoved = removeQueries(upperBound, activeTargetIds);
+    long removedTargetsTs = System.currentTimeMillis();
+
+    int numDocumentsRemoved = removeOrphanedDocuments(upperBound);
+    long removedDocumentsTs = System.currentTimeMillis();
+
+    if (Logger.isDebugEnabled()) {
+      String desc = "LRU Garbage Collection:\n";
+      desc += "\tCounted targets in " + (countedTargetsTs - startTs) + "ms\n";
+      desc +=
+          String.format(
+              "\tDetermined least recently used %d sequence numbers in %dms\n",
+              sequenceNumbers, (foundUpperBoundTs - countedTargetsTs));
+      desc +=
+          String.format(
+              "\tRemoved %d targets in %dms\n",
+              numTargetsRemoved, (removedTargetsTs - foundUpperBoundTs));
+      desc +=
+          String.format(
+              "\tRemoved %d documents in %dms\n",
+              numDocumentsRemoved, (removedDocumentsTs - removedTargetsTs));
+      desc += String.format("Total Duration: %dms", (removedDocumentsTs - startTs));
+      Logger.debug(LOG_TAG, desc);
+    }
+
+    return new Results(
+        /* hasRun= */ true,
+        sequenceNumbers,
+        numTargetsRemoved,
+        numDocumentsRemoved,
+        removedDocumentsTs - startTs);
+  }
+
+  /** Returns an estimate of the size of the cache, in bytes. */
+  long getByteSize() {
+    return delegate.getByteSize();
+  }
 }
@@ -30,15 +30,20 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   private ReferenceSet additionalReferences;
   private final LruGarbageCollector garbageCollector;
   private final ListenSequence listenSequence;
+  private final LocalSerializer serializer;
   private long currentSequenceNumber;
 
-  MemoryLruReferenceDelegate(MemoryPersistence persistence) {
+  MemoryLruReferenceDelegate(
+      MemoryPersistence persistence,
+      LruGarbageCollector.Params params,
+      LocalSerializer serializer) {
     this.persistence = persistence;
+    this.serializer = serializer;
     this.orphanedSequenceNumbers = new HashMap<>();
     this.listenSequence =
         new ListenSequence(persistence.getQueryCache().getHighestListenSequenceNumber());
     this.currentSequenceNumber = ListenSequence.INVALID;
-    this.garbageCollector = new LruGarbageCollector(this);
+    this.garbageCollector = new LruGarbageCollector(this, params);
   }
 
   @Override
@@ -80,10 +85,29 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     return persistence.getQueryCache().getTargetCount();
   }
 
+  /**
+   * Estimates the size of the cache as the size of its contents when serialized with the same
+   * encoding that SQLite persistence would use.
+   */
+  @Override
+  public long getByteSize() {
+    long count = 0;
+    count += persistence.getQueryCache().getByteSize(serializer);
+    count += persistence.getRemoteDocumentCache().getByteSize(serializer);
+    for (MemoryMutationQueue queue : persistence.getMutationQueues()) {
+      count += queue.getByteSize(serializer);
+    }
+    return count;
+  }
+
   @Override
   public void forEachOrphanedDocumentSequenceNumber(Consumer<Long> consumer) {
-    for (Long sequenceNumber : orphanedSequenceNumbers.values()) {
-      consumer.accept(sequenceNumber);
+    for (Map.Entry<DocumentKey, Long> entry : orphanedSequenceNumbers.entrySet()) {
+      // Pass in the exact sequence number as the upper bound so we know it won't be pinned by being
+      // too recent.
+      if (!isPinned(entry.getKey(), entry.getValue())) {
+        consumer.accept(entry.getValue());
+      }
     }
   }
 
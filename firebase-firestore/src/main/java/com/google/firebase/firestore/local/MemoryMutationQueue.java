@@ -29,8 +29,10 @@ import com.google.firebase.firestore.remote.WriteStream;
 import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 final class MemoryMutationQueue implements MutationQueue {
@@ -274,6 +276,27 @@ final class MemoryMutationQueue implements MutationQueue {
     return lookupMutationBatches(uniqueBatchIDs);
   }
 
+  @Override
+  public DocumentOverlay getDocumentOverlay(DocumentKey documentKey) {
+    // The in-memory index already finds the batches of a document without a scan, and they don't
+    // have to be decoded, so overlays are computed when needed rather than stored.
+    return DocumentOverlay.create(
+        documentKey, getAllMutationBatchesAffectingDocumentKey(documentKey));
+  }
+
+  @Override
+  public Map<DocumentKey, DocumentOverlay> getDocumentOverlays(
+      Iterable<DocumentKey> documentKeys) {
+    Map<DocumentKey, DocumentOverlay> overlays = new HashMap<>();
+    for (DocumentKey key : documentKeys) {
+      DocumentOverlay overlay = getDocumentOverlay(key);
+      if (!overlay.isEmpty()) {
+        overlays.put(key, overlay);
+      }
+    }
+    return overlays;
+  }
+
   @Override
   public List<MutationBatch> getAllMutationBatchesAffectingQuery(Query query) {
     // Use the query path as a prefix for testing if a document matches the query.
@@ -395,6 +418,14 @@ final class MemoryMutationQueue implements MutationQueue {
     batchesByDocumentKey = references;
   }
 
+  long getByteSize(LocalSerializer serializer) {
+    long count = 0;
+    for (MutationBatch batch : queue) {
+      count += serializer.encodeMutationBatch(batch).getSerializedSize();
+    }
+    return count;
+  }
+
   @Override
   public void performConsistencyCheck() {
     if (queue.isEmpty()) {
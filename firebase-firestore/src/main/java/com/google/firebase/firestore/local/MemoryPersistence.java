@@ -17,9 +17,11 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.util.Metrics;
 import com.google.firebase.firestore.util.Supplier;
 import java.util.HashMap;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * An in-memory implementation of the Persistence interface. Values are stored only in RAM and are
@@ -44,9 +46,11 @@ public final class MemoryPersistence extends Persistence {
     return persistence;
   }
 
-  public static MemoryPersistence createLruGcMemoryPersistence() {
+  public static MemoryPersistence createLruGcMemoryPersistence(
+      LruGarbageCollector.Params params, LocalSerializer serializer) {
     MemoryPersistence persistence = new MemoryPersistence();
-    persistence.setReferenceDelegate(new MemoryLruReferenceDelegate(persistence));
+    persistence.setReferenceDelegate(
+        new MemoryLruReferenceDelegate(persistence, params, serializer));
     return persistence;
   }
 
@@ -109,25 +113,62 @@ public final class MemoryPersistence extends Persistence {
     return remoteDocumentCache;
   }
 
+  @Override
+  @Nullable
+  SQLiteCollectionIndex getCollectionIndex(User user) {
+    // There is no in-memory implementation of the collection index.
+    return null;
+  }
+
   @Override
   void runTransaction(String action, Runnable operation) {
+    Metrics.Operation metrics = Metrics.current();
+    long startNanos = metrics != null ? System.nanoTime() : 0;
     referenceDelegate.onTransactionStarted();
     try {
       operation.run();
     } finally {
       referenceDelegate.onTransactionCommitted();
+      if (metrics != null) {
+        metrics.recordTransaction(action, System.nanoTime() - startNanos);
+      }
     }
   }
 
   @Override
   <T> T runTransaction(String action, Supplier<T> operation) {
+    Metrics.Operation metrics = Metrics.current();
+    long startNanos = metrics != null ? System.nanoTime() : 0;
     referenceDelegate.onTransactionStarted();
     T result;
     try {
       result = operation.get();
     } finally {
       referenceDelegate.onTransactionCommitted();
+      if (metrics != null) {
+        metrics.recordTransaction(action, System.nanoTime() - startNanos);
+      }
     }
     return result;
   }
+
+  @Override
+  public boolean supportsConcurrentReads() {
+    return false;
+  }
+
+  @Override
+  <T> T runSnapshotRead(String action, Supplier<T> operation) {
+    // Reads always run on the worker queue, so they already see a consistent state.
+    Metrics.Operation metrics = Metrics.current();
+    if (metrics == null) {
+      return operation.get();
+    }
+    long startNanos = System.nanoTime();
+    try {
+      return operation.get();
+    } finally {
+      metrics.recordTransaction(action, System.nanoTime() - startNanos);
+    }
+  }
 }
@@ -68,6 +68,14 @@ final class MemoryQueryCache implements QueryCache {
     }
   }
 
+  long getByteSize(LocalSerializer serializer) {
+    long count = 0;
+    for (QueryData queryData : queries.values()) {
+      count += serializer.encodeQueryData(queryData).getSerializedSize();
+    }
+    return count;
+  }
+
   @Override
   public long getHighestListenSequenceNumber() {
     return highestSequenceNumber;
@@ -23,7 +23,10 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.ResourcePath;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -53,6 +56,19 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     return docs.get(key);
   }
 
+  @Override
+  public Map<DocumentKey, MaybeDocument> getAll(Iterable<DocumentKey> keys) {
+    Map<DocumentKey, MaybeDocument> result = new HashMap<>();
+
+    for (DocumentKey key : keys) {
+      // Make sure each key has a corresponding entry, which is null in case the document is not
+      // found.
+      result.put(key, get(key));
+    }
+
+    return result;
+  }
+
   @Override
   public ImmutableSortedMap<DocumentKey, Document> getAllDocumentsMatchingQuery(Query query) {
     ImmutableSortedMap<DocumentKey, Document> result = emptyDocumentMap();
@@ -83,6 +99,35 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     return result;
   }
 
+  @Override
+  public List<MaybeDocument> getCollectionChunk(
+      ResourcePath collectionPath, @Nullable DocumentKey start, boolean inclusive, int count) {
+    List<MaybeDocument> result = new ArrayList<>();
+    DocumentKey from = start != null ? start : DocumentKey.fromPath(collectionPath.append(""));
+    Iterator<Map.Entry<DocumentKey, MaybeDocument>> iterator = docs.iteratorFrom(from);
+    while (iterator.hasNext() && result.size() < count) {
+      Map.Entry<DocumentKey, MaybeDocument> entry = iterator.next();
+      ResourcePath path = entry.getKey().getPath();
+      if (!collectionPath.isPrefixOf(path)) {
+        break;
+      }
+      // Skip documents in subcollections, which sort between the documents of the collection.
+      if (collectionPath.isImmediateParentOf(path)
+          && (inclusive || !entry.getKey().equals(start))) {
+        result.add(entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  long getByteSize(LocalSerializer serializer) {
+    long count = 0;
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : docs) {
+      count += serializer.encodeMaybeDocument(entry.getValue()).getSerializedSize();
+    }
+    return count;
+  }
+
   /** Remove any documents that the delegate reports as not pinned at the given upper bound. */
   int removeOrphanedDocuments(MemoryLruReferenceDelegate delegate, long upperBound) {
     int count = 0;
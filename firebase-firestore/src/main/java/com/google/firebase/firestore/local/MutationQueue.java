@@ -21,6 +21,7 @@ import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.protobuf.ByteString;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /** A queue of mutations to apply to the remote store. */
@@ -121,6 +122,21 @@ interface MutationQueue {
   List<MutationBatch> getAllMutationBatchesAffectingDocumentKeys(
       Iterable<DocumentKey> documentKeys);
 
+  /**
+   * Returns the overlay of the given document: its pending mutations, collapsed such that applying
+   * the overlay to its remote version gives the same result as applying all the batches returned by
+   * {@link #getAllMutationBatchesAffectingDocumentKey}.
+   *
+   * <p>Returns {@link DocumentOverlay#EMPTY} if the document has no pending mutations.
+   */
+  DocumentOverlay getDocumentOverlay(DocumentKey documentKey);
+
+  /**
+   * Returns the overlays of the given documents, as described in {@link #getDocumentOverlay}.
+   * Documents without pending mutations are left out of the result.
+   */
+  Map<DocumentKey, DocumentOverlay> getDocumentOverlays(Iterable<DocumentKey> documentKeys);
+
   /**
    * Finds all mutation batches that could affect the results for the given query. Not all mutations
    * in a batch will necessarily affect the query, so when looping through the batch you'll need to
@@ -16,6 +16,7 @@ package com.google.firebase.firestore.local;
 
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.util.Supplier;
+import javax.annotation.Nullable;
 
 /**
  * Persistence is the lowest-level shared interface to persistent storage in Firestore.
@@ -49,10 +50,6 @@ import com.google.firebase.firestore.util.Supplier;
 public abstract class Persistence {
   static final String TAG = Persistence.class.getSimpleName();
 
-  /** Temporary setting for enabling indexing-specific code paths while in development. */
-  // TODO: Remove this.
-  public static boolean INDEXING_SUPPORT_ENABLED = false;
-
   // Local subclasses only, please.
   Persistence() {}
 
@@ -86,6 +83,13 @@ public abstract class Persistence {
   /** Creates a RemoteDocumentCache representing the persisted cache of remote documents. */
   abstract RemoteDocumentCache getRemoteDocumentCache();
 
+  /**
+   * Returns a SQLiteCollectionIndex for the local documents of the given user, or null if this
+   * persistence implementation does not support indexing.
+   */
+  @Nullable
+  abstract SQLiteCollectionIndex getCollectionIndex(User user);
+
   /**
    * Performs an operation inside a persistence transaction. Any reads or writes against persistence
    * must be performed within a transaction. Writes will be committed atomically once the
@@ -106,4 +110,20 @@ public abstract class Persistence {
    * @return The value returned from the operation.
    */
   abstract <T> T runTransaction(String action, Supplier<T> operation);
+
+  /**
+   * Returns whether read-only operations may be run via {@link #runSnapshotRead} from threads other
+   * than the one performing writes, while writes are in progress.
+   */
+  public abstract boolean supportsConcurrentReads();
+
+  /**
+   * Performs a read-only operation against a consistent snapshot of the persisted state, which
+   * includes all previously committed transactions. The operation must not write to persistence.
+   *
+   * @param action A description of the action performed by this read, used for logging.
+   * @param operation The operation to run against the snapshot.
+   * @return The value returned from the operation.
+   */
+  abstract <T> T runSnapshotRead(String action, Supplier<T> operation);
 }
@@ -0,0 +1,65 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.util.Logger;
+
+/**
+ * Tracks the work done to execute a single query against the local cache, i.e. how many documents
+ * had to be read to produce its results, and reports it to the debug log.
+ */
+final class QueryCost {
+
+  private static final String LOG_TAG = "QueryEngine";
+
+  private final Query query;
+  private final String plan;
+  private final long startNanos;
+  private int documentsRead;
+
+  /**
+   * @param query The query being executed.
+   * @param plan A short description of how the query is executed (e.g. which index it uses).
+   */
+  QueryCost(Query query, String plan) {
+    this.query = query;
+    this.plan = plan;
+    this.startNanos = System.nanoTime();
+  }
+
+  /** Records that a document was read (and decoded) to execute the query. */
+  void recordDocumentRead() {
+    documentsRead++;
+  }
+
+  int getDocumentsRead() {
+    return documentsRead;
+  }
+
+  /** Reports the cost of the query, which produced the given number of results. */
+  void report(int resultCount) {
+    if (Logger.isDebugEnabled()) {
+      Logger.debug(
+          LOG_TAG,
+          "Executed query %s using %s in %dms: read %d documents, returned %d",
+          query.getCanonicalId(),
+          plan,
+          (System.nanoTime() - startNanos) / 1000000,
+          documentsRead,
+          resultCount);
+    }
+  }
+}
@@ -19,10 +19,17 @@ import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
+import javax.annotation.Nullable;
 
 /** Represents a query engine capable of performing queries over the local document cache. */
 interface QueryEngine {
 
+  /**
+   * Prepares the query engine for use (e.g. by building any indexes it relies on). Called within a
+   * transaction whenever the mutation queue of the current user has been started.
+   */
+  void start();
+
   /** Returns all local documents matching the specified query. */
   ImmutableSortedMap<DocumentKey, Document> getDocumentsMatchingQuery(Query query);
 
@@ -33,5 +40,6 @@ interface QueryEngine {
    * <p>TODO: We can change this to just accept the changed fields (w/ old and new values) if it's
    * convenient for the caller to compute.
    */
-  void handleDocumentChange(MaybeDocument oldDocument, MaybeDocument newDocument);
+  void handleDocumentChange(
+      @Nullable MaybeDocument oldDocument, @Nullable MaybeDocument newDocument);
 }
@@ -19,6 +19,9 @@ import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -51,6 +54,15 @@ interface RemoteDocumentCache {
   @Nullable
   MaybeDocument get(DocumentKey documentKey);
 
+  /**
+   * Looks up a set of entries in the cache.
+   *
+   * @param documentKeys The keys of the entries to look up.
+   * @return The cached Document or NoDocument entries indexed by key. If an entry is not cached,
+   *     the corresponding key will be mapped to a null value.
+   */
+  Map<DocumentKey, MaybeDocument> getAll(Iterable<DocumentKey> documentKeys);
+
   /**
    * Executes a query against the cached Document entries
    *
@@ -63,4 +75,17 @@ interface RemoteDocumentCache {
    * @return The set of matching documents.
    */
   ImmutableSortedMap<DocumentKey, Document> getAllDocumentsMatchingQuery(Query query);
+
+  /**
+   * Reads a chunk of the cached entries in a collection, in key order. Allows callers to scan
+   * collections that are too large to load at once.
+   *
+   * @param collectionPath The collection whose immediate children to read.
+   * @param start The key to start reading at, or null to start at the beginning of the collection.
+   * @param inclusive Whether the entry for {@code start} itself should be returned.
+   * @param count The maximum number of entries to return.
+   * @return The cached Document or NoDocument entries, ordered by key.
+   */
+  List<MaybeDocument> getCollectionChunk(
+      ResourcePath collectionPath, @Nullable DocumentKey start, boolean inclusive, int count);
 }
@@ -14,37 +14,104 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.util.Assert.fail;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.GeoPoint;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.core.IndexRange;
+import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldPath;
 import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.model.value.ArrayValue;
+import com.google.firebase.firestore.model.value.BlobValue;
+import com.google.firebase.firestore.model.value.BooleanValue;
+import com.google.firebase.firestore.model.value.DoubleValue;
 import com.google.firebase.firestore.model.value.FieldValue;
+import com.google.firebase.firestore.model.value.GeoPointValue;
+import com.google.firebase.firestore.model.value.IntegerValue;
+import com.google.firebase.firestore.model.value.NullValue;
+import com.google.firebase.firestore.model.value.ObjectValue;
+import com.google.firebase.firestore.model.value.ReferenceValue;
+import com.google.firebase.firestore.model.value.ServerTimestampValue;
+import com.google.firebase.firestore.model.value.StringValue;
+import com.google.firebase.firestore.model.value.TimestampValue;
+import com.google.firebase.firestore.util.Util;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A persisted "collection index" of all documents in the local cache (with mutations overlaid on
  * top of remote documents).
  *
+ * <p>Each index entry stores a field value as a (type, component 1, component 2) tuple whose SQLite
+ * ordering matches the ordering of the original values within the same type. The encoding is lossy
+ * (e.g. all arrays and objects share a single entry per type), so index scans may return extra
+ * documents but never omit a matching one.
+ *
+ * <p>The index only ever holds entries for a single user, namely for the local view of the user
+ * that was last active. When a different user becomes active, the entries are handed over to that
+ * user, since the local views of two users only differ in the documents with pending mutations
+ * (see {@link #getIndexedUid} and {@link #transferEntries}).
+ *
  * <p>NOTE: There is no in-memory implementation at this time.
  */
 public class SQLiteCollectionIndex {
 
+  private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private final SQLitePersistence db;
   private final String uid;
 
   SQLiteCollectionIndex(SQLitePersistence persistence, User user) {
+    this(persistence, user.isAuthenticated() ? user.getUid() : "");
+  }
+
+  private SQLiteCollectionIndex(SQLitePersistence persistence, String uid) {
     this.db = persistence;
-    this.uid = user.isAuthenticated() ? user.getUid() : "";
+    this.uid = uid;
   }
 
   /** Adds the specified entry to the index. */
   public void addEntry(FieldPath fieldPath, FieldValue fieldValue, DocumentKey documentKey) {
-    throw new RuntimeException("Not yet implemented.");
+    Object[] encodedValue = encodeFieldValue(fieldValue);
+    ResourcePath path = documentKey.getPath();
+    db.execute(
+        "INSERT OR REPLACE INTO collection_index (uid, collection_path, field_path, "
+            + "field_value_type, field_value_1, field_value_2, document_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)",
+        uid,
+        EncodedPath.encode(path.popLast()),
+        fieldPath.canonicalString(),
+        encodedValue[0],
+        encodedValue[1],
+        encodedValue[2],
+        path.getLastSegment());
   }
 
-  /** Adds the specified entry to the index. */
+  /** Removes the specified entry from the index. */
   public void removeEntry(FieldPath fieldPath, FieldValue fieldValue, DocumentKey documentKey) {
-    throw new RuntimeException("Not yet implemented.");
+    Object[] encodedValue = encodeFieldValue(fieldValue);
+    ResourcePath path = documentKey.getPath();
+    db.execute(
+        "DELETE FROM collection_index WHERE uid = ? AND collection_path = ? AND field_path = ? "
+            + "AND field_value_type = ? AND field_value_1 = ? AND field_value_2 = ? "
+            + "AND document_id = ?",
+        uid,
+        EncodedPath.encode(path.popLast()),
+        fieldPath.canonicalString(),
+        encodedValue[0],
+        encodedValue[1],
+        encodedValue[2],
+        path.getLastSegment());
   }
 
   /**
@@ -53,6 +120,269 @@ public class SQLiteCollectionIndex {
    * post-filter the results.
    */
   public IndexCursor getCursor(ResourcePath collectionPath, IndexRange indexRange) {
-    throw new RuntimeException("Not yet implemented.");
+    StringBuilder sql =
+        new StringBuilder(
+            "SELECT document_id, field_value_type, field_value_1, field_value_2 "
+                + "FROM collection_index "
+                + "WHERE uid = ? AND collection_path = ? AND field_path = ?");
+    List<Object> args = new ArrayList<>();
+    args.add(uid);
+    args.add(EncodedPath.encode(collectionPath));
+    args.add(indexRange.getFieldPath().canonicalString());
+
+    if (indexRange.getStart() != null) {
+      sql.append(
+          " AND (field_value_type > ? OR (field_value_type = ? AND (field_value_1 > ? "
+              + "OR (field_value_1 = ? AND field_value_2 >= ?))))");
+      appendRangeArgs(args, encodeFieldValue(indexRange.getStart()));
+    }
+
+    if (indexRange.getEnd() != null) {
+      sql.append(
+          " AND (field_value_type < ? OR (field_value_type = ? AND (field_value_1 < ? "
+              + "OR (field_value_1 = ? AND field_value_2 <= ?))))");
+      appendRangeArgs(args, encodeFieldValue(indexRange.getEnd()));
+    }
+
+    if (indexRange.isDescending()) {
+      sql.append(
+          " ORDER BY field_value_type DESC, field_value_1 DESC, field_value_2 DESC, "
+              + "document_id DESC");
+    } else {
+      sql.append(" ORDER BY field_value_type, field_value_1, field_value_2, document_id");
+    }
+
+    return new IndexCursor(
+        db.query(sql.toString()).binding(args.toArray()).startQuery(), collectionPath);
+  }
+
+  /** Returns the uid of this index's user. */
+  String getUid() {
+    return uid;
+  }
+
+  /**
+   * Returns the uid of the user whose local view the index holds entries for, or null if the index
+   * is empty.
+   */
+  @Nullable
+  String getIndexedUid() {
+    return getIndexedUid(db);
+  }
+
+  @Nullable
+  private static String getIndexedUid(SQLitePersistence db) {
+    String[] indexedUid = new String[1];
+    db.query("SELECT uid FROM collection_index LIMIT 1")
+        .first(row -> indexedUid[0] = row.getString(0));
+    return indexedUid[0];
+  }
+
+  /**
+   * Assigns the entries of the given user to the current user. The caller must update the entries
+   * of all documents whose local view differs between the two users.
+   */
+  void transferEntries(String previousUid) {
+    db.execute("UPDATE collection_index SET uid = ? WHERE uid = ?", uid, previousUid);
+  }
+
+  /**
+   * Removes all entries from the index, including those of other users. Used when the index is no
+   * longer maintained, since it could otherwise be handed over in a stale state later on.
+   */
+  void clear() {
+    db.execute("DELETE FROM collection_index");
+  }
+
+  /** Removes all entries of the given documents from the index. */
+  void removeDocuments(Collection<DocumentKey> documentKeys) {
+    // Entries are looked up by collection, so remove the documents of each collection together.
+    Map<ResourcePath, List<String>> documentIds = new HashMap<>();
+    for (DocumentKey key : documentKeys) {
+      ResourcePath collectionPath = key.getPath().popLast();
+      List<String> ids = documentIds.get(collectionPath);
+      if (ids == null) {
+        ids = new ArrayList<>();
+        documentIds.put(collectionPath, ids);
+      }
+      ids.add(key.getPath().getLastSegment());
+    }
+
+    for (Map.Entry<ResourcePath, List<String>> entry : documentIds.entrySet()) {
+      db.executeForValues(
+          "DELETE FROM collection_index WHERE uid = ? AND collection_path = ? AND document_id IN ",
+          new Object[] {uid, EncodedPath.encode(entry.getKey())},
+          entry.getValue());
+    }
+  }
+
+  /**
+   * Removes all entries of the given documents, which have been removed from the cache by garbage
+   * collection, from the index of whichever user the index holds entries for.
+   */
+  static void removeCollectedDocuments(
+      SQLitePersistence persistence, Collection<DocumentKey> documentKeys) {
+    String indexedUid = getIndexedUid(persistence);
+    if (indexedUid != null && !documentKeys.isEmpty()) {
+      new SQLiteCollectionIndex(persistence, indexedUid).removeDocuments(documentKeys);
+    }
+  }
+
+  /**
+   * Returns the keys of all documents that may be part of the local view of the current user, i.e.
+   * all documents in the remote document cache and all documents with pending mutations.
+   */
+  List<DocumentKey> getAllDocumentKeys() {
+    List<DocumentKey> keys = new ArrayList<>();
+    db.query(
+            "SELECT path FROM remote_documents "
+                + "UNION SELECT path FROM document_mutations WHERE uid = ?")
+        .binding(uid)
+        .forEach(
+            row -> {
+              ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
+              keys.add(DocumentKey.fromPath(path));
+            });
+    return keys;
+  }
+
+  /**
+   * Returns the keys of all documents with pending mutations of either the current user or the
+   * given user, i.e. of all documents whose local view may differ between the two users.
+   */
+  List<DocumentKey> getDocumentKeysWithMutations(String otherUid) {
+    List<DocumentKey> keys = new ArrayList<>();
+    db.query("SELECT DISTINCT path FROM document_mutations WHERE uid IN (?, ?)")
+        .binding(uid, otherUid)
+        .forEach(
+            row -> {
+              ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
+              keys.add(DocumentKey.fromPath(path));
+            });
+    return keys;
+  }
+
+  /**
+   * Compares two encoded (type, component 1, component 2) values the same way SQLite orders the
+   * corresponding index entries.
+   */
+  static int compareEncodedValues(Object[] left, Object[] right) {
+    for (int i = 0; i < left.length; i++) {
+      int cmp = compareComponents(left[i], right[i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compares two encoded components using SQLite's ordering of storage classes: NULL sorts before
+   * numbers, numbers before text and text before blobs.
+   */
+  private static int compareComponents(@Nullable Object left, @Nullable Object right) {
+    int cmp = Util.compareIntegers(storageClassOrder(left), storageClassOrder(right));
+    if (cmp != 0 || left == null) {
+      return cmp;
+    } else if (left instanceof Number) {
+      // SQLite compares integers and reals numerically. NaN is never stored (see below).
+      if (left instanceof Double && right instanceof Double) {
+        return Util.compareDoubles((Double) left, (Double) right);
+      } else if (left instanceof Double) {
+        return Util.compareMixed((Double) left, ((Number) right).longValue());
+      } else if (right instanceof Double) {
+        return -Util.compareMixed((Double) right, ((Number) left).longValue());
+      }
+      return Util.compareLongs(((Number) left).longValue(), ((Number) right).longValue());
+    } else if (left instanceof String) {
+      // Text is compared with the BINARY collation, i.e. via memcmp() of its UTF-8 encoding.
+      return compareBytes(((String) left).getBytes(UTF_8), ((String) right).getBytes(UTF_8));
+    } else {
+      return compareBytes((byte[]) left, (byte[]) right);
+    }
+  }
+
+  private static int storageClassOrder(@Nullable Object component) {
+    if (component == null) {
+      return 0;
+    } else if (component instanceof Number) {
+      return 1;
+    } else if (component instanceof String) {
+      return 2;
+    } else {
+      return 3;
+    }
+  }
+
+  private static int compareBytes(byte[] left, byte[] right) {
+    int length = Math.min(left.length, right.length);
+    for (int i = 0; i < length; i++) {
+      int cmp = Util.compareIntegers(left[i] & 0xff, right[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Util.compareIntegers(left.length, right.length);
+  }
+
+  private static void appendRangeArgs(List<Object> args, Object[] encodedValue) {
+    args.add(encodedValue[0]);
+    args.add(encodedValue[0]);
+    args.add(encodedValue[1]);
+    args.add(encodedValue[1]);
+    args.add(encodedValue[2]);
+  }
+
+  /**
+   * Encodes a field value as a (type, component 1, component 2) tuple. Within a single type, the
+   * SQLite ordering of the components matches the ordering of the field values, although distinct
+   * values may share an encoding.
+   */
+  static Object[] encodeFieldValue(FieldValue value) {
+    int type = value.typeOrder();
+    if (value instanceof NullValue) {
+      return new Object[] {type, 0, 0};
+    } else if (value instanceof BooleanValue) {
+      return new Object[] {type, ((BooleanValue) value).value() ? 1 : 0, 0};
+    } else if (value instanceof IntegerValue) {
+      return new Object[] {type, ((IntegerValue) value).getInternalValue(), 0};
+    } else if (value instanceof DoubleValue) {
+      double doubleValue = ((DoubleValue) value).getInternalValue();
+      // SQLite stores NaN as NULL, which breaks comparisons. NaN sorts before all other numbers, so
+      // it shares its encoding with negative infinity.
+      return new Object[] {
+        type, Double.isNaN(doubleValue) ? Double.NEGATIVE_INFINITY : doubleValue, 0
+      };
+    } else if (value instanceof TimestampValue) {
+      Timestamp timestamp = ((TimestampValue) value).getInternalValue();
+      return new Object[] {type, timestamp.getSeconds(), timestamp.getNanoseconds()};
+    } else if (value instanceof ServerTimestampValue) {
+      // Server timestamps sort after all concrete timestamps.
+      return new Object[] {type, Long.MAX_VALUE, 0};
+    } else if (value instanceof StringValue) {
+      // UTF-16BE bytes compare (via memcmp) the same way String.compareTo() compares strings.
+      return new Object[] {type, ((StringValue) value).value().getBytes(UTF_16BE), 0};
+    } else if (value instanceof BlobValue) {
+      return new Object[] {type, ((BlobValue) value).value().toBytes(), 0};
+    } else if (value instanceof ReferenceValue) {
+      ReferenceValue referenceValue = (ReferenceValue) value;
+      DatabaseId databaseId = referenceValue.getDatabaseId();
+      ResourcePath databasePath =
+          ResourcePath.fromSegments(
+              Arrays.asList(databaseId.getProjectId(), databaseId.getDatabaseId()));
+      return new Object[] {
+        type,
+        EncodedPath.encode(databasePath),
+        EncodedPath.encode(referenceValue.value().getPath())
+      };
+    } else if (value instanceof GeoPointValue) {
+      GeoPoint geoPoint = ((GeoPointValue) value).value();
+      return new Object[] {type, geoPoint.getLatitude(), geoPoint.getLongitude()};
+    } else if (value instanceof ArrayValue || value instanceof ObjectValue) {
+      // Arrays and objects are not indexed uniquely.
+      return new Object[] {type, 0, 0};
+    } else {
+      throw fail("Unexpected field value type: %s", value.getClass());
+    }
   }
 }
@@ -20,20 +20,22 @@ import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.util.Consumer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /** Provides LRU functionality for SQLite persistence. */
-class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
+public class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   private final SQLitePersistence persistence;
   private ListenSequence listenSequence;
   private long currentSequenceNumber;
   private final LruGarbageCollector garbageCollector;
   private ReferenceSet additionalReferences;
 
-  SQLiteLruReferenceDelegate(SQLitePersistence persistence) {
+  SQLiteLruReferenceDelegate(SQLitePersistence persistence, LruGarbageCollector.Params params) {
     this.currentSequenceNumber = ListenSequence.INVALID;
     this.persistence = persistence;
-    this.garbageCollector = new LruGarbageCollector(this);
+    this.garbageCollector = new LruGarbageCollector(this, params);
   }
 
   void start(long highestSequenceNumber) {
@@ -69,6 +71,11 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     return garbageCollector;
   }
 
+  @Override
+  public long getByteSize() {
+    return persistence.getByteSize();
+  }
+
   @Override
   public long getTargetCount() {
     return persistence.getQueryCache().getTargetCount();
@@ -102,6 +109,16 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     writeSentinel(key);
   }
 
+  /** Same as calling {@link #addReference} for each of the given keys, but in bulk. */
+  void addReferences(Iterable<DocumentKey> keys) {
+    writeSentinels(keys);
+  }
+
+  /** Same as calling {@link #removeReference} for each of the given keys, but in bulk. */
+  void removeReferences(Iterable<DocumentKey> keys) {
+    writeSentinels(keys);
+  }
+
   @Override
   public int removeQueries(long upperBound, Set<Integer> activeTargetIds) {
     return persistence.getQueryCache().removeQueries(upperBound, activeTargetIds);
@@ -141,7 +158,7 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
 
   @Override
   public int removeOrphanedDocuments(long upperBound) {
-    int[] count = new int[1];
+    List<DocumentKey> removedKeys = new ArrayList<>();
     persistence
         .query(
             "select path from target_documents group by path having COUNT(*) = 1 AND target_id = 0 AND sequence_number <= ?")
@@ -151,12 +168,13 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
               ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
               DocumentKey key = DocumentKey.fromPath(path);
               if (!isPinned(key)) {
-                count[0]++;
+                removedKeys.add(key);
                 persistence.getRemoteDocumentCache().remove(key);
                 removeSentinel(key);
               }
             });
-    return count[0];
+    SQLiteCollectionIndex.removeCollectedDocuments(persistence, removedKeys);
+    return removedKeys.size();
   }
 
   @Override
@@ -179,4 +197,14 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
         path,
         getCurrentSequenceNumber());
   }
+
+  private void writeSentinels(Iterable<DocumentKey> keys) {
+    long sequenceNumber = getCurrentSequenceNumber();
+    List<Object[]> rows = new ArrayList<>();
+    for (DocumentKey key : keys) {
+      rows.add(new Object[] {0, EncodedPath.encode(key.getPath()), sequenceNumber});
+    }
+    persistence.executeInsert(
+        "INSERT OR REPLACE INTO target_documents (target_id, path, sequence_number) VALUES ", rows);
+  }
 }
@@ -27,21 +27,28 @@ import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.remote.WriteStream;
-import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /** A mutation queue for a specific user, backed by SQLite. */
 final class SQLiteMutationQueue implements MutationQueue {
 
+  /** The maximum number of documents whose overlays are cached. */
+  private static final int OVERLAY_CACHE_SIZE = 10000;
+
   private final SQLitePersistence db;
   private final LocalSerializer serializer;
 
@@ -74,6 +81,28 @@ final class SQLiteMutationQueue implements MutationQueue {
    */
   private ByteString lastStreamToken;
 
+  /**
+   * Decoded mutation batches by batch ID, so that each batch is only decoded once no matter how
+   * many documents and queries it affects. A batch never changes once it has been added, so entries
+   * can't go stale. They are only removed to free memory once their batch is removed.
+   *
+   * <p>Snapshot reads on other threads only read from the cache, and only look up batch IDs they
+   * found in their snapshot. They never add to it, since their snapshot may still contain batches
+   * that were removed in the meantime.
+   */
+  private final Map<Integer, MutationBatch> batchCache = new ConcurrentHashMap<>();
+
+  /**
+   * The overlays of the most recently looked up documents, including the empty overlays of
+   * documents without pending mutations. Every overlay is written through writeDocumentOverlay(),
+   * which keeps the cache up to date, so looking up a document usually needs neither a query nor
+   * decoding. Only used outside of snapshot reads, on the main connection whose writes it reflects.
+   *
+   * <p>Like nextBatchId, the caches aren't rolled back with failed transactions, which leave the
+   * client unusable anyway.
+   */
+  private final OverlayCache overlayCache = new OverlayCache(OVERLAY_CACHE_SIZE);
+
   /**
    * Creates a new mutation queue for the given user, in the SQLite database wrapped by the
    * persistence interface.
@@ -119,6 +148,36 @@ final class SQLiteMutationQueue implements MutationQueue {
       lastAcknowledgedBatchId = MutationBatch.UNKNOWN;
       writeMutationQueueMetadata();
     }
+
+    populateDocumentOverlays();
+  }
+
+  /**
+   * Computes the document overlays of a queue whose mutations were added before overlays were
+   * stored. Every document with pending mutations has an overlay, so a non-empty queue without
+   * overlays is one that hasn't been populated yet.
+   */
+  private void populateDocumentOverlays() {
+    boolean hasOverlays =
+        !db.query("SELECT path FROM document_overlays WHERE uid = ? LIMIT 1")
+            .binding(uid)
+            .isEmpty();
+    if (hasOverlays || isEmpty()) {
+      return;
+    }
+
+    List<DocumentKey> keys = new ArrayList<>();
+    db.query("SELECT DISTINCT path FROM document_mutations WHERE uid = ?")
+        .binding(uid)
+        .forEach(
+            row -> {
+              ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
+              keys.add(DocumentKey.fromPath(path));
+            });
+    for (DocumentKey key : keys) {
+      List<MutationBatch> batches = getAllMutationBatchesAffectingDocumentKey(key);
+      writeDocumentOverlay(key, DocumentOverlay.create(key, batches));
+    }
   }
 
   /**
@@ -220,16 +279,34 @@ final class SQLiteMutationQueue implements MutationQueue {
     // added in this batch.
     Set<DocumentKey> inserted = new HashSet<>();
 
-    SQLiteStatement indexInserter =
-        db.prepare("INSERT INTO document_mutations (uid, path, batch_id) VALUES (?, ?, ?)");
+    List<Object[]> indexRows = new ArrayList<>(mutations.size());
     for (Mutation mutation : mutations) {
       DocumentKey key = mutation.getKey();
       if (!inserted.add(key)) {
         continue;
       }
 
-      String path = EncodedPath.encode(key.getPath());
-      db.execute(indexInserter, uid, path, batchId);
+      ResourcePath path = key.getPath();
+      indexRows.add(
+          new Object[] {
+            uid,
+            EncodedPath.encode(path),
+            EncodedPath.encode(path.popLast()),
+            EncodedPath.encodeDocumentId(path.getLastSegment()),
+            batchId
+          });
+    }
+    db.executeInsert(
+        "INSERT INTO document_mutations (uid, path, parent_path, document_id, batch_id) VALUES ",
+        indexRows);
+
+    batchCache.put(batchId, batch);
+
+    // The new batch has the highest batch ID so far, so it is applied after each existing overlay,
+    // without reading the earlier batches.
+    Map<DocumentKey, DocumentOverlay> overlays = getOverlays(inserted);
+    for (DocumentKey key : inserted) {
+      writeDocumentOverlay(key, overlays.get(key).withBatch(key, batch));
     }
 
     return batch;
@@ -238,9 +315,15 @@ final class SQLiteMutationQueue implements MutationQueue {
   @Nullable
   @Override
   public MutationBatch lookupMutationBatch(int batchId) {
+    if (!db.isSnapshotRead()) {
+      MutationBatch batch = batchCache.get(batchId);
+      if (batch != null) {
+        return batch;
+      }
+    }
     return db.query("SELECT mutations FROM mutations WHERE uid = ? AND batch_id = ?")
         .binding(uid, batchId)
-        .firstValue(row -> decodeMutationBatch(row.getBlob(0)));
+        .firstValue(row -> cacheMutationBatch(batchId, decodeMutationBatch(row.getBlob(0))));
   }
 
   @Nullable
@@ -250,174 +333,131 @@ final class SQLiteMutationQueue implements MutationQueue {
     // unacknowledged batch after batchID will have a batchID larger than both of these values.
     int nextBatchId = Math.max(batchId, lastAcknowledgedBatchId) + 1;
 
-    return db.query(
-            "SELECT mutations FROM mutations "
-                + "WHERE uid = ? AND batch_id >= ? "
-                + "ORDER BY batch_id ASC LIMIT 1")
-        .binding(uid, nextBatchId)
-        .firstValue(row -> decodeMutationBatch(row.getBlob(0)));
+    Integer batchIdAfter =
+        db.query(
+                "SELECT batch_id FROM mutations "
+                    + "WHERE uid = ? AND batch_id >= ? "
+                    + "ORDER BY batch_id ASC LIMIT 1")
+            .binding(uid, nextBatchId)
+            .firstValue(row -> row.getInt(0));
+    return batchIdAfter != null
+        ? getMutationBatches(Collections.singletonList(batchIdAfter)).get(0)
+        : null;
   }
 
   @Override
   public List<MutationBatch> getAllMutationBatches() {
-    List<MutationBatch> result = new ArrayList<>();
-    db.query("SELECT mutations FROM mutations WHERE uid = ? ORDER BY batch_id ASC")
+    List<Integer> batchIds = new ArrayList<>();
+    db.query("SELECT batch_id FROM mutations WHERE uid = ? ORDER BY batch_id ASC")
         .binding(uid)
-        .forEach(row -> result.add(decodeMutationBatch(row.getBlob(0))));
-    return result;
+        .forEach(row -> batchIds.add(row.getInt(0)));
+    return getMutationBatches(batchIds);
   }
 
   @Override
   public List<MutationBatch> getAllMutationBatchesThroughBatchId(int batchId) {
-    List<MutationBatch> result = new ArrayList<>();
-    db.query(
-            "SELECT mutations FROM mutations "
-                + "WHERE uid = ? AND batch_id <= ? ORDER BY batch_id ASC")
+    List<Integer> batchIds = new ArrayList<>();
+    db.query("SELECT batch_id FROM mutations WHERE uid = ? AND batch_id <= ? ORDER BY batch_id ASC")
         .binding(uid, batchId)
-        .forEach(row -> result.add(decodeMutationBatch(row.getBlob(0))));
-    return result;
+        .forEach(row -> batchIds.add(row.getInt(0)));
+    return getMutationBatches(batchIds);
   }
 
   @Override
   public List<MutationBatch> getAllMutationBatchesAffectingDocumentKey(DocumentKey documentKey) {
-    String path = EncodedPath.encode(documentKey.getPath());
-
-    List<MutationBatch> result = new ArrayList<>();
-    db.query(
-            "SELECT m.mutations FROM document_mutations dm, mutations m "
-                + "WHERE dm.uid = ? "
-                + "AND dm.path = ? "
-                + "AND dm.uid = m.uid "
-                + "AND dm.batch_id = m.batch_id "
-                + "ORDER BY dm.batch_id")
-        .binding(uid, path)
-        .forEach(row -> result.add(decodeMutationBatch(row.getBlob(0))));
-    return result;
+    List<Integer> batchIds = new ArrayList<>();
+    db.query("SELECT batch_id FROM document_mutations WHERE uid = ? AND path = ? ORDER BY batch_id")
+        .binding(uid, EncodedPath.encode(documentKey.getPath()))
+        .forEach(row -> batchIds.add(row.getInt(0)));
+    return getMutationBatches(batchIds);
   }
 
   @Override
   public List<MutationBatch> getAllMutationBatchesAffectingDocumentKeys(
       Iterable<DocumentKey> documentKeys) {
-    List<MutationBatch> result = new ArrayList<>();
-    if (!documentKeys.iterator().hasNext()) {
-      return result;
+    List<String> paths = new ArrayList<>();
+    for (DocumentKey key : documentKeys) {
+      paths.add(EncodedPath.encode(key.getPath()));
+    }
+
+    Set<Integer> batchIds = new TreeSet<>();
+    db.queryForValues(
+        "SELECT DISTINCT batch_id FROM document_mutations WHERE uid = ? AND path IN ",
+        new Object[] {uid},
+        paths,
+        row -> batchIds.add(row.getInt(0)));
+    return getMutationBatches(new ArrayList<>(batchIds));
+  }
+
+  @Override
+  public DocumentOverlay getDocumentOverlay(DocumentKey documentKey) {
+    return getOverlays(Collections.singletonList(documentKey)).get(documentKey);
+  }
+
+  @Override
+  public Map<DocumentKey, DocumentOverlay> getDocumentOverlays(
+      Iterable<DocumentKey> documentKeys) {
+    Map<DocumentKey, DocumentOverlay> overlays = getOverlays(documentKeys);
+    Iterator<DocumentOverlay> iterator = overlays.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().isEmpty()) {
+        iterator.remove();
+      }
     }
+    return overlays;
+  }
 
-    // SQLite limits maximum number of host parameters to 999 (see
-    // https://www.sqlite.org/limits.html). To work around this, split the given keys into several
-    // smaller sets and issue a separate query for each.
-    int limit = 900;
-    Iterator<DocumentKey> keyIter = documentKeys.iterator();
-    Set<Integer> uniqueBatchIds = new HashSet<>();
-    int queriesPerformed = 0;
-    while (keyIter.hasNext()) {
-      ++queriesPerformed;
-      StringBuilder placeholdersBuilder = new StringBuilder();
-      List<String> args = new ArrayList<>();
-      args.add(uid);
-
-      for (int i = 0; keyIter.hasNext() && i < limit; i++) {
-        DocumentKey key = keyIter.next();
-
-        if (i > 0) {
-          placeholdersBuilder.append(", ");
-        }
-        placeholdersBuilder.append("?");
-
-        args.add(EncodedPath.encode(key.getPath()));
+  /**
+   * Returns the overlays of the given documents, with {@link DocumentOverlay#EMPTY} for documents
+   * without pending mutations.
+   */
+  private Map<DocumentKey, DocumentOverlay> getOverlays(Iterable<DocumentKey> documentKeys) {
+    boolean useOverlayCache = !db.isSnapshotRead();
+    Map<DocumentKey, DocumentOverlay> result = new HashMap<>();
+    Map<String, DocumentKey> keysToLoad = new HashMap<>();
+    for (DocumentKey key : documentKeys) {
+      DocumentOverlay overlay = useOverlayCache ? overlayCache.get(key) : null;
+      if (overlay != null) {
+        result.put(key, overlay);
+      } else {
+        keysToLoad.put(EncodedPath.encode(key.getPath()), key);
       }
-      String placeholders = placeholdersBuilder.toString();
-
-      db.query(
-              "SELECT DISTINCT dm.batch_id, m.mutations FROM document_mutations dm, mutations m "
-                  + "WHERE dm.uid = ? "
-                  + "AND dm.path IN ("
-                  + placeholders
-                  + ") "
-                  + "AND dm.uid = m.uid "
-                  + "AND dm.batch_id = m.batch_id "
-                  + "ORDER BY dm.batch_id")
-          .binding(args.toArray())
-          .forEach(
-              row -> {
-                int batchId = row.getInt(0);
-                if (!uniqueBatchIds.contains(batchId)) {
-                  uniqueBatchIds.add(batchId);
-                  result.add(decodeMutationBatch(row.getBlob(1)));
-                }
-              });
     }
 
-    // If more than one query was issued, batches might be in an unsorted order (batches are ordered
-    // within one query's results, but not across queries). It's likely to be rare, so don't impose
-    // performance penalty on the normal case.
-    if (queriesPerformed > 1) {
-      Collections.sort(
-          result,
-          (MutationBatch lhs, MutationBatch rhs) ->
-              Util.compareInts(lhs.getBatchId(), rhs.getBatchId()));
+    db.queryForValues(
+        "SELECT path, overlay FROM document_overlays WHERE uid = ? AND path IN ",
+        new Object[] {uid},
+        new ArrayList<>(keysToLoad.keySet()),
+        row -> result.put(keysToLoad.get(row.getString(0)), decodeDocumentOverlay(row.getBlob(1))));
+
+    for (DocumentKey key : keysToLoad.values()) {
+      DocumentOverlay overlay = result.get(key);
+      if (overlay == null) {
+        overlay = DocumentOverlay.EMPTY;
+        result.put(key, overlay);
+      }
+      if (useOverlayCache) {
+        overlayCache.put(key, overlay);
+      }
     }
     return result;
   }
 
   @Override
   public List<MutationBatch> getAllMutationBatchesAffectingQuery(Query query) {
-    // Use the query path as a prefix for testing if a document matches the query.
-    ResourcePath prefix = query.getPath();
-    int immediateChildrenPathLength = prefix.length() + 1;
+    // Scan the document_mutations table looking for the immediate children of the queried
+    // collection. The index on (uid, parent_path, batch_id) allows this to skip mutations to
+    // documents in subcollections entirely and returns the batch IDs already in order, without
+    // reading the mutations table.
+    String parentPath = EncodedPath.encode(query.getPath());
 
-    // Scan the document_mutations table looking for documents whose path has a prefix that matches
-    // the query path.
-    //
-    // The most obvious way to do this would be with a LIKE query with a trailing wildcard (e.g.
-    // path LIKE 'foo/%'). Unfortunately SQLite does not convert a trailing wildcard like that into
-    // the equivalent range scan so a LIKE query ends up being a table scan. The query below is
-    // equivalent but hits the index on both uid and path, so it's much faster.
-
-    // TODO: Actually implement a single-collection query
-    //
-    // This is actually executing an ancestor query, traversing the whole subtree below the
-    // collection which can be horrifically inefficient for some structures. The right way to
-    // solve this is to implement the full value index, but that's not in the cards in the near
-    // future so this is the best we can do for the moment.
-    String prefixPath = EncodedPath.encode(prefix);
-    String prefixSuccessorPath = EncodedPath.prefixSuccessor(prefixPath);
-
-    List<MutationBatch> result = new ArrayList<>();
+    List<Integer> batchIds = new ArrayList<>();
     db.query(
-            "SELECT dm.batch_id, dm.path, m.mutations FROM document_mutations dm, mutations m "
-                + "WHERE dm.uid = ? "
-                + "AND dm.path >= ? "
-                + "AND dm.path < ? "
-                + "AND dm.uid = m.uid "
-                + "AND dm.batch_id = m.batch_id "
-                + "ORDER BY dm.batch_id")
-        .binding(uid, prefixPath, prefixSuccessorPath)
-        .forEach(
-            row -> {
-              // Ensure unique batches only. This works because the batches come out in order so we
-              // only need to ensure that the batchId of this row is different from the preceding
-              // one.
-              int batchId = row.getInt(0);
-              int size = result.size();
-              if (size > 0 && batchId == result.get(size - 1).getBatchId()) {
-                return;
-              }
-
-              // The query is actually returning any path that starts with the query path prefix
-              // which may include documents in subcollections. For example, a query on 'rooms'
-              // will return rooms/abc/messages/xyx but we shouldn't match it. Fix this by
-              // discarding rows with document keys more than one segment longer than the query
-              // path.
-              ResourcePath path = EncodedPath.decodeResourcePath(row.getString(1));
-              if (path.length() != immediateChildrenPathLength) {
-                return;
-              }
-
-              result.add(decodeMutationBatch(row.getBlob(2)));
-            });
-
-    return result;
+            "SELECT DISTINCT batch_id FROM document_mutations "
+                + "WHERE uid = ? AND parent_path = ? ORDER BY batch_id")
+        .binding(uid, parentPath)
+        .forEach(row -> batchIds.add(row.getInt(0)));
+    return getMutationBatches(batchIds);
   }
 
   @Override
@@ -425,22 +465,68 @@ final class SQLiteMutationQueue implements MutationQueue {
     SQLiteStatement mutationDeleter =
         db.prepare("DELETE FROM mutations WHERE uid = ? AND batch_id = ?");
 
-    SQLiteStatement indexDeleter =
-        db.prepare("DELETE FROM document_mutations WHERE uid = ? AND path = ? AND batch_id = ?");
-
     for (MutationBatch batch : batches) {
       int batchId = batch.getBatchId();
       int deleted = db.execute(mutationDeleter, uid, batchId);
       hardAssert(deleted != 0, "Mutation batch (%s, %d) did not exist", uid, batch.getBatchId());
 
+      List<String> paths = new ArrayList<>(batch.getMutations().size());
+      for (Mutation mutation : batch.getMutations()) {
+        paths.add(EncodedPath.encode(mutation.getKey().getPath()));
+      }
+      db.executeForValues(
+          "DELETE FROM document_mutations WHERE uid = ? AND batch_id = ? AND path IN ",
+          new Object[] {uid, batchId},
+          paths);
+
+      batchCache.remove(batchId);
+      Set<DocumentKey> keys = new HashSet<>();
       for (Mutation mutation : batch.getMutations()) {
-        DocumentKey key = mutation.getKey();
-        String path = EncodedPath.encode(key.getPath());
-        db.execute(indexDeleter, uid, path, batchId);
+        keys.add(mutation.getKey());
+      }
+      for (DocumentKey key : keys) {
+        removeFromDocumentOverlay(key, batchId);
       }
     }
   }
 
+  /**
+   * Updates the overlay of the given document after the given batch has been removed from
+   * document_mutations.
+   */
+  private void removeFromDocumentOverlay(DocumentKey key, int batchId) {
+    DocumentOverlay overlay = getDocumentOverlay(key);
+    List<Integer> batchIds = overlay.getBatchIds();
+    if (!batchIds.contains(batchId)) {
+      // The batch was overwritten by a later batch, which is still part of the overlay.
+      return;
+    }
+
+    if (batchIds.size() == 1) {
+      overlay = DocumentOverlay.EMPTY;
+    } else {
+      // The removed batch may have been squashed with the others, and batches left out of the
+      // overlay because of it may matter again, so the overlay is collapsed anew.
+      overlay = DocumentOverlay.create(key, getAllMutationBatchesAffectingDocumentKey(key));
+    }
+    writeDocumentOverlay(key, overlay);
+  }
+
+  /** Stores the overlay of the given document, or deletes it if it is empty. */
+  private void writeDocumentOverlay(DocumentKey key, DocumentOverlay overlay) {
+    String path = EncodedPath.encode(key.getPath());
+    if (overlay.isEmpty()) {
+      db.execute("DELETE FROM document_overlays WHERE uid = ? AND path = ?", uid, path);
+    } else {
+      db.execute(
+          "INSERT OR REPLACE INTO document_overlays (uid, path, overlay) VALUES (?, ?, ?)",
+          uid,
+          path,
+          serializer.encodeDocumentOverlay(overlay).toByteArray());
+    }
+    overlayCache.put(key, overlay);
+  }
+
   @Override
   public void performConsistencyCheck() {
     if (!isEmpty()) {
@@ -464,6 +550,62 @@ final class SQLiteMutationQueue implements MutationQueue {
         danglingMutationReferences);
   }
 
+  /**
+   * Returns the batches with the given IDs in the same order, only reading and decoding the batches
+   * that aren't cached. All batches must exist.
+   */
+  private List<MutationBatch> getMutationBatches(List<Integer> batchIds) {
+    List<MutationBatch> result = new ArrayList<>(batchIds.size());
+    List<Integer> missingBatchIds = new ArrayList<>();
+    for (int batchId : batchIds) {
+      MutationBatch batch = batchCache.get(batchId);
+      if (batch == null) {
+        missingBatchIds.add(batchId);
+      }
+      result.add(batch);
+    }
+    if (missingBatchIds.isEmpty()) {
+      return result;
+    }
+
+    Map<Integer, MutationBatch> loadedBatches = new HashMap<>();
+    db.queryForValues(
+        "SELECT batch_id, mutations FROM mutations WHERE uid = ? AND batch_id IN ",
+        new Object[] {uid},
+        missingBatchIds,
+        row -> {
+          int batchId = row.getInt(0);
+          loadedBatches.put(
+              batchId, cacheMutationBatch(batchId, decodeMutationBatch(row.getBlob(1))));
+        });
+
+    for (int i = 0; i < result.size(); i++) {
+      if (result.get(i) == null) {
+        MutationBatch batch = loadedBatches.get(batchIds.get(i));
+        hardAssert(batch != null, "Mutation batch (%s, %d) did not exist", uid, batchIds.get(i));
+        result.set(i, batch);
+      }
+    }
+    return result;
+  }
+
+  /** Adds the batch to the cache, unless called from a snapshot read, and returns it. */
+  private MutationBatch cacheMutationBatch(int batchId, MutationBatch batch) {
+    if (!db.isSnapshotRead()) {
+      batchCache.put(batchId, batch);
+    }
+    return batch;
+  }
+
+  private DocumentOverlay decodeDocumentOverlay(byte[] bytes) {
+    try {
+      return serializer.decodeDocumentOverlay(
+          com.google.firebase.firestore.proto.DocumentOverlay.parseFrom(bytes));
+    } catch (InvalidProtocolBufferException e) {
+      throw fail("DocumentOverlay failed to parse: %s", e);
+    }
+  }
+
   private MutationBatch decodeMutationBatch(byte[] bytes) {
     try {
       return serializer.decodeMutationBatch(
@@ -472,4 +614,22 @@ final class SQLiteMutationQueue implements MutationQueue {
       throw fail("MutationBatch failed to parse: %s", e);
     }
   }
+
+  /**
+   * A bounded map from document keys to their overlays. Evicts the least recently used document
+   * once full.
+   */
+  private static class OverlayCache extends LinkedHashMap<DocumentKey, DocumentOverlay> {
+    private final int maxSize;
+
+    OverlayCache(int maxSize) {
+      super(16, 0.75f, /* accessOrder= */ true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<DocumentKey, DocumentOverlay> eldest) {
+      return size() > maxSize;
+    }
+  }
 }
@@ -26,15 +26,30 @@ import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteProgram;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.Consumer;
 import com.google.firebase.firestore.util.Logger;
+import com.google.firebase.firestore.util.Metrics;
 import com.google.firebase.firestore.util.Supplier;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -68,42 +83,143 @@ public final class SQLitePersistence extends Persistence {
     }
   }
 
+  /**
+   * The maximum number of compiled statements kept in the statement cache. This comfortably covers
+   * all non-query statements issued by the SQLite components.
+   */
+  private static final int STATEMENT_CACHE_SIZE = 64;
+
+  /**
+   * The maximum number of arguments bound to a single statement. This is SQLite's default limit
+   * (SQLITE_MAX_VARIABLE_NUMBER) in all versions shipped with Android so far.
+   */
+  private static final int MAX_BIND_ARGS = 999;
+
+  private static final String EXCLUSIVE_ACCESS_ERROR =
+      "Failed to gain exclusive lock to the Firestore client's offline persistence. This"
+          + " generally means you are using Firestore from multiple processes in your app."
+          + " Keep in mind that multi-process Android apps execute the code in your"
+          + " Application class in all processes, so you may need to avoid initializing"
+          + " Firestore in your Application class. If you are intentionally using Firestore"
+          + " from multiple processes, you can only enable offline persistence (i.e. call"
+          + " setPersistenceEnabled(true)) in one of them.";
+
   private final OpenHelper opener;
+  private final File databaseFile;
   private final LocalSerializer serializer;
+  private final StatementCache statementCache = new StatementCache(STATEMENT_CACHE_SIZE);
+  private boolean statementCacheEnabled = true;
   private SQLiteDatabase db;
   private boolean started;
+
+  /**
+   * Whether the database runs in write-ahead logging mode, which allows snapshot reads on separate
+   * read-only connections while the main connection writes.
+   */
+  private final boolean concurrentReadsEnabled;
+
+  /**
+   * Read-only connections that are not currently used by a snapshot read. Also guards the
+   * transition of {@link #started} to false, so that no read connections are handed out (or
+   * returned to the pool) after shutdown.
+   */
+  private final Deque<SQLiteDatabase> idleReadConnections = new ArrayDeque<>();
+
+  /** The read-only connection used by the snapshot read in progress on the current thread. */
+  private final ThreadLocal<SQLiteDatabase> snapshotConnection = new ThreadLocal<>();
+
+  /**
+   * In write-ahead logging mode, a lock on a file next to the database that guarantees exclusive
+   * access to the database across processes (in place of SQLite's exclusive locking mode, which
+   * would lock out our own read connections as well).
+   */
+  @Nullable private FileChannel lockFileChannel;
+
+  @Nullable private FileLock lockFileLock;
+
   private final SQLiteQueryCache queryCache;
   private final SQLiteRemoteDocumentCache remoteDocumentCache;
   private final SQLiteLruReferenceDelegate referenceDelegate;
 
   public SQLitePersistence(
       Context context, String persistenceKey, DatabaseId databaseId, LocalSerializer serializer) {
+    this(context, persistenceKey, databaseId, serializer, LruGarbageCollector.Params.Default());
+  }
+
+  SQLitePersistence(
+      Context context,
+      String persistenceKey,
+      DatabaseId databaseId,
+      LocalSerializer serializer,
+      LruGarbageCollector.Params params) {
+    this(
+        context,
+        persistenceKey,
+        databaseId,
+        serializer,
+        params,
+        /* concurrentReadsEnabled= */ false);
+  }
+
+  /**
+   * Creates a persistence layer whose garbage collector keeps the cache below the given size (see
+   * {@link com.google.firebase.firestore.FirebaseFirestoreSettings#getCacheSizeBytes}).
+   */
+  public SQLitePersistence(
+      Context context,
+      String persistenceKey,
+      DatabaseId databaseId,
+      LocalSerializer serializer,
+      long cacheSizeBytes,
+      boolean concurrentReadsEnabled) {
+    this(
+        context,
+        persistenceKey,
+        databaseId,
+        serializer,
+        LruGarbageCollector.Params.WithCacheSizeBytes(cacheSizeBytes),
+        concurrentReadsEnabled);
+  }
+
+  SQLitePersistence(
+      Context context,
+      String persistenceKey,
+      DatabaseId databaseId,
+      LocalSerializer serializer,
+      LruGarbageCollector.Params params,
+      boolean concurrentReadsEnabled) {
     String databaseName = databaseName(persistenceKey, databaseId);
-    this.opener = new OpenHelper(context, databaseName);
+    this.opener = new OpenHelper(context, databaseName, concurrentReadsEnabled);
+    this.databaseFile = context.getDatabasePath(databaseName);
+    this.concurrentReadsEnabled = concurrentReadsEnabled;
     this.serializer = serializer;
     this.queryCache = new SQLiteQueryCache(this, this.serializer);
     this.remoteDocumentCache = new SQLiteRemoteDocumentCache(this, this.serializer);
-    this.referenceDelegate = new SQLiteLruReferenceDelegate(this);
+    this.referenceDelegate = new SQLiteLruReferenceDelegate(this, params);
   }
 
   @Override
   public void start() {
     hardAssert(!started, "SQLitePersistence double-started!");
     started = true;
+    if (concurrentReadsEnabled) {
+      acquireLockFile();
+    }
     try {
       db = opener.getWritableDatabase();
     } catch (SQLiteDatabaseLockedException e) {
       // TODO: Use a better exception type
-      throw new RuntimeException(
-          "Failed to gain exclusive lock to the Firestore client's offline persistence. This"
-              + " generally means you are using Firestore from multiple processes in your app."
-              + " Keep in mind that multi-process Android apps execute the code in your"
-              + " Application class in all processes, so you may need to avoid initializing"
-              + " Firestore in your Application class. If you are intentionally using Firestore"
-              + " from multiple processes, you can only enable offline persistence (i.e. call"
-              + " setPersistenceEnabled(true)) in one of them.",
-          e);
+      throw new RuntimeException(EXCLUSIVE_ACCESS_ERROR, e);
     }
+    if (concurrentReadsEnabled) {
+      // Note that this cannot happen in OpenHelper.onConfigure, since that runs inside the
+      // migration transaction on pre-Jelly Bean devices.
+      db.enableWriteAheadLogging();
+    }
+    // SQLite connections keep a cache of prepared statements, which is used for all queries that
+    // are run through Query (as well as the statements in our own statement cache). Raise its size
+    // from the default of 25 so that the queries on our hot paths don't evict each other.
+    db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     queryCache.start();
     referenceDelegate.start(queryCache.getHighestListenSequenceNumber());
   }
@@ -111,9 +227,67 @@ public final class SQLitePersistence extends Persistence {
   @Override
   public void shutdown() {
     hardAssert(started, "SQLitePersistence shutdown without start!");
-    started = false;
+    List<SQLiteDatabase> readConnections;
+    synchronized (idleReadConnections) {
+      started = false;
+      readConnections = new ArrayList<>(idleReadConnections);
+      idleReadConnections.clear();
+    }
+    // Read connections that are still in use are closed when their snapshot read completes.
+    for (SQLiteDatabase connection : readConnections) {
+      connection.close();
+    }
+    statementCache.clear();
     db.close();
     db = null;
+    releaseLockFile();
+  }
+
+  /**
+   * Gains exclusive access to the database across processes by locking a file next to it.
+   *
+   * <p>The lock is held until shutdown and is released by the OS if the process dies.
+   */
+  private void acquireLockFile() {
+    File lockFile = new File(databaseFile.getPath() + ".lock");
+    File directory = lockFile.getParentFile();
+    if (directory != null && !directory.exists()) {
+      directory.mkdirs();
+    }
+
+    FileLock lock = null;
+    try {
+      lockFileChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+      lock = lockFileChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Another Firestore instance in this process holds the lock.
+    } catch (IOException e) {
+      releaseLockFile();
+      throw new RuntimeException("Failed to lock the Firestore client's offline persistence", e);
+    }
+
+    if (lock == null) {
+      releaseLockFile();
+      // TODO: Use a better exception type
+      throw new RuntimeException(EXCLUSIVE_ACCESS_ERROR);
+    }
+    lockFileLock = lock;
+  }
+
+  private void releaseLockFile() {
+    try {
+      if (lockFileLock != null) {
+        lockFileLock.release();
+      }
+      if (lockFileChannel != null) {
+        lockFileChannel.close();
+      }
+    } catch (IOException e) {
+      Logger.warn(TAG, "Failed to release lock file: %s", e);
+    } finally {
+      lockFileLock = null;
+      lockFileChannel = null;
+    }
   }
 
   @Override
@@ -122,10 +296,15 @@ public final class SQLitePersistence extends Persistence {
   }
 
   @Override
-  public ReferenceDelegate getReferenceDelegate() {
+  public SQLiteLruReferenceDelegate getReferenceDelegate() {
     return referenceDelegate;
   }
 
+  /** Returns a scheduler that periodically runs LRU garbage collection for the given LocalStore. */
+  public Scheduler newGarbageCollectionScheduler(AsyncQueue asyncQueue, LocalStore localStore) {
+    return referenceDelegate.getGarbageCollector().newScheduler(asyncQueue, localStore);
+  }
+
   @Override
   MutationQueue getMutationQueue(User user) {
     return new SQLiteMutationQueue(this, serializer, user);
@@ -141,8 +320,31 @@ public final class SQLitePersistence extends Persistence {
     return remoteDocumentCache;
   }
 
+  @Override
+  SQLiteCollectionIndex getCollectionIndex(User user) {
+    return new SQLiteCollectionIndex(this, user);
+  }
+
+  /**
+   * Returns the size of the database file in bytes, based on the number of pages it occupies. This
+   * includes free pages that SQLite has not yet returned to the file system.
+   */
+  long getByteSize() {
+    return getPageCount() * getPageSize();
+  }
+
+  private long getPageSize() {
+    return query("PRAGMA page_size").firstValue(row -> row.getLong(0));
+  }
+
+  private long getPageCount() {
+    return query("PRAGMA page_count").firstValue(row -> row.getLong(0));
+  }
+
   @Override
   void runTransaction(String action, Runnable operation) {
+    Metrics.Operation metrics = Metrics.current();
+    long startNanos = metrics != null ? System.nanoTime() : 0;
     try {
       Logger.debug(TAG, "Starting transaction: %s", action);
       referenceDelegate.onTransactionStarted();
@@ -154,11 +356,16 @@ public final class SQLitePersistence extends Persistence {
     } finally {
       db.endTransaction();
       referenceDelegate.onTransactionCommitted();
+      if (metrics != null) {
+        metrics.recordTransaction(action, System.nanoTime() - startNanos);
+      }
     }
   }
 
   @Override
   <T> T runTransaction(String action, Supplier<T> operation) {
+    Metrics.Operation metrics = Metrics.current();
+    long startNanos = metrics != null ? System.nanoTime() : 0;
     try {
       Logger.debug(TAG, "Starting transaction: %s", action);
       referenceDelegate.onTransactionStarted();
@@ -171,9 +378,107 @@ public final class SQLitePersistence extends Persistence {
     } finally {
       db.endTransaction();
       referenceDelegate.onTransactionCommitted();
+      if (metrics != null) {
+        metrics.recordTransaction(action, System.nanoTime() - startNanos);
+      }
+    }
+  }
+
+  @Override
+  public boolean supportsConcurrentReads() {
+    return concurrentReadsEnabled;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>In write-ahead logging mode, the operation runs on one of the read-only connections, so it
+   * neither waits for nor blocks writes on the main connection. All queries issued by the
+   * operation on the current thread are routed to that connection. Otherwise (or when called from
+   * within a transaction, whose uncommitted writes must remain visible) the operation simply runs
+   * on the main connection.
+   */
+  @Override
+  <T> T runSnapshotRead(String action, Supplier<T> operation) {
+    // Snapshot reads nested in another read or transaction are part of that one.
+    Metrics.Operation metrics = Metrics.current();
+    if (metrics == null || snapshotConnection.get() != null || isInTransaction()) {
+      return readSnapshot(action, operation);
+    }
+    long startNanos = System.nanoTime();
+    try {
+      return readSnapshot(action, operation);
+    } finally {
+      metrics.recordTransaction(action, System.nanoTime() - startNanos);
+    }
+  }
+
+  private <T> T readSnapshot(String action, Supplier<T> operation) {
+    if (!concurrentReadsEnabled || snapshotConnection.get() != null || isInTransaction()) {
+      return operation.get();
+    }
+
+    SQLiteDatabase connection = acquireReadConnection();
+    snapshotConnection.set(connection);
+    try {
+      Logger.debug(TAG, "Starting snapshot read: %s", action);
+      // A savepoint outside of a transaction starts a deferred transaction, which keeps the
+      // snapshot taken by its first read until it is released. Note that we can't use
+      // db.beginTransaction() here: it starts an immediate transaction, which requires a write lock
+      // that read-only connections can't obtain.
+      connection.execSQL("SAVEPOINT snapshot_read");
+      try {
+        return operation.get();
+      } finally {
+        connection.execSQL("RELEASE snapshot_read");
+      }
+    } finally {
+      snapshotConnection.remove();
+      releaseReadConnection(connection);
     }
   }
 
+  /**
+   * Returns whether the current thread is running a snapshot read on one of the read-only
+   * connections, and thus may not see the latest writes on the main connection.
+   */
+  boolean isSnapshotRead() {
+    return snapshotConnection.get() != null;
+  }
+
+  /** Returns whether the current thread is inside a transaction on the main connection. */
+  private boolean isInTransaction() {
+    synchronized (idleReadConnections) {
+      return started && db.inTransaction();
+    }
+  }
+
+  /** Takes an idle read-only connection from the pool, or opens a new one. */
+  private SQLiteDatabase acquireReadConnection() {
+    synchronized (idleReadConnections) {
+      if (!started) {
+        throw new IllegalStateException("Snapshot read after SQLitePersistence shutdown");
+      }
+      SQLiteDatabase connection = idleReadConnections.poll();
+      if (connection != null) {
+        return connection;
+      }
+    }
+    return SQLiteDatabase.openDatabase(
+        databaseFile.getPath(), /* factory= */ null, SQLiteDatabase.OPEN_READONLY);
+  }
+
+  /** Returns a read-only connection to the pool, or closes it if persistence was shut down. */
+  private void releaseReadConnection(SQLiteDatabase connection) {
+    synchronized (idleReadConnections) {
+      if (started) {
+        idleReadConnections.push(connection);
+        return;
+      }
+    }
+    connection.close();
+  }
+
   /**
    * A SQLiteOpenHelper that configures database connections just the way we like them, delegating
    * to SQLiteSchema to actually do the work of migration.
@@ -191,13 +496,19 @@ public final class SQLitePersistence extends Persistence {
    * early as possible. On Jelly Bean devices and above (some 98% of devices at time of writing)
    * this happens naturally during onConfigure. On pre-Jelly Bean devices all other methods ensure
    * that the configuration is applied before any action is taken.
+   *
+   * <p>In write-ahead logging mode, the database is not opened in exclusive locking mode, since
+   * that would also lock out the read-only connections of this process. Exclusive access is
+   * instead guaranteed by the lock file acquired in {@link SQLitePersistence#start}.
    */
   private static class OpenHelper extends SQLiteOpenHelper {
 
+    private final boolean concurrentReadsEnabled;
     private boolean configured;
 
-    OpenHelper(Context context, String databaseName) {
+    OpenHelper(Context context, String databaseName, boolean concurrentReadsEnabled) {
       super(context, databaseName, null, SQLiteSchema.VERSION);
+      this.concurrentReadsEnabled = concurrentReadsEnabled;
     }
 
     @Override
@@ -205,8 +516,10 @@ public final class SQLitePersistence extends Persistence {
       // Note that this is only called automatically by the SQLiteOpenHelper base class on Jelly
       // Bean and above.
       configured = true;
-      Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
-      cursor.close();
+      if (!concurrentReadsEnabled) {
+        Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
+        cursor.close();
+      }
     }
 
     /**
@@ -260,14 +573,170 @@ public final class SQLitePersistence extends Persistence {
    * </code>.
    */
   void execute(String sql, Object... args) {
-    // Note that unlike db.query and friends, execSQL already takes Object[] bindArgs so there's no
-    // need to go through the bind dance below.
-    db.execSQL(sql, args);
+    execute(prepare(sql), args);
   }
 
-  /** Prepare the given non-query SQL statement. */
+  /**
+   * Prepare the given non-query SQL statement.
+   *
+   * <p>Compiled statements are cached (keyed by their SQL), so repeated calls with the same SQL
+   * return the same statement. Callers must therefore not close the returned statement, and must
+   * bind all arguments on every execution (which {@link #execute(SQLiteStatement, Object...)}
+   * takes care of).
+   */
   SQLiteStatement prepare(String sql) {
-    return db.compileStatement(sql);
+    hardAssert(snapshotConnection.get() == null, "Cannot write to persistence in a snapshot read");
+    if (!statementCacheEnabled) {
+      return db.compileStatement(sql);
+    }
+    SQLiteStatement statement = statementCache.get(sql);
+    if (statement == null) {
+      statement = db.compileStatement(sql);
+      statementCache.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /** Enables or disables caching of compiled statements, for use in benchmarks. */
+  @VisibleForTesting
+  void setStatementCacheEnabled(boolean enabled) {
+    statementCacheEnabled = enabled;
+    if (!enabled) {
+      statementCache.clear();
+    }
+  }
+
+  /**
+   * Inserts the given rows using multi-row INSERT statements, splitting them into as few statements
+   * as SQLite's limit on bind arguments allows.
+   *
+   * <p>Example usage:
+   *
+   * <pre class="code">
+   *   db.executeInsert("INSERT INTO target_documents (target_id, path) VALUES ", rows);
+   * </pre>
+   *
+   * @param insert The INSERT statement up to and including its VALUES keyword.
+   * @param rows The bind arguments of each row. All rows must have the same number of arguments.
+   */
+  void executeInsert(String insert, List<Object[]> rows) {
+    if (rows.isEmpty()) {
+      return;
+    }
+    int argsPerRow = rows.get(0).length;
+    String rowPlaceholders = "(" + placeholders(argsPerRow) + ")";
+
+    // Multi-row VALUES clauses are only supported from SQLite 3.7.11 (Jelly Bean) on.
+    int maxRows =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? MAX_BIND_ARGS / argsPerRow : 1;
+    for (int start = 0; start < rows.size(); start += maxRows) {
+      List<Object[]> chunk = rows.subList(start, Math.min(rows.size(), start + maxRows));
+      StringBuilder sql = new StringBuilder(insert);
+      Object[] args = new Object[chunk.size() * argsPerRow];
+      for (int i = 0; i < chunk.size(); ++i) {
+        Object[] row = chunk.get(i);
+        hardAssert(row.length == argsPerRow, "All rows must have the same number of arguments");
+        System.arraycopy(row, 0, args, i * argsPerRow, argsPerRow);
+        sql.append(i == 0 ? "" : ", ").append(rowPlaceholders);
+      }
+      executeChunk(sql.toString(), args, chunk.size() == maxRows);
+    }
+  }
+
+  /**
+   * Executes the given non-query statement once for every chunk of the given values, appending an
+   * IN list with placeholders for the values of the chunk to the statement.
+   *
+   * <p>Example usage:
+   *
+   * <pre class="code">
+   *   db.executeForValues(
+   *       "DELETE FROM target_documents WHERE target_id = ? AND path IN ",
+   *       new Object[] {targetId},
+   *       paths);
+   * </pre>
+   *
+   * @param sql The statement up to and including the IN keyword.
+   * @param args The bind arguments for the placeholders in sql.
+   * @param values The values to bind to the IN list.
+   * @return The number of rows affected.
+   */
+  int executeForValues(String sql, Object[] args, List<?> values) {
+    int maxValues = MAX_BIND_ARGS - args.length;
+    int affected = 0;
+    for (int start = 0; start < values.size(); start += maxValues) {
+      List<?> chunk = values.subList(start, Math.min(values.size(), start + maxValues));
+      String chunkSql = sql + "(" + placeholders(chunk.size()) + ")";
+      affected += executeChunk(chunkSql, chunkArgs(args, chunk), chunk.size() == maxValues);
+    }
+    return affected;
+  }
+
+  /**
+   * Runs the given query once for every chunk of the given values, appending an IN list with
+   * placeholders for the values of the chunk to the query, and passes all resulting rows to the
+   * consumer.
+   *
+   * <p>Example usage:
+   *
+   * <pre class="code">
+   *   db.queryForValues(
+   *       "SELECT contents FROM remote_documents WHERE path IN ",
+   *       new Object[] {},
+   *       paths,
+   *       row -> ...);
+   * </pre>
+   *
+   * @param sql The query up to and including the IN keyword.
+   * @param args The bind arguments for the placeholders in sql.
+   * @param values The values to bind to the IN list.
+   * @param consumer Receives each row of the results.
+   */
+  void queryForValues(String sql, Object[] args, List<?> values, Consumer<Cursor> consumer) {
+    int maxValues = MAX_BIND_ARGS - args.length;
+    for (int start = 0; start < values.size(); start += maxValues) {
+      List<?> chunk = values.subList(start, Math.min(values.size(), start + maxValues));
+      query(sql + "(" + placeholders(chunk.size()) + ")")
+          .binding(chunkArgs(args, chunk))
+          .forEach(consumer);
+    }
+  }
+
+  /** Returns the given bind arguments followed by the values of a chunk. */
+  private static Object[] chunkArgs(Object[] args, List<?> chunk) {
+    Object[] chunkArgs = new Object[args.length + chunk.size()];
+    System.arraycopy(args, 0, chunkArgs, 0, args.length);
+    for (int i = 0; i < chunk.size(); ++i) {
+      chunkArgs[args.length + i] = chunk.get(i);
+    }
+    return chunkArgs;
+  }
+
+  /**
+   * Executes one chunk of a multi-row statement. Only statements for full chunks are kept in the
+   * statement cache, since the SQL of the last chunk varies with the number of rows and would
+   * otherwise push frequently used statements out of the cache.
+   */
+  private int executeChunk(String sql, Object[] args, boolean fullChunk) {
+    if (fullChunk) {
+      return execute(prepare(sql), args);
+    }
+    hardAssert(snapshotConnection.get() == null, "Cannot write to persistence in a snapshot read");
+    SQLiteStatement statement = db.compileStatement(sql);
+    try {
+      return execute(statement, args);
+    } finally {
+      statement.close();
+    }
+  }
+
+  /** Returns a comma-separated list of the given number of placeholders. */
+  private static String placeholders(int count) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      result.append(i == 0 ? "?" : ", ?");
+    }
+    return result.toString();
   }
 
   /**
@@ -278,7 +747,9 @@ public final class SQLitePersistence extends Persistence {
   int execute(SQLiteStatement statement, Object... args) {
     statement.clearBindings();
     bind(statement, args);
-    return statement.executeUpdateDelete();
+    int affected = statement.executeUpdateDelete();
+    Metrics.recordRowsWritten(affected);
+    return affected;
   }
 
   /**
@@ -286,7 +757,8 @@ public final class SQLitePersistence extends Persistence {
    * chaining further methods off the query.
    */
   Query query(String sql) {
-    return new Query(sql);
+    SQLiteDatabase connection = snapshotConnection.get();
+    return new Query(connection != null ? connection : db, sql);
   }
 
   /**
@@ -327,10 +799,12 @@ public final class SQLitePersistence extends Persistence {
    * </pre>
    */
   class Query {
+    private final SQLiteDatabase database;
     private final String sql;
     private CursorFactory cursorFactory;
 
-    private Query(String sql) {
+    private Query(SQLiteDatabase database, String sql) {
+      this.database = database;
       this.sql = sql;
     }
 
@@ -372,12 +846,15 @@ public final class SQLitePersistence extends Persistence {
      */
     void forEach(Consumer<Cursor> consumer) {
       Cursor cursor = null;
+      int rows = 0;
       try {
         cursor = startQuery();
         while (cursor.moveToNext()) {
           consumer.accept(cursor);
+          rows++;
         }
       } finally {
+        Metrics.recordRowsRead(rows);
         if (cursor != null) {
           cursor.close();
         }
@@ -395,6 +872,7 @@ public final class SQLitePersistence extends Persistence {
       try {
         cursor = startQuery();
         if (cursor.moveToFirst()) {
+          Metrics.recordRowsRead(1);
           consumer.accept(cursor);
           return 1;
         }
@@ -420,6 +898,7 @@ public final class SQLitePersistence extends Persistence {
       try {
         cursor = startQuery();
         if (cursor.moveToFirst()) {
+          Metrics.recordRowsRead(1);
           return function.apply(cursor);
         }
         return null;
@@ -435,7 +914,9 @@ public final class SQLitePersistence extends Persistence {
       Cursor cursor = null;
       try {
         cursor = startQuery();
-        return !cursor.moveToFirst();
+        boolean empty = !cursor.moveToFirst();
+        Metrics.recordRowsRead(empty ? 0 : 1);
+        return empty;
       } finally {
         if (cursor != null) {
           cursor.close();
@@ -443,13 +924,46 @@ public final class SQLitePersistence extends Persistence {
       }
     }
 
-    /** Starts the query against the database, supplying binding arguments if they exist. */
-    private Cursor startQuery() {
+    /**
+     * Starts the query against the database, supplying binding arguments if they exist. The caller
+     * is responsible for closing the returned cursor.
+     */
+    Cursor startQuery() {
       if (cursorFactory != null) {
-        return db.rawQueryWithFactory(cursorFactory, sql, null, null);
+        return database.rawQueryWithFactory(cursorFactory, sql, null, null);
       } else {
-        return db.rawQuery(sql, null);
+        return database.rawQuery(sql, null);
+      }
+    }
+  }
+
+  /**
+   * A bounded cache of compiled statements, keyed by SQL and evicting the least recently used
+   * statement once full. Evicted statements are closed.
+   */
+  private static class StatementCache extends LinkedHashMap<String, SQLiteStatement> {
+    private final int maxSize;
+
+    StatementCache(int maxSize) {
+      super(maxSize, 0.75f, /* accessOrder= */ true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+      if (size() > maxSize) {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void clear() {
+      for (SQLiteStatement statement : values()) {
+        statement.close();
       }
+      super.clear();
     }
   }
 
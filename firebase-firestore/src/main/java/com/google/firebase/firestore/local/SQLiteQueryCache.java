@@ -17,7 +17,6 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.util.Assert.fail;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
-import android.database.sqlite.SQLiteStatement;
 import com.google.firebase.Timestamp;
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.core.Query;
@@ -26,6 +25,8 @@ import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.proto.Target;
 import com.google.firebase.firestore.util.Consumer;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import javax.annotation.Nullable;
 
@@ -252,29 +253,26 @@ final class SQLiteQueryCache implements QueryCache {
     // resolution strategy to avoid failing on any attempts to add duplicate entries. This works
     // because there's no additional information in the row. If we want to track additional data
     // this will probably need to become INSERT OR REPLACE instead.
-    SQLiteStatement inserter =
-        db.prepare("INSERT OR IGNORE INTO target_documents (target_id, path) VALUES (?, ?)");
-
-    ReferenceDelegate delegate = db.getReferenceDelegate();
+    List<Object[]> rows = new ArrayList<>(keys.size());
     for (DocumentKey key : keys) {
-      String path = EncodedPath.encode(key.getPath());
-      db.execute(inserter, targetId, path);
-      delegate.addReference(key);
+      rows.add(new Object[] {targetId, EncodedPath.encode(key.getPath())});
     }
+    db.executeInsert("INSERT OR IGNORE INTO target_documents (target_id, path) VALUES ", rows);
+    db.getReferenceDelegate().addReferences(keys);
   }
 
   @Override
   public void removeMatchingKeys(ImmutableSortedSet<DocumentKey> keys, int targetId) {
     // PORTING NOTE: The reverse index (document_targets) is maintained by SQLite.
-    SQLiteStatement deleter =
-        db.prepare("DELETE FROM target_documents WHERE target_id = ? AND path = ?");
-
-    ReferenceDelegate delegate = db.getReferenceDelegate();
+    List<String> paths = new ArrayList<>(keys.size());
     for (DocumentKey key : keys) {
-      String path = EncodedPath.encode(key.getPath());
-      db.execute(deleter, targetId, path);
-      delegate.removeReference(key);
+      paths.add(EncodedPath.encode(key.getPath()));
     }
+    db.executeForValues(
+        "DELETE FROM target_documents WHERE target_id = ? AND path IN ",
+        new Object[] {targetId},
+        paths);
+    db.getReferenceDelegate().removeReferences(keys);
   }
 
   private void removeMatchingKeysForTargetId(int targetId) {
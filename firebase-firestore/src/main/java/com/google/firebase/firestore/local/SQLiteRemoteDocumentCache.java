@@ -24,7 +24,9 @@ import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -40,12 +42,15 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
 
   @Override
   public void add(MaybeDocument maybeDocument) {
-    String path = pathForKey(maybeDocument.getKey());
+    ResourcePath path = maybeDocument.getKey().getPath();
     MessageLite message = serializer.encodeMaybeDocument(maybeDocument);
 
     db.execute(
-        "INSERT OR REPLACE INTO remote_documents (path, contents) VALUES (?, ?)",
-        path,
+        "INSERT OR REPLACE INTO remote_documents (path, parent_path, document_id, contents) "
+            + "VALUES (?, ?, ?, ?)",
+        EncodedPath.encode(path),
+        EncodedPath.encode(path.popLast()),
+        EncodedPath.encodeDocumentId(path.getLastSegment()),
         message.toByteArray());
   }
 
@@ -67,33 +72,42 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
   }
 
   @Override
-  public ImmutableSortedMap<DocumentKey, Document> getAllDocumentsMatchingQuery(Query query) {
-    // Use the query path as a prefix for testing if a document matches the query.
-    ResourcePath prefix = query.getPath();
-    int immediateChildrenPathLength = prefix.length() + 1;
+  public Map<DocumentKey, MaybeDocument> getAll(Iterable<DocumentKey> documentKeys) {
+    Map<DocumentKey, MaybeDocument> results = new HashMap<>();
+    List<String> paths = new ArrayList<>();
+    for (DocumentKey key : documentKeys) {
+      // Make sure each key has a corresponding entry, which is null in case the document is not
+      // found.
+      results.put(key, null);
+      paths.add(pathForKey(key));
+    }
+
+    db.queryForValues(
+        "SELECT contents FROM remote_documents WHERE path IN ",
+        new Object[] {},
+        paths,
+        row -> {
+          MaybeDocument decoded = decodeMaybeDocument(row.getBlob(0));
+          results.put(decoded.getKey(), decoded);
+        });
+
+    return results;
+  }
 
-    String prefixPath = EncodedPath.encode(prefix);
-    String prefixSuccessorPath = EncodedPath.prefixSuccessor(prefixPath);
+  @Override
+  public ImmutableSortedMap<DocumentKey, Document> getAllDocumentsMatchingQuery(Query query) {
+    // Only the immediate children of the queried collection can match, so look them up by their
+    // parent path. This skips documents in subcollections (e.g. rooms/abc/messages/xyz for a query
+    // on 'rooms') without reading them.
+    String parentPath = EncodedPath.encode(query.getPath());
 
     Map<DocumentKey, Document> results = new HashMap<>();
 
-    db.query("SELECT path, contents FROM remote_documents WHERE path >= ? AND path < ?")
-        .binding(prefixPath, prefixSuccessorPath)
+    db.query("SELECT contents FROM remote_documents WHERE parent_path = ?")
+        .binding(parentPath)
         .forEach(
             row -> {
-              // TODO: Actually implement a single-collection query
-              //
-              // The query is actually returning any path that starts with the query path prefix
-              // which may include documents in subcollections. For example, a query on 'rooms'
-              // will return rooms/abc/messages/xyx but we shouldn't match it. Fix this by
-              // discarding rows with document keys more than one segment longer than the query
-              // path.
-              ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
-              if (path.length() != immediateChildrenPathLength) {
-                return;
-              }
-
-              MaybeDocument maybeDoc = decodeMaybeDocument(row.getBlob(1));
+              MaybeDocument maybeDoc = decodeMaybeDocument(row.getBlob(0));
               if (!(maybeDoc instanceof Document)) {
                 return;
               }
@@ -109,6 +123,34 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     return ImmutableSortedMap.Builder.fromMap(results, DocumentKey.comparator());
   }
 
+  @Override
+  public List<MaybeDocument> getCollectionChunk(
+      ResourcePath collectionPath, @Nullable DocumentKey start, boolean inclusive, int count) {
+    // The (parent_path, document_id) index serves both the lookup and the ordering, so each chunk
+    // only reads the rows it returns. The encoded document IDs sort in key order.
+    String parentPath = EncodedPath.encode(collectionPath);
+    SQLitePersistence.Query query;
+    if (start == null) {
+      query =
+          db.query(
+                  "SELECT contents FROM remote_documents WHERE parent_path = ? "
+                      + "ORDER BY document_id LIMIT ?")
+              .binding(parentPath, count);
+    } else {
+      byte[] startId = EncodedPath.encodeDocumentId(start.getPath().getLastSegment());
+      query =
+          db.query(
+                  "SELECT contents FROM remote_documents WHERE parent_path = ? AND document_id "
+                      + (inclusive ? ">=" : ">")
+                      + " ? ORDER BY document_id LIMIT ?")
+              .binding(parentPath, startId, count);
+    }
+
+    List<MaybeDocument> results = new ArrayList<>();
+    query.forEach(row -> results.add(decodeMaybeDocument(row.getBlob(0))));
+    return results;
+  }
+
   private String pathForKey(DocumentKey key) {
     return EncodedPath.encode(key.getPath());
   }
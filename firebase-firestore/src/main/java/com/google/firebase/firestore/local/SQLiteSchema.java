@@ -15,8 +15,11 @@
 package com.google.firebase.firestore.local;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.google.firebase.firestore.model.ResourcePath;
 
 /**
  * Migrates schemas from version 0 (empty) to whatever the current version is.
@@ -34,7 +37,7 @@ class SQLiteSchema {
    * The version of the schema. Increase this by one for each migration added to runMigrations
    * below.
    */
-  static final int VERSION = (Persistence.INDEXING_SUPPORT_ENABLED) ? 6 : 5;
+  static final int VERSION = 8;
 
   private final SQLiteDatabase db;
 
@@ -90,9 +93,22 @@ class SQLiteSchema {
     }
 
     if (fromVersion < 6 && toVersion >= 6) {
-      if (Persistence.INDEXING_SUPPORT_ENABLED) {
-        createLocalDocumentsCollectionIndex();
-      }
+      createLocalDocumentsCollectionIndex();
+    }
+
+    if (fromVersion < 7 && toVersion >= 7) {
+      addParentPathAndDocumentId("remote_documents");
+      addParentPathAndDocumentId("document_mutations");
+      db.execSQL(
+          "CREATE INDEX remote_documents_parent_path "
+              + "ON remote_documents (parent_path, document_id)");
+      db.execSQL(
+          "CREATE INDEX document_mutations_parent_path "
+              + "ON document_mutations (uid, parent_path, batch_id)");
+    }
+
+    if (fromVersion < 8 && toVersion >= 8) {
+      createDocumentOverlays();
     }
   }
 
@@ -122,6 +138,19 @@ class SQLiteSchema {
             + "PRIMARY KEY (uid, path, batch_id))");
   }
 
+  private void createDocumentOverlays() {
+    // The pending mutations of each document, collapsed into as few mutations as possible, in one
+    // row per user and document (see DocumentOverlay). The local view of a document can thus be
+    // computed without reading or applying each of the batches affecting it. Existing queues are
+    // populated by SQLiteMutationQueue.
+    db.execSQL(
+        "CREATE TABLE document_overlays ("
+            + "uid TEXT, "
+            + "path TEXT, "
+            + "overlay BLOB, "
+            + "PRIMARY KEY (uid, path))");
+  }
+
   private void createQueryCache() {
     // A cache of targets and associated metadata
     db.execSQL(
@@ -205,4 +234,35 @@ class SQLiteSchema {
   private void addSequenceNumber() {
     db.execSQL("ALTER TABLE target_documents ADD COLUMN sequence_number INTEGER");
   }
+
+  /**
+   * Adds the parent_path and document_id columns to a table keyed by an encoded document path and
+   * populates them for all existing rows. These allow queries to seek the immediate children of a
+   * collection without scanning (and decoding) the paths of documents in subcollections. Document
+   * IDs are stored as encoded by {@link EncodedPath#encodeDocumentId} so that they sort in key
+   * order.
+   */
+  private void addParentPathAndDocumentId(String table) {
+    db.execSQL("ALTER TABLE " + table + " ADD COLUMN parent_path TEXT");
+    db.execSQL("ALTER TABLE " + table + " ADD COLUMN document_id BLOB");
+
+    SQLiteStatement updater =
+        db.compileStatement(
+            "UPDATE " + table + " SET parent_path = ?, document_id = ? WHERE path = ?");
+    Cursor cursor = db.rawQuery("SELECT DISTINCT path FROM " + table, new String[0]);
+    try {
+      while (cursor.moveToNext()) {
+        String encodedPath = cursor.getString(0);
+        ResourcePath path = EncodedPath.decodeResourcePath(encodedPath);
+        updater.clearBindings();
+        updater.bindString(1, EncodedPath.encode(path.popLast()));
+        updater.bindBlob(2, EncodedPath.encodeDocumentId(path.getLastSegment()));
+        updater.bindString(3, encodedPath);
+        updater.executeUpdateDelete();
+      }
+    } finally {
+      cursor.close();
+      updater.close();
+    }
+  }
 }
@@ -21,8 +21,9 @@ import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 
 /**
- * A naive implementation of QueryEngine that just loads all the documents in the queried collection
- * and then filters them in memory.
+ * A naive implementation of QueryEngine that just scans the documents in the queried collection
+ * and filters them in memory. Only the query's limit and, for queries ordered by key, its cursor
+ * bounds are used to narrow the scan.
  */
 public class SimpleQueryEngine implements QueryEngine {
 
@@ -32,6 +33,11 @@ public class SimpleQueryEngine implements QueryEngine {
     this.localDocumentsView = localDocumentsView;
   }
 
+  @Override
+  public void start() {
+    // No indexes to build.
+  }
+
   @Override
   public ImmutableSortedMap<DocumentKey, Document> getDocumentsMatchingQuery(Query query) {
     // TODO: Once LocalDocumentsView provides a getCollectionDocuments() method, we
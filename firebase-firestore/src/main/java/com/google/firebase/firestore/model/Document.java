@@ -14,9 +14,15 @@
 
 package com.google.firebase.firestore.model;
 
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import com.google.common.base.Function;
 import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.model.value.ObjectValue;
+import com.google.firestore.v1beta1.Value;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /**
@@ -38,23 +44,119 @@ public class Document extends MaybeDocument {
     return KEY_COMPARATOR;
   }
 
-  private final ObjectValue data;
+  /** The document data, or null if it has not been decoded from {@link #proto} yet. */
+  private @Nullable volatile ObjectValue objectValue;
+
+  /**
+   * The proto backing this document, or null if the document was constructed from its data or the
+   * data has been fully decoded. Only released after {@link #objectValue} is set.
+   */
+  private @Nullable volatile com.google.firestore.v1beta1.Document proto;
+
+  /** Converts the values in {@link #proto} to FieldValues. Non-null iff proto is non-null. */
+  private final @Nullable Function<Value, FieldValue> converter;
+
+  /** Memoized FieldValues decoded by {@link #getField} before the full data has been decoded. */
+  private @Nullable Map<FieldPath, FieldValue> fieldValueCache;
 
   private final boolean hasLocalMutations;
 
   public Document(
       DocumentKey key, SnapshotVersion version, ObjectValue data, boolean hasLocalMutations) {
     super(key, version);
-    this.data = data;
+    this.objectValue = data;
+    this.proto = null;
+    this.converter = null;
     this.hasLocalMutations = hasLocalMutations;
   }
 
+  /**
+   * Creates a document whose data is decoded lazily from the given proto. Fields are only
+   * converted (via {@code converter}) once they are accessed through {@link #getField} or {@link
+   * #getData}.
+   */
+  public Document(
+      DocumentKey key,
+      SnapshotVersion version,
+      boolean hasLocalMutations,
+      com.google.firestore.v1beta1.Document proto,
+      Function<Value, FieldValue> converter) {
+    super(key, version);
+    this.proto = proto;
+    this.converter = converter;
+    this.hasLocalMutations = hasLocalMutations;
+  }
+
+  /**
+   * Returns the proto this document is being decoded from, or null if the document was constructed
+   * from its data or its data has already been fully decoded.
+   */
+  public @Nullable com.google.firestore.v1beta1.Document getProto() {
+    return proto;
+  }
+
   public ObjectValue getData() {
-    return data;
+    ObjectValue result = objectValue;
+    if (result == null) {
+      com.google.firestore.v1beta1.Document proto = this.proto;
+      if (proto == null) {
+        // Another thread decoded the data (and released the proto) in the meantime.
+        return objectValue;
+      }
+      hardAssert(converter != null, "Expected converter to be non-null");
+
+      result = ObjectValue.emptyObject();
+      for (Map.Entry<String, Value> entry : proto.getFieldsMap().entrySet()) {
+        FieldPath path = FieldPath.fromSingleSegment(entry.getKey());
+        result = result.set(path, converter.apply(entry.getValue()));
+      }
+      objectValue = result;
+      // Once the full data is available, neither the proto nor the per-field cache are consulted
+      // anymore. Releasing them keeps the document from holding its data twice.
+      this.proto = null;
+      fieldValueCache = null;
+    }
+    return result;
   }
 
   public @Nullable FieldValue getField(FieldPath path) {
-    return data.get(path);
+    ObjectValue data = objectValue;
+    if (data != null) {
+      return data.get(path);
+    }
+
+    com.google.firestore.v1beta1.Document proto = this.proto;
+    if (proto == null) {
+      // Another thread decoded the data (and released the proto) in the meantime.
+      return objectValue.get(path);
+    }
+    hardAssert(converter != null, "Expected converter to be non-null");
+
+    Map<FieldPath, FieldValue> cache = fieldValueCache;
+    if (cache == null) {
+      // Documents are shared between the AsyncQueue and user threads.
+      cache = new ConcurrentHashMap<>();
+      fieldValueCache = cache;
+    }
+
+    FieldValue fieldValue = cache.get(path);
+    if (fieldValue == null) {
+      // Instead of decoding the full document, only decode the value at the requested path. This
+      // speeds up query execution since filters and orderBys usually only touch a few fields.
+      Value protoValue = proto.getFieldsMap().get(path.getFirstSegment());
+      for (int i = 1; protoValue != null && i < path.length(); ++i) {
+        if (protoValue.getValueTypeCase() != Value.ValueTypeCase.MAP_VALUE) {
+          return null;
+        }
+        protoValue = protoValue.getMapValue().getFieldsMap().get(path.getSegment(i));
+      }
+
+      if (protoValue != null) {
+        fieldValue = converter.apply(protoValue);
+        cache.put(path, fieldValue);
+      }
+    }
+    return fieldValue;
   }
 
   public @Nullable Object getFieldValue(FieldPath path) {
@@ -80,13 +182,13 @@ public class Document extends MaybeDocument {
     return getVersion().equals(document.getVersion())
         && getKey().equals(document.getKey())
         && hasLocalMutations == document.hasLocalMutations
-        && data.equals(document.data);
+        && getData().equals(document.getData());
   }
 
   @Override
   public int hashCode() {
     int result = getKey().hashCode();
-    result = 31 * result + data.hashCode();
+    result = 31 * result + getData().hashCode();
     result = 31 * result + getVersion().hashCode();
     result = 31 * result + (hasLocalMutations ? 1 : 0);
     return result;
@@ -98,7 +200,7 @@ public class Document extends MaybeDocument {
         + "key="
         + getKey()
         + ", data="
-        + data
+        + getData()
         + ", version="
         + getVersion()
         + ", hasLocalMutations="
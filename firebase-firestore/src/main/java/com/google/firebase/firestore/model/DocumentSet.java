@@ -136,6 +136,15 @@ public class DocumentSet implements Iterable<Document> {
     return sortedSet.indexOf(document);
   }
 
+  /**
+   * Returns the document at the given position in the set according to the set's ordering.
+   *
+   * @throws IndexOutOfBoundsException if the index is negative or not less than the set's size
+   */
+  public Document getDocumentAt(int index) {
+    return sortedSet.getEntryAt(index);
+  }
+
   /**
    * Returns a new DocumentSet that contains the given document, replacing any old document with the
    * same key.
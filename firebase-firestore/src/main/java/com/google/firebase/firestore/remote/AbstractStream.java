@@ -21,6 +21,7 @@ import android.support.annotation.VisibleForTesting;
 import com.google.firebase.firestore.remote.Stream.StreamCallback;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.AsyncQueue.DelayedTask;
+import com.google.firebase.firestore.util.AsyncQueue.Priority;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.ExponentialBackoff;
 import com.google.firebase.firestore.util.FirestoreChannel;
@@ -61,6 +62,11 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
       this.initialCloseCount = initialCloseCount;
     }
 
+    /** Returns whether the stream has been closed since this runner was created. */
+    boolean isStreamClosed() {
+      return closeCount != initialCloseCount;
+    }
+
     void run(Runnable task) {
       workerQueue.verifyIsCurrentThread();
       if (closeCount == initialCloseCount) {
@@ -73,6 +79,15 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
     }
   }
 
+  /**
+   * Returns a CloseGuardedRunner for work that is started in response to a stream callback but
+   * finishes later on the workerQueue, so that the work is skipped if the stream has been closed in
+   * the meantime.
+   */
+  CloseGuardedRunner newCloseGuardedRunner() {
+    return new CloseGuardedRunner(closeCount);
+  }
+
   /** Implementation of IncomingStreamObserver that runs callbacks via CloseGuardedRunner. */
   class StreamObserver implements IncomingStreamObserver<RespT> {
     private final CloseGuardedRunner dispatcher;
@@ -176,7 +191,8 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
   private final MethodDescriptor<ReqT, RespT> methodDescriptor;
   private final IdleTimeoutRunnable idleTimeoutRunnable;
 
-  private final AsyncQueue workerQueue;
+  final AsyncQueue workerQueue;
+  private final Priority callbackPriority;
   private final TimerId idleTimerId;
   private State state = State.Initial;
 
@@ -194,12 +210,14 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
       FirestoreChannel channel,
       MethodDescriptor<ReqT, RespT> methodDescriptor,
       AsyncQueue workerQueue,
+      Priority callbackPriority,
       TimerId connectionTimerId,
       TimerId idleTimerId,
       CallbackT listener) {
     this.firestoreChannel = channel;
     this.methodDescriptor = methodDescriptor;
     this.workerQueue = workerQueue;
+    this.callbackPriority = callbackPriority;
     this.idleTimerId = idleTimerId;
     this.listener = listener;
     this.idleTimeoutRunnable = new IdleTimeoutRunnable();
@@ -239,7 +257,9 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
 
     CloseGuardedRunner closeGuardedRunner = new CloseGuardedRunner(closeCount);
     StreamObserver streamObserver = new StreamObserver(closeGuardedRunner);
-    call = firestoreChannel.runBidiStreamingRpc(methodDescriptor, streamObserver);
+    call =
+        firestoreChannel.runBidiStreamingRpc(
+            methodDescriptor, streamObserver, workerQueue.getExecutor(callbackPriority));
 
     // Note that Starting is only used as intermediate state until onOpen is called asynchronously,
     // since auth handled transparently by gRPC
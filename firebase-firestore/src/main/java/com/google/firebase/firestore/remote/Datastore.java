@@ -14,13 +14,16 @@
 
 package com.google.firebase.firestore.remote;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.auth.CredentialsProvider;
 import com.google.firebase.firestore.core.DatabaseInfo;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.NoDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationResult;
@@ -31,6 +34,7 @@ import com.google.firestore.v1beta1.BatchGetDocumentsRequest;
 import com.google.firestore.v1beta1.BatchGetDocumentsResponse;
 import com.google.firestore.v1beta1.CommitRequest;
 import com.google.firestore.v1beta1.CommitResponse;
+import com.google.firestore.v1beta1.DocumentMask;
 import com.google.firestore.v1beta1.FirestoreGrpc;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
@@ -41,6 +45,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Datastore represents a proxy for the remote server, hiding details of the RPC layer. It:
@@ -67,12 +72,21 @@ public class Datastore {
               "x-google-service",
               "x-google-gfe-request-trace"));
 
+  /**
+   * The maximum number of documents looked up per BatchGetDocuments request by lookupDeleted(),
+   * which may be called with all documents of a large target.
+   */
+  private static final int MAX_LOOKUP_DELETED_KEYS = 500;
+
   private final DatabaseInfo databaseInfo;
   private final RemoteSerializer serializer;
   private final AsyncQueue workerQueue;
 
   private final FirestoreChannel channel;
 
+  /** Decodes document changes received on watch streams, or null to decode on the workerQueue. */
+  @Nullable private final Executor decodeExecutor;
+
   private static Supplier<ManagedChannelBuilder<?>> overrideChannelBuilderSupplier;
 
   /**
@@ -90,8 +104,22 @@ public class Datastore {
 
   public Datastore(
       DatabaseInfo databaseInfo, AsyncQueue workerQueue, CredentialsProvider credentialsProvider) {
+    this(databaseInfo, workerQueue, credentialsProvider, /* decodeExecutor= */ null);
+  }
+
+  /**
+   * Creates a Datastore whose watch streams decode the documents they receive on the given
+   * executor. Decoded changes are still delivered on the worker queue, in the order they were
+   * received.
+   */
+  public Datastore(
+      DatabaseInfo databaseInfo,
+      AsyncQueue workerQueue,
+      CredentialsProvider credentialsProvider,
+      @Nullable Executor decodeExecutor) {
     this.databaseInfo = databaseInfo;
     this.workerQueue = workerQueue;
+    this.decodeExecutor = decodeExecutor;
     this.serializer = new RemoteSerializer(databaseInfo.getDatabaseId());
 
     ManagedChannelBuilder<?> channelBuilder;
@@ -122,9 +150,13 @@ public class Datastore {
     return databaseInfo;
   }
 
+  RemoteSerializer getSerializer() {
+    return serializer;
+  }
+
   /** Creates a new WatchStream that is still unstarted but uses a common shared channel */
   WatchStream createWatchStream(WatchStream.Callback listener) {
-    return new WatchStream(channel, workerQueue, serializer, listener);
+    return new WatchStream(channel, workerQueue, serializer, decodeExecutor, listener);
   }
 
   /** Creates a new WriteStream that is still unstarted but uses a common shared channel */
@@ -197,6 +229,72 @@ public class Datastore {
             });
   }
 
+  /**
+   * Looks up which of the given documents no longer exist. Unlike {@link #lookup}, this doesn't
+   * download the contents of the documents that still exist. The documents are looked up in
+   * requests of at most {@link #MAX_LOOKUP_DELETED_KEYS} documents each.
+   *
+   * @return A Task that resolves with a NoDocument for every document that doesn't exist, or fails
+   *     if any of the requests fails.
+   */
+  public Task<List<NoDocument>> lookupDeleted(List<DocumentKey> keys) {
+    if (keys.size() <= MAX_LOOKUP_DELETED_KEYS) {
+      return lookupDeletedChunk(keys);
+    }
+
+    List<Task<List<NoDocument>>> chunks = new ArrayList<>();
+    for (int start = 0; start < keys.size(); start += MAX_LOOKUP_DELETED_KEYS) {
+      chunks.add(
+          lookupDeletedChunk(
+              keys.subList(start, Math.min(keys.size(), start + MAX_LOOKUP_DELETED_KEYS))));
+    }
+    return Tasks.whenAll(chunks)
+        .continueWith(
+            workerQueue.getExecutor(),
+            task -> {
+              List<NoDocument> results = new ArrayList<>();
+              for (Task<List<NoDocument>> chunk : chunks) {
+                if (!chunk.isSuccessful()) {
+                  throw chunk.getException();
+                }
+                results.addAll(chunk.getResult());
+              }
+              return results;
+            });
+  }
+
+  private Task<List<NoDocument>> lookupDeletedChunk(List<DocumentKey> keys) {
+    BatchGetDocumentsRequest.Builder builder = BatchGetDocumentsRequest.newBuilder();
+    builder.setDatabase(serializer.databaseName());
+    // An empty mask returns found documents without any of their fields.
+    builder.setMask(DocumentMask.getDefaultInstance());
+    for (DocumentKey key : keys) {
+      builder.addDocuments(serializer.encodeKey(key));
+    }
+    return channel
+        .runStreamingResponseRpc(FirestoreGrpc.getBatchGetDocumentsMethod(), builder.build())
+        .continueWith(
+            workerQueue.getExecutor(),
+            task -> {
+              if (!task.isSuccessful()) {
+                if (task.getException() instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) task.getException()).getCode()
+                        == FirebaseFirestoreException.Code.UNAUTHENTICATED) {
+                  channel.invalidateToken();
+                }
+                throw task.getException();
+              }
+
+              List<NoDocument> results = new ArrayList<>();
+              for (BatchGetDocumentsResponse response : task.getResult()) {
+                if (response.getResultCase() == BatchGetDocumentsResponse.ResultCase.MISSING) {
+                  results.add((NoDocument) serializer.decodeMaybeDocument(response));
+                }
+              }
+              return results;
+            });
+  }
+
   public static boolean isPermanentWriteError(Status status) {
     // See go/firestore-client-errors
     switch (status.getCode()) {
@@ -28,6 +28,7 @@ public final class RemoteEvent {
   private final SnapshotVersion snapshotVersion;
   private final Map<Integer, TargetChange> targetChanges;
   private final Set<Integer> targetMismatches;
+  private final Map<Integer, Integer> targetVerifications;
   private final Map<DocumentKey, MaybeDocument> documentUpdates;
   private final Set<DocumentKey> resolvedLimboDocuments;
 
@@ -35,11 +36,13 @@ public final class RemoteEvent {
       SnapshotVersion snapshotVersion,
       Map<Integer, TargetChange> targetChanges,
       Set<Integer> targetMismatches,
+      Map<Integer, Integer> targetVerifications,
       Map<DocumentKey, MaybeDocument> documentUpdates,
       Set<DocumentKey> resolvedLimboDocuments) {
     this.snapshotVersion = snapshotVersion;
     this.targetChanges = targetChanges;
     this.targetMismatches = targetMismatches;
+    this.targetVerifications = targetVerifications;
     this.documentUpdates = documentUpdates;
     this.resolvedLimboDocuments = resolvedLimboDocuments;
   }
@@ -62,6 +65,15 @@ public final class RemoteEvent {
     return targetMismatches;
   }
 
+  /**
+   * Returns a map from targets with existence filter mismatches that may have been caused by missed
+   * deletes to the number of documents that need to be removed from them. RemoteStore looks up
+   * which of their documents were deleted before falling back to re-establishing their listens.
+   */
+  public Map<Integer, Integer> getTargetVerifications() {
+    return targetVerifications;
+  }
+
   /**
    * Returns a set of which documents have changed or been deleted, along with the doc's new values
    * (if not deleted).
@@ -84,6 +96,8 @@ public final class RemoteEvent {
         + targetChanges
         + ", targetMismatches="
         + targetMismatches
+        + ", targetVerifications="
+        + targetVerifications
         + ", documentUpdates="
         + documentUpdates
         + ", resolvedLimboDocuments="
@@ -18,12 +18,14 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import android.support.annotation.Nullable;
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.core.OnlineState;
 import com.google.firebase.firestore.core.Transaction;
 import com.google.firebase.firestore.local.LocalStore;
 import com.google.firebase.firestore.local.QueryData;
 import com.google.firebase.firestore.local.QueryPurpose;
 import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.NoDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.model.mutation.MutationBatchResult;
@@ -33,14 +35,18 @@ import com.google.firebase.firestore.remote.WatchChange.ExistenceFilterWatchChan
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Executors;
 import com.google.firebase.firestore.util.Logger;
 import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import io.grpc.Status.Code;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -51,9 +57,6 @@ import java.util.Map.Entry;
  */
 public final class RemoteStore implements WatchChangeAggregator.TargetMetadataProvider {
 
-  /** The maximum number of pending writes to allow. TODO: Negotiate this value with the backend. */
-  private static final int MAX_PENDING_WRITES = 10;
-
   /** The log tag to use for this class. */
   private static final String LOG_TAG = "RemoteStore";
 
@@ -128,7 +131,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   @Nullable private WatchChangeAggregator watchChangeAggregator;
 
   /**
-   * A list of up to MAX_PENDING_WRITES writes that we have fetched from the LocalStore via
+   * A list of up to writeWindow.getSize() writes that we have fetched from the LocalStore via
    * fillWritePipeline() and have or will send to the write stream.
    *
    * <p>Whenever writePipeline.length > 0 the RemoteStore will attempt to start or restart the write
@@ -139,21 +142,76 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    *
    * <p>Write responses from the backend are linked to their originating request purely based on
    * order, and so we can just poll() writes from the front of the writePipeline as we receive
-   * responses.
+   * responses (see writeRequestBatchCounts for requests that combine several writes).
    */
   private final Deque<MutationBatch> writePipeline;
 
+  /** Limits the number of writes in the write pipeline and tracks the pipeline's throughput. */
+  private final WriteWindow writeWindow;
+
+  /** Combines consecutive writes into a single write request, or null if disabled in settings. */
+  @Nullable private final WriteCoalescer writeCoalescer;
+
+  /**
+   * The number of writes (from the front of the writePipeline) contained in each write request that
+   * was sent on the current write stream and has not been acknowledged yet, in the order the
+   * requests were sent.
+   */
+  private final Deque<Integer> writeRequestBatchCounts;
+
+  /**
+   * Whether existence filter mismatches are first resolved by looking up which documents of the
+   * target were deleted (see {@link FirebaseFirestoreSettings#isExistenceFilterRecoveryEnabled}).
+   */
+  private final boolean existenceFilterRecoveryEnabled;
+
+  /** The number of targets that were reset because of existence filter mismatches. */
+  private int fullTargetResetCount;
+
+  /** The number of existence filter mismatches that were resolved without resetting the target. */
+  private int avoidedTargetResetCount;
+
   public RemoteStore(
       RemoteStoreCallback remoteStoreCallback,
       LocalStore localStore,
       Datastore datastore,
       AsyncQueue workerQueue) {
+    this(
+        remoteStoreCallback,
+        localStore,
+        datastore,
+        workerQueue,
+        new FirebaseFirestoreSettings.Builder().build());
+  }
+
+  /**
+   * Creates a RemoteStore that sends writes as configured in the given settings (see {@link
+   * FirebaseFirestoreSettings#getMaxPendingWrites} and {@link
+   * FirebaseFirestoreSettings#isWriteCoalescingEnabled}).
+   */
+  public RemoteStore(
+      RemoteStoreCallback remoteStoreCallback,
+      LocalStore localStore,
+      Datastore datastore,
+      AsyncQueue workerQueue,
+      FirebaseFirestoreSettings settings) {
     this.remoteStoreCallback = remoteStoreCallback;
     this.localStore = localStore;
     this.datastore = datastore;
 
     listenTargets = new HashMap<>();
     writePipeline = new ArrayDeque<>();
+    writeWindow =
+        new WriteWindow(settings.getMaxPendingWrites(), settings.isAdaptiveWritePipelineEnabled());
+    writeCoalescer =
+        settings.isWriteCoalescingEnabled()
+            ? new WriteCoalescer(
+                datastore.getSerializer(),
+                settings.getMaxCoalescedWriteOperations(),
+                settings.getMaxCoalescedWriteBytes())
+            : null;
+    writeRequestBatchCounts = new ArrayDeque<>();
+    existenceFilterRecoveryEnabled = settings.isExistenceFilterRecoveryEnabled();
 
     onlineStateTracker =
         new OnlineStateTracker(workerQueue, remoteStoreCallback::handleOnlineStateChange);
@@ -238,7 +296,9 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     if (!writePipeline.isEmpty()) {
       Logger.debug(LOG_TAG, "Stopping write stream with %d pending writes", writePipeline.size());
       writePipeline.clear();
+      writeWindow.clearPendingWrites();
     }
+    writeRequestBatchCounts.clear();
 
     cleanUpWatchStreamState();
   }
@@ -257,7 +317,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    * reversible and renders the Remote Store unusable.
    */
   public void shutdown() {
-    Logger.debug(LOG_TAG, "Shutting down");
+    Logger.debug(LOG_TAG, "Shutting down. Write pipeline: %s", writeWindow.getStats());
     // For now, all shutdown logic is handled by disableNetworkInternal(). We might expand on this
     // in the future.
     networkEnabled = false;
@@ -371,7 +431,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     hardAssert(
         shouldStartWatchStream(),
         "startWatchStream() called when shouldStartWatchStream() is false.");
-    watchChangeAggregator = new WatchChangeAggregator(this);
+    watchChangeAggregator = new WatchChangeAggregator(this, existenceFilterRecoveryEnabled);
     watchStream.start();
 
     onlineStateTracker.handleWatchStreamStart();
@@ -483,6 +543,8 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       QueryData queryData = this.listenTargets.get(targetId);
       // A watched target might have been removed already.
       if (queryData != null) {
+        fullTargetResetCount++;
+
         // Clear the resume token for the query, since we're in a known mismatch state.
         this.listenTargets.put(
             targetId,
@@ -509,6 +571,75 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
 
     // Finally raise remote event
     remoteStoreCallback.handleRemoteEvent(remoteEvent);
+
+    // Look up which documents of the targets with existence filter mismatches were deleted. This
+    // happens after raising the event, so that the lookup includes the documents it added.
+    for (Entry<Integer, Integer> entry : remoteEvent.getTargetVerifications().entrySet()) {
+      verifyTarget(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Resolves an existence filter mismatch that may have been caused by missed deletes by looking up
+   * which of the target's documents no longer exist, without downloading the documents that still
+   * do. The deletes (or a reset of the target if they don't resolve the mismatch) are raised with
+   * the next snapshot.
+   */
+  private void verifyTarget(int targetId, int missingRemovals) {
+    WatchChangeAggregator aggregator = watchChangeAggregator;
+    List<DocumentKey> keys = new ArrayList<>();
+    for (DocumentKey key : getRemoteKeysForTarget(targetId)) {
+      keys.add(key);
+    }
+
+    datastore
+        .lookupDeleted(keys)
+        .addOnCompleteListener(
+            Executors.DIRECT_EXECUTOR,
+            task -> {
+              if (aggregator != watchChangeAggregator) {
+                // The watch stream was restarted and will resend the target's state.
+                return;
+              }
+
+              List<NoDocument> deletedDocuments;
+              if (task.isSuccessful()) {
+                deletedDocuments = task.getResult();
+              } else {
+                Logger.warn(
+                    LOG_TAG,
+                    "Failed to look up documents of target %d: %s",
+                    targetId,
+                    task.getException());
+                deletedDocuments = Collections.emptyList();
+              }
+
+              if (aggregator.handleTargetVerification(
+                  targetId, missingRemovals, deletedDocuments)) {
+                avoidedTargetResetCount++;
+                Logger.debug(
+                    LOG_TAG,
+                    "Resolved existence filter mismatch of target %d by looking up %d deleted "
+                        + "documents (%d of %d mismatches resolved without a reset)",
+                    targetId,
+                    deletedDocuments.size(),
+                    avoidedTargetResetCount,
+                    avoidedTargetResetCount + fullTargetResetCount);
+              }
+            });
+  }
+
+  /** Returns the number of targets that were reset because of existence filter mismatches. */
+  public int getFullTargetResetCount() {
+    return fullTargetResetCount;
+  }
+
+  /**
+   * Returns the number of existence filter mismatches that were resolved by looking up which
+   * documents were deleted, without resetting the target.
+   */
+  public int getAvoidedTargetResetCount() {
+    return avoidedTargetResetCount;
   }
 
   private void processTargetError(WatchTargetChange targetChange) {
@@ -536,6 +667,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   public void fillWritePipeline() {
     int lastBatchIdRetrieved =
         writePipeline.isEmpty() ? MutationBatch.UNKNOWN : writePipeline.getLast().getBatchId();
+    List<MutationBatch> addedBatches = new ArrayList<>();
     while (canAddToWritePipeline()) {
       MutationBatch batch = localStore.getNextMutationBatch(lastBatchIdRetrieved);
       if (batch == null) {
@@ -545,9 +677,15 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
         break;
       }
       addToWritePipeline(batch);
+      addedBatches.add(batch);
       lastBatchIdRetrieved = batch.getBatchId();
     }
 
+    // Send the new writes together, so that they can be combined into fewer write requests.
+    if (!addedBatches.isEmpty() && writeStream.isOpen() && writeStream.isHandshakeComplete()) {
+      sendToWriteStream(addedBatches);
+    }
+
     if (shouldStartWriteStream()) {
       startWriteStream();
     }
@@ -558,20 +696,46 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    * enabled).
    */
   private boolean canAddToWritePipeline() {
-    return canUseNetwork() && writePipeline.size() < MAX_PENDING_WRITES;
+    return canUseNetwork() && writePipeline.size() < writeWindow.getSize();
+  }
+
+  /** Returns the throughput counters of the write pipeline. */
+  public WriteWindow.Stats getWritePipelineStats() {
+    return writeWindow.getStats();
   }
 
   /**
-   * Queues additional writes to be sent to the write stream, sending them immediately if the write
-   * stream is established.
+   * Queues additional writes to be sent to the write stream. The caller is responsible for sending
+   * them if the write stream is established.
    */
   private void addToWritePipeline(MutationBatch mutationBatch) {
     hardAssert(canAddToWritePipeline(), "addToWritePipeline called when pipeline is full");
 
     writePipeline.add(mutationBatch);
+  }
 
-    if (writeStream.isOpen() && writeStream.isHandshakeComplete()) {
-      writeStream.writeMutations(mutationBatch.getMutations());
+  /**
+   * Sends the given batches to the (established) write stream, combining consecutive batches into
+   * a single write request if write coalescing is enabled.
+   */
+  private void sendToWriteStream(List<MutationBatch> mutationBatches) {
+    List<List<MutationBatch>> requests;
+    if (writeCoalescer != null) {
+      requests = writeCoalescer.coalesce(mutationBatches);
+    } else {
+      requests = new ArrayList<>(mutationBatches.size());
+      for (MutationBatch batch : mutationBatches) {
+        requests.add(Collections.singletonList(batch));
+      }
+    }
+
+    long nowMs = System.currentTimeMillis();
+    for (List<MutationBatch> request : requests) {
+      for (MutationBatch batch : request) {
+        writeWindow.recordSent(batch, nowMs);
+      }
+      writeRequestBatchCounts.add(request.size());
+      writeStream.writeMutations(WriteCoalescer.getMutations(request));
     }
   }
 
@@ -591,8 +755,9 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     localStore.setLastStreamToken(writeStream.getLastStreamToken());
 
     // Send the write pipeline now that stream is established.
-    for (MutationBatch batch : writePipeline) {
-      writeStream.writeMutations(batch.getMutations());
+    writeRequestBatchCounts.clear();
+    if (!writePipeline.isEmpty()) {
+      sendToWriteStream(new ArrayList<>(writePipeline));
     }
   }
 
@@ -601,13 +766,27 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    */
   private void handleWriteStreamMutationResults(
       SnapshotVersion commitVersion, List<MutationResult> results) {
-    // This is a response to a write containing mutations and should be correlated to the first
-    // write in our write pipeline.
-    MutationBatch batch = writePipeline.poll();
-
-    MutationBatchResult mutationBatchResult =
-        MutationBatchResult.create(batch, commitVersion, results, writeStream.getLastStreamToken());
-    remoteStoreCallback.handleSuccessfulWrite(mutationBatchResult);
+    // This is a response to a write request containing mutations and should be correlated to the
+    // first write request we sent, which holds the first writes in our write pipeline.
+    Integer batchCount = writeRequestBatchCounts.poll();
+    hardAssert(batchCount != null, "Received a write response without a pending write request");
+    long nowMs = System.currentTimeMillis();
+    int offset = 0;
+    for (int i = 0; i < batchCount; ++i) {
+      MutationBatch batch = writePipeline.poll();
+      writeWindow.recordAcknowledged(batch.getBatchId(), nowMs);
+
+      // Split the results of combined requests back into the results of the individual writes.
+      int mutationCount = batch.getMutations().size();
+      List<MutationResult> batchResults =
+          batchCount == 1 ? results : results.subList(offset, offset + mutationCount);
+      offset += mutationCount;
+
+      MutationBatchResult mutationBatchResult =
+          MutationBatchResult.create(
+              batch, commitVersion, batchResults, writeStream.getLastStreamToken());
+      remoteStoreCallback.handleSuccessfulWrite(mutationBatchResult);
+    }
 
     // It's possible that with the completion of this mutation another slot has freed up.
     fillWritePipeline();
@@ -626,6 +805,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       // TODO: handle UNAUTHENTICATED status, see go/firestore-client-errors
       if (writeStream.isHandshakeComplete()) {
         // This error affects the actual writes
+        writeWindow.recordStreamError(status);
         handleWriteError(status);
       } else {
         // If there was an error before the handshake has finished, it's possible that the server is
@@ -661,6 +841,21 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     hardAssert(!status.isOk(), "Handling write error with status OK.");
     // Only handle permanent error, if it's transient just let the retry logic kick in.
     if (Datastore.isPermanentWriteError(status)) {
+      Integer batchCount = writeRequestBatchCounts.peek();
+      if (batchCount != null && batchCount > 1) {
+        // The rejected request combined several writes, so we can't tell which of them was the
+        // problem. Retry them in requests of their own, which the backend accepts or rejects
+        // individually.
+        Iterator<MutationBatch> iterator = writePipeline.iterator();
+        MutationBatch lastBatch = null;
+        for (int i = 0; i < batchCount; ++i) {
+          lastBatch = iterator.next();
+        }
+        writeCoalescer.splitBatchesThrough(lastBatch.getBatchId());
+        writeStream.inhibitBackoff();
+        return;
+      }
+
       // If this was a permanent error, the request itself was the problem so it's not going
       // to succeed if we resend it.
       MutationBatch batch = writePipeline.poll();
@@ -669,6 +864,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       // just a bad request, so inhibit backoff on the next restart
       writeStream.inhibitBackoff();
 
+      writeWindow.recordRejected(batch.getBatchId());
       remoteStoreCallback.handleRejectedWrite(batch.getBatchId(), status);
 
       // It's possible that with the completion of this mutation another slot has freed up.
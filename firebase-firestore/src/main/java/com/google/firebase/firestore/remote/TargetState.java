@@ -142,4 +142,9 @@ final class TargetState {
     hasChanges = true;
     current = true;
   }
+
+  void markNotCurrent() {
+    hasChanges = true;
+    current = false;
+  }
 }
@@ -31,6 +31,7 @@ import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.remote.WatchChange.DocumentChange;
 import com.google.firebase.firestore.remote.WatchChange.ExistenceFilterWatchChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -76,8 +77,34 @@ public class WatchChangeAggregator {
    */
   private Set<Integer> pendingTargetResets = new HashSet<>();
 
+  /**
+   * Whether existence filter mismatches that may have been caused by missed deletes are resolved by
+   * looking up which documents were deleted before resetting the target.
+   */
+  private final boolean existenceFilterRecoveryEnabled;
+
+  /**
+   * A map from targets with existence filter mismatches whose documents need to be looked up by
+   * RemoteStore to the number of documents that need to be removed from them.
+   */
+  private Map<Integer, Integer> pendingTargetVerifications = new HashMap<>();
+
+  /**
+   * The targets for which a lookup was requested but not yet handled, mapped to whether Watch
+   * considers them current. Until the lookup is handled, these targets are marked as not current,
+   * since they may still contain deleted documents. A further mismatch for one of these targets
+   * resets the target.
+   */
+  private final Map<Integer, Boolean> targetsBeingVerified = new HashMap<>();
+
   public WatchChangeAggregator(TargetMetadataProvider targetMetadataProvider) {
+    this(targetMetadataProvider, /* existenceFilterRecoveryEnabled= */ false);
+  }
+
+  public WatchChangeAggregator(
+      TargetMetadataProvider targetMetadataProvider, boolean existenceFilterRecoveryEnabled) {
     this.targetMetadataProvider = targetMetadataProvider;
+    this.existenceFilterRecoveryEnabled = existenceFilterRecoveryEnabled;
   }
 
   /** Processes and adds the DocumentWatchChange to the current set of changes. */
@@ -134,7 +161,12 @@ public class WatchChangeAggregator {
           break;
         case Current:
           if (isActiveTarget(targetId)) {
-            targetState.markCurrent();
+            if (targetsBeingVerified.containsKey(targetId)) {
+              // The target becomes current once the lookup has resolved its mismatch.
+              targetsBeingVerified.put(targetId, true);
+            } else {
+              targetState.markCurrent();
+            }
             targetState.updateResumeToken(targetChange.getResumeToken());
           }
           break;
@@ -168,7 +200,11 @@ public class WatchChangeAggregator {
 
   /**
    * Handles existence filters and synthesizes deletes for filter mismatches. Targets that are
-   * invalidated by filter mismatches are added to `pendingTargetResets`.
+   * invalidated by filter mismatches are added to `pendingTargetResets`, unless existence filter
+   * recovery is enabled and the target has more documents than the filter expects. These targets
+   * are added to `pendingTargetVerifications` instead, and are only reset if looking up their
+   * documents doesn't resolve the mismatch (see `handleTargetVerification()`). They are not current
+   * until then.
    */
   public void handleExistenceFilter(ExistenceFilterWatchChange watchChange) {
     int targetId = watchChange.getTargetId();
@@ -192,15 +228,74 @@ public class WatchChangeAggregator {
       } else {
         long currentSize = getCurrentDocumentCountForTarget(targetId);
         if (currentSize != expectedCount) {
-          // Existence filter mismatch: We reset the mapping and raise a new snapshot with
-          // `isFromCache:true`.
-          resetTarget(targetId);
-          pendingTargetResets.add(targetId);
+          if (existenceFilterRecoveryEnabled
+              && currentSize > expectedCount
+              && !targetsBeingVerified.containsKey(targetId)) {
+            // Existence filter mismatch that may have been caused by missed deletes: We keep the
+            // mapping and let RemoteStore look up which of the target's documents were deleted.
+            // Until then, the target's snapshots are raised with `isFromCache:true`.
+            TargetState targetState = ensureTargetState(targetId);
+            targetsBeingVerified.put(targetId, targetState.isCurrent());
+            targetState.markNotCurrent();
+            pendingTargetVerifications.put(targetId, (int) (currentSize - expectedCount));
+          } else {
+            // Existence filter mismatch: We reset the mapping and raise a new snapshot with
+            // `isFromCache:true`.
+            resetTarget(targetId);
+            pendingTargetResets.add(targetId);
+          }
         }
       }
     }
   }
 
+  /**
+   * Handles the result of looking up which documents of a target with an existence filter mismatch
+   * were deleted. If enough of the target's documents were deleted to resolve the mismatch, these
+   * documents are removed from the target, which becomes current again if Watch considers it
+   * current. Otherwise, the target is added to `pendingTargetResets`. Both are raised with the next
+   * remote event.
+   *
+   * @param targetId The target whose documents were looked up.
+   * @param missingRemovals The number of documents that needed to be removed from the target to
+   *     resolve the mismatch.
+   * @param deletedDocuments The documents of the target that no longer exist.
+   * @return Whether the mismatch was resolved without resetting the target.
+   */
+  public boolean handleTargetVerification(
+      int targetId, int missingRemovals, List<NoDocument> deletedDocuments) {
+    Boolean current = targetsBeingVerified.remove(targetId);
+    if (current == null || !isActiveTarget(targetId)) {
+      // The target was reset or removed while its documents were being looked up.
+      return false;
+    }
+
+    List<NoDocument> removals = new ArrayList<>();
+    for (NoDocument document : deletedDocuments) {
+      // Ignore documents that Watch has sent changes for since they were looked up.
+      if (targetContainsDocument(targetId, document.getKey())
+          && !pendingDocumentUpdates.containsKey(document.getKey())) {
+        removals.add(document);
+      }
+    }
+
+    if (removals.size() < missingRemovals) {
+      // Some of the documents still exist, but no longer match the target (or the lookup failed).
+      ensureTargetState(targetId);
+      resetTarget(targetId);
+      pendingTargetResets.add(targetId);
+      return false;
+    }
+
+    for (NoDocument document : removals) {
+      removeDocumentFromTarget(targetId, document.getKey(), document);
+    }
+    if (current) {
+      ensureTargetState(targetId).markCurrent();
+    }
+    return true;
+  }
+
   /**
    * Converts the currently accumulated state into a remote event at the provided snapshot version.
    * Resets the accumulated changes before returning.
@@ -262,6 +357,7 @@ public class WatchChangeAggregator {
             snapshotVersion,
             Collections.unmodifiableMap(targetChanges),
             Collections.unmodifiableSet(pendingTargetResets),
+            Collections.unmodifiableMap(pendingTargetVerifications),
             Collections.unmodifiableMap(pendingDocumentUpdates),
             Collections.unmodifiableSet(resolvedLimboDocuments));
 
@@ -269,6 +365,7 @@ public class WatchChangeAggregator {
     pendingDocumentUpdates = new HashMap<>();
     pendingDocumentTargetMapping = new HashMap<>();
     pendingTargetResets = new HashSet<>();
+    pendingTargetVerifications = new HashMap<>();
 
     return remoteEvent;
   }
@@ -325,6 +422,8 @@ public class WatchChangeAggregator {
 
   void removeTarget(int targetId) {
     targetStates.remove(targetId);
+    targetsBeingVerified.remove(targetId);
+    pendingTargetVerifications.remove(targetId);
   }
 
   /**
@@ -400,6 +499,8 @@ public class WatchChangeAggregator {
         targetStates.get(targetId) != null && !targetStates.get(targetId).isPending(),
         "Should only reset active targets");
     targetStates.put(targetId, new TargetState());
+    targetsBeingVerified.remove(targetId);
+    pendingTargetVerifications.remove(targetId);
 
     // Trigger removal for any documents currently mapped to this target. These removals will be
     // part of the initial snapshot if Watch does not resend these documents.
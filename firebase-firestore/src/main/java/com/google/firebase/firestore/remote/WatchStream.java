@@ -16,16 +16,23 @@ package com.google.firebase.firestore.remote;
 
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
+import android.support.annotation.Nullable;
 import com.google.firebase.firestore.local.QueryData;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.AsyncQueue.Priority;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.FirestoreChannel;
 import com.google.firestore.v1beta1.FirestoreGrpc;
 import com.google.firestore.v1beta1.ListenRequest;
 import com.google.firestore.v1beta1.ListenResponse;
+import com.google.firestore.v1beta1.ListenResponse.ResponseTypeCase;
 import com.google.protobuf.ByteString;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A Stream that implements the StreamingWatch RPC.
@@ -50,21 +57,50 @@ public class WatchStream
     void onWatchChange(SnapshotVersion snapshotVersion, WatchChange watchChange);
   }
 
+  /** A response that is decoded in the background and delivered in the order it was received. */
+  private static final class PendingChange {
+    private WatchChange watchChange;
+    private SnapshotVersion snapshotVersion;
+    private Throwable error;
+
+    /** Set once decoding has finished. Written last, so that the fields above are visible. */
+    private volatile boolean decoded;
+  }
+
   private final RemoteSerializer serializer;
 
+  /** Decodes document changes in the background, or null to decode them on the workerQueue. */
+  @Nullable private final Executor decodeExecutor;
+
+  /** The responses that have been received but not yet delivered to the listener. */
+  private final ArrayDeque<PendingChange> pendingChanges = new ArrayDeque<>();
+
   WatchStream(
       FirestoreChannel channel,
       AsyncQueue workerQueue,
       RemoteSerializer serializer,
+      @Nullable Executor decodeExecutor,
       WatchStream.Callback listener) {
     super(
         channel,
         FirestoreGrpc.getListenMethod(),
         workerQueue,
+        // Responses are skipped once the stream is closed, so they don't need to run in order
+        // with user operations.
+        Priority.BACKGROUND,
         TimerId.LISTEN_STREAM_CONNECTION_BACKOFF,
         TimerId.LISTEN_STREAM_IDLE,
         listener);
     this.serializer = serializer;
+    this.decodeExecutor = decodeExecutor;
+  }
+
+  @Override
+  public void start() {
+    // Responses of a previous stream that were still being decoded are dropped (their delivery is
+    // skipped by the CloseGuardedRunner).
+    pendingChanges.clear();
+    super.start();
   }
 
   /**
@@ -104,8 +140,67 @@ public class WatchStream
     // A successful response means the stream is healthy
     backoff.reset();
 
-    WatchChange watchChange = serializer.decodeWatchChange(listenResponse);
-    SnapshotVersion snapshotVersion = serializer.decodeVersionFromListenResponse(listenResponse);
-    listener.onWatchChange(snapshotVersion, watchChange);
+    boolean isDocumentChange =
+        listenResponse.getResponseTypeCase() == ResponseTypeCase.DOCUMENT_CHANGE;
+    if (decodeExecutor == null || (!isDocumentChange && pendingChanges.isEmpty())) {
+      WatchChange watchChange = serializer.decodeWatchChange(listenResponse);
+      SnapshotVersion snapshotVersion = serializer.decodeVersionFromListenResponse(listenResponse);
+      listener.onWatchChange(snapshotVersion, watchChange);
+      return;
+    }
+
+    PendingChange pendingChange = new PendingChange();
+    pendingChanges.add(pendingChange);
+    if (!isDocumentChange) {
+      // Other responses are cheap to decode, but still have to wait for the document changes
+      // received before them.
+      decode(pendingChange, listenResponse);
+      return;
+    }
+
+    CloseGuardedRunner closeGuardedRunner = newCloseGuardedRunner();
+    decodeExecutor.execute(
+        () -> {
+          decode(pendingChange, listenResponse);
+          workerQueue.enqueueAndForget(
+              Priority.BACKGROUND,
+              () -> closeGuardedRunner.run(() -> deliverDecodedChanges(closeGuardedRunner)));
+        });
+  }
+
+  /** Decodes the response into the given PendingChange. May be called from any thread. */
+  private void decode(PendingChange pendingChange, ListenResponse listenResponse) {
+    try {
+      WatchChange watchChange = serializer.decodeWatchChange(listenResponse);
+      if (watchChange instanceof WatchChange.DocumentChange) {
+        // Documents decode their fields lazily, so force the (expensive) decoding of all fields
+        // while off the workerQueue.
+        MaybeDocument document = ((WatchChange.DocumentChange) watchChange).getNewDocument();
+        if (document instanceof Document) {
+          ((Document) document).getData();
+        }
+      }
+      pendingChange.watchChange = watchChange;
+      pendingChange.snapshotVersion = serializer.decodeVersionFromListenResponse(listenResponse);
+    } catch (Throwable t) {
+      pendingChange.error = t;
+    }
+    pendingChange.decoded = true;
+  }
+
+  /**
+   * Delivers all decoded responses that are not waiting for an earlier response to be decoded.
+   * Stops if the listener closes the stream, since the remaining responses are then stale.
+   */
+  private void deliverDecodedChanges(CloseGuardedRunner closeGuardedRunner) {
+    while (!closeGuardedRunner.isStreamClosed()
+        && !pendingChanges.isEmpty()
+        && pendingChanges.peek().decoded) {
+      PendingChange pendingChange = pendingChanges.poll();
+      if (pendingChange.error != null) {
+        throw new RuntimeException("Failed to decode watch change", pendingChange.error);
+      }
+      listener.onWatchChange(pendingChange.snapshotVersion, pendingChange.watchChange);
+    }
   }
 }
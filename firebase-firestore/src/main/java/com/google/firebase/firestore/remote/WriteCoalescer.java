@@ -0,0 +1,120 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packs consecutive mutation batches into combined write requests, so that many small batches can
+ * be sent to the backend with a single message.
+ *
+ * <p>A request never holds more than the configured number of mutations or (serialized) bytes,
+ * unless a single batch exceeds these limits by itself, in which case it is sent on its own.
+ *
+ * <p>Since the backend applies each write request atomically, a request that the backend rejects
+ * does not tell which of its batches caused the rejection. The RemoteStore therefore asks the
+ * coalescer (via {@link #splitBatchesThrough}) to send the batches of a rejected request one per
+ * request when they are retried.
+ */
+final class WriteCoalescer {
+
+  private final RemoteSerializer serializer;
+  private final int maxMutations;
+  private final long maxBytes;
+
+  /** Batches up to and including this batch ID are sent in requests of their own. */
+  private int lastSplitBatchId = MutationBatch.UNKNOWN;
+
+  WriteCoalescer(RemoteSerializer serializer, int maxMutations, long maxBytes) {
+    hardAssert(maxMutations > 0, "Requests must be allowed to hold at least one mutation");
+    hardAssert(maxBytes > 0, "Requests must be allowed to hold at least one byte");
+    this.serializer = serializer;
+    this.maxMutations = maxMutations;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Makes all following requests hold batches up to and including batchId on their own. */
+  void splitBatchesThrough(int batchId) {
+    lastSplitBatchId = Math.max(lastSplitBatchId, batchId);
+  }
+
+  /**
+   * Groups the given batches (in order) into write requests.
+   *
+   * @return The batches of each request, in the order the requests should be sent.
+   */
+  List<List<MutationBatch>> coalesce(List<MutationBatch> batches) {
+    List<List<MutationBatch>> requests = new ArrayList<>();
+    List<MutationBatch> request = new ArrayList<>();
+    int requestMutations = 0;
+    long requestBytes = 0;
+
+    for (MutationBatch batch : batches) {
+      int batchMutations = batch.getMutations().size();
+      long batchBytes = 0;
+      for (Mutation mutation : batch.getMutations()) {
+        batchBytes += serializer.encodeMutation(mutation).getSerializedSize();
+      }
+
+      boolean fitsIntoRequest =
+          requestMutations + batchMutations <= maxMutations
+              && requestBytes + batchBytes <= maxBytes;
+      if (!request.isEmpty() && (!fitsIntoRequest || !canCombine(batch))) {
+        requests.add(request);
+        request = new ArrayList<>();
+        requestMutations = 0;
+        requestBytes = 0;
+      }
+
+      request.add(batch);
+      requestMutations += batchMutations;
+      requestBytes += batchBytes;
+
+      if (!canCombine(batch)) {
+        requests.add(request);
+        request = new ArrayList<>();
+        requestMutations = 0;
+        requestBytes = 0;
+      }
+    }
+
+    if (!request.isEmpty()) {
+      requests.add(request);
+    }
+    return requests;
+  }
+
+  /** Returns the mutations of the given batches, in order. */
+  static List<Mutation> getMutations(List<MutationBatch> batches) {
+    if (batches.size() == 1) {
+      return batches.get(0).getMutations();
+    }
+    List<Mutation> mutations = new ArrayList<>();
+    for (MutationBatch batch : batches) {
+      mutations.addAll(batch.getMutations());
+    }
+    return Collections.unmodifiableList(mutations);
+  }
+
+  private boolean canCombine(MutationBatch batch) {
+    return batch.getBatchId() > lastSplitBatchId;
+  }
+}
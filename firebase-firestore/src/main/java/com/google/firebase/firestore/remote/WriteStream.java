@@ -21,6 +21,7 @@ import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationResult;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.AsyncQueue.Priority;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.FirestoreChannel;
 import com.google.firestore.v1beta1.FirestoreGrpc;
@@ -74,6 +75,7 @@ public class WriteStream extends AbstractStream<WriteRequest, WriteResponse, Wri
         channel,
         FirestoreGrpc.getWriteMethod(),
         workerQueue,
+        Priority.NORMAL,
         TimerId.WRITE_STREAM_CONNECTION_BACKOFF,
         TimerId.WRITE_STREAM_IDLE,
         listener);
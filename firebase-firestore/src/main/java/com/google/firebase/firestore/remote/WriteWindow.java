@@ -0,0 +1,215 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import io.grpc.Status;
+import io.grpc.Status.Code;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how many mutation batches the RemoteStore may have in its write pipeline, i.e. how
+ * many writes may be sent to the backend before their acknowledgements arrive, and keeps throughput
+ * counters for the write pipeline.
+ *
+ * <p>A fixed window always allows the configured maximum number of pending writes. An adaptive
+ * window starts out at {@link #INITIAL_ADAPTIVE_SIZE} (or the maximum, if smaller) and grows by one
+ * for every write that the backend acknowledges within {@link #FAST_ACK_THRESHOLD_MS}, up to the
+ * configured maximum. Slower acknowledgements are taken as a sign of backpressure and shrink the
+ * window by one. Write stream errors halve the window, and a RESOURCE_EXHAUSTED error resets it to
+ * a single pending write.
+ *
+ * <p>This class is not thread safe and should only be used from the worker AsyncQueue.
+ */
+public final class WriteWindow {
+
+  /** The number of pending writes an adaptive window starts out with. */
+  static final int INITIAL_ADAPTIVE_SIZE = 10;
+
+  /** Acknowledgements received within this time after sending a write grow an adaptive window. */
+  static final long FAST_ACK_THRESHOLD_MS = TimeUnit.SECONDS.toMillis(1);
+
+  private final int maxPendingWrites;
+  private final boolean adaptive;
+  private int size;
+
+  /** The time each pending write was last sent, keyed by batch ID. */
+  private final Map<Integer, Long> sendTimesMs = new HashMap<>();
+
+  private long batchesSent;
+  private long mutationsSent;
+  private long batchesAcknowledged;
+  private long batchesRejected;
+  private long totalAckLatencyMs;
+  private int largestSize;
+
+  WriteWindow(int maxPendingWrites, boolean adaptive) {
+    hardAssert(maxPendingWrites >= 1, "Write window must allow at least one pending write");
+    this.maxPendingWrites = maxPendingWrites;
+    this.adaptive = adaptive;
+    this.size = adaptive ? Math.min(INITIAL_ADAPTIVE_SIZE, maxPendingWrites) : maxPendingWrites;
+    this.largestSize = size;
+  }
+
+  /** Returns the number of writes that may currently be pending. */
+  int getSize() {
+    return size;
+  }
+
+  /** Records that the given batch was sent to the write stream at the given time. */
+  void recordSent(MutationBatch batch, long nowMs) {
+    sendTimesMs.put(batch.getBatchId(), nowMs);
+    ++batchesSent;
+    mutationsSent += batch.getMutations().size();
+  }
+
+  /** Records that the backend acknowledged the batch with the given ID at the given time. */
+  void recordAcknowledged(int batchId, long nowMs) {
+    ++batchesAcknowledged;
+    Long sendTimeMs = sendTimesMs.remove(batchId);
+    if (sendTimeMs == null) {
+      return;
+    }
+
+    long latencyMs = nowMs - sendTimeMs;
+    totalAckLatencyMs += latencyMs;
+    if (adaptive) {
+      if (latencyMs <= FAST_ACK_THRESHOLD_MS) {
+        resize(size + 1);
+      } else {
+        resize(size - 1);
+      }
+    }
+  }
+
+  /** Records that the backend rejected the batch with the given ID. */
+  void recordRejected(int batchId) {
+    ++batchesRejected;
+    sendTimesMs.remove(batchId);
+  }
+
+  /** Records that the write stream failed with the given error while writes were pending. */
+  void recordStreamError(Status status) {
+    hardAssert(!status.isOk(), "Recording stream error with status OK.");
+    if (adaptive) {
+      resize(status.getCode() == Code.RESOURCE_EXHAUSTED ? 1 : size / 2);
+    }
+  }
+
+  /** Forgets about all pending writes, e.g. because the network was disabled. */
+  void clearPendingWrites() {
+    sendTimesMs.clear();
+  }
+
+  private void resize(int newSize) {
+    size = Math.max(1, Math.min(maxPendingWrites, newSize));
+    largestSize = Math.max(largestSize, size);
+  }
+
+  /** Returns a snapshot of the throughput counters of the write pipeline. */
+  public Stats getStats() {
+    return new Stats(
+        size,
+        largestSize,
+        batchesSent,
+        mutationsSent,
+        batchesAcknowledged,
+        batchesRejected,
+        totalAckLatencyMs);
+  }
+
+  /** Throughput counters of the write pipeline. */
+  public static final class Stats {
+    private final int windowSize;
+    private final int largestWindowSize;
+    private final long batchesSent;
+    private final long mutationsSent;
+    private final long batchesAcknowledged;
+    private final long batchesRejected;
+    private final long totalAckLatencyMs;
+
+    Stats(
+        int windowSize,
+        int largestWindowSize,
+        long batchesSent,
+        long mutationsSent,
+        long batchesAcknowledged,
+        long batchesRejected,
+        long totalAckLatencyMs) {
+      this.windowSize = windowSize;
+      this.largestWindowSize = largestWindowSize;
+      this.batchesSent = batchesSent;
+      this.mutationsSent = mutationsSent;
+      this.batchesAcknowledged = batchesAcknowledged;
+      this.batchesRejected = batchesRejected;
+      this.totalAckLatencyMs = totalAckLatencyMs;
+    }
+
+    /** Returns the number of writes that may currently be pending. */
+    public int getWindowSize() {
+      return windowSize;
+    }
+
+    /** Returns the largest window size reached so far. */
+    public int getLargestWindowSize() {
+      return largestWindowSize;
+    }
+
+    /** Returns the number of batches sent to the write stream, including re-sent batches. */
+    public long getBatchesSent() {
+      return batchesSent;
+    }
+
+    /** Returns the number of mutations sent to the write stream, including re-sent mutations. */
+    public long getMutationsSent() {
+      return mutationsSent;
+    }
+
+    /** Returns the number of batches acknowledged by the backend. */
+    public long getBatchesAcknowledged() {
+      return batchesAcknowledged;
+    }
+
+    /** Returns the number of batches rejected by the backend. */
+    public long getBatchesRejected() {
+      return batchesRejected;
+    }
+
+    /** Returns the average time between sending a batch and receiving its acknowledgement. */
+    public long getAverageAckLatencyMs() {
+      return batchesAcknowledged == 0 ? 0 : totalAckLatencyMs / batchesAcknowledged;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "Stats{windowSize=%d, largestWindowSize=%d, batchesSent=%d, mutationsSent=%d, "
+              + "batchesAcknowledged=%d, batchesRejected=%d, averageAckLatencyMs=%d}",
+          windowSize,
+          largestWindowSize,
+          batchesSent,
+          mutationsSent,
+          batchesAcknowledged,
+          batchesRejected,
+          getAverageAckLatencyMs());
+    }
+  }
+}
@@ -27,8 +27,11 @@ import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.firestore.core.Version;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -40,11 +43,31 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.CheckReturnValue;
 
 /** A helper class that allows to schedule/queue Runnables on a single threaded background queue. */
 public class AsyncQueue {
 
+  /**
+   * The lanes that tasks are queued in. Tasks in the same lane always run in the order they were
+   * queued. While priority lanes are enabled, NORMAL tasks run before the BACKGROUND tasks that
+   * were queued before them, but a BACKGROUND task is only passed by a limited number of NORMAL
+   * tasks. Otherwise all tasks run in the order they were queued.
+   */
+  public enum Priority {
+    /** User operations and all other work that has to run in the order it was queued. */
+    NORMAL,
+
+    /**
+     * Bulk work that may run after NORMAL tasks that were queued later, because it handles that
+     * the same way as a delay in the network or in a timer (e.g. watch stream responses, which
+     * are skipped once their stream is closed, and garbage collection).
+     */
+    BACKGROUND,
+  }
+
   /**
    * Well-known "timer" IDs used when scheduling delayed tasks on the AsyncQueue. These IDs can then
    * be used from tests to check for the presence of tasks or to run them early.
@@ -68,8 +91,98 @@ public class AsyncQueue {
      * set timeout, rather than waiting indefinitely for success or failure.
      */
     ONLINE_STATE_TIMEOUT,
+
+    /** A timer used to periodically attempt LRU Garbage collection */
+    GARBAGE_COLLECTION(Priority.BACKGROUND);
+
+    /** The lane that tasks of this timer are queued in once their delay has elapsed. */
+    private final Priority priority;
+
+    TimerId() {
+      this(Priority.NORMAL);
+    }
+
+    TimerId(Priority priority) {
+      this.priority = priority;
+    }
   }
 
+  /**
+   * Counts the tasks of a lane or TimerId that are waiting to be run and how long the tasks that
+   * have run waited. For delayed tasks, the wait is the time between the end of their delay and
+   * when they ran.
+   */
+  public static final class TaskStats {
+    private final AtomicInteger waitingTasks = new AtomicInteger();
+    private final AtomicInteger maxWaitingTasks = new AtomicInteger();
+    private final AtomicLong tasksRun = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private void onQueued() {
+      int waiting = waitingTasks.incrementAndGet();
+      int max;
+      while (waiting > (max = maxWaitingTasks.get())) {
+        if (maxWaitingTasks.compareAndSet(max, waiting)) {
+          break;
+        }
+      }
+    }
+
+    private void onDequeued() {
+      waitingTasks.decrementAndGet();
+    }
+
+    /** Called on the AsyncQueue thread, so the maximum doesn't need a compare-and-set. */
+    private void onRun(long waitNanos) {
+      tasksRun.incrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      if (waitNanos > maxWaitNanos.get()) {
+        maxWaitNanos.set(waitNanos);
+      }
+    }
+
+    /** Returns the number of tasks that are queued or scheduled but haven't run yet. */
+    public int getWaitingTasks() {
+      return waitingTasks.get();
+    }
+
+    /** Returns the largest number of tasks that were waiting at the same time. */
+    public int getMaxWaitingTasks() {
+      return maxWaitingTasks.get();
+    }
+
+    public long getTasksRun() {
+      return tasksRun.get();
+    }
+
+    public long getTotalWaitNanos() {
+      return totalWaitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+      return maxWaitNanos.get();
+    }
+  }
+
+  /** A task that was queued in a lane, with the time it was queued at. */
+  private static final class QueuedTask {
+    private final Priority priority;
+    private final String category;
+    private final Runnable task;
+    private final long queuedNanos;
+
+    private QueuedTask(Priority priority, String category, Runnable task) {
+      this.priority = priority;
+      this.category = category;
+      this.task = task;
+      this.queuedNanos = System.nanoTime();
+    }
+  }
+
+  /** The number of NORMAL tasks that may run ahead of a waiting BACKGROUND task. */
+  private static final int MAX_TASKS_RUN_AHEAD_OF_BACKGROUND = 16;
+
   /**
    * Represents a Task scheduled to be run in the future on an AsyncQueue.
    *
@@ -96,7 +209,12 @@ public class AsyncQueue {
      * createAndScheduleDelayedTask().
      */
     private void start(long delayMs) {
-      scheduledFuture = executor.schedule(this::handleDelayElapsed, delayMs, TimeUnit.MILLISECONDS);
+      timerStats.get(timerId).onQueued();
+      Runnable onDelayElapsed =
+          timerId.priority == Priority.NORMAL
+              ? this::handleDelayElapsed
+              : () -> execute(timerId.priority, timerId.name(), this::handleDelayElapsed);
+      scheduledFuture = executor.schedule(onDelayElapsed, delayMs, TimeUnit.MILLISECONDS);
     }
 
     /** Runs the operation immediately (if it hasn't already been run or canceled). */
@@ -124,7 +242,10 @@ public class AsyncQueue {
       verifyIsCurrentThread();
       if (scheduledFuture != null) {
         markDone();
-        task.run();
+        long latencyNanos =
+            TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - targetTimeMs));
+        timerStats.get(timerId).onRun(latencyNanos);
+        metrics.run(task, timerId.name(), latencyNanos, getWaitingTasks());
       }
     }
 
@@ -133,6 +254,7 @@ public class AsyncQueue {
       hardAssert(
           scheduledFuture != null, "Caller should have verified scheduledFuture is non-null.");
       scheduledFuture = null;
+      timerStats.get(timerId).onDequeued();
       removeDelayedTask(this);
     }
   }
@@ -188,6 +310,30 @@ public class AsyncQueue {
   // theoretical removal speed, except this list will always be small so ArrayList is fine.
   private final ArrayList<DelayedTask> delayedTasks;
 
+  /** The tasks queued in each lane. While priority lanes are disabled, all tasks are NORMAL. */
+  private final ConcurrentLinkedQueue<QueuedTask> normalTasks = new ConcurrentLinkedQueue<>();
+
+  private final ConcurrentLinkedQueue<QueuedTask> backgroundTasks = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean priorityLanesEnabled;
+
+  /**
+   * The number of NORMAL tasks that ran while a BACKGROUND task was waiting since the last
+   * BACKGROUND task ran. Only accessed on the AsyncQueue thread.
+   */
+  private int tasksRunAheadOfBackground;
+
+  private final Map<Priority, TaskStats> laneStats = new EnumMap<>(Priority.class);
+
+  private final Map<TimerId, TaskStats> timerStats = new EnumMap<>(TimerId.class);
+
+  /** Tracks the tasks run on this queue, including those run through getExecutor(). */
+  private final Metrics metrics = new Metrics();
+
+  private final Executor normalExecutor = task -> execute(Priority.NORMAL, task);
+
+  private final Executor backgroundExecutor = task -> execute(Priority.BACKGROUND, task);
+
   /** A ThreadFactory for a single, pre-created thread. */
   private class DelayedStartFactory implements Runnable, ThreadFactory {
     private final CountDownLatch latch = new CountDownLatch(1);
@@ -214,6 +360,12 @@ public class AsyncQueue {
 
   public AsyncQueue() {
     delayedTasks = new ArrayList<>();
+    for (Priority priority : Priority.values()) {
+      laneStats.put(priority, new TaskStats());
+    }
+    for (TimerId timerId : TimerId.values()) {
+      timerStats.put(timerId, new TaskStats());
+    }
 
     DelayedStartFactory threadFactory = new DelayedStartFactory();
 
@@ -253,8 +405,92 @@ public class AsyncQueue {
     executor.setKeepAliveTime(3, TimeUnit.SECONDS);
   }
 
+  /** Returns an Executor that queues tasks in the NORMAL lane. */
   public Executor getExecutor() {
-    return executor;
+    return normalExecutor;
+  }
+
+  /** Returns an Executor that queues tasks in the given lane. */
+  public Executor getExecutor(Priority priority) {
+    return priority == Priority.NORMAL ? normalExecutor : backgroundExecutor;
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Enables or disables priority lanes. While disabled (the default), BACKGROUND tasks run in the
+   * order they were queued, like NORMAL tasks.
+   */
+  public void setPriorityLanesEnabled(boolean enabled) {
+    priorityLanesEnabled = enabled;
+  }
+
+  /** Returns the statistics of the tasks queued in the given lane. */
+  public TaskStats getTaskStats(Priority priority) {
+    return laneStats.get(priority);
+  }
+
+  /** Returns the statistics of the delayed tasks scheduled with the given TimerId. */
+  public TaskStats getTaskStats(TimerId timerId) {
+    return timerStats.get(timerId);
+  }
+
+  /** Returns the number of tasks that are queued in any lane but haven't run yet. */
+  private int getWaitingTasks() {
+    return laneStats.get(Priority.NORMAL).getWaitingTasks()
+        + laneStats.get(Priority.BACKGROUND).getWaitingTasks();
+  }
+
+  private void execute(Priority priority, Runnable task) {
+    execute(priority, priority.name(), task);
+  }
+
+  /**
+   * Queues the task in the given lane and schedules a run of the next task, so that the executor
+   * runs one queued task for every task that was queued.
+   */
+  private void execute(Priority priority, String category, Runnable task) {
+    QueuedTask queuedTask = new QueuedTask(priority, category, task);
+    ConcurrentLinkedQueue<QueuedTask> lane =
+        priority == Priority.BACKGROUND && priorityLanesEnabled ? backgroundTasks : normalTasks;
+    laneStats.get(priority).onQueued();
+    lane.add(queuedTask);
+    try {
+      executor.execute(this::runNextTask);
+    } catch (RejectedExecutionException e) {
+      lane.remove(queuedTask);
+      laneStats.get(priority).onDequeued();
+      throw e;
+    }
+  }
+
+  /**
+   * Runs the next NORMAL task, unless no NORMAL task is queued or a BACKGROUND task has already
+   * been passed by MAX_TASKS_RUN_AHEAD_OF_BACKGROUND NORMAL tasks.
+   */
+  private void runNextTask() {
+    QueuedTask next = null;
+    if (tasksRunAheadOfBackground < MAX_TASKS_RUN_AHEAD_OF_BACKGROUND) {
+      next = normalTasks.poll();
+    }
+    if (next == null) {
+      next = backgroundTasks.poll();
+      tasksRunAheadOfBackground = 0;
+    } else if (!backgroundTasks.isEmpty()) {
+      tasksRunAheadOfBackground++;
+    }
+    if (next == null) {
+      next = normalTasks.poll();
+    }
+    hardAssert(next != null, "No task queued for this run.");
+
+    long waitNanos = System.nanoTime() - next.queuedNanos;
+    TaskStats stats = laneStats.get(next.priority);
+    stats.onDequeued();
+    stats.onRun(waitNanos);
+    metrics.run(next.task, next.category, waitNanos, getWaitingTasks());
   }
 
   /** Verifies that the current thread is the managed AsyncQueue thread. */
@@ -277,9 +513,24 @@ public class AsyncQueue {
    */
   @CheckReturnValue
   public <T> Task<T> enqueue(Callable<T> task) {
+    return enqueue(Priority.NORMAL, task);
+  }
+
+  /**
+   * Queue this Callable task in the given lane, to run after every other task already queued in
+   * that lane.
+   *
+   * @param priority The lane to queue the task in.
+   * @param task The task to run.
+   * @return A Task object that is resolved after the enqueued operation has completed, with the
+   *     return value of the operation.
+   */
+  @CheckReturnValue
+  public <T> Task<T> enqueue(Priority priority, Callable<T> task) {
     final TaskCompletionSource<T> completionSource = new TaskCompletionSource<>();
     try {
-      executor.execute(
+      execute(
+          priority,
           () -> {
             try {
               completionSource.setResult(task.call());
@@ -323,6 +574,23 @@ public class AsyncQueue {
     enqueue(task);
   }
 
+  /**
+   * Queue this Runnable task in the given lane, to run after every other task already queued in
+   * that lane, without returning a Task.
+   *
+   * @param priority The lane to queue the task in.
+   * @param task The task to run.
+   */
+  @SuppressWarnings({"CheckReturnValue", "ResultOfMethodCallIgnored"})
+  public void enqueueAndForget(Priority priority, Runnable task) {
+    enqueue(
+        priority,
+        () -> {
+          task.run();
+          return null;
+        });
+  }
+
   /**
    * Schedule a task after the specified delay.
    *
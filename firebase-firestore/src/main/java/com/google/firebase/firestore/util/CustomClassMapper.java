@@ -344,7 +344,11 @@ public class CustomClassMapper {
     @SuppressWarnings("unchecked")
     BeanMapper<T> mapper = (BeanMapper<T>) mappers.get(clazz);
     if (mapper == null) {
-      mapper = new BeanMapper<>(clazz);
+      GeneratedMapper<T> generatedMapper = GeneratedMapper.forClass(clazz);
+      mapper =
+          generatedMapper != null
+              ? new BeanMapper<>(clazz, generatedMapper)
+              : new BeanMapper<>(clazz);
       // Inserting without checking is fine because mappers are "pure" and it's okay
       // if we create and use multiple by different threads temporarily
       mappers.put(clazz, mapper);
@@ -508,6 +512,63 @@ public class CustomClassMapper {
     }
   }
 
+  /** Converts a deserialized value to the type of a bean property. */
+  private interface ValueConverter {
+    Object convert(Object o, ErrorPath path);
+  }
+
+  /**
+   * Returns a converter for values of properties of the given type, which avoids looking up the
+   * conversion for the type for every value (see deserializeToClass()) where possible.
+   */
+  private static ValueConverter converterForType(Type type) {
+    ValueConverter converter = converterForClass(type);
+    if (converter != null) {
+      return (o, path) -> o == null ? null : converter.convert(o, path);
+    } else {
+      return (o, path) -> deserializeToType(o, type, path);
+    }
+  }
+
+  /** Returns the converter for the given type if it is one of the directly supported classes. */
+  private static ValueConverter converterForClass(Type type) {
+    if (!(type instanceof Class)) {
+      return null;
+    }
+    Class<?> clazz = (Class<?>) type;
+    if (clazz == Integer.class || clazz == int.class) {
+      return CustomClassMapper::convertInteger;
+    } else if (clazz == Boolean.class || clazz == boolean.class) {
+      return CustomClassMapper::convertBoolean;
+    } else if (clazz == Double.class || clazz == double.class) {
+      return CustomClassMapper::convertDouble;
+    } else if (clazz == Long.class || clazz == long.class) {
+      return CustomClassMapper::convertLong;
+    } else if (clazz == Float.class || clazz == float.class) {
+      return (o, path) -> convertDouble(o, path).floatValue();
+    } else if (clazz == String.class) {
+      return CustomClassMapper::convertString;
+    } else if (clazz == Date.class) {
+      return CustomClassMapper::convertDate;
+    } else if (clazz == Timestamp.class) {
+      return CustomClassMapper::convertTimestamp;
+    } else if (clazz == Blob.class) {
+      return CustomClassMapper::convertBlob;
+    } else if (clazz == GeoPoint.class) {
+      return CustomClassMapper::convertGeoPoint;
+    } else if (clazz == DocumentReference.class) {
+      return CustomClassMapper::convertDocumentReference;
+    } else if (clazz == Object.class) {
+      return (o, path) -> o;
+    } else if (clazz.isEnum()) {
+      return (o, path) -> deserializeToEnum(o, clazz, path);
+    } else {
+      // Nested beans are looked up when they are deserialized, since their mapper may not exist
+      // yet (e.g. for recursive classes).
+      return null;
+    }
+  }
+
   private static RuntimeException serializeError(ErrorPath path, String reason) {
     reason = "Could not serialize object. " + reason;
     if (path.getLength() > 0) {
@@ -539,8 +600,19 @@ public class CustomClassMapper {
     // A list of any properties that were annotated with @ServerTimestamp.
     private final HashSet<String> serverTimestamps;
 
+    // The getter or field that each property is serialized with.
+    private final Map<String, PropertyReader> readers;
+
+    // The setter or field that each property is deserialized with, and how values are converted to
+    // its type. Computed once per class instead of once per deserialized value.
+    private final Map<String, PropertyDeserializer> deserializers;
+
+    // The mapper generated for the class, which replaces reflection if present. Null otherwise.
+    private final GeneratedMapper<T> generatedMapper;
+
     BeanMapper(Class<T> clazz) {
       this.clazz = clazz;
+      generatedMapper = null;
       throwOnUnknownProperties = clazz.isAnnotationPresent(ThrowOnExtraProperties.class);
       warnOnUnknownProperties = !clazz.isAnnotationPresent(IgnoreExtraProperties.class);
       properties = new HashMap<>();
@@ -658,6 +730,67 @@ public class CustomClassMapper {
       if (properties.isEmpty()) {
         throw new RuntimeException("No properties to serialize found on class " + clazz.getName());
       }
+
+      // Getters and setters take precedence over fields.
+      readers = new HashMap<>();
+      for (String property : properties.values()) {
+        Method getter = getters.get(property);
+        Field field = fields.get(property);
+        if (getter != null) {
+          readers.put(property, object -> invoke(getter, object));
+        } else if (field != null) {
+          readers.put(
+              property,
+              object -> {
+                try {
+                  return field.get(object);
+                } catch (IllegalAccessException e) {
+                  throw new RuntimeException(e);
+                }
+              });
+        }
+      }
+      deserializers = new HashMap<>();
+      for (Map.Entry<String, Field> entry : fields.entrySet()) {
+        deserializers.put(entry.getKey(), PropertyDeserializer.forField(entry.getValue()));
+      }
+      for (Map.Entry<String, Method> entry : setters.entrySet()) {
+        deserializers.put(entry.getKey(), PropertyDeserializer.forSetter(entry.getValue()));
+      }
+    }
+
+    /** Creates a mapper that accesses the properties of the class with generated code. */
+    BeanMapper(Class<T> clazz, GeneratedMapper<T> generatedMapper) {
+      this.clazz = clazz;
+      this.generatedMapper = generatedMapper;
+      throwOnUnknownProperties = clazz.isAnnotationPresent(ThrowOnExtraProperties.class);
+      warnOnUnknownProperties = !clazz.isAnnotationPresent(IgnoreExtraProperties.class);
+      constructor = null;
+      properties = new HashMap<>();
+      getters = Collections.emptyMap();
+      setters = Collections.emptyMap();
+      fields = Collections.emptyMap();
+      serverTimestamps = new HashSet<>();
+      readers = new HashMap<>();
+      deserializers = new HashMap<>();
+
+      GeneratedMapper.Property[] generatedProperties = generatedMapper.getProperties();
+      for (int i = 0; i < generatedProperties.length; i++) {
+        GeneratedMapper.Property property = generatedProperties[i];
+        int index = i;
+        addProperty(property.name);
+        @SuppressWarnings("unchecked")
+        PropertyReader reader = object -> generatedMapper.get((T) object, index);
+        readers.put(property.name, reader);
+        if (property.type != null) {
+          @SuppressWarnings("unchecked")
+          PropertySetter setter = (object, value) -> generatedMapper.set((T) object, index, value);
+          deserializers.put(property.name, new PropertyDeserializer(property.type, setter));
+        }
+        if (property.serverTimestamp) {
+          serverTimestamps.add(property.name);
+        }
+      }
     }
 
     private void addProperty(String property) {
@@ -676,7 +809,11 @@ public class CustomClassMapper {
 
     T deserialize(
         Map<String, Object> values, Map<TypeVariable<Class<T>>, Type> types, ErrorPath path) {
-      if (constructor == null) {
+      T instance =
+          generatedMapper != null
+              ? generatedMapper.newInstance()
+              : constructor != null ? newInstance(constructor) : null;
+      if (instance == null) {
         throw deserializeError(
             path,
             "Class "
@@ -685,30 +822,19 @@ public class CustomClassMapper {
                 + "sure these constructors are not stripped");
       }
 
-      T instance = newInstance(constructor);
       for (Map.Entry<String, Object> entry : values.entrySet()) {
         String propertyName = entry.getKey();
         ErrorPath childPath = path.child(propertyName);
-        if (setters.containsKey(propertyName)) {
-          Method setter = setters.get(propertyName);
-          Type[] params = setter.getGenericParameterTypes();
-          if (params.length != 1) {
-            throw deserializeError(childPath, "Setter does not have exactly one parameter");
-          }
-          Type resolvedType = resolveType(params[0], types);
-          Object value =
-              CustomClassMapper.deserializeToType(entry.getValue(), resolvedType, childPath);
-          invoke(setter, instance, value);
-        } else if (fields.containsKey(propertyName)) {
-          Field field = fields.get(propertyName);
-          Type resolvedType = resolveType(field.getGenericType(), types);
-          Object value =
-              CustomClassMapper.deserializeToType(entry.getValue(), resolvedType, childPath);
-          try {
-            field.set(instance, value);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
+        PropertyDeserializer deserializer = deserializers.get(propertyName);
+        if (deserializer != null) {
+          Object value;
+          if (deserializer.converter != null) {
+            value = deserializer.converter.convert(entry.getValue(), childPath);
+          } else {
+            Type resolvedType = resolveType(deserializer.type, types);
+            value = CustomClassMapper.deserializeToType(entry.getValue(), resolvedType, childPath);
           }
+          deserializer.set(instance, value);
         } else {
           String message =
               "No setter/field for " + propertyName + " found on class " + clazz.getName();
@@ -748,22 +874,11 @@ public class CustomClassMapper {
       }
       Map<String, Object> result = new HashMap<>();
       for (String property : properties.values()) {
-        Object propertyValue;
-        if (getters.containsKey(property)) {
-          Method getter = getters.get(property);
-          propertyValue = invoke(getter, object);
-        } else {
-          // Must be a field
-          Field field = fields.get(property);
-          if (field == null) {
-            throw new IllegalStateException("Bean property without field or getter: " + property);
-          }
-          try {
-            propertyValue = field.get(object);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          }
+        PropertyReader reader = readers.get(property);
+        if (reader == null) {
+          throw new IllegalStateException("Bean property without field or getter: " + property);
         }
+        Object propertyValue = reader.get(object);
 
         Object serializedValue;
         if (serverTimestamps.contains(property) && propertyValue == null) {
@@ -959,6 +1074,53 @@ public class CustomClassMapper {
     }
   }
 
+  /** Reads a bean property. */
+  private interface PropertyReader {
+    Object get(Object instance);
+  }
+
+  /** Sets a bean property. */
+  private interface PropertySetter {
+    void set(Object instance, Object value);
+  }
+
+  /** The setter or field that a bean property is deserialized with. */
+  private static class PropertyDeserializer {
+    private final Type type;
+    private final PropertySetter setter;
+
+    // Null if the type is a type variable, which has to be resolved for every deserialization.
+    private final ValueConverter converter;
+
+    static PropertyDeserializer forSetter(Method setter) {
+      return new PropertyDeserializer(
+          setter.getGenericParameterTypes()[0],
+          (instance, value) -> invoke(setter, instance, value));
+    }
+
+    static PropertyDeserializer forField(Field field) {
+      return new PropertyDeserializer(
+          field.getGenericType(),
+          (instance, value) -> {
+            try {
+              field.set(instance, value);
+            } catch (IllegalAccessException e) {
+              throw new RuntimeException(e);
+            }
+          });
+    }
+
+    PropertyDeserializer(Type type, PropertySetter setter) {
+      this.type = type;
+      this.setter = setter;
+      this.converter = type instanceof TypeVariable ? null : converterForType(type);
+    }
+
+    void set(Object instance, Object value) {
+      setter.set(instance, value);
+    }
+  }
+
   /**
    * Immutable class representing the path to a specific field in an object. Used to provide better
    * error messages.
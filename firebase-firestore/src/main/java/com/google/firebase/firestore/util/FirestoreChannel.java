@@ -33,6 +33,7 @@ import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Wrapper class around io.grpc.Channel that adds headers, exception handling and simplifies
@@ -85,10 +86,16 @@ public class FirestoreChannel {
             "projects/%s/databases/%s", databaseId.getProjectId(), databaseId.getDatabaseId());
   }
 
-  /** Creates and starts a new bi-directional streaming RPC. */
+  /**
+   * Creates and starts a new bi-directional streaming RPC, whose callbacks are run on the given
+   * executor.
+   */
   public <ReqT, RespT> ClientCall<ReqT, RespT> runBidiStreamingRpc(
-      MethodDescriptor<ReqT, RespT> method, IncomingStreamObserver<RespT> observer) {
-    ClientCall<ReqT, RespT> call = channel.newCall(method, callOptions);
+      MethodDescriptor<ReqT, RespT> method,
+      IncomingStreamObserver<RespT> observer,
+      Executor callbackExecutor) {
+    ClientCall<ReqT, RespT> call =
+        channel.newCall(method, callOptions.withExecutor(callbackExecutor));
 
     call.start(
         new ClientCall.Listener<RespT>() {
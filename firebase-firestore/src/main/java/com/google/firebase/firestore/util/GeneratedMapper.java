@@ -0,0 +1,108 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.firestore.GenerateMapper;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Base class of the mappers that firebase-mapper-processor generates for classes annotated with
+ * {@link GenerateMapper}. Gives CustomClassMapper access to the properties of these classes without
+ * reflection. CustomClassMapper still converts the property values.
+ *
+ * <p>The mapper for a class {@code com.example.Outer.Inner} is named {@code
+ * com.example.Outer_Inner_FirestoreMapper}. Only meant to be extended by generated code.
+ */
+public abstract class GeneratedMapper<T> {
+
+  private static final String SUFFIX = "_FirestoreMapper";
+
+  /** Describes a property of the mapped class. */
+  public static final class Property {
+    final String name;
+    @Nullable final Type type;
+    final boolean serverTimestamp;
+
+    /**
+     * @param name The name of the property in documents.
+     * @param type The type of the setter parameter or field that the property is set with, or null
+     *     if the property can't be set.
+     * @param serverTimestamp Whether the property is annotated with {@code @ServerTimestamp}.
+     */
+    public Property(String name, @Nullable Type type, boolean serverTimestamp) {
+      this.name = name;
+      this.type = type;
+      this.serverTimestamp = serverTimestamp;
+    }
+  }
+
+  /** Captures a generic type, e.g. {@code new TypeToken<List<String>>() {}.getType()}. */
+  public abstract static class TypeToken<X> {
+    private final Type type;
+
+    protected TypeToken() {
+      type = ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+    }
+
+    public Type getType() {
+      return type;
+    }
+  }
+
+  /** Returns the properties of the mapped class, which get() and set() refer to by index. */
+  public abstract Property[] getProperties();
+
+  /** Returns a new instance of the class, or null if it has no no-argument constructor. */
+  @Nullable
+  public abstract T newInstance();
+
+  /** Returns the value of the property with the given index. */
+  public abstract Object get(T object, int property);
+
+  /** Sets the property with the given index, which must have a type, to the given value. */
+  public abstract void set(T object, int property, Object value);
+
+  /**
+   * Returns the generated mapper for the given class, or null if the class isn't annotated with
+   * {@link GenerateMapper} or its mapper wasn't generated.
+   */
+  @Nullable
+  static <T> GeneratedMapper<T> forClass(Class<T> clazz) {
+    if (!clazz.isAnnotationPresent(GenerateMapper.class)) {
+      return null;
+    }
+    Class<?> mapperClass;
+    try {
+      mapperClass =
+          Class.forName(clazz.getName().replace('$', '_') + SUFFIX, true, clazz.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      Logger.warn(
+          CustomClassMapper.class.getSimpleName(),
+          "No generated mapper found for class %s, which is annotated with @GenerateMapper. "
+              + "Falling back to reflection.",
+          clazz.getName());
+      return null;
+    }
+    try {
+      @SuppressWarnings("unchecked")
+      GeneratedMapper<T> mapper = (GeneratedMapper<T>) mapperClass.newInstance();
+      return mapper;
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the work done by the operations that a Firestore instance runs (the tasks on its
+ * AsyncQueue and its reads from the local cache on other threads) and reports it to a listener.
+ *
+ * <p>The operation running on a thread is kept in a thread local, so that code anywhere in the SDK
+ * can record its work with the static record methods without the operation being passed to it.
+ * While no Metrics instance has a listener, operations aren't tracked at all and the record methods
+ * only read a static field.
+ */
+public final class Metrics {
+
+  /** Receives the operations tracked by a Metrics instance once they are done. */
+  public interface Listener {
+    /**
+     * Called on the thread that ran the operation, right after it's done. Must return quickly.
+     * Exceptions it throws are logged and otherwise ignored.
+     */
+    void onOperation(Operation operation);
+  }
+
+  /** The work done by a single operation. Only modified by the thread that runs it. */
+  public static final class Operation {
+    private final String category;
+    private final long queueLatencyNanos;
+    private final int queueDepth;
+    private final long startNanos;
+    private long durationNanos;
+    @Nullable private String transactionName;
+    private int transactionCount;
+    private long transactionDurationNanos;
+    private int rowsRead;
+    private int rowsWritten;
+    private int documentsDecoded;
+    private int viewsComputed;
+    private int viewsSkipped;
+
+    private Operation(String category, long queueLatencyNanos, int queueDepth) {
+      this.category = category;
+      this.queueLatencyNanos = queueLatencyNanos;
+      this.queueDepth = queueDepth;
+      this.startNanos = System.nanoTime();
+    }
+
+    /** Records that a persistence transaction with the given name ran for the given time. */
+    public void recordTransaction(String name, long durationNanos) {
+      if (transactionName == null) {
+        transactionName = name;
+      }
+      transactionCount++;
+      transactionDurationNanos += durationNanos;
+    }
+
+    /**
+     * Returns the kind of task the operation ran as: the name of its AsyncQueue lane or TimerId, or
+     * the category it was tracked with.
+     */
+    public String getCategory() {
+      return category;
+    }
+
+    /** Returns the number of other tasks that were waiting in the queue when it started. */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** Returns how long the operation waited to be run. */
+    public long getQueueLatencyNanos() {
+      return queueLatencyNanos;
+    }
+
+    /** Returns how long the operation ran. */
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /** Returns the name of the first persistence transaction run by the operation. */
+    @Nullable
+    public String getTransactionName() {
+      return transactionName;
+    }
+
+    public int getTransactionCount() {
+      return transactionCount;
+    }
+
+    public long getTransactionDurationNanos() {
+      return transactionDurationNanos;
+    }
+
+    public int getRowsRead() {
+      return rowsRead;
+    }
+
+    public int getRowsWritten() {
+      return rowsWritten;
+    }
+
+    public int getDocumentsDecoded() {
+      return documentsDecoded;
+    }
+
+    public int getViewsComputed() {
+      return viewsComputed;
+    }
+
+    public int getViewsSkipped() {
+      return viewsSkipped;
+    }
+  }
+
+  /** The number of Metrics instances that have a listener. */
+  private static volatile int listenerCount;
+
+  private static final ThreadLocal<Operation> currentOperation = new ThreadLocal<>();
+
+  @Nullable private volatile Listener listener;
+
+  /** Sets the listener to report operations to, or removes it if null. */
+  public void setListener(@Nullable Listener listener) {
+    synchronized (Metrics.class) {
+      if (this.listener == null && listener != null) {
+        listenerCount++;
+      } else if (this.listener != null && listener == null) {
+        listenerCount--;
+      }
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * Returns a Runnable that runs the given task as an operation of the given category, whose queue
+   * latency is the time between now and when it starts running. Used for tasks that don't run on
+   * the AsyncQueue. Returns the task itself if there's no listener.
+   */
+  public Runnable track(String category, Runnable task) {
+    if (listener == null) {
+      return task;
+    }
+    long enqueuedNanos = System.nanoTime();
+    return () -> run(task, category, System.nanoTime() - enqueuedNanos, /*queueDepth=*/ 0);
+  }
+
+  /**
+   * Runs the given task as an operation that waited for the given time to be run, behind the given
+   * number of other tasks. Only operations that ran at least one persistence transaction are
+   * reported. If an operation is already running on this thread, the task's work is attributed to
+   * that operation instead.
+   */
+  public void run(Runnable task, String category, long queueLatencyNanos, int queueDepth) {
+    Listener listener = this.listener;
+    if (listener == null || currentOperation.get() != null) {
+      task.run();
+      return;
+    }
+
+    Operation operation = new Operation(category, queueLatencyNanos, queueDepth);
+    currentOperation.set(operation);
+    try {
+      task.run();
+    } finally {
+      currentOperation.remove();
+      operation.durationNanos = System.nanoTime() - operation.startNanos;
+      if (operation.transactionCount > 0) {
+        report(listener, operation);
+      }
+    }
+  }
+
+  /**
+   * Reports the operation to the listener. Listeners run app code on the thread of the operation,
+   * usually the AsyncQueue, so their exceptions are logged instead of failing the queue or hiding
+   * an exception thrown by the operation itself.
+   */
+  private static void report(Listener listener, Operation operation) {
+    try {
+      listener.onOperation(operation);
+    } catch (RuntimeException e) {
+      Logger.warn(Metrics.class.getSimpleName(), "Metrics listener failed: %s", e);
+    }
+  }
+
+  /**
+   * Returns the operation running on the current thread, or null if there is none or no Metrics
+   * instance has a listener.
+   */
+  @Nullable
+  public static Operation current() {
+    return listenerCount == 0 ? null : currentOperation.get();
+  }
+
+  /** Records that the current operation read the given number of rows from the database. */
+  public static void recordRowsRead(int count) {
+    Operation operation = current();
+    if (operation != null) {
+      operation.rowsRead += count;
+    }
+  }
+
+  /** Records that the current operation changed the given number of rows in the database. */
+  public static void recordRowsWritten(int count) {
+    Operation operation = current();
+    if (operation != null) {
+      operation.rowsWritten += count;
+    }
+  }
+
+  /** Records that the current operation decoded a document read from the local cache. */
+  public static void recordDocumentDecoded() {
+    Operation operation = current();
+    if (operation != null) {
+      operation.documentsDecoded++;
+    }
+  }
+
+  /** Records that the current operation computed the changes to a query view. */
+  public static void recordViewComputed() {
+    Operation operation = current();
+    if (operation != null) {
+      operation.viewsComputed++;
+    }
+  }
+
+  /**
+   * Records that the current operation skipped computing the changes to a query view, since none
+   * of the changed documents could affect it.
+   */
+  public static void recordViewSkipped() {
+    Operation operation = current();
+    if (operation != null) {
+      operation.viewsSkipped++;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Base class of the benchmarks among the unit tests. Benchmarks measure how a component performs
+ * rather than check how it behaves, so they are skipped unless the tests are run with {@code
+ * -Pbenchmarks}, e.g.:
+ *
+ * <pre>
+ * ./gradlew :firebase-firestore:testDebugUnitTest -Pbenchmarks --tests '*Benchmark'
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public abstract class BenchmarkTestCase {
+
+  /** The system property that the build sets when run with -Pbenchmarks. */
+  private static final String BENCHMARKS_PROPERTY = "firestore.benchmarks";
+
+  @BeforeClass
+  public static void assumeBenchmarksEnabled() {
+    assumeTrue("Benchmarks only run with -Pbenchmarks", Boolean.getBoolean(BENCHMARKS_PROPERTY));
+  }
+
+  /** Returns the time since the given value of System.nanoTime(), in milliseconds. */
+  protected static long millisSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1000000;
+  }
+
+  /** Reports a result of the benchmark, formatted with String.format(). */
+  protected void report(String format, Object... args) {
+    System.out.println(getClass().getSimpleName() + ": " + String.format(format, args));
+  }
+}
@@ -20,11 +20,14 @@ import static com.google.firebase.firestore.testutil.TestUtil.map;
 import static com.google.firebase.firestore.testutil.TestUtil.query;
 import static com.google.firebase.firestore.testutil.TestUtil.wrapObject;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.DocumentSnapshot.ServerTimestampBehavior;
 import com.google.firebase.firestore.core.DocumentViewChange;
@@ -35,7 +38,9 @@ import com.google.firebase.firestore.model.value.ObjectValue;
 import com.google.firebase.firestore.model.value.ServerTimestampValue;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -49,6 +54,10 @@ public class QuerySnapshotTest {
     public Date timestamp;
   }
 
+  public static class IndexedPOJO {
+    public long index;
+  }
+
   @Test
   public void testEquals() {
     ObjectValue firstValue = wrapObject("a", 1);
@@ -96,6 +105,45 @@ public class QuerySnapshotTest {
     assertNotNull(docs.get(0).timestamp);
   }
 
+  @Test
+  public void testToObjectsAsync() {
+    when(TestUtil.firestore().getFirestoreSettings())
+        .thenReturn(new FirebaseFirestoreSettings.Builder().build());
+
+    // Enough documents to be converted in several chunks.
+    Map<String, ObjectValue> docs = new HashMap<>();
+    for (int i = 0; i < 250; i++) {
+      docs.put(String.format("doc%03d", i), wrapObject("index", i));
+    }
+    QuerySnapshot foo = TestUtil.querySnapshot("foo", map(), docs, false, false);
+
+    Task<List<IndexedPOJO>> task = foo.toObjectsAsync(IndexedPOJO.class, Runnable::run);
+
+    assertTrue(task.isSuccessful());
+    List<IndexedPOJO> objects = task.getResult();
+    assertEquals(250, objects.size());
+    for (int i = 0; i < 250; i++) {
+      assertEquals(i, objects.get(i).index);
+    }
+  }
+
+  @Test
+  public void testToObjectsAsyncFailsIfDocumentCannotBeConverted() {
+    when(TestUtil.firestore().getFirestoreSettings())
+        .thenReturn(new FirebaseFirestoreSettings.Builder().build());
+
+    QuerySnapshot foo =
+        TestUtil.querySnapshot("foo", map(), map("a", wrapObject("index", "a")), false, false);
+
+    Task<List<IndexedPOJO>> task = foo.toObjectsAsync(IndexedPOJO.class, Runnable::run);
+
+    assertTrue(task.isComplete());
+    assertFalse(task.isSuccessful());
+    // The conversion error itself is propagated, not a wrapper of it.
+    assertEquals(RuntimeException.class, task.getException().getClass());
+    assertTrue(task.getException().getMessage().contains("found in field 'index'"));
+  }
+
   @Test
   public void testIncludeMetadataChanges() {
     Document doc1Old = doc("foo/bar", 1, wrapObject("a", "b"), /*hasLocalMutations=*/ true);
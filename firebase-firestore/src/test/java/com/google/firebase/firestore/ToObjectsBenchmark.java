@@ -0,0 +1,97 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.wrapObject;
+import static java.util.Arrays.asList;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.model.value.ObjectValue;
+import com.google.firebase.firestore.util.Executors;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import org.junit.Test;
+
+/**
+ * Compares converting the documents of a large QuerySnapshot to POJOs with toObjects() and with
+ * toObjectsAsync() on a thread pool.
+ */
+public class ToObjectsBenchmark extends BenchmarkTestCase {
+
+  private static final int DOCUMENTS = 10000;
+  private static final int ITERATIONS = 10;
+
+  public static class Item {
+    public String name;
+    public long count;
+    public double score;
+    public boolean active;
+    public List<String> tags;
+  }
+
+  @Test
+  public void benchmarkToObjects() throws InterruptedException {
+    when(TestUtil.firestore().getFirestoreSettings())
+        .thenReturn(new FirebaseFirestoreSettings.Builder().build());
+
+    Map<String, ObjectValue> docs = new HashMap<>();
+    for (int i = 0; i < DOCUMENTS; i++) {
+      docs.put(
+          String.format("doc%05d", i),
+          wrapObject(
+              map(
+                  "name", "item" + i,
+                  "count", i,
+                  "score", i / 10.0,
+                  "active", i % 2 == 0,
+                  "tags", asList("a", "b", "c"))));
+    }
+    QuerySnapshot snapshot = TestUtil.querySnapshot("items", map(), docs, false, false);
+
+    // Warm up the mapper for the class.
+    snapshot.toObjects(Item.class);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      snapshot.toObjects(Item.class);
+    }
+    long syncMs = millisSince(start) / ITERATIONS;
+
+    ExecutorService executor =
+        java.util.concurrent.Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      Task<List<Item>> task = snapshot.toObjectsAsync(Item.class, executor);
+      CountDownLatch done = new CountDownLatch(1);
+      task.addOnCompleteListener(Executors.DIRECT_EXECUTOR, t -> done.countDown());
+      done.await();
+      if (task.getResult().size() != DOCUMENTS) {
+        throw new AssertionError("Converted " + task.getResult().size() + " documents");
+      }
+    }
+    long asyncMs = millisSince(start) / ITERATIONS;
+    executor.shutdown();
+
+    report(
+        "Converting %d documents: toObjects() %dms, toObjectsAsync() on %d threads %dms",
+        DOCUMENTS, syncMs, Runtime.getRuntime().availableProcessors(), asyncMs);
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
+import static java.util.Collections.singletonList;
+
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.model.Document;
+import org.junit.Test;
+
+/**
+ * Measures the cost of Query.matches() over a large number of documents, compared to evaluating
+ * each of the query's constraints separately against the document (as Query.matches() used to).
+ */
+public class QueryMatchesBenchmark extends BenchmarkTestCase {
+
+  private static final int DOCUMENTS = 100000;
+  private static final int ITERATIONS = 10;
+
+  @Test
+  public void benchmarkMatches() {
+    Query query =
+        query("rooms")
+            .filter(filter("value", ">=", 100))
+            .filter(filter("tag", "==", "a"))
+            .orderBy(orderBy("value"))
+            .startAt(new Bound(singletonList(wrap(1000)), /* before= */ true));
+
+    Document[] docs = new Document[DOCUMENTS];
+    for (int i = 0; i < DOCUMENTS; i++) {
+      docs[i] =
+          doc("rooms/doc" + i, 1, map("value", i, "tag", i % 2 == 0 ? "a" : "b", "i", i), false);
+    }
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      int compiledMatches = 0;
+      for (Document doc : docs) {
+        compiledMatches += query.matches(doc) ? 1 : 0;
+      }
+      long compiledUs = (System.nanoTime() - start) / 1000;
+
+      start = System.nanoTime();
+      int separateMatches = 0;
+      for (Document doc : docs) {
+        separateMatches += matchesSeparately(query, doc) ? 1 : 0;
+      }
+      long separateUs = (System.nanoTime() - start) / 1000;
+
+      report(
+          "Matching %d documents (%d matches): compiled matcher %dus, separate checks %dus",
+          DOCUMENTS, compiledMatches, compiledUs, separateUs);
+      if (compiledMatches != separateMatches) {
+        throw new AssertionError("Compiled matcher returned different results");
+      }
+    }
+  }
+
+  /** Evaluates every constraint of the query on its own, reading fields once per constraint. */
+  private static boolean matchesSeparately(Query query, Document doc) {
+    if (!query.getPath().isImmediateParentOf(doc.getKey().getPath())) {
+      return false;
+    }
+    for (OrderBy orderBy : query.getExplicitOrderBy()) {
+      if (!orderBy.getField().isKeyField() && doc.getField(orderBy.getField()) == null) {
+        return false;
+      }
+    }
+    for (Filter filter : query.getFilters()) {
+      if (!filter.matches(doc)) {
+        return false;
+      }
+    }
+    Bound startAt = query.getStartAt();
+    return startAt == null || startAt.sortsBeforeDocument(query.getOrderBy(), doc);
+  }
+}
@@ -23,9 +23,11 @@ import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
 import static com.google.firebase.firestore.testutil.TestUtil.path;
 import static com.google.firebase.firestore.testutil.TestUtil.ref;
 import static com.google.firebase.firestore.testutil.TestUtil.testEquality;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.firestore.model.Document;
@@ -302,6 +304,43 @@ public class QueryTest {
     }
   }
 
+  @Test
+  public void testMatchesBoundsOnFilteredAndOrderedFields() {
+    Query query =
+        Query.atPath(ResourcePath.fromString("collection"))
+            .filter(filter("sort", ">=", 2))
+            .orderBy(orderBy("sort", "desc"))
+            .startAt(new Bound(asList(wrap(4)), /* before= */ true))
+            .endAt(new Bound(asList(wrap(2)), /* before= */ false));
+
+    Document doc1 = doc("collection/1", 0, map("sort", 1), false);
+    Document doc2 = doc("collection/2", 0, map("sort", 2), false);
+    Document doc3 = doc("collection/3", 0, map("sort", 3), false);
+    Document doc4 = doc("collection/4", 0, map("sort", 4), false);
+    Document doc5 = doc("collection/5", 0, map("sort", 5), false);
+    Document doc6 = doc("collection/6", 0, map("other", 3), false);
+
+    assertFalse(query.matches(doc1));
+    assertTrue(query.matches(doc2));
+    assertTrue(query.matches(doc3));
+    assertTrue(query.matches(doc4));
+    assertFalse(query.matches(doc5));
+    assertFalse(query.matches(doc6));
+  }
+
+  @Test
+  public void testMemoizesDerivedValues() {
+    Query query =
+        Query.atPath(ResourcePath.fromString("collection"))
+            .filter(filter("sort", ">=", 2))
+            .orderBy(orderBy("sort", "desc"));
+
+    String canonicalId = query.getCanonicalId();
+    assertEquals("collection|f:sort>=2|ob:sortdesc__name__desc", canonicalId);
+    assertSame(canonicalId, query.getCanonicalId());
+    assertSame(query.comparator(), query.comparator());
+  }
+
   @Test
   public void testSortsDocuments() {
     Query query = Query.atPath(ResourcePath.fromString("collection")).orderBy(orderBy("sort"));
@@ -0,0 +1,133 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.docUpdates;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueryViewIndexTest {
+
+  private int nextTargetId = 1;
+
+  private QueryView addView(QueryViewIndex index, Query query, MaybeDocument... docs) {
+    View view = new View(query, DocumentKey.emptyKeySet());
+    view.applyChanges(view.computeDocChanges(docUpdates(docs)));
+    QueryView queryView = new QueryView(query, nextTargetId++, view);
+    index.add(queryView);
+    return queryView;
+  }
+
+  @Test
+  public void testOnlyReturnsViewsOnTheChangedCollection() {
+    QueryViewIndex index = new QueryViewIndex();
+    QueryView rooms = addView(index, query("rooms"));
+    QueryView messages = addView(index, query("rooms/eros/messages"));
+    QueryView document = addView(index, query("rooms/eros"));
+
+    MaybeDocument room = doc("rooms/eros", 1, map("name", "eros"));
+    Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affected =
+        index.getAffectedViews(docUpdates(room));
+
+    assertEquals(2, affected.size());
+    assertEquals(docUpdates(room), affected.get(rooms));
+    assertEquals(docUpdates(room), affected.get(document));
+    assertFalse(affected.containsKey(messages));
+  }
+
+  @Test
+  public void testSkipsViewsWhoseFiltersDoNotMatch() {
+    QueryViewIndex index = new QueryViewIndex();
+    QueryView high = addView(index, query("coll").filter(filter("sort", ">", 5)));
+    QueryView low = addView(index, query("coll").filter(filter("sort", "<", 5)));
+    QueryView other = addView(index, query("coll").filter(filter("other", "==", 1)));
+
+    MaybeDocument doc = doc("coll/a", 1, map("sort", 10));
+    Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affected =
+        index.getAffectedViews(docUpdates(doc));
+
+    assertEquals(1, affected.size());
+    assertEquals(docUpdates(doc), affected.get(high));
+    assertFalse(affected.containsKey(low));
+    assertFalse(affected.containsKey(other));
+  }
+
+  @Test
+  public void testReturnsViewsThatContainTheChangedDocument() {
+    QueryViewIndex index = new QueryViewIndex();
+    Query query = query("coll").filter(filter("sort", ">", 5));
+    QueryView withDoc = addView(index, query, doc("coll/a", 1, map("sort", 10)));
+    QueryView withoutDoc = addView(index, query.filter(filter("sort", "<", 20)));
+
+    // Neither the deleted document nor an update that no longer matches the query match, but the
+    // view that contains the document still has to remove it.
+    for (MaybeDocument change :
+        new MaybeDocument[] {deletedDoc("coll/a", 2), doc("coll/a", 2, map("sort", 1))}) {
+      Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affected =
+          index.getAffectedViews(docUpdates(change));
+      assertEquals(1, affected.size());
+      assertEquals(docUpdates(change), affected.get(withDoc));
+      assertFalse(affected.containsKey(withoutDoc));
+    }
+  }
+
+  @Test
+  public void testOnlyReturnsRelevantChangesForEachView() {
+    QueryViewIndex index = new QueryViewIndex();
+    QueryView high = addView(index, query("coll").filter(filter("sort", ">", 5)));
+    QueryView low = addView(index, query("coll").filter(filter("sort", "<", 5)));
+
+    MaybeDocument docA = doc("coll/a", 1, map("sort", 10));
+    MaybeDocument docB = doc("coll/b", 1, map("sort", 1));
+    Map<QueryView, ImmutableSortedMap<DocumentKey, MaybeDocument>> affected =
+        index.getAffectedViews(docUpdates(docA, docB, doc("other/c", 1, map("sort", 10))));
+
+    assertEquals(docUpdates(docA), affected.get(high));
+    assertEquals(docUpdates(docB), affected.get(low));
+  }
+
+  @Test
+  public void testRemovedViewsAreNoLongerReturned() {
+    QueryViewIndex index = new QueryViewIndex();
+    QueryView first = addView(index, query("coll"));
+    QueryView second = addView(index, query("coll").filter(filter("sort", ">", 5)));
+    MaybeDocument doc = doc("coll/a", 1, map("sort", 10));
+    ImmutableSortedMap<DocumentKey, MaybeDocument> changes = docUpdates(doc);
+
+    index.remove(first);
+    assertEquals(1, index.getAffectedViews(changes).size());
+    assertTrue(index.getAffectedViews(changes).containsKey(second));
+
+    index.remove(second);
+    assertTrue(index.getAffectedViews(changes).isEmpty());
+  }
+}
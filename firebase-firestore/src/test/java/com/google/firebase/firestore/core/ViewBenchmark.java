@@ -0,0 +1,67 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.testutil.TestUtil.ackTarget;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.docUpdates;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import org.junit.Test;
+
+/**
+ * Measures the cost of applying single-document changes to large, current views. With incremental
+ * limbo tracking the cost per change should stay flat (up to the logarithmic cost of the sorted
+ * collections) as the view grows.
+ */
+public class ViewBenchmark extends BenchmarkTestCase {
+
+  private static final int CHANGES = 1000;
+
+  @Test
+  public void benchmarkSingleDocumentChanges() {
+    for (int viewSize : new int[] {500, 5000, 50000}) {
+      View view = createCurrentView(viewSize);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < CHANGES; i++) {
+        Document updated = doc("rooms/doc" + (i % viewSize), 2 + i, map("value", i), false);
+        view.applyChanges(view.computeDocChanges(docUpdates(updated)));
+      }
+      long elapsedUs = (System.nanoTime() - start) / 1000;
+
+      report(
+          "View with %d documents: %d changes took %dus (%dus per change)",
+          viewSize, CHANGES, elapsedUs, elapsedUs / CHANGES);
+    }
+  }
+
+  private static View createCurrentView(int size) {
+    View view = new View(query("rooms"), DocumentKey.emptyKeySet());
+    Document[] docs = new Document[size];
+    ImmutableSortedMap<DocumentKey, Document> updates = docUpdates();
+    for (int i = 0; i < size; i++) {
+      docs[i] = doc("rooms/doc" + i, 1, map("value", i), false);
+      updates = updates.insert(docs[i].getKey(), docs[i]);
+    }
+    view.applyChanges(view.computeDocChanges(updates), ackTarget(docs));
+    return view;
+  }
+}
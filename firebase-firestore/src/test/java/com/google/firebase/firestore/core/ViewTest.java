@@ -300,6 +300,36 @@ public class ViewTest {
         change.getLimboChanges());
   }
 
+  @Test
+  public void testTracksLimboChangesWhileNotCurrent() {
+    Query query = messageQuery();
+    View view = new View(query, DocumentKey.emptyKeySet());
+    Document doc1 = doc("rooms/eros/messages/0", 0, map(), false);
+    Document doc2 = doc("rooms/eros/messages/1", 0, map(), false);
+
+    applyChanges(view, doc1, doc2);
+    ViewChange change = view.applyChanges(view.computeDocChanges(docUpdates()), ackTarget(doc2));
+    assertEquals(
+        asList(new LimboDocumentChange(LimboDocumentChange.Type.ADDED, doc1.getKey())),
+        change.getLimboChanges());
+
+    // Lose consistency with the backend, then remove doc1 from the view and doc2 from the target.
+    change =
+        view.applyChanges(
+            view.computeDocChanges(docUpdates(deletedDoc("rooms/eros/messages/0", 1))),
+            targetChange(ByteString.EMPTY, false, null, null, asList(doc2)));
+    assertTrue(change.getLimboChanges().isEmpty());
+
+    // Once current again, both changes are reported.
+    change = view.applyChanges(view.computeDocChanges(docUpdates()), ackTarget());
+    assertEquals(
+        asList(
+            new LimboDocumentChange(LimboDocumentChange.Type.REMOVED, doc1.getKey()),
+            new LimboDocumentChange(LimboDocumentChange.Type.ADDED, doc2.getKey())),
+        change.getLimboChanges());
+    assertEquals(keySet(doc2.getKey()), view.getLimboDocuments());
+  }
+
   @Test
   public void testResumingQueryCreatesNoLimbos() {
     Query query = messageQuery();
@@ -0,0 +1,105 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.resumeToken;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.remote.RemoteEvent;
+import com.google.firebase.firestore.remote.WatchChange.DocumentChange;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
+import com.google.firebase.firestore.remote.WatchChangeAggregator;
+import org.junit.Test;
+
+/**
+ * Measures the cost of applying remote events with large snapshots to a SQLite-backed LocalStore,
+ * with and without the statement cache in SQLitePersistence.
+ */
+public class ApplyRemoteEventBenchmark extends BenchmarkTestCase {
+
+  private static final int SNAPSHOTS = 5;
+
+  @Test
+  public void benchmarkApplyRemoteEvent() {
+    for (int snapshotSize : new int[] {100, 1000, 5000}) {
+      long uncachedMs = applySnapshots(snapshotSize, /* statementCacheEnabled= */ false);
+      long cachedMs = applySnapshots(snapshotSize, /* statementCacheEnabled= */ true);
+
+      report(
+          "Applying %d snapshots with %d documents: without statement cache %dms, "
+              + "with statement cache %dms",
+          SNAPSHOTS, snapshotSize, uncachedMs, cachedMs);
+    }
+  }
+
+  /** Applies SNAPSHOTS remote events of the given size and returns the time taken. */
+  private static long applySnapshots(int snapshotSize, boolean statementCacheEnabled) {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    persistence.setStatementCacheEnabled(statementCacheEnabled);
+    LocalStore localStore = new LocalStore(persistence, User.UNAUTHENTICATED);
+    localStore.start();
+    QueryData queryData = localStore.allocateQuery(query("coll"));
+
+    long elapsedMs = 0;
+    for (int i = 1; i <= SNAPSHOTS; i++) {
+      RemoteEvent event = createSnapshot(queryData, snapshotSize, i);
+      long start = System.nanoTime();
+      localStore.applyRemoteEvent(event);
+      elapsedMs += millisSince(start);
+    }
+
+    persistence.shutdown();
+    return elapsedMs;
+  }
+
+  /** Creates a remote event that adds or updates the given number of documents in the query. */
+  private static RemoteEvent createSnapshot(QueryData queryData, int snapshotSize, int version) {
+    int targetId = queryData.getTargetId();
+    WatchChangeAggregator aggregator =
+        new WatchChangeAggregator(
+            new WatchChangeAggregator.TargetMetadataProvider() {
+              @Override
+              public ImmutableSortedSet<DocumentKey> getRemoteKeysForTarget(int targetId) {
+                return DocumentKey.emptyKeySet();
+              }
+
+              @Override
+              public QueryData getQueryDataForTarget(int targetId) {
+                return queryData;
+              }
+            });
+
+    for (int i = 0; i < snapshotSize; i++) {
+      Document doc = doc("coll/doc" + i, version, map("index", i, "version", version));
+      aggregator.handleDocumentChange(
+          new DocumentChange(singletonList(targetId), emptyList(), doc.getKey(), doc));
+    }
+    aggregator.handleTargetChange(
+        new WatchTargetChange(
+            WatchTargetChangeType.Current, singletonList(targetId), resumeToken(version)));
+    return aggregator.createRemoteEvent(version(version));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.ref;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Bound;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.value.FieldValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.junit.Test;
+
+/**
+ * Compares reading all documents of a large cached collection at once with reading them in pages
+ * via LocalStore.executeQuery() with a limit, which only holds on to one page of documents at a
+ * time. Pages in key order seek to their startAt bound, while pages in field order scan the whole
+ * collection for every page.
+ */
+public class CachePagingBenchmark extends BenchmarkTestCase {
+
+  private static final int DOCUMENTS = 100000;
+  private static final int PAGE_SIZE = 500;
+
+  @Test
+  public void benchmarkPaging() {
+    benchmarkPaging(/* orderField= */ null);
+  }
+
+  @Test
+  public void benchmarkPagingByField() {
+    benchmarkPaging("index");
+  }
+
+  /** Pages through the collection in the order of {@code orderField}, or in key order if null. */
+  private void benchmarkPaging(@Nullable String orderField) {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    RemoteDocumentCache remoteDocuments = persistence.getRemoteDocumentCache();
+    persistence.runTransaction(
+        "Add documents",
+        () -> {
+          for (int i = 0; i < DOCUMENTS; i++) {
+            remoteDocuments.add(doc(String.format("coll/doc%06d", i), 1, map("index", i)));
+          }
+        });
+    LocalStore localStore = new LocalStore(persistence, User.UNAUTHENTICATED);
+    localStore.start();
+    Query query = orderField == null ? query("coll") : query("coll").orderBy(orderBy(orderField));
+
+    long start = System.nanoTime();
+    int allAtOnce = localStore.executeQuery(query).size();
+    long allAtOnceMs = millisSince(start);
+
+    start = System.nanoTime();
+    int paged = 0;
+    Query pageQuery = query.limit(PAGE_SIZE);
+    while (true) {
+      ImmutableSortedMap<DocumentKey, Document> page = localStore.executeQuery(pageQuery);
+      paged += page.size();
+      if (page.size() < PAGE_SIZE) {
+        break;
+      }
+      Document last = null;
+      for (Map.Entry<DocumentKey, Document> entry : page) {
+        if (last == null || pageQuery.comparator().compare(entry.getValue(), last) > 0) {
+          last = entry.getValue();
+        }
+      }
+      List<FieldValue> position = new ArrayList<>();
+      if (orderField != null) {
+        position.add(last.getField(field(orderField)));
+      }
+      position.add(wrap(ref(last.getKey().toString())));
+      Bound after = new Bound(position, /* before= */ false);
+      pageQuery = query.startAt(after).limit(PAGE_SIZE);
+    }
+    long pagedMs = millisSince(start);
+
+    report(
+        "Reading %d documents ordered by %s: all at once %dms, in pages of %d %dms",
+        allAtOnce, orderField == null ? "key" : orderField, allAtOnceMs, PAGE_SIZE, pagedMs);
+    if (paged != allAtOnce) {
+      throw new AssertionError("Paging returned " + paged + " documents");
+    }
+    persistence.shutdown();
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the cost of decoding large documents when executing a filtered query through the
+ * SimpleQueryEngine, comparing lazy field decoding with decoding the full document data up front.
+ */
+public class DocumentDecodingBenchmark extends BenchmarkTestCase {
+
+  private static final int DOCUMENT_COUNT = 500;
+  private static final int FIELDS_PER_DOCUMENT = 200;
+  private static final int ITERATIONS = 10;
+
+  private SQLitePersistence persistence;
+  private RemoteDocumentCache remoteDocumentCache;
+  private SimpleQueryEngine queryEngine;
+  private LocalSerializer serializer;
+
+  @Before
+  public void setUp() {
+    persistence = PersistenceTestHelpers.createSQLitePersistence();
+    remoteDocumentCache = persistence.getRemoteDocumentCache();
+    MutationQueue mutationQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    queryEngine = new SimpleQueryEngine(new LocalDocumentsView(remoteDocumentCache, mutationQueue));
+    serializer = new LocalSerializer(new RemoteSerializer(DatabaseId.forProject("projectId")));
+
+    persistence.runTransaction(
+        "Add documents",
+        () -> {
+          for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("index", i);
+            for (int j = 0; j < FIELDS_PER_DOCUMENT; j++) {
+              data.put("field" + j, "value " + j + " of document " + i);
+            }
+            remoteDocumentCache.add(doc("coll/doc" + i, 1, data));
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    persistence.shutdown();
+  }
+
+  @Test
+  public void benchmarkFilteredQuery() {
+    Query query = query("coll").filter(filter("index", "<", 10));
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      ImmutableSortedMap<DocumentKey, Document> results =
+          persistence.runTransaction(
+              "Execute query", () -> queryEngine.getDocumentsMatchingQuery(query));
+      assertEquals(10, results.size());
+    }
+    report(
+        "SimpleQueryEngine: %d queries over %d documents with %d fields took %dms",
+        ITERATIONS, DOCUMENT_COUNT, FIELDS_PER_DOCUMENT, millisSince(start));
+  }
+
+  @Test
+  public void benchmarkLazyVersusEagerDecoding() {
+    Query query = query("coll").filter(filter("index", "<", 10));
+
+    // Read the raw rows once so that only decoding and matching is measured.
+    List<com.google.firebase.firestore.proto.MaybeDocument> protos = new ArrayList<>();
+    persistence
+        .query("SELECT contents FROM remote_documents")
+        .forEach(
+            row -> {
+              try {
+                protos.add(
+                    com.google.firebase.firestore.proto.MaybeDocument.parseFrom(row.getBlob(0)));
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+
+    long lazyStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertEquals(10, countMatches(query, protos, /* decodeAllFields= */ false));
+    }
+    long lazyMs = millisSince(lazyStart);
+
+    long eagerStart = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      assertEquals(10, countMatches(query, protos, /* decodeAllFields= */ true));
+    }
+    long eagerMs = millisSince(eagerStart);
+
+    report(
+        "Decoding %d documents with %d fields %d times: lazy %dms, eager %dms",
+        DOCUMENT_COUNT, FIELDS_PER_DOCUMENT, ITERATIONS, lazyMs, eagerMs);
+  }
+
+  private int countMatches(
+      Query query,
+      List<com.google.firebase.firestore.proto.MaybeDocument> protos,
+      boolean decodeAllFields) {
+    int matches = 0;
+    for (com.google.firebase.firestore.proto.MaybeDocument proto : protos) {
+      MaybeDocument maybeDoc = serializer.decodeMaybeDocument(proto);
+      Document doc = (Document) maybeDoc;
+      if (decodeAllFields) {
+        // Simulates the previous behavior of building the full ObjectValue during decoding.
+        doc.getData();
+      }
+      if (query.matches(doc)) {
+        ++matches;
+      }
+    }
+    return matches;
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.DELETE_SENTINEL;
+import static com.google.firebase.firestore.testutil.TestUtil.deleteMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.patchMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.transformMutation;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DocumentOverlayTest {
+
+  private static final DocumentKey KEY = key("coll/doc");
+
+  /** The remote versions of the document each overlay is checked against. */
+  private static final List<MaybeDocument> REMOTE_DOCS =
+      asList(
+          null,
+          deletedDoc("coll/doc", 1),
+          doc("coll/doc", 1, map("a", 0, "b", map("c", 0, "d", 0)), false));
+
+  @Test
+  public void testSquashesPatches() {
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                patchMutation("coll/doc", map("a", 1)),
+                patchMutation("coll/doc", map("b.c", 2)),
+                patchMutation("coll/doc", map("a", DELETE_SENTINEL, "b", map("e", 3)))));
+    assertEquals(1, overlay.getSteps().size());
+    assertEquals(asList(1, 2, 3), overlay.getBatchIds());
+  }
+
+  @Test
+  public void testSquashesMergesAndPatches() {
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                patchMutation("coll/doc", map("a", 1), asList(field("a"))),
+                patchMutation("coll/doc", map("b.c", 2))));
+    assertEquals(1, overlay.getSteps().size());
+  }
+
+  @Test
+  public void testDoesNotSquashMergeAfterPatch() {
+    // Unlike the patch, the merge also applies to a missing document.
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                patchMutation("coll/doc", map("a", 1)),
+                patchMutation("coll/doc", map("b", 2), asList(field("b")))));
+    assertEquals(2, overlay.getSteps().size());
+  }
+
+  @Test
+  public void testSquashesPatchesIntoSet() {
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                setMutation("coll/doc", map("a", 1, "b", map("c", 1))),
+                patchMutation("coll/doc", map("b.c", 2)),
+                patchMutation("coll/doc", map("d", 3), asList(field("d")))));
+    assertEquals(1, overlay.getSteps().size());
+  }
+
+  @Test
+  public void testLeavesOutOverwrittenBatches() {
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                patchMutation("coll/doc", map("a", 1)),
+                setMutation("coll/doc", map("b", 1)),
+                deleteMutation("coll/doc"),
+                patchMutation("coll/doc", map("a", 1))));
+    assertEquals(1, overlay.getSteps().size());
+    assertEquals(asList(3, 4), overlay.getBatchIds());
+  }
+
+  @Test
+  public void testKeepsSetAfterDeleteSeparate() {
+    // The set creates a document without a version, while a set on its own would keep the version
+    // of the remote document.
+    DocumentOverlay overlay =
+        assertSameLocalViews(
+            batches(
+                deleteMutation("coll/doc"),
+                setMutation("coll/doc", map("a", 1)),
+                patchMutation("coll/doc", map("b", 2))));
+    assertEquals(2, overlay.getSteps().size());
+  }
+
+  @Test
+  public void testKeepsTransformsWithTheirBatch() {
+    List<MutationBatch> batches = new ArrayList<>();
+    batches.add(batch(1, patchMutation("coll/doc", map("a", 1))));
+    batches.add(
+        new MutationBatch(
+            2,
+            Timestamp.now(),
+            asList(
+                patchMutation("coll/doc", map("b", 1)),
+                transformMutation("coll/doc", map("a", FieldValue.serverTimestamp())))));
+    batches.add(batch(3, patchMutation("coll/doc", map("c", 1))));
+
+    DocumentOverlay overlay = assertSameLocalViews(batches);
+    assertEquals(3, overlay.getSteps().size());
+    assertEquals(2, overlay.getSteps().get(1).getMutations().size());
+  }
+
+  @Test
+  public void testIgnoresMutationsOfOtherDocuments() {
+    MutationBatch batch =
+        new MutationBatch(
+            1,
+            Timestamp.now(),
+            asList(setMutation("coll/other", map("a", 1)), patchMutation("coll/doc", map("a", 1))));
+    DocumentOverlay overlay = assertSameLocalViews(singletonList(batch));
+    assertEquals(
+        singletonList(patchMutation("coll/doc", map("a", 1))),
+        overlay.getSteps().get(0).getMutations());
+    assertEquals(DocumentOverlay.EMPTY, DocumentOverlay.create(key("coll/another"), asList(batch)));
+  }
+
+  /**
+   * Asserts that applying the overlay of the given batches gives the same local view as applying
+   * the batches, for each of the remote documents. Returns the overlay.
+   */
+  private static DocumentOverlay assertSameLocalViews(List<MutationBatch> batches) {
+    DocumentOverlay overlay = DocumentOverlay.create(KEY, batches);
+    for (MaybeDocument remoteDoc : REMOTE_DOCS) {
+      MaybeDocument expected = remoteDoc;
+      for (MutationBatch batch : batches) {
+        expected = batch.applyToLocalView(KEY, expected);
+      }
+      assertEquals(expected, overlay.applyToLocalView(KEY, remoteDoc));
+    }
+    return overlay;
+  }
+
+  /** Returns a batch for each of the mutations, with consecutive batch IDs starting at 1. */
+  private static List<MutationBatch> batches(Mutation... mutations) {
+    List<MutationBatch> batches = new ArrayList<>();
+    for (Mutation mutation : mutations) {
+      batches.add(batch(batches.size() + 1, mutation));
+    }
+    return batches;
+  }
+
+  private static MutationBatch batch(int batchId, Mutation mutation) {
+    return new MutationBatch(batchId, Timestamp.now(), singletonList(mutation));
+  }
+}
@@ -20,25 +20,29 @@ import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
 import static com.google.firebase.firestore.testutil.TestUtil.doc;
 import static com.google.firebase.firestore.testutil.TestUtil.field;
 import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
 import static com.google.firebase.firestore.testutil.TestUtil.map;
 import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
+import static java.util.Collections.singletonList;
 
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.GeoPoint;
 import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Bound;
 import com.google.firebase.firestore.core.Filter;
 import com.google.firebase.firestore.core.IndexRange;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.testutil.TestUtil;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -61,8 +65,6 @@ public class IndexedQueryEngineTest {
 
   @Before
   public void setUp() {
-    Persistence.INDEXING_SUPPORT_ENABLED = true;
-
     SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
     SQLiteCollectionIndex index = new SQLiteCollectionIndex(persistence, User.UNAUTHENTICATED);
     MutationQueue mutationQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
@@ -205,7 +207,42 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
+  public void skipsFiltersThatCannotUseIndex() {
+    Query arrayContainsQuery = query("a").filter(filter("a", "array-contains", 1));
+    assertThat(extractBestIndexRange(arrayContainsQuery)).isNull();
+
+    Query keyQuery = query("a").filter(filter("__name__", "==", TestUtil.ref("a/b")));
+    assertThat(extractBestIndexRange(keyQuery)).isNull();
+
+    Query mixedQuery = arrayContainsQuery.filter(filter("b", "==", 1));
+    assertThat(extractBestIndexRange(mixedQuery).getFieldPath()).isEqualTo(field("b"));
+  }
+
+  @Test
+  public void usesCursorBoundsOfFirstOrderBy() {
+    Query query =
+        query("coll")
+            .filter(filter("a", ">", 1))
+            .orderBy(TestUtil.orderBy("a", "desc"))
+            .startAt(new Bound(singletonList(wrap(5)), /* before= */ true))
+            .endAt(new Bound(singletonList(wrap(0)), /* before= */ true));
+    IndexRange indexRange = extractBestIndexRange(query);
+    assertThat(indexRange.getStart()).isEqualTo(wrap(1));
+    assertThat(indexRange.getEnd()).isEqualTo(wrap(5));
+    assertThat(indexRange.isDescending()).isTrue();
+
+    Query otherFieldQuery =
+        query("coll")
+            .filter(filter("b", "==", 1))
+            .orderBy(TestUtil.orderBy("a"))
+            .startAt(new Bound(singletonList(wrap(5)), /* before= */ true));
+    IndexRange otherFieldRange = extractBestIndexRange(otherFieldQuery);
+    assertThat(otherFieldRange.getStart()).isEqualTo(wrap(1));
+    assertThat(otherFieldRange.getEnd()).isEqualTo(wrap(1));
+    assertThat(otherFieldRange.isDescending()).isFalse();
+  }
+
+  @Test
   public void addDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -219,7 +256,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void updateDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(NON_MATCHING_DOC);
@@ -234,7 +270,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void removeDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -249,7 +284,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void nestedQuery() {
     Document nonMatchingDoc = doc("coll/a", ORIGINAL_VERSION, map("a", map("a", "b")));
     Document matchingDoc = doc("coll/a", UPDATED_VERSION, map("a", map("a", "a")));
@@ -267,7 +301,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void orderByQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -279,4 +312,87 @@ public class IndexedQueryEngineTest {
     assertThat(results).doesNotContain(IGNORED_DOC.getKey());
     assertThat(results).contains(MATCHING_DOC.getKey());
   }
+
+  @Test
+  public void rangeQuery() {
+    Document lowDoc = doc("coll/low", ORIGINAL_VERSION, map("a", 1));
+    Document midDoc = doc("coll/mid", ORIGINAL_VERSION, map("a", 2.5));
+    Document highDoc = doc("coll/high", ORIGINAL_VERSION, map("a", 4));
+    Document stringDoc = doc("coll/string", ORIGINAL_VERSION, map("a", "2"));
+    addDocument(lowDoc);
+    addDocument(midDoc);
+    addDocument(highDoc);
+    addDocument(stringDoc);
+    Query query = query("coll").filter(filter("a", ">", 1)).filter(filter("a", "<=", 4));
+
+    ImmutableSortedMap<DocumentKey, Document> results =
+        queryEngine.getDocumentsMatchingQuery(query);
+
+    assertThat(results).doesNotContain(lowDoc.getKey());
+    assertThat(results).contains(midDoc.getKey());
+    assertThat(results).contains(highDoc.getKey());
+    assertThat(results).doesNotContain(stringDoc.getKey());
+  }
+
+  @Test
+  public void limitQuery() {
+    List<Document> docs = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      // Mixes integers and doubles, which share index entries when equal.
+      Document doc = doc("coll/doc" + i, ORIGINAL_VERSION, map("a", i % 2 == 0 ? i * 1.0 : i));
+      addDocument(doc);
+      docs.add(doc);
+    }
+    addDocument(doc("coll/doc6", ORIGINAL_VERSION, map("a", 2)));
+
+    Query ascending = query("coll").orderBy(TestUtil.orderBy("a")).limit(2);
+    assertThat(queryEngine.getDocumentsMatchingQuery(ascending).keySet())
+        .containsExactly(docs.get(0).getKey(), docs.get(1).getKey());
+
+    Query descending = query("coll").orderBy(TestUtil.orderBy("a", "desc")).limit(2);
+    assertThat(queryEngine.getDocumentsMatchingQuery(descending).keySet())
+        .containsExactly(docs.get(4).getKey(), docs.get(3).getKey());
+
+    Query filtered =
+        query("coll").filter(filter("a", ">", 1)).orderBy(TestUtil.orderBy("a")).limit(2);
+    assertThat(queryEngine.getDocumentsMatchingQuery(filtered).keySet())
+        .containsExactly(docs.get(1).getKey(), key("coll/doc6"));
+  }
+
+  @Test
+  public void limitQueryWithStaleIndexEntries() {
+    // Removes documents from the cache without updating the index (as garbage collection does)
+    // and adds them back with different values, leaving stale entries for their old values.
+    Document staleLow = doc("coll/x", ORIGINAL_VERSION, map("a", 0));
+    Document staleHigh = doc("coll/y", ORIGINAL_VERSION, map("a", 2));
+    addDocument(staleLow);
+    addDocument(staleHigh);
+    remoteDocuments.remove(staleLow.getKey());
+    remoteDocuments.remove(staleHigh.getKey());
+    addDocument(doc("coll/x", UPDATED_VERSION, map("a", 10)));
+    addDocument(doc("coll/y", UPDATED_VERSION, map("a", 20)));
+    addDocument(doc("coll/a", ORIGINAL_VERSION, map("a", 1)));
+    addDocument(doc("coll/b", ORIGINAL_VERSION, map("a", 3)));
+
+    // The stale entry of 'coll/y' is reached after 'coll/x' and 'coll/a' filled the limit. Its
+    // document sorts after both, but 'coll/b' still needs to replace 'coll/x'.
+    Query query = query("coll").orderBy(TestUtil.orderBy("a")).limit(2);
+    assertThat(queryEngine.getDocumentsMatchingQuery(query).keySet())
+        .containsExactly(key("coll/a"), key("coll/b"));
+  }
+
+  @Test
+  public void cursorQuery() {
+    for (int i = 1; i <= 5; i++) {
+      addDocument(doc("coll/doc" + i, ORIGINAL_VERSION, map("a", i)));
+    }
+
+    Query query =
+        query("coll")
+            .orderBy(TestUtil.orderBy("a"))
+            .startAt(new Bound(singletonList(wrap(2)), /* before= */ false))
+            .endAt(new Bound(singletonList(wrap(4)), /* before= */ false));
+    assertThat(queryEngine.getDocumentsMatchingQuery(query).keySet())
+        .containsExactly(key("coll/doc3"), key("coll/doc4"));
+  }
 }
@@ -21,14 +21,17 @@ import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
 import static com.google.firebase.firestore.testutil.TestUtil.doc;
 import static com.google.firebase.firestore.testutil.TestUtil.key;
 import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
 import static com.google.firebase.firestore.testutil.TestUtil.patchMutation;
 import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.ref;
 import static com.google.firebase.firestore.testutil.TestUtil.resumeToken;
 import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
 import static com.google.firebase.firestore.testutil.TestUtil.updateRemoteEvent;
 import static com.google.firebase.firestore.testutil.TestUtil.values;
 import static com.google.firebase.firestore.testutil.TestUtil.version;
 import static com.google.firebase.firestore.testutil.TestUtil.viewChanges;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
@@ -36,6 +39,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -44,6 +48,7 @@ import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.TestUtil.TestTargetMetadataProvider;
 import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Bound;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
@@ -68,6 +73,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
 import org.junit.After;
 import org.junit.Before;
@@ -95,10 +105,16 @@ public abstract class LocalStoreTestCase {
 
   abstract boolean garbageCollectorIsEager();
 
+  /** Whether the LocalStore under test executes queries using the persisted collection index. */
+  boolean queryIndexingEnabled() {
+    return false;
+  }
+
   @Before
   public void setUp() {
     localStorePersistence = getPersistence();
-    localStore = new LocalStore(localStorePersistence, User.UNAUTHENTICATED);
+    localStore =
+        new LocalStore(localStorePersistence, User.UNAUTHENTICATED, queryIndexingEnabled());
     localStore.start();
 
     batches = new ArrayList<>();
@@ -585,6 +601,67 @@ public abstract class LocalStoreTestCase {
     }
   }
 
+  @Test
+  public void testHandlesPatchMutationThenSetMutationThenRejectOfSet() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    int targetId = allocateQuery(query);
+    applyRemoteEvent(
+        updateRemoteEvent(
+            doc("foo/bar", 1, map("it", "base"), false), asList(targetId), emptyList()));
+
+    writeMutation(patchMutation("foo/bar", map("foo", "old")));
+    assertContains(doc("foo/bar", 1, map("it", "base", "foo", "old"), true));
+
+    writeMutation(setMutation("foo/bar", map("foo", "bar")));
+    assertContains(doc("foo/bar", 1, map("foo", "bar"), true));
+
+    // Rejecting the set brings back the patch that it overwrote.
+    lastChanges = localStore.rejectBatch(batches.remove(1).getBatchId());
+    assertChanged(doc("foo/bar", 1, map("it", "base", "foo", "old"), true));
+    assertContains(doc("foo/bar", 1, map("it", "base", "foo", "old"), true));
+  }
+
+  @Test
+  public void testHandlesSetMutationThenSetMutationThenRejectThenReject() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    int targetId = allocateQuery(query);
+    applyRemoteEvent(
+        updateRemoteEvent(
+            doc("foo/bar", 1, map("it", "base"), false), asList(targetId), emptyList()));
+
+    writeMutation(setMutation("foo/bar", map("foo", "old")));
+    writeMutation(setMutation("foo/bar", map("foo", "bar")));
+    assertContains(doc("foo/bar", 1, map("foo", "bar"), true));
+
+    rejectMutation();
+    assertChanged(doc("foo/bar", 1, map("foo", "bar"), true));
+    assertContains(doc("foo/bar", 1, map("foo", "bar"), true));
+
+    rejectMutation();
+    assertChanged(doc("foo/bar", 1, map("it", "base"), false));
+    assertContains(doc("foo/bar", 1, map("it", "base"), false));
+  }
+
+  @Test
+  public void testHandlesDeleteMutationThenSetMutationThenReject() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    int targetId = allocateQuery(query);
+    applyRemoteEvent(
+        updateRemoteEvent(
+            doc("foo/bar", 1, map("it", "base"), false), asList(targetId), emptyList()));
+
+    writeMutation(deleteMutation("foo/bar"));
+    assertContains(deletedDoc("foo/bar", 0));
+
+    // A set after a delete doesn't keep the version of the remote document.
+    writeMutation(setMutation("foo/bar", map("foo", "bar")));
+    assertContains(doc("foo/bar", 0, map("foo", "bar"), true));
+
+    rejectMutation();
+    assertChanged(doc("foo/bar", 1, map("foo", "bar"), true));
+    assertContains(doc("foo/bar", 1, map("foo", "bar"), true));
+  }
+
   @Test
   public void testCollectsGarbageAfterChangeBatchWithNoTargetIDs() {
     if (!garbageCollectorIsEager()) {
@@ -791,6 +868,39 @@ public abstract class LocalStoreTestCase {
         values(docs));
   }
 
+  @Test
+  public void testCanExecuteCollectionQueriesWithLimit() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    allocateQuery(query);
+    assertTargetId(2);
+
+    for (int i = 1; i <= 5; i++) {
+      applyRemoteEvent(
+          updateRemoteEvent(
+              doc("foo/doc" + i, 10, map("sort", i), false), asList(2), emptyList()));
+    }
+    writeMutation(deleteMutation("foo/doc1"));
+    writeMutation(setMutation("foo/doc2", map("sort", 10)));
+    writeMutation(setMutation("foo/doc6", map("sort", 0)));
+
+    assertEquals(
+        asList(doc("foo/doc2", 10, map("sort", 10), true), doc("foo/doc3", 10, map("sort", 3))),
+        values(localStore.executeQuery(query.limit(2))));
+
+    Bound afterDoc3 = new Bound(singletonList(wrap(ref("foo/doc3"))), /* before= */ false);
+    assertEquals(
+        asList(
+            doc("foo/doc4", 10, map("sort", 4)),
+            doc("foo/doc5", 10, map("sort", 5)),
+            doc("foo/doc6", 0, map("sort", 0), true)),
+        values(localStore.executeQuery(query.startAt(afterDoc3).limit(5))));
+
+    Query sortedQuery = query.orderBy(orderBy("sort", "desc"));
+    assertEquals(
+        asList(doc("foo/doc2", 10, map("sort", 10), true), doc("foo/doc5", 10, map("sort", 5))),
+        values(localStore.executeQuery(sortedQuery.limit(2))));
+  }
+
   @Test
   public void testPersistsResumeTokens() {
     // This test only works in the absence of the EagerGarbageCollector.
@@ -880,4 +990,28 @@ public abstract class LocalStoreTestCase {
     keys = localStore.getRemoteDocumentKeys(2);
     assertSetEquals(asList(key("foo/bar"), key("foo/baz")), keys);
   }
+
+  @Test
+  public void testUserChangeWaitsForStartedCacheReads() throws Exception {
+    writeMutation(setMutation("foo/bar", map("foo", "bar")));
+    LocalStore.CacheReader reader = localStore.startCacheRead();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> userChange = executor.submit(() -> localStore.handleUserChange(new User("other")));
+      try {
+        userChange.get(100, TimeUnit.MILLISECONDS);
+        fail("User change didn't wait for the started cache read");
+      } catch (TimeoutException expected) {
+        // The started read still reads the view of the previous user.
+      }
+      assertEquals(
+          doc("foo/bar", 0, map("foo", "bar"), true), reader.readDocument(key("foo/bar")));
+      reader.finish();
+      userChange.get();
+    } finally {
+      executor.shutdown();
+    }
+    assertNotContains("foo/bar");
+  }
 }
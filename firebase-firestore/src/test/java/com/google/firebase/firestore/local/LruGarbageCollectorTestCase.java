@@ -26,6 +26,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import android.util.SparseArray;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.core.ListenSequence;
@@ -59,7 +60,7 @@ public abstract class LruGarbageCollectorTestCase {
   private long initialSequenceNumber;
   private ObjectValue testValue;
 
-  abstract Persistence createPersistence();
+  abstract Persistence createPersistence(LruGarbageCollector.Params params);
 
   @Before
   public void setUp() {
@@ -80,7 +81,11 @@ public abstract class LruGarbageCollectorTestCase {
   }
 
   private void newTestResources() {
-    persistence = createPersistence();
+    newTestResources(LruGarbageCollector.Params.Default());
+  }
+
+  private void newTestResources(LruGarbageCollector.Params params) {
+    persistence = createPersistence(params);
     persistence.getReferenceDelegate().setAdditionalReferences(new ReferenceSet());
     queryCache = persistence.getQueryCache();
     documentCache = persistence.getRemoteDocumentCache();
@@ -585,4 +590,106 @@ public abstract class LruGarbageCollectorTestCase {
           }
         });
   }
+
+  @Test
+  public void testGetsSize() {
+    long initialSize = garbageCollector.getByteSize();
+
+    persistence.runTransaction(
+        "fill cache",
+        () -> {
+          for (int i = 0; i < 50; i++) {
+            cacheADocumentInTransaction();
+          }
+        });
+
+    long finalSize = garbageCollector.getByteSize();
+    assertTrue(finalSize > initialSize);
+  }
+
+  @Test
+  public void testDisabled() {
+    LruGarbageCollector.Params params = LruGarbageCollector.Params.Disabled();
+
+    // Switch out the test resources for ones with a disabled GC.
+    persistence.shutdown();
+    newTestResources(params);
+
+    persistence.runTransaction(
+        "Fill cache",
+        () -> {
+          // Simulate a bunch of ack'd mutations
+          for (int i = 0; i < 500; i++) {
+            Document doc = cacheADocumentInTransaction();
+            markDocumentEligibleForGcInTransaction(doc.getKey());
+          }
+        });
+
+    LruGarbageCollector.Results results =
+        persistence.runTransaction(
+            "GC", () -> garbageCollector.collect(new SparseArray<QueryData>()));
+
+    assertFalse(results.hasRun());
+  }
+
+  @Test
+  public void testCacheTooSmall() {
+    // Default LRU Params are ok for this test.
+
+    persistence.runTransaction(
+        "Fill cache",
+        () -> {
+          // Simulate a bunch of ack'd mutations
+          for (int i = 0; i < 50; i++) {
+            Document doc = cacheADocumentInTransaction();
+            markDocumentEligibleForGcInTransaction(doc.getKey());
+          }
+        });
+
+    // Make sure we're under the target size
+    long cacheSize = garbageCollector.getByteSize();
+    assertTrue(cacheSize < LruGarbageCollector.Params.Default().minBytesThreshold);
+
+    LruGarbageCollector.Results results =
+        persistence.runTransaction(
+            "GC", () -> garbageCollector.collect(new SparseArray<QueryData>()));
+
+    assertFalse(results.hasRun());
+  }
+
+  @Test
+  public void testGCRan() {
+    // Set a low byte threshold so we can guarantee that GC will run
+    LruGarbageCollector.Params params = LruGarbageCollector.Params.WithCacheSizeBytes(100);
+
+    // Switch to persistence using our new params.
+    persistence.shutdown();
+    newTestResources(params);
+
+    // Add 100 targets and 10 documents to each
+    for (int i = 0; i < 100; i++) {
+      // Use separate transactions so that each target and associated documents get their own
+      // sequence number.
+      persistence.runTransaction(
+          "Add a target and some documents",
+          () -> {
+            QueryData queryData = addNextQueryInTransaction();
+            for (int j = 0; j < 10; j++) {
+              Document doc = cacheADocumentInTransaction();
+              addDocumentToTarget(doc.getKey(), queryData.getTargetId());
+            }
+          });
+    }
+
+    // Mark nothing as live, so everything is eligible.
+    LruGarbageCollector.Results results =
+        persistence.runTransaction(
+            "GC", () -> garbageCollector.collect(new SparseArray<QueryData>()));
+
+    // By default, we collect 10% of the sequence numbers. Since we added 100 targets,
+    // that should be 10 targets with 10 documents each, for a total of 100 documents.
+    assertTrue(results.hasRun());
+    assertEquals(10, results.getTargetsRemoved());
+    assertEquals(100, results.getDocumentsRemoved());
+  }
 }
@@ -16,7 +16,7 @@ package com.google.firebase.firestore.local;
 
 public class MemoryLruGarbageCollectorTest extends LruGarbageCollectorTestCase {
   @Override
-  Persistence createPersistence() {
-    return PersistenceTestHelpers.createLRUMemoryPersistence();
+  Persistence createPersistence(LruGarbageCollector.Params params) {
+    return PersistenceTestHelpers.createLRUMemoryPersistence(params);
   }
 }
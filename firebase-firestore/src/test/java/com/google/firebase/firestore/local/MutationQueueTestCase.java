@@ -311,6 +311,53 @@ public abstract class MutationQueueTestCase {
     assertEquals(expected, matches);
   }
 
+  @Test
+  public void testDocumentOverlaysReflectAddedAndRemovedBatches() {
+    MutationBatch batch1 = addMutationBatch("foo/bar");
+    MutationBatch batch2 = addMutationBatch("foo/baz");
+    DocumentOverlay overlay1 = DocumentOverlay.create(key("foo/bar"), asList(batch1));
+    DocumentOverlay overlay2 = DocumentOverlay.create(key("foo/baz"), asList(batch2));
+    assertEquals(overlay1, mutationQueue.getDocumentOverlay(key("foo/bar")));
+    assertEquals(DocumentOverlay.EMPTY, mutationQueue.getDocumentOverlay(key("foo/bam")));
+
+    Map<DocumentKey, DocumentOverlay> overlays =
+        mutationQueue.getDocumentOverlays(asList(key("foo/bar"), key("foo/baz"), key("foo/bam")));
+    assertEquals(2, overlays.size());
+    assertEquals(overlay1, overlays.get(key("foo/bar")));
+    assertEquals(overlay2, overlays.get(key("foo/baz")));
+
+    removeMutationBatches(batch1);
+    assertEquals(DocumentOverlay.EMPTY, mutationQueue.getDocumentOverlay(key("foo/bar")));
+    assertEquals(overlay2, mutationQueue.getDocumentOverlay(key("foo/baz")));
+  }
+
+  @Test
+  public void testAllMutationBatchesAffectingDocumentKeyReflectsAddedAndRemovedBatches() {
+    MutationBatch batch1 = addMutationBatch("foo/bar");
+    addMutationBatch("foo/baz");
+    assertEquals(
+        asList(batch1), mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/bar")));
+    assertEquals(
+        emptyList(), mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/qux")));
+
+    MutationBatch batch3 = addMutationBatch("foo/bar");
+    MutationBatch batch4 = addMutationBatch("foo/qux");
+    assertEquals(
+        asList(batch1, batch3),
+        mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/bar")));
+    assertEquals(
+        asList(batch4), mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/qux")));
+
+    removeMutationBatches(batch1);
+    assertEquals(
+        asList(batch3), mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/bar")));
+    assertEquals(
+        asList(batch3, batch4),
+        mutationQueue.getAllMutationBatchesAffectingDocumentKeys(
+            DocumentKey.emptyKeySet().insert(key("foo/bar")).insert(key("foo/qux"))));
+    assertNull(mutationQueue.lookupMutationBatch(batch1.getBatchId()));
+  }
+
   @Test
   public void testAllMutationBatchesAffectingDocumentKeys() {
     List<Mutation> mutations =
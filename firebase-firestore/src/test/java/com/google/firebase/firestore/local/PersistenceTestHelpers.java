@@ -25,10 +25,22 @@ public final class PersistenceTestHelpers {
   private static int databaseNameCounter = 0;
 
   public static SQLitePersistence openSQLitePersistence(String name) {
+    return openSQLitePersistence(name, LruGarbageCollector.Params.Default());
+  }
+
+  public static SQLitePersistence openSQLitePersistence(
+      String name, LruGarbageCollector.Params params) {
+    return openSQLitePersistence(name, params, /* concurrentReadsEnabled= */ false);
+  }
+
+  public static SQLitePersistence openSQLitePersistence(
+      String name, LruGarbageCollector.Params params, boolean concurrentReadsEnabled) {
     DatabaseId databaseId = DatabaseId.forProject("projectId");
     LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
     Context context = RuntimeEnvironment.application;
-    SQLitePersistence persistence = new SQLitePersistence(context, name, databaseId, serializer);
+    SQLitePersistence persistence =
+        new SQLitePersistence(
+            context, name, databaseId, serializer, params, concurrentReadsEnabled);
     persistence.start();
     return persistence;
   }
@@ -49,6 +61,22 @@ public final class PersistenceTestHelpers {
     return openSQLitePersistence(nextSQLiteDatabaseName());
   }
 
+  /** Creates and starts a new SQLitePersistence instance with the given LRU GC parameters. */
+  public static SQLitePersistence createSQLitePersistence(LruGarbageCollector.Params params) {
+    return openSQLitePersistence(nextSQLiteDatabaseName(), params);
+  }
+
+  /**
+   * Creates and starts a new SQLitePersistence instance in write-ahead logging mode, which runs
+   * snapshot reads on separate read-only connections.
+   */
+  public static SQLitePersistence createSQLitePersistenceWithConcurrentReads() {
+    return openSQLitePersistence(
+        nextSQLiteDatabaseName(),
+        LruGarbageCollector.Params.Default(),
+        /* concurrentReadsEnabled= */ true);
+  }
+
   /** Creates and starts a new MemoryPersistence instance for testing. */
   public static MemoryPersistence createEagerGCMemoryPersistence() {
     MemoryPersistence persistence = MemoryPersistence.createEagerGcMemoryPersistence();
@@ -57,7 +85,14 @@ public final class PersistenceTestHelpers {
   }
 
   public static MemoryPersistence createLRUMemoryPersistence() {
-    MemoryPersistence persistence = MemoryPersistence.createLruGcMemoryPersistence();
+    return createLRUMemoryPersistence(LruGarbageCollector.Params.Default());
+  }
+
+  public static MemoryPersistence createLRUMemoryPersistence(LruGarbageCollector.Params params) {
+    DatabaseId databaseId = DatabaseId.forProject("projectId");
+    LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
+    MemoryPersistence persistence =
+        MemoryPersistence.createLruGcMemoryPersistence(params, serializer);
     persistence.start();
     return persistence;
   }
@@ -234,6 +234,25 @@ public abstract class QueryCacheTestCase {
     assertSetEquals(asList(key1, key3), queryCache.getMatchingKeysForTargetId(2));
   }
 
+  @Test
+  public void testAddOrRemoveManyMatchingKeys() {
+    // Enough keys to exceed the number of rows that fit into a single SQLite statement.
+    ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+    for (int i = 0; i < 2500; i++) {
+      keys = keys.insert(key("foo/doc" + i));
+    }
+    ImmutableSortedSet<DocumentKey> addedKeys = keys;
+    ImmutableSortedSet<DocumentKey> removedKeys = keys.remove(key("foo/doc1234"));
+
+    persistence.runTransaction(
+        "addMatchingKeys", () -> queryCache.addMatchingKeys(addedKeys, /* targetId= */ 1));
+    assertEquals(addedKeys, queryCache.getMatchingKeysForTargetId(1));
+
+    persistence.runTransaction(
+        "removeMatchingKeys", () -> queryCache.removeMatchingKeys(removedKeys, /* targetId= */ 1));
+    assertSetEquals(asList(key("foo/doc1234")), queryCache.getMatchingKeysForTargetId(1));
+  }
+
   @Test
   public void testHighestSequenceNumber() {
     Query rooms = query("rooms");
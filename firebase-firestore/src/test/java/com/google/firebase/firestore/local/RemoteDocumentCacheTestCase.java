@@ -22,8 +22,10 @@ import static com.google.firebase.firestore.testutil.TestUtil.map;
 import static com.google.firebase.firestore.testutil.TestUtil.path;
 import static com.google.firebase.firestore.testutil.TestUtil.values;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import com.google.firebase.database.collection.ImmutableSortedMap;
@@ -32,6 +34,8 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.NoDocument;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -82,6 +86,50 @@ abstract class RemoteDocumentCacheTestCase {
     }
   }
 
+  @Test
+  public void testSetAndReadSeveralDocuments() {
+    String[] paths = {"a/b", "a/b/c/d/e/f"};
+    Map<DocumentKey, MaybeDocument> written = new HashMap<>();
+    for (String path : paths) {
+      written.put(DocumentKey.fromPathString(path), addTestDocumentAtPath(path));
+    }
+
+    Map<DocumentKey, MaybeDocument> read = getAll(asList(paths));
+    assertEquals(written, read);
+  }
+
+  @Test
+  public void testReadSeveralDocumentsIncludingMissingDocument() {
+    String[] paths = {"foo/1", "foo/2"};
+    Map<DocumentKey, MaybeDocument> written = new HashMap<>();
+    for (String path : paths) {
+      written.put(DocumentKey.fromPathString(path), addTestDocumentAtPath(path));
+    }
+    written.put(DocumentKey.fromPathString("foo/nonexistent"), null);
+
+    List<String> keys = new ArrayList<>(asList(paths));
+    keys.add("foo/nonexistent");
+    Map<DocumentKey, MaybeDocument> read = getAll(keys);
+    assertEquals(written, read);
+  }
+
+  @Test
+  public void testReadManyDocuments() {
+    // Exceeds the number of keys that fit into a single SQLite query.
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      String path = "docs/" + i;
+      addTestDocumentAtPath(path);
+      paths.add(path);
+    }
+
+    Map<DocumentKey, MaybeDocument> read = getAll(paths);
+    assertEquals(1000, read.size());
+    for (String path : paths) {
+      assertNotNull(read.get(key(path)));
+    }
+  }
+
   @Test
   public void testSetAndReadDeletedDocument() {
     String path = "a/b";
@@ -132,6 +180,61 @@ abstract class RemoteDocumentCacheTestCase {
     assertEquals(expected, values(results));
   }
 
+  @Test
+  public void testDocumentsMatchingQueryExcludesSubcollections() {
+    Map<String, Object> docData = map("data", 2);
+    addTestDocumentAtPath("b/1");
+    addTestDocumentAtPath("b/1/c/1");
+    addTestDocumentAtPath("b/1/c/1/d/1");
+    addTestDocumentAtPath("b/2");
+
+    Query query = Query.atPath(path("b"));
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getAllDocumentsMatchingQuery(query);
+    List<Document> expected = asList(doc("b/1", 42, docData), doc("b/2", 42, docData));
+    assertEquals(expected, values(results));
+  }
+
+  @Test
+  public void testCollectionChunks() {
+    Map<String, Object> docData = map("data", 2);
+    addTestDocumentAtPath("a/1");
+    addTestDocumentAtPath("b/1");
+    addTestDocumentAtPath("b/1/c/1");
+    addTestDocumentAtPath("b/2");
+    addTestDocumentAtPath("b/3");
+    add(deletedDoc("b/4", 42));
+    addTestDocumentAtPath("c/1");
+
+    assertEquals(
+        asList(doc("b/1", 42, docData), doc("b/2", 42, docData)),
+        remoteDocumentCache.getCollectionChunk(path("b"), null, false, 2));
+    assertEquals(
+        asList(doc("b/3", 42, docData), deletedDoc("b/4", 42)),
+        remoteDocumentCache.getCollectionChunk(path("b"), key("b/2"), false, 10));
+    assertEquals(
+        asList(doc("b/2", 42, docData)),
+        remoteDocumentCache.getCollectionChunk(path("b"), key("b/2"), true, 1));
+    assertEquals(
+        emptyList(), remoteDocumentCache.getCollectionChunk(path("b"), key("b/4"), false, 10));
+  }
+
+  @Test
+  public void testCollectionChunksWithSupplementaryCharacters() {
+    Map<String, Object> docData = map("data", 2);
+    // U+1F600 is encoded as a surrogate pair, which sorts before U+FFFF in UTF-16 (as used by
+    // DocumentKey) but after it in UTF-8.
+    addTestDocumentAtPath("b/\uFFFF");
+    addTestDocumentAtPath("b/\uD83D\uDE00");
+
+    assertEquals(
+        asList(doc("b/\uD83D\uDE00", 42, docData), doc("b/\uFFFF", 42, docData)),
+        remoteDocumentCache.getCollectionChunk(path("b"), null, false, 2));
+    assertEquals(
+        asList(doc("b/\uFFFF", 42, docData)),
+        remoteDocumentCache.getCollectionChunk(path("b"), key("b/\uD83D\uDE00"), false, 2));
+  }
+
   private Document addTestDocumentAtPath(String path) {
     Document doc = doc(path, 42, map("data", 2));
     add(doc);
@@ -147,6 +250,14 @@ abstract class RemoteDocumentCacheTestCase {
     return remoteDocumentCache.get(key(path));
   }
 
+  private Map<DocumentKey, MaybeDocument> getAll(Iterable<String> paths) {
+    List<DocumentKey> keys = new ArrayList<>();
+    for (String path : paths) {
+      keys.add(key(path));
+    }
+    return remoteDocumentCache.getAll(keys);
+  }
+
   private void remove(String path) {
     persistence.runTransaction("remove entry", () -> remoteDocumentCache.remove(key(path)));
   }
@@ -0,0 +1,129 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.util.Metrics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs the LocalStore tests against SQLite persistence in write-ahead logging mode. */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SQLiteConcurrentReadsLocalStoreTest extends LocalStoreTestCase {
+
+  @Override
+  Persistence getPersistence() {
+    return PersistenceTestHelpers.createSQLitePersistenceWithConcurrentReads();
+  }
+
+  @Override
+  boolean garbageCollectorIsEager() {
+    return false;
+  }
+
+  @Test
+  public void testSnapshotReadsDoNotSeeConcurrentWrites() {
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.createSQLitePersistenceWithConcurrentReads();
+    RemoteDocumentCache remoteDocuments = persistence.getRemoteDocumentCache();
+    Document doc = doc("coll/a", 1, map("foo", "bar"));
+
+    MaybeDocument[] reads =
+        persistence.runSnapshotRead(
+            "Read twice",
+            () -> {
+              MaybeDocument first = remoteDocuments.get(doc.getKey());
+              // Writes have to come from another thread, since this one is inside a snapshot read.
+              Thread writer =
+                  new Thread(
+                      () ->
+                          persistence.runTransaction(
+                              "Add document", () -> remoteDocuments.add(doc)));
+              writer.start();
+              try {
+                writer.join();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              MaybeDocument second = remoteDocuments.get(doc.getKey());
+              return new MaybeDocument[] {first, second};
+            });
+
+    assertNull(reads[0]);
+    assertNull(reads[1]);
+    assertEquals(
+        doc, persistence.runSnapshotRead("Read again", () -> remoteDocuments.get(key("coll/a"))));
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testKeepsExclusiveAccessToTheDatabase() {
+    String name = PersistenceTestHelpers.nextSQLiteDatabaseName();
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.openSQLitePersistence(
+            name, LruGarbageCollector.Params.Default(), /* concurrentReadsEnabled= */ true);
+    try {
+      PersistenceTestHelpers.openSQLitePersistence(
+          name, LruGarbageCollector.Params.Default(), /* concurrentReadsEnabled= */ true);
+      fail("Expected the second instance to fail to start");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+    persistence.shutdown();
+
+    // Once the first instance shut down, the database can be opened again.
+    persistence =
+        PersistenceTestHelpers.openSQLitePersistence(
+            name, LruGarbageCollector.Params.Default(), /* concurrentReadsEnabled= */ true);
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testTrackedSnapshotReadAfterShutdownFailsCleanly() {
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.createSQLitePersistenceWithConcurrentReads();
+    persistence.shutdown();
+
+    Metrics metrics = new Metrics();
+    metrics.setListener(operation -> {});
+    try {
+      metrics.run(
+          () -> {
+            try {
+              persistence.runSnapshotRead("Read after shutdown", () -> null);
+              fail("Expected the snapshot read to fail");
+            } catch (IllegalStateException e) {
+              // Expected.
+            }
+          },
+          "TEST",
+          0,
+          0);
+    } finally {
+      metrics.setListener(null);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.addedRemoteEvent;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.DocumentKey;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Runs the LocalStore tests against SQLite persistence with the persisted collection index. */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SQLiteIndexedLocalStoreTest extends LocalStoreTestCase {
+
+  @Override
+  Persistence getPersistence() {
+    return PersistenceTestHelpers.createSQLitePersistence();
+  }
+
+  @Override
+  boolean garbageCollectorIsEager() {
+    return false;
+  }
+
+  @Override
+  boolean queryIndexingEnabled() {
+    return true;
+  }
+
+  @Test
+  public void testHandsIndexOverOnUserChange() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    User user = new User("user");
+    User otherUser = new User("other");
+    LocalStore localStore = new LocalStore(persistence, user, /* indexingEnabled= */ true);
+    localStore.start();
+    Query query = query("coll").filter(filter("foo", "==", "bar"));
+
+    localStore.writeLocally(singletonList(setMutation("coll/a", map("foo", "bar"))));
+    assertEquals(singletonList(key("coll/a")), keys(localStore, query));
+
+    // The pending write of the first user is not part of the other user's local view.
+    localStore.handleUserChange(otherUser);
+    assertEquals(emptyList(), keys(localStore, query));
+    localStore.writeLocally(singletonList(setMutation("coll/b", map("foo", "bar"))));
+
+    // Documents received while the other user is active are visible to both users.
+    QueryData queryData = localStore.allocateQuery(query);
+    localStore.applyRemoteEvent(
+        addedRemoteEvent(
+            doc("coll/c", 1, map("foo", "bar")),
+            singletonList(queryData.getTargetId()),
+            emptyList()));
+    assertEquals(asKeys("coll/b", "coll/c"), keys(localStore, query));
+
+    localStore.handleUserChange(user);
+    assertEquals(asKeys("coll/a", "coll/c"), keys(localStore, query));
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testRemovesIndexEntriesOfCollectedDocuments() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    LocalStore localStore =
+        new LocalStore(persistence, User.UNAUTHENTICATED, /* indexingEnabled= */ true);
+    localStore.start();
+    Query query = query("coll").filter(filter("foo", "==", "bar"));
+
+    QueryData queryData = localStore.allocateQuery(query);
+    localStore.applyRemoteEvent(
+        addedRemoteEvent(
+            doc("coll/a", 1, map("foo", "bar")),
+            singletonList(queryData.getTargetId()),
+            emptyList()));
+    localStore.releaseQuery(query);
+    assertTrue(hasIndexEntries(persistence, "a"));
+
+    LruGarbageCollector garbageCollector =
+        persistence.getReferenceDelegate().getGarbageCollector();
+    int removed =
+        persistence.runTransaction(
+            "Collect garbage",
+            () -> {
+              garbageCollector.removeQueries(Long.MAX_VALUE, emptySet());
+              return garbageCollector.removeOrphanedDocuments(Long.MAX_VALUE);
+            });
+    assertEquals(1, removed);
+    assertFalse(hasIndexEntries(persistence, "a"));
+    assertEquals(emptyList(), keys(localStore, query));
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testClearsIndexOnceIndexingIsDisabled() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    LocalStore localStore =
+        new LocalStore(persistence, User.UNAUTHENTICATED, /* indexingEnabled= */ true);
+    localStore.start();
+    localStore.writeLocally(singletonList(setMutation("coll/a", map("foo", "bar"))));
+    assertTrue(hasIndexEntries(persistence, "a"));
+
+    localStore = new LocalStore(persistence, User.UNAUTHENTICATED, /* indexingEnabled= */ false);
+    localStore.start();
+    assertFalse(hasIndexEntries(persistence, "a"));
+    assertEquals(
+        singletonList(key("coll/a")),
+        keys(localStore, query("coll").filter(filter("foo", "==", "bar"))));
+    persistence.shutdown();
+  }
+
+  private static List<DocumentKey> keys(LocalStore localStore, Query query) {
+    return new ArrayList<>(localStore.executeQuery(query).keySet());
+  }
+
+  private static List<DocumentKey> asKeys(String... paths) {
+    List<DocumentKey> keys = new ArrayList<>();
+    for (String path : paths) {
+      keys.add(key(path));
+    }
+    return keys;
+  }
+
+  /** Returns true if the index holds any entries for the document with the given ID. */
+  private static boolean hasIndexEntries(SQLitePersistence persistence, String documentId) {
+    return !persistence
+        .query("SELECT 1 FROM collection_index WHERE document_id = ?")
+        .binding(documentId)
+        .isEmpty();
+  }
+}
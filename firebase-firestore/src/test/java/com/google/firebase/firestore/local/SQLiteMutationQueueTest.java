@@ -14,6 +14,19 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.patchMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -26,4 +39,99 @@ public class SQLiteMutationQueueTest extends MutationQueueTestCase {
   Persistence getPersistence() {
     return PersistenceTestHelpers.createSQLitePersistence();
   }
+
+  @Test
+  public void testDocumentOverlayLeavesOutOverwrittenBatches() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    MutationQueue queue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    persistence.runTransaction("Start MutationQueue", queue::start);
+
+    MutationBatch batch1 = addMutationBatch(persistence, queue, "foo/bar");
+    MutationBatch batch2 = addMutationBatch(persistence, queue, "foo/bar");
+    MutationBatch batch3 =
+        persistence.runTransaction(
+            "New mutation batch",
+            () ->
+                queue.addMutationBatch(
+                    Timestamp.now(), asList(patchMutation("foo/bar", map("b", 1)))));
+    DocumentOverlay overlay = queue.getDocumentOverlay(key("foo/bar"));
+    assertEquals(asList(batch2.getBatchId(), batch3.getBatchId()), overlay.getBatchIds());
+    assertEquals(DocumentOverlay.create(key("foo/bar"), asList(batch2, batch3)), overlay);
+
+    // Without the set of batch 2, the set of batch 1 is part of the overlay again.
+    persistence.runTransaction(
+        "Remove mutation batches", () -> queue.removeMutationBatches(asList(batch2)));
+    assertEquals(
+        DocumentOverlay.create(key("foo/bar"), asList(batch1, batch3)),
+        queue.getDocumentOverlay(key("foo/bar")));
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testPopulatesDocumentOverlaysOfExistingQueue() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    MutationQueue queue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    persistence.runTransaction("Start MutationQueue", queue::start);
+    MutationBatch batch = addMutationBatch(persistence, queue, "foo/bar");
+
+    // Mutation queues written before document overlays were stored don't have any.
+    persistence.runTransaction(
+        "Delete document overlays", () -> persistence.execute("DELETE FROM document_overlays"));
+
+    MutationQueue restartedQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    persistence.runTransaction("Start MutationQueue", restartedQueue::start);
+    assertEquals(
+        DocumentOverlay.create(key("foo/bar"), asList(batch)),
+        restartedQueue.getDocumentOverlay(key("foo/bar")));
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testDocumentOverlayStoresSquashedMutation() throws InvalidProtocolBufferException {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    MutationQueue queue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    persistence.runTransaction("Start MutationQueue", queue::start);
+
+    MutationBatch batch1 =
+        persistence.runTransaction(
+            "New mutation batch",
+            () ->
+                queue.addMutationBatch(
+                    Timestamp.now(),
+                    asList(patchMutation("foo/bar", map("a", 1)), setMutation("foo/baz", map()))));
+    MutationBatch batch2 =
+        persistence.runTransaction(
+            "New mutation batch",
+            () ->
+                queue.addMutationBatch(
+                    Timestamp.now(), asList(patchMutation("foo/bar", map("b", 2)))));
+    byte[] overlay =
+        persistence
+            .query("SELECT overlay FROM document_overlays WHERE path = ?")
+            .binding(EncodedPath.encode(key("foo/bar").getPath()))
+            .firstValue(row -> row.getBlob(0));
+    com.google.firebase.firestore.proto.DocumentOverlay proto =
+        com.google.firebase.firestore.proto.DocumentOverlay.parseFrom(overlay);
+
+    // The two patches are stored as a single write, without the set of the other document.
+    assertEquals(asList(batch1.getBatchId(), batch2.getBatchId()), proto.getBatchIdsList());
+    assertEquals(1, proto.getStepsCount());
+    assertEquals(1, proto.getSteps(0).getWritesCount());
+    assertEquals(
+        doc("foo/bar", 1, map("a", 1, "b", 2), /* hasLocalMutations= */ true),
+        queue
+            .getDocumentOverlay(key("foo/bar"))
+            .applyToLocalView(key("foo/bar"), doc("foo/bar", 1, map())));
+
+    persistence.shutdown();
+  }
+
+  private static MutationBatch addMutationBatch(
+      SQLitePersistence persistence, MutationQueue queue, String key) {
+    return persistence.runTransaction(
+        "New mutation batch",
+        () -> queue.addMutationBatch(Timestamp.now(), asList(setMutation(key, map("a", 1)))));
+  }
 }
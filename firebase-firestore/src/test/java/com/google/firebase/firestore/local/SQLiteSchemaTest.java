@@ -14,6 +14,8 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.testutil.TestUtil.path;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -112,6 +114,46 @@ public class SQLiteSchemaTest {
     assertEquals(expected, targetCount);
   }
 
+  @Test
+  public void addsParentPathAndDocumentIdToExistingRows() {
+    schema.runMigrations(0, 6);
+    String rootDoc = EncodedPath.encode(path("rooms/abc"));
+    String nestedDoc = EncodedPath.encode(path("rooms/abc/messages/xyz"));
+    db.execSQL("INSERT INTO remote_documents (path) VALUES (?)", new Object[] {rootDoc});
+    db.execSQL("INSERT INTO remote_documents (path) VALUES (?)", new Object[] {nestedDoc});
+    db.execSQL(
+        "INSERT INTO document_mutations (uid, path, batch_id) VALUES ('', ?, 1)",
+        new Object[] {nestedDoc});
+
+    schema.runMigrations(6, 7);
+
+    Cursor cursor =
+        db.rawQuery(
+            "SELECT path, document_id FROM remote_documents WHERE parent_path = ?",
+            new String[] {EncodedPath.encode(path("rooms"))});
+    assertTrue(cursor.moveToFirst());
+    assertEquals(rootDoc, cursor.getString(0));
+    assertArrayEquals(EncodedPath.encodeDocumentId("abc"), cursor.getBlob(1));
+    assertFalse(cursor.moveToNext());
+    cursor.close();
+
+    cursor =
+        db.rawQuery(
+            "SELECT document_id FROM document_mutations WHERE parent_path = ?",
+            new String[] {EncodedPath.encode(path("rooms/abc/messages"))});
+    assertTrue(cursor.moveToFirst());
+    assertArrayEquals(EncodedPath.encodeDocumentId("xyz"), cursor.getBlob(0));
+    cursor.close();
+  }
+
+  @Test
+  public void createsDocumentOverlaysTable() {
+    schema.runMigrations(0, 7);
+    schema.runMigrations(7, 8);
+
+    assertNoResultsForQuery("SELECT uid, path, overlay FROM document_overlays", NO_ARGS);
+  }
+
   @Test
   public void testDatabaseName() {
     assertEquals(
@@ -0,0 +1,79 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.model.DocumentKey;
+import org.junit.Test;
+
+/**
+ * Measures how many document keys per second SQLiteQueryCache can add to and remove from a target,
+ * as happens when a target with many documents becomes CURRENT.
+ *
+ * <p>Each measurement is repeated after a few warm-up iterations.
+ */
+public class TargetPopulationBenchmark extends BenchmarkTestCase {
+
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  @Test
+  public void benchmarkTargetPopulation() {
+    for (int keyCount : new int[] {100, 1000, 10000}) {
+      SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+      SQLiteQueryCache queryCache = persistence.getQueryCache();
+      QueryData queryData =
+          new QueryData(
+              query("coll"), /* targetId= */ 1, /* sequenceNumber= */ 1, QueryPurpose.LISTEN);
+      persistence.runTransaction("Add query", () -> queryCache.addQueryData(queryData));
+
+      ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+      for (int i = 0; i < keyCount; i++) {
+        keys = keys.insert(key("coll/doc" + i));
+      }
+      ImmutableSortedSet<DocumentKey> targetKeys = keys;
+
+      long addNanos = 0;
+      long removeNanos = 0;
+      for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+        long start = System.nanoTime();
+        persistence.runTransaction(
+            "Add keys", () -> queryCache.addMatchingKeys(targetKeys, queryData.getTargetId()));
+        long added = System.nanoTime();
+        persistence.runTransaction(
+            "Remove keys",
+            () -> queryCache.removeMatchingKeys(targetKeys, queryData.getTargetId()));
+        long removed = System.nanoTime();
+
+        if (i >= WARMUP_ITERATIONS) {
+          addNanos += added - start;
+          removeNanos += removed - added;
+        }
+      }
+      persistence.shutdown();
+
+      long totalKeys = (long) keyCount * MEASURED_ITERATIONS;
+      report(
+          "Target with %d documents: adding %d keys/s, removing %d keys/s",
+          keyCount,
+          totalKeys * 1000000000L / addNanos,
+          totalKeys * 1000000000L / removeNanos);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.google.firebase.firestore.model;
 import static com.google.firebase.firestore.testutil.TestUtil.doc;
 import static com.google.firebase.firestore.testutil.TestUtil.docSet;
 import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
 import static com.google.firebase.firestore.testutil.TestUtil.map;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNull;
@@ -28,6 +29,7 @@ import com.google.firebase.firestore.model.value.FieldValue;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -93,6 +95,37 @@ public class DocumentSetTest {
     assertEquals(Arrays.asList(DOC3, DOC1, DOC2), set.toList());
   }
 
+  @Test
+  public void testIndexOfAndDocumentAt() {
+    DocumentSet set = docSet(TEST_COMPARATOR, DOC1, DOC2, DOC3);
+
+    assertEquals(0, set.indexOf(DOC3.getKey()));
+    assertEquals(1, set.indexOf(DOC1.getKey()));
+    assertEquals(2, set.indexOf(DOC2.getKey()));
+    assertEquals(-1, set.indexOf(key("docs/4")));
+
+    assertEquals(DOC3, set.getDocumentAt(0));
+    assertEquals(DOC1, set.getDocumentAt(1));
+    assertEquals(DOC2, set.getDocumentAt(2));
+  }
+
+  @Test
+  public void testIndexOfAndDocumentAtInLargeSets() {
+    // Large enough to be backed by a tree rather than an array.
+    DocumentSet set = docSet(TEST_COMPARATOR);
+    for (int i = 0; i < 100; ++i) {
+      set = set.add(doc("docs/" + i, 0, map("sort", 100 - i), false));
+    }
+    set = set.remove(key("docs/0")).remove(key("docs/50"));
+
+    List<Document> documents = set.toList();
+    assertEquals(98, set.size());
+    for (int i = 0; i < documents.size(); ++i) {
+      assertEquals(i, set.indexOf(documents.get(i).getKey()));
+      assertEquals(documents.get(i), set.getDocumentAt(i));
+    }
+  }
+
   @Test
   public void testPredecessorDocumentForKey() {
     DocumentSet set = docSet(TEST_COMPARATOR, DOC1, DOC2, DOC3);
@@ -23,8 +23,14 @@ import static com.google.firebase.firestore.testutil.TestUtil.wrapObject;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 
+import com.google.firebase.firestore.model.value.FieldValue;
 import com.google.firebase.firestore.model.value.ObjectValue;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firestore.v1beta1.Value;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -76,4 +82,61 @@ public class DocumentTest {
     assertNotEquals(doc1, doc(key1, 2, data1, false));
     assertNotEquals(doc1, doc(key1, 1, data1, true));
   }
+
+  @Test
+  public void testDecodesFieldsLazily() {
+    RemoteSerializer serializer = new RemoteSerializer(DatabaseId.forProject("p"));
+    ObjectValue data =
+        wrapObject(
+            "desc",
+            "Discuss all the project related stuff",
+            "owner",
+            map("name", "Jonny", "title", "scallywag"));
+    com.google.firestore.v1beta1.Document proto =
+        serializer.encodeDocument(key("rooms/eros"), data);
+
+    List<Value> decodedValues = new ArrayList<>();
+    Document document =
+        new Document(
+            key("rooms/eros"),
+            version(1),
+            /*hasLocalMutations=*/ false,
+            proto,
+            (Value value) -> {
+              decodedValues.add(value);
+              return serializer.decodeValue(value);
+            });
+
+    assertEquals("scallywag", document.getFieldValue(field("owner.title")));
+    assertEquals("scallywag", document.getFieldValue(field("owner.title")));
+    assertNull(document.getField(field("owner.title.missing")));
+    assertNull(document.getField(field("missing")));
+    // Only the accessed value was decoded, and only once.
+    assertEquals(1, decodedValues.size());
+
+    FieldValue owner = document.getField(field("owner"));
+    assertEquals(wrapObject("name", "Jonny", "title", "scallywag"), owner);
+
+    assertEquals(proto, document.getProto());
+    assertEquals(data, document.getData());
+    assertEquals(new Document(key("rooms/eros"), version(1), data, false), document);
+  }
+
+  @Test
+  public void testReleasesProtoOnceFullyDecoded() {
+    RemoteSerializer serializer = new RemoteSerializer(DatabaseId.forProject("p"));
+    ObjectValue data = wrapObject("desc", "Discuss all the project related stuff");
+    Document document =
+        new Document(
+            key("rooms/eros"),
+            version(1),
+            /*hasLocalMutations=*/ false,
+            serializer.encodeDocument(key("rooms/eros"), data),
+            serializer::decodeValue);
+
+    assertEquals("Discuss all the project related stuff", document.getFieldValue(field("desc")));
+    assertEquals(data, document.getData());
+    assertNull(document.getProto());
+    assertEquals("Discuss all the project related stuff", document.getFieldValue(field("desc")));
+  }
 }
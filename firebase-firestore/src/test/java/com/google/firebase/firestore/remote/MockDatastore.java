@@ -49,7 +49,7 @@ public class MockDatastore extends Datastore {
     private final Map<Integer, QueryData> activeTargets = new HashMap<>();
 
     MockWatchStream(AsyncQueue workerQueue, WatchStream.Callback listener) {
-      super(/*channel=*/ null, workerQueue, serializer, listener);
+      super(/*channel=*/ null, workerQueue, serializer, /*decodeExecutor=*/ null, listener);
     }
 
     @Override
@@ -61,6 +61,7 @@ public class RemoteEventTest {
   private Map<Integer, Integer> noOutstandingResponses = Collections.emptyMap();
   private ImmutableSortedSet<DocumentKey> noExistingKeys = DocumentKey.emptyKeySet();
   private ByteString resumeToken = ByteString.copyFromUtf8("resume");
+  private boolean existenceFilterRecoveryEnabled = false;
 
   @Before
   public void before() {
@@ -86,7 +87,8 @@ public class RemoteEventTest {
       Map<Integer, Integer> outstandingResponses,
       ImmutableSortedSet<DocumentKey> existingKeys,
       WatchChange... watchChanges) {
-    WatchChangeAggregator aggregator = new WatchChangeAggregator(targetMetadataProvider);
+    WatchChangeAggregator aggregator =
+        new WatchChangeAggregator(targetMetadataProvider, existenceFilterRecoveryEnabled);
 
     List<Integer> targetIds = new ArrayList<>();
 
@@ -489,6 +491,117 @@ public class RemoteEventTest {
     assertEquals(mapping1, event.getTargetChanges().get(1));
   }
 
+  /**
+   * Creates an aggregator with existence filter recovery enabled for a current target 1 that
+   * contains docs/1 and docs/2, and raises an existence filter mismatch that expects one document.
+   */
+  private WatchChangeAggregator createAggregatorWithTargetBeingVerified() {
+    existenceFilterRecoveryEnabled = true;
+    WatchChangeAggregator aggregator =
+        createAggregator(
+            activeQueries(1),
+            noOutstandingResponses,
+            keySet(key("docs/1"), key("docs/2")),
+            new WatchTargetChange(WatchTargetChangeType.Current, asList(1)));
+    aggregator.createRemoteEvent(version(3));
+
+    aggregator.handleExistenceFilter(
+        new WatchChange.ExistenceFilterWatchChange(1, new ExistenceFilter(1)));
+    return aggregator;
+  }
+
+  @Test
+  public void testExistenceFilterMismatchWithRecoveryRequestsVerification() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(3));
+
+    assertEquals(0, event.getTargetMismatches().size());
+    assertEquals(Collections.singletonMap(1, 1), event.getTargetVerifications());
+    assertEquals(0, event.getDocumentUpdates().size());
+    // The target keeps its documents, but isn't current until the lookup completes.
+    TargetChange mapping = targetChange(resumeToken, false, null, null, null);
+    assertEquals(mapping, event.getTargetChanges().get(1));
+  }
+
+  @Test
+  public void testTargetBeingVerifiedBecomesCurrentOnceVerified() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+    aggregator.createRemoteEvent(version(3));
+
+    aggregator.handleTargetChange(new WatchTargetChange(WatchTargetChangeType.Current, asList(1)));
+    RemoteEvent event = aggregator.createRemoteEvent(version(4));
+    assertFalse(event.getTargetChanges().get(1).isCurrent());
+
+    assertTrue(aggregator.handleTargetVerification(1, 1, asList(deletedDoc("docs/2", 4))));
+    event = aggregator.createRemoteEvent(version(5));
+    assertTrue(event.getTargetChanges().get(1).isCurrent());
+  }
+
+  @Test
+  public void testTargetVerificationRemovesDeletedDocuments() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+    aggregator.createRemoteEvent(version(3));
+
+    NoDocument deletedDoc = deletedDoc("docs/2", 4);
+    assertTrue(aggregator.handleTargetVerification(1, 1, asList(deletedDoc)));
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(4));
+
+    assertEquals(0, event.getTargetMismatches().size());
+    assertEquals(0, event.getTargetVerifications().size());
+    assertEquals(1, event.getDocumentUpdates().size());
+    assertEquals(deletedDoc, event.getDocumentUpdates().get(deletedDoc.getKey()));
+    TargetChange mapping = targetChange(resumeToken, true, null, null, asList(deletedDoc));
+    assertEquals(mapping, event.getTargetChanges().get(1));
+  }
+
+  @Test
+  public void testTargetVerificationIgnoresDocumentsUpdatedByWatch() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+    aggregator.createRemoteEvent(version(3));
+
+    Document updatedDoc = doc("docs/2", 5, map("value", 2), false);
+    aggregator.handleDocumentChange(
+        new DocumentChange(asList(1), emptyList(), updatedDoc.getKey(), updatedDoc));
+
+    // The only deleted document was re-created since it was looked up.
+    assertFalse(aggregator.handleTargetVerification(1, 1, asList(deletedDoc("docs/2", 4))));
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(5));
+    assertEquals(Collections.singleton(1), event.getTargetMismatches());
+  }
+
+  @Test
+  public void testTargetVerificationResetsTargetIfDocumentsStillExist() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+    aggregator.createRemoteEvent(version(3));
+
+    assertFalse(aggregator.handleTargetVerification(1, 1, emptyList()));
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(4));
+
+    assertEquals(Collections.singleton(1), event.getTargetMismatches());
+    assertEquals(0, event.getDocumentUpdates().size());
+    assertEquals(2, event.getTargetChanges().get(1).getRemovedDocuments().size());
+    assertFalse(event.getTargetChanges().get(1).isCurrent());
+  }
+
+  @Test
+  public void testExistenceFilterMismatchDuringVerificationResetsTarget() {
+    WatchChangeAggregator aggregator = createAggregatorWithTargetBeingVerified();
+    aggregator.createRemoteEvent(version(3));
+
+    aggregator.handleExistenceFilter(
+        new WatchChange.ExistenceFilterWatchChange(1, new ExistenceFilter(1)));
+    RemoteEvent event = aggregator.createRemoteEvent(version(4));
+
+    assertEquals(Collections.singleton(1), event.getTargetMismatches());
+    assertEquals(0, event.getTargetVerifications().size());
+    // The result of the lookup is ignored once the target was reset.
+    assertFalse(aggregator.handleTargetVerification(1, 1, asList(deletedDoc("docs/2", 4))));
+  }
+
   @Test
   public void testDocumentUpdate() {
     Map<Integer, QueryData> targetMap = activeQueries(1);
@@ -0,0 +1,180 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.OnlineState;
+import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.local.MemoryPersistence;
+import com.google.firebase.firestore.local.Persistence;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.mutation.MutationBatchResult;
+import com.google.firebase.firestore.model.mutation.MutationResult;
+import com.google.firebase.firestore.util.AsyncQueue;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RemoteStoreTest {
+
+  private AsyncQueue queue;
+  private MockDatastore datastore;
+  private LocalStore localStore;
+  private RemoteStore remoteStore;
+  private final List<Integer> acknowledgedBatchIds = new ArrayList<>();
+  private final List<Integer> rejectedBatchIds = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    queue = new AsyncQueue();
+    datastore = new MockDatastore(queue);
+    Persistence persistence = MemoryPersistence.createEagerGcMemoryPersistence();
+    persistence.start();
+    localStore = new LocalStore(persistence, User.UNAUTHENTICATED);
+    localStore.start();
+    remoteStore = createRemoteStore(new FirebaseFirestoreSettings.Builder().build());
+  }
+
+  private RemoteStore createRemoteStore(FirebaseFirestoreSettings settings) {
+    return new RemoteStore(
+        new RemoteStore.RemoteStoreCallback() {
+          @Override
+          public void handleRemoteEvent(RemoteEvent remoteEvent) {}
+
+          @Override
+          public void handleRejectedListen(int targetId, Status error) {}
+
+          @Override
+          public void handleSuccessfulWrite(MutationBatchResult successfulWrite) {
+            localStore.acknowledgeBatch(successfulWrite);
+            acknowledgedBatchIds.add(successfulWrite.getBatch().getBatchId());
+          }
+
+          @Override
+          public void handleRejectedWrite(int batchId, Status error) {
+            localStore.rejectBatch(batchId);
+            rejectedBatchIds.add(batchId);
+          }
+
+          @Override
+          public void handleOnlineStateChange(OnlineState onlineState) {}
+
+          @Override
+          public ImmutableSortedSet<DocumentKey> getRemoteKeysForTarget(int targetId) {
+            return DocumentKey.emptyKeySet();
+          }
+        },
+        localStore,
+        datastore,
+        queue,
+        settings);
+  }
+
+  /** Writes the given number of batches and sends them to the (mock) backend. */
+  private void writeBatches(int count) throws InterruptedException {
+    queue.runSync(
+        () -> {
+          remoteStore.start();
+          for (int i = 0; i < count; i++) {
+            localStore.writeLocally(singletonList(setMutation("coll/doc" + i, map("value", i))));
+          }
+          remoteStore.fillWritePipeline();
+        });
+  }
+
+  private void ackWrite(long commitVersion) throws InterruptedException {
+    MutationResult result = new MutationResult(version(commitVersion), /*transformResults=*/ null);
+    queue.runSync(() -> datastore.ackWrite(version(commitVersion), singletonList(result)));
+  }
+
+  private void drainSentWrites() throws InterruptedException {
+    queue.runSync(
+        () -> {
+          while (datastore.writesSent() > 0) {
+            datastore.waitForWriteSend();
+          }
+        });
+  }
+
+  private int getWritesSent() throws InterruptedException {
+    int[] writesSent = new int[1];
+    queue.runSync(() -> writesSent[0] = datastore.writesSent());
+    return writesSent[0];
+  }
+
+  @Test
+  public void testResendsUnacknowledgedWritesOnNewStream() throws InterruptedException {
+    writeBatches(3);
+    assertEquals(3, getWritesSent());
+    drainSentWrites();
+    ackWrite(1);
+
+    queue.runSync(() -> datastore.failWrite(Status.UNAVAILABLE));
+    assertEquals(2, getWritesSent());
+  }
+
+  @Test
+  public void testResendsRemainingWritesAfterRejectedWrite() throws InterruptedException {
+    writeBatches(2);
+    drainSentWrites();
+
+    queue.runSync(() -> datastore.failWrite(Status.INVALID_ARGUMENT));
+    // The first write was rejected, the second one is sent again on a new stream.
+    assertEquals(1, getWritesSent());
+  }
+
+  @Test
+  public void testRetriesWritesOfRejectedCoalescedRequestIndividually()
+      throws InterruptedException {
+    remoteStore =
+        createRemoteStore(
+            new FirebaseFirestoreSettings.Builder().setWriteCoalescingEnabled(true).build());
+    writeBatches(3);
+    assertEquals(1, getWritesSent());
+    drainSentWrites();
+
+    // The backend rejects the combined request, which doesn't tell which write was the problem.
+    queue.runSync(() -> datastore.failWrite(Status.INVALID_ARGUMENT));
+    assertTrue(rejectedBatchIds.isEmpty());
+    assertEquals(3, getWritesSent());
+    drainSentWrites();
+
+    // Sent on their own, only the invalid write is rejected and the others are acknowledged.
+    queue.runSync(() -> datastore.failWrite(Status.INVALID_ARGUMENT));
+    assertEquals(singletonList(1), rejectedBatchIds);
+    assertEquals(2, getWritesSent());
+    drainSentWrites();
+    ackWrite(2);
+    ackWrite(3);
+    assertEquals(Arrays.asList(2, 3), acknowledgedBatchIds);
+  }
+}
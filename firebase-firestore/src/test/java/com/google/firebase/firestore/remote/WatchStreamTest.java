@@ -0,0 +1,133 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firestore.v1beta1.DocumentChange;
+import com.google.firestore.v1beta1.ListenResponse;
+import com.google.firestore.v1beta1.TargetChange;
+import com.google.firestore.v1beta1.Value;
+import com.google.protobuf.Timestamp;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WatchStreamTest {
+
+  private static final RemoteSerializer SERIALIZER =
+      new RemoteSerializer(DatabaseId.forDatabase("p", "d"));
+
+  private final AsyncQueue queue = new AsyncQueue();
+  private final List<Runnable> decodeTasks = new ArrayList<>();
+  private final List<WatchChange> watchChanges = new ArrayList<>();
+
+  private final WatchStream stream =
+      new WatchStream(
+          /*channel=*/ null,
+          queue,
+          SERIALIZER,
+          decodeTasks::add,
+          new WatchStream.Callback() {
+            @Override
+            public void onOpen() {}
+
+            @Override
+            public void onClose(Status status) {}
+
+            @Override
+            public void onWatchChange(SnapshotVersion snapshotVersion, WatchChange watchChange) {
+              watchChanges.add(watchChange);
+            }
+          });
+
+  private static ListenResponse documentChange(String path, int value) {
+    return ListenResponse.newBuilder()
+        .setDocumentChange(
+            DocumentChange.newBuilder()
+                .addTargetIds(1)
+                .setDocument(
+                    com.google.firestore.v1beta1.Document.newBuilder()
+                        .setName("projects/p/databases/d/documents/" + path)
+                        .setUpdateTime(Timestamp.newBuilder().setSeconds(1))
+                        .putFields("value", Value.newBuilder().setIntegerValue(value).build())))
+        .build();
+  }
+
+  private static ListenResponse currentChange() {
+    return ListenResponse.newBuilder()
+        .setTargetChange(
+            TargetChange.newBuilder()
+                .setTargetChangeType(TargetChange.TargetChangeType.CURRENT)
+                .addTargetIds(1))
+        .build();
+  }
+
+  /** Waits for all tasks that were enqueued on the queue so far. */
+  private void drainQueue() throws InterruptedException {
+    queue.runSync(() -> {});
+  }
+
+  @Test
+  public void testDeliversDecodedChangesInOrder() throws InterruptedException {
+    queue.runSync(
+        () -> {
+          stream.onNext(documentChange("coll/a", 1));
+          stream.onNext(documentChange("coll/b", 2));
+          stream.onNext(currentChange());
+        });
+    assertEquals(2, decodeTasks.size());
+
+    // The second document finishes decoding first, but has to wait for the first one.
+    decodeTasks.get(1).run();
+    drainQueue();
+    assertTrue(watchChanges.isEmpty());
+
+    decodeTasks.get(0).run();
+    drainQueue();
+    assertEquals(3, watchChanges.size());
+    assertEquals(
+        key("coll/a"), ((WatchChange.DocumentChange) watchChanges.get(0)).getDocumentKey());
+    Document document =
+        (Document) ((WatchChange.DocumentChange) watchChanges.get(1)).getNewDocument();
+    assertEquals(key("coll/b"), document.getKey());
+    assertEquals(2L, document.getFieldValue(field("value")));
+    assertEquals(
+        WatchTargetChangeType.Current, ((WatchTargetChange) watchChanges.get(2)).getChangeType());
+  }
+
+  @Test
+  public void testDeliversOtherChangesImmediatelyWhenNothingIsBeingDecoded()
+      throws InterruptedException {
+    queue.runSync(() -> stream.onNext(currentChange()));
+    assertTrue(decodeTasks.isEmpty());
+    assertEquals(1, watchChanges.size());
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deleteMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WriteCoalescerTest {
+
+  private static final RemoteSerializer SERIALIZER =
+      new RemoteSerializer(DatabaseId.forProject("projectId"));
+
+  private static MutationBatch batch(int batchId, Mutation... mutations) {
+    return new MutationBatch(batchId, Timestamp.now(), asList(mutations));
+  }
+
+  private static MutationBatch setBatch(int batchId) {
+    return batch(batchId, setMutation("coll/doc" + batchId, map("value", batchId)));
+  }
+
+  private static long serializedSize(MutationBatch batch) {
+    long size = 0;
+    for (Mutation mutation : batch.getMutations()) {
+      size += SERIALIZER.encodeMutation(mutation).getSerializedSize();
+    }
+    return size;
+  }
+
+  @Test
+  public void testCombinesConsecutiveBatches() {
+    WriteCoalescer coalescer = new WriteCoalescer(SERIALIZER, 500, Long.MAX_VALUE);
+    MutationBatch batch1 = setBatch(1);
+    MutationBatch batch2 = setBatch(2);
+    MutationBatch batch3 = batch(3, deleteMutation("coll/a"), deleteMutation("coll/b"));
+
+    List<List<MutationBatch>> requests = coalescer.coalesce(asList(batch1, batch2, batch3));
+    assertEquals(singletonList(asList(batch1, batch2, batch3)), requests);
+
+    List<Mutation> mutations = WriteCoalescer.getMutations(requests.get(0));
+    assertEquals(4, mutations.size());
+    assertEquals(batch1.getMutations().get(0), mutations.get(0));
+    assertEquals(batch3.getMutations().get(1), mutations.get(3));
+  }
+
+  @Test
+  public void testRespectsMutationLimit() {
+    WriteCoalescer coalescer = new WriteCoalescer(SERIALIZER, 2, Long.MAX_VALUE);
+    MutationBatch batch1 = setBatch(1);
+    MutationBatch batch2 = setBatch(2);
+    MutationBatch batch3 = setBatch(3);
+    MutationBatch batch4 =
+        batch(4, deleteMutation("coll/a"), deleteMutation("coll/b"), deleteMutation("coll/c"));
+    MutationBatch batch5 = setBatch(5);
+
+    List<List<MutationBatch>> requests =
+        coalescer.coalesce(asList(batch1, batch2, batch3, batch4, batch5));
+    assertEquals(
+        asList(
+            asList(batch1, batch2),
+            singletonList(batch3),
+            // Batches that exceed the limit by themselves are sent on their own.
+            singletonList(batch4),
+            singletonList(batch5)),
+        requests);
+  }
+
+  @Test
+  public void testRespectsByteLimit() {
+    MutationBatch batch1 = setBatch(1);
+    MutationBatch batch2 = setBatch(2);
+    MutationBatch batch3 = setBatch(3);
+    long maxBytes = serializedSize(batch1) + serializedSize(batch2);
+    WriteCoalescer coalescer = new WriteCoalescer(SERIALIZER, 500, maxBytes);
+
+    List<List<MutationBatch>> requests = coalescer.coalesce(asList(batch1, batch2, batch3));
+    assertEquals(asList(asList(batch1, batch2), singletonList(batch3)), requests);
+  }
+
+  @Test
+  public void testSplitsBatchesOfRejectedRequests() {
+    WriteCoalescer coalescer = new WriteCoalescer(SERIALIZER, 500, Long.MAX_VALUE);
+    MutationBatch batch1 = setBatch(1);
+    MutationBatch batch2 = setBatch(2);
+    MutationBatch batch3 = setBatch(3);
+    MutationBatch batch4 = setBatch(4);
+
+    coalescer.splitBatchesThrough(2);
+    List<List<MutationBatch>> requests = coalescer.coalesce(asList(batch1, batch2, batch3, batch4));
+    assertEquals(
+        asList(singletonList(batch1), singletonList(batch2), asList(batch3, batch4)), requests);
+  }
+}
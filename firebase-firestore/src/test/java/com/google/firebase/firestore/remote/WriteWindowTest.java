@@ -0,0 +1,122 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import io.grpc.Status;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WriteWindowTest {
+
+  private static final long FAST_ACK_MS = WriteWindow.FAST_ACK_THRESHOLD_MS / 2;
+  private static final long SLOW_ACK_MS = WriteWindow.FAST_ACK_THRESHOLD_MS * 2;
+
+  private static MutationBatch batch(int batchId) {
+    return new MutationBatch(
+        batchId,
+        Timestamp.now(),
+        asList(setMutation("coll/a", map("value", 1)), setMutation("coll/b", map("value", 2))));
+  }
+
+  /** Sends and acknowledges a batch, taking the given time for the acknowledgement. */
+  private static void sendAndAcknowledge(WriteWindow window, int batchId, long latencyMs) {
+    window.recordSent(batch(batchId), 1000);
+    window.recordAcknowledged(batchId, 1000 + latencyMs);
+  }
+
+  @Test
+  public void testFixedWindowKeepsItsSize() {
+    WriteWindow window = new WriteWindow(25, /* adaptive= */ false);
+    assertEquals(25, window.getSize());
+
+    sendAndAcknowledge(window, 1, FAST_ACK_MS);
+    sendAndAcknowledge(window, 2, SLOW_ACK_MS);
+    window.recordStreamError(Status.UNAVAILABLE);
+    assertEquals(25, window.getSize());
+  }
+
+  @Test
+  public void testAdaptiveWindowGrowsOnFastAcks() {
+    WriteWindow window = new WriteWindow(12, /* adaptive= */ true);
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE, window.getSize());
+
+    sendAndAcknowledge(window, 1, FAST_ACK_MS);
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE + 1, window.getSize());
+
+    for (int i = 2; i < 10; ++i) {
+      sendAndAcknowledge(window, i, FAST_ACK_MS);
+    }
+    assertEquals(12, window.getSize());
+  }
+
+  @Test
+  public void testAdaptiveWindowStartsAtMaximumIfSmaller() {
+    WriteWindow window = new WriteWindow(3, /* adaptive= */ true);
+    assertEquals(3, window.getSize());
+  }
+
+  @Test
+  public void testAdaptiveWindowShrinksOnSlowAcks() {
+    WriteWindow window = new WriteWindow(100, /* adaptive= */ true);
+    sendAndAcknowledge(window, 1, SLOW_ACK_MS);
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE - 1, window.getSize());
+  }
+
+  @Test
+  public void testAdaptiveWindowShrinksOnErrors() {
+    WriteWindow window = new WriteWindow(100, /* adaptive= */ true);
+    window.recordStreamError(Status.UNAVAILABLE);
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE / 2, window.getSize());
+
+    window.recordStreamError(Status.RESOURCE_EXHAUSTED);
+    assertEquals(1, window.getSize());
+
+    // The window never drops below a single pending write.
+    window.recordStreamError(Status.UNAVAILABLE);
+    sendAndAcknowledge(window, 1, SLOW_ACK_MS);
+    assertEquals(1, window.getSize());
+  }
+
+  @Test
+  public void testTracksThroughput() {
+    WriteWindow window = new WriteWindow(100, /* adaptive= */ true);
+    window.recordSent(batch(1), 1000);
+    window.recordSent(batch(2), 1000);
+    window.recordSent(batch(3), 1000);
+    window.recordAcknowledged(1, 1100);
+    window.recordAcknowledged(2, 1300);
+    window.recordRejected(3);
+
+    WriteWindow.Stats stats = window.getStats();
+    assertEquals(3, stats.getBatchesSent());
+    assertEquals(6, stats.getMutationsSent());
+    assertEquals(2, stats.getBatchesAcknowledged());
+    assertEquals(1, stats.getBatchesRejected());
+    assertEquals(200, stats.getAverageAckLatencyMs());
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE + 2, stats.getWindowSize());
+    assertEquals(WriteWindow.INITIAL_ADAPTIVE_SIZE + 2, stats.getLargestWindowSize());
+  }
+}
@@ -19,6 +19,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.firestore.util.AsyncQueue.DelayedTask;
+import com.google.firebase.firestore.util.AsyncQueue.Priority;
+import com.google.firebase.firestore.util.AsyncQueue.TaskStats;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -123,4 +125,96 @@ public class AsyncQueueTest {
     queue.runDelayedTasksUntil(TIMER_ID_3);
     assertEquals(Arrays.asList(1, 2, 3, 4), completedSteps);
   }
+
+  /** Blocks the queue until the returned Semaphore is released. */
+  private Semaphore blockQueue() {
+    Semaphore started = new Semaphore(0);
+    Semaphore blocker = new Semaphore(0);
+    queue.enqueueAndForget(
+        () -> {
+          started.release();
+          blocker.acquireUninterruptibly();
+        });
+    started.acquireUninterruptibly();
+    return blocker;
+  }
+
+  @Test
+  public void runsBackgroundTasksInOrderWhenPriorityLanesAreDisabled() throws Exception {
+    Semaphore blocker = blockQueue();
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(1));
+    queue.enqueueAndForget(runnableForStep(2));
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(3));
+    blocker.release();
+
+    queue.runSync(() -> {});
+    assertEquals(Arrays.asList(1, 2, 3), completedSteps);
+  }
+
+  @Test
+  public void runsNormalTasksAheadOfBackgroundTasksWhenPriorityLanesAreEnabled()
+      throws Exception {
+    queue.setPriorityLanesEnabled(true);
+    Semaphore blocker = blockQueue();
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(3));
+    queue.enqueueAndForget(runnableForStep(1));
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(4));
+    queue.enqueueAndForget(runnableForStep(2));
+
+    expectedSteps = Arrays.asList(1, 2, 3, 4);
+    blocker.release();
+    waitForExpectedSteps();
+  }
+
+  @Test
+  public void limitsHowManyNormalTasksRunAheadOfBackgroundTasks() {
+    queue.setPriorityLanesEnabled(true);
+    Semaphore blocker = blockQueue();
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(-1));
+    List<Integer> steps = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      queue.enqueueAndForget(runnableForStep(i));
+      steps.add(i == 16 ? -1 : i < 16 ? i : i - 1);
+    }
+    steps.add(19);
+
+    expectedSteps = steps;
+    blocker.release();
+    waitForExpectedSteps();
+  }
+
+  @Test
+  public void runsDelayedBackgroundTasksInBackgroundLane() throws Exception {
+    queue.setPriorityLanesEnabled(true);
+    expectedSteps = Arrays.asList(1, 2);
+    queue.enqueueAndForget(
+        () -> {
+          // The garbage collection task is due before the second task, so it's queued in its lane
+          // first.
+          queue.enqueueAfterDelay(TimerId.GARBAGE_COLLECTION, 0, runnableForStep(2));
+          queue.enqueueAndForget(runnableForStep(1));
+        });
+    waitForExpectedSteps();
+    queue.runSync(() -> {});
+    assertEquals(1, queue.getTaskStats(TimerId.GARBAGE_COLLECTION).getTasksRun());
+    assertEquals(0, queue.getTaskStats(TimerId.GARBAGE_COLLECTION).getWaitingTasks());
+  }
+
+  @Test
+  public void countsWaitingAndRunTasks() throws Exception {
+    Semaphore blocker = blockQueue();
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(1));
+    queue.enqueueAndForget(Priority.BACKGROUND, runnableForStep(2));
+    TaskStats stats = queue.getTaskStats(Priority.BACKGROUND);
+    assertEquals(2, stats.getWaitingTasks());
+    blocker.release();
+
+    queue.runSync(() -> {});
+    assertEquals(0, stats.getWaitingTasks());
+    assertEquals(2, stats.getMaxWaitingTasks());
+    assertEquals(2, stats.getTasksRun());
+    assertTrue(stats.getMaxWaitNanos() > 0);
+    assertTrue(stats.getTotalWaitNanos() >= stats.getMaxWaitNanos());
+    assertEquals(2, queue.getTaskStats(Priority.NORMAL).getTasksRun());
+  }
 }
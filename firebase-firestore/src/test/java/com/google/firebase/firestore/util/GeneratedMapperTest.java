@@ -0,0 +1,155 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.firestore.Exclude;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.GenerateMapper;
+import com.google.firebase.firestore.PropertyName;
+import com.google.firebase.firestore.ServerTimestamp;
+import com.google.firebase.firestore.ThrowOnExtraProperties;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeneratedMapperTest {
+
+  enum Color {
+    RED,
+    GREEN
+  }
+
+  @GenerateMapper
+  static class NestedBean {
+    public String value;
+  }
+
+  @GenerateMapper
+  @ThrowOnExtraProperties
+  static class Bean {
+    public String name;
+    public long count;
+    public Color color;
+    public NestedBean nested;
+    public List<Map<String, Double>> scores;
+
+    @PropertyName("renamed")
+    public String original;
+
+    @Exclude public String excluded;
+
+    @ServerTimestamp public Date created;
+
+    private boolean active;
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+
+    public String getReadOnly() {
+      return "read only";
+    }
+  }
+
+  static class UnannotatedBean {
+    public String value;
+  }
+
+  @Test
+  public void testUsesGeneratedMapperForAnnotatedClasses() {
+    assertNotNull(GeneratedMapper.forClass(Bean.class));
+    assertNotNull(GeneratedMapper.forClass(NestedBean.class));
+    assertNull(GeneratedMapper.forClass(UnannotatedBean.class));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Bean bean = new Bean();
+    bean.name = "bean";
+    bean.count = 42;
+    bean.color = Color.GREEN;
+    bean.nested = new NestedBean();
+    bean.nested.value = "nested";
+    bean.scores = asList(map("a", 1.0), map("b", 2.5));
+    bean.original = "original";
+    bean.excluded = "excluded";
+    bean.created = new Date(1000);
+    bean.active = true;
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> serialized =
+        (Map<String, Object>) CustomClassMapper.convertToPlainJavaTypes(bean);
+    assertEquals(
+        map(
+            "name", "bean",
+            "count", 42L,
+            "color", "GREEN",
+            "nested", map("value", "nested"),
+            "scores", asList(map("a", 1.0), map("b", 2.5)),
+            "renamed", "original",
+            "created", new Date(1000),
+            "active", true,
+            "readOnly", "read only"),
+        serialized);
+
+    serialized.remove("readOnly");
+    Bean deserialized = CustomClassMapper.convertToCustomClass(serialized, Bean.class);
+    assertEquals("bean", deserialized.name);
+    assertEquals(42, deserialized.count);
+    assertEquals(Color.GREEN, deserialized.color);
+    assertEquals("nested", deserialized.nested.value);
+    assertEquals(asList(map("a", 1.0), map("b", 2.5)), deserialized.scores);
+    assertEquals("original", deserialized.original);
+    assertNull(deserialized.excluded);
+    assertEquals(new Date(1000), deserialized.created);
+    assertTrue(deserialized.isActive());
+  }
+
+  @Test
+  public void testReplacesNullServerTimestamps() {
+    Bean bean = new Bean();
+    Map<?, ?> serialized = (Map<?, ?>) CustomClassMapper.convertToPlainJavaTypes(bean);
+    assertEquals(FieldValue.serverTimestamp(), serialized.get("created"));
+  }
+
+  @Test
+  public void testThrowsOnPropertiesWithoutSetter() {
+    try {
+      CustomClassMapper.convertToCustomClass(map("readOnly", "value"), Bean.class);
+      fail("Expected an exception");
+    } catch (RuntimeException e) {
+      assertEquals(
+          "No setter/field for readOnly found on class " + Bean.class.getName(), e.getMessage());
+    }
+  }
+}
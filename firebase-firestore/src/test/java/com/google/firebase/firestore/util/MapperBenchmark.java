@@ -0,0 +1,137 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import static java.util.Arrays.asList;
+
+import com.google.firebase.firestore.BenchmarkTestCase;
+import com.google.firebase.firestore.GenerateMapper;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Compares the throughput and allocations of converting POJOs to and from maps with reflection and
+ * with a mapper generated by firebase-mapper-processor.
+ */
+public class MapperBenchmark extends BenchmarkTestCase {
+
+  private static final int OBJECTS = 10000;
+  private static final int ITERATIONS = 10;
+
+  static class ReflectedItem {
+    public String name;
+    public long count;
+    public double score;
+    public List<String> tags;
+
+    private boolean active;
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+  }
+
+  @GenerateMapper
+  static class GeneratedItem {
+    public String name;
+    public long count;
+    public double score;
+    public List<String> tags;
+
+    private boolean active;
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+  }
+
+  @Test
+  public void benchmarkRoundTrips() {
+    ReflectedItem[] reflectedItems = new ReflectedItem[OBJECTS];
+    GeneratedItem[] generatedItems = new GeneratedItem[OBJECTS];
+    for (int i = 0; i < OBJECTS; i++) {
+      reflectedItems[i] = new ReflectedItem();
+      reflectedItems[i].name = "item" + i;
+      reflectedItems[i].count = i;
+      reflectedItems[i].score = i / 10.0;
+      reflectedItems[i].tags = asList("a", "b", "c");
+      reflectedItems[i].active = i % 2 == 0;
+
+      generatedItems[i] = new GeneratedItem();
+      generatedItems[i].name = "item" + i;
+      generatedItems[i].count = i;
+      generatedItems[i].score = i / 10.0;
+      generatedItems[i].tags = asList("a", "b", "c");
+      generatedItems[i].active = i % 2 == 0;
+    }
+
+    // Warm up both mappers.
+    roundTrip(reflectedItems, ReflectedItem.class);
+    roundTrip(generatedItems, GeneratedItem.class);
+
+    Measurement reflected = measure(reflectedItems, ReflectedItem.class);
+    Measurement generated = measure(generatedItems, GeneratedItem.class);
+
+    report(
+        "%d round trips: reflection %dms, %dKB allocated; generated %dms, %dKB allocated",
+        OBJECTS, reflected.millis, reflected.kilobytes, generated.millis, generated.kilobytes);
+  }
+
+  private static class Measurement {
+    long millis;
+    long kilobytes;
+  }
+
+  private static <T> Measurement measure(T[] items, Class<T> clazz) {
+    long startBytes = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      roundTrip(items, clazz);
+    }
+    Measurement measurement = new Measurement();
+    measurement.millis = millisSince(start) / ITERATIONS;
+    measurement.kilobytes = (allocatedBytes() - startBytes) / 1024 / ITERATIONS;
+    return measurement;
+  }
+
+  private static <T> void roundTrip(T[] items, Class<T> clazz) {
+    for (T item : items) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> map =
+          (Map<String, Object>) CustomClassMapper.convertToPlainJavaTypes(item);
+      CustomClassMapper.convertToCustomClass(map, clazz);
+    }
+  }
+
+  /** Returns the number of bytes allocated by the current thread, or 0 if unsupported. */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MetricsTest {
+
+  private Metrics metrics;
+  private List<Metrics.Operation> operations;
+
+  @Before
+  public void setUp() {
+    metrics = new Metrics();
+    operations = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    metrics.setListener(null);
+  }
+
+  @Test
+  public void testDoesNotTrackWithoutListener() {
+    Runnable task = () -> assertNull(Metrics.current());
+    assertSame(task, metrics.track("TEST", task));
+    metrics.run(task, "TEST", 0, 0);
+  }
+
+  @Test
+  public void testReportsOperationsThatRanTransactions() {
+    metrics.setListener(operations::add);
+
+    metrics.track("TEST", () -> {}).run();
+    assertEquals(0, operations.size());
+
+    metrics
+        .track(
+            "TEST",
+            () -> {
+              Metrics.Operation operation = Metrics.current();
+              assertNotNull(operation);
+              Metrics.recordRowsRead(3);
+              Metrics.recordRowsWritten(2);
+              Metrics.recordDocumentDecoded();
+              Metrics.recordDocumentDecoded();
+              Metrics.recordViewComputed();
+              Metrics.recordViewSkipped();
+              Metrics.recordViewSkipped();
+              operation.recordTransaction("first", 10);
+              operation.recordTransaction("second", 5);
+            })
+        .run();
+
+    assertEquals(1, operations.size());
+    Metrics.Operation operation = operations.get(0);
+    assertEquals("first", operation.getTransactionName());
+    assertEquals(2, operation.getTransactionCount());
+    assertEquals(15, operation.getTransactionDurationNanos());
+    assertEquals(3, operation.getRowsRead());
+    assertEquals(2, operation.getRowsWritten());
+    assertEquals(2, operation.getDocumentsDecoded());
+    assertEquals(1, operation.getViewsComputed());
+    assertEquals(2, operation.getViewsSkipped());
+    assertNull(Metrics.current());
+  }
+
+  @Test
+  public void testAttributesNestedTasksToOuterOperation() {
+    metrics.setListener(operations::add);
+
+    metrics.run(
+        () -> {
+          Metrics.Operation outer = Metrics.current();
+          metrics.run(
+              () -> {
+                assertSame(outer, Metrics.current());
+                Metrics.recordRowsRead(1);
+              },
+              "INNER",
+              0,
+              0);
+          outer.recordTransaction("outer", 1);
+        },
+        "OUTER",
+        42,
+        3);
+
+    assertEquals(1, operations.size());
+    assertEquals(1, operations.get(0).getRowsRead());
+    assertEquals("OUTER", operations.get(0).getCategory());
+    assertEquals(42, operations.get(0).getQueueLatencyNanos());
+    assertEquals(3, operations.get(0).getQueueDepth());
+  }
+
+  @Test
+  public void testIgnoresExceptionsThrownByListener() {
+    metrics.setListener(
+        operation -> {
+          throw new IllegalStateException("Listener failed");
+        });
+
+    boolean[] ran = new boolean[1];
+    metrics.run(
+        () -> {
+          Metrics.current().recordTransaction("test", 1);
+          ran[0] = true;
+        },
+        "TEST",
+        0,
+        0);
+    assertTrue(ran[0]);
+    assertNull(Metrics.current());
+  }
+
+  @Test
+  public void testStopsTrackingWhenListenerIsRemoved() {
+    metrics.setListener(operations::add);
+    metrics.setListener(null);
+
+    Runnable task = () -> assertNull(Metrics.current());
+    assertSame(task, metrics.track("TEST", task));
+    metrics.run(task, "TEST", 0, 0);
+    assertEquals(0, operations.size());
+  }
+}
@@ -0,0 +1,746 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.mapper;
+
+import com.google.auto.service.AutoService;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates mappers for classes annotated with Firestore's or the Realtime Database's
+ * {@code @GenerateMapper}, which convert the classes to and from documents or database values
+ * without reflection.
+ *
+ * <p>The properties of a class are found with the same rules that CustomClassMapper applies at
+ * runtime. Classes that CustomClassMapper would reject, and classes whose setters, fields or
+ * constructor the generated code can't access, are reported as compile errors.
+ */
+@AutoService(Processor.class)
+public class MapperProcessor extends AbstractProcessor {
+
+  /** The SDK that a mapper is generated for. */
+  private enum Flavor {
+    FIRESTORE(
+        "com.google.firebase.firestore", "com.google.firebase.firestore.util", "_FirestoreMapper"),
+    DATABASE(
+        "com.google.firebase.database",
+        "com.google.firebase.database.core.utilities.encoding",
+        "_DatabaseMapper");
+
+    /** The package of the SDK's mapping annotations. */
+    final String annotationPackage;
+    /** The package of the SDK's GeneratedMapper base class. */
+    final String mapperPackage;
+
+    final String suffix;
+
+    Flavor(String annotationPackage, String mapperPackage, String suffix) {
+      this.annotationPackage = annotationPackage;
+      this.mapperPackage = mapperPackage;
+      this.suffix = suffix;
+    }
+
+    String annotation(String simpleName) {
+      return annotationPackage + "." + simpleName;
+    }
+
+    boolean supportsServerTimestamps() {
+      return this == FIRESTORE;
+    }
+  }
+
+  /** Thrown when no mapper can be generated for a class. */
+  private static class InvalidClassException extends Exception {
+    final Element element;
+
+    InvalidClassException(Element element, String message) {
+      super(message);
+      this.element = element;
+    }
+  }
+
+  /** A property of a mapped class, and how the generated code reads and writes it. */
+  private static class Property {
+    final String name;
+    ExecutableElement getter;
+    ExecutableElement setter;
+    VariableElement field;
+    boolean serverTimestamp;
+
+    Property(String name) {
+      this.name = name;
+    }
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    Set<String> types = new HashSet<>();
+    for (Flavor flavor : Flavor.values()) {
+      types.add(flavor.annotation("GenerateMapper"));
+    }
+    return types;
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Flavor flavor : Flavor.values()) {
+      TypeElement annotation =
+          processingEnv.getElementUtils().getTypeElement(flavor.annotation("GenerateMapper"));
+      if (annotation == null) {
+        continue;
+      }
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        try {
+          generateMapper(flavor, checkClass(element));
+        } catch (InvalidClassException e) {
+          processingEnv
+              .getMessager()
+              .printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+        } catch (IOException e) {
+          processingEnv
+              .getMessager()
+              .printMessage(
+                  Diagnostic.Kind.ERROR, "Could not write mapper: " + e.getMessage(), element);
+        }
+      }
+    }
+    return true;
+  }
+
+  private static TypeElement checkClass(Element element) throws InvalidClassException {
+    if (element.getKind() != ElementKind.CLASS) {
+      throw new InvalidClassException(element, "@GenerateMapper can only be applied to classes.");
+    }
+    TypeElement type = (TypeElement) element;
+    if (!type.getTypeParameters().isEmpty()) {
+      throw new InvalidClassException(
+          element, "@GenerateMapper can't be applied to generic class " + type + ".");
+    }
+    for (Element current = type;
+        current.getKind() != ElementKind.PACKAGE;
+        current = current.getEnclosingElement()) {
+      if (current.getModifiers().contains(Modifier.PRIVATE)) {
+        throw new InvalidClassException(
+            element, "Class " + current + " must not be private to generate a mapper for it.");
+      }
+      if (current.getKind().isClass()
+          && ((TypeElement) current).getNestingKind() == NestingKind.MEMBER
+          && !current.getModifiers().contains(Modifier.STATIC)) {
+        throw new InvalidClassException(
+            element, "Inner class " + current + " must be static to generate a mapper for it.");
+      }
+    }
+    return type;
+  }
+
+  private void generateMapper(Flavor flavor, TypeElement type)
+      throws InvalidClassException, IOException {
+    List<Property> properties = findProperties(flavor, type);
+    String packageName = packageOf(type).getQualifiedName().toString();
+    String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    String mapperName = binaryName.replace('$', '_') + flavor.suffix;
+    String simpleMapperName =
+        packageName.isEmpty() ? mapperName : mapperName.substring(packageName.length() + 1);
+    String typeName = type.getQualifiedName().toString();
+    String baseName = flavor.mapperPackage + ".GeneratedMapper";
+
+    StringBuilder source = new StringBuilder();
+    source.append("// Generated by firebase-mapper-processor. Do not edit.\n");
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source
+        .append("public final class ")
+        .append(simpleMapperName)
+        .append(" extends ")
+        .append(baseName)
+        .append("<")
+        .append(typeName)
+        .append("> {\n\n");
+
+    source.append("  private static final ").append(baseName);
+    source.append(".Property[] PROPERTIES = {\n");
+    for (Property property : properties) {
+      TypeMirror propertyType = settableType(type, property);
+      source
+          .append("    new ")
+          .append(baseName)
+          .append(".Property(")
+          .append(stringLiteral(property.name))
+          .append(", ")
+          .append(propertyType != null ? typeLiteral(baseName, propertyType) : "null");
+      if (flavor.supportsServerTimestamps()) {
+        source.append(", ").append(property.serverTimestamp);
+      }
+      source.append("),\n");
+    }
+    source.append("  };\n\n");
+
+    source.append("  @Override\n");
+    source.append("  public ").append(baseName).append(".Property[] getProperties() {\n");
+    source.append("    return PROPERTIES;\n");
+    source.append("  }\n\n");
+
+    source.append("  @Override\n");
+    source.append("  public ").append(typeName).append(" newInstance() {\n");
+    if (hasNoArgumentConstructor(type)) {
+      source.append("    return new ").append(typeName).append("();\n");
+    } else {
+      source.append("    return null;\n");
+    }
+    source.append("  }\n\n");
+
+    source.append("  @Override\n");
+    source.append("  public Object get(").append(typeName).append(" object, int property) {\n");
+    source.append("    switch (property) {\n");
+    for (int i = 0; i < properties.size(); i++) {
+      Property property = properties.get(i);
+      source.append("      case ").append(i).append(":\n");
+      if (property.getter != null) {
+        source.append("        return object.").append(property.getter.getSimpleName());
+        source.append("();\n");
+      } else {
+        source.append("        return object.").append(property.field.getSimpleName());
+        source.append(";\n");
+      }
+    }
+    source.append("      default:\n");
+    source.append("        throw new IllegalArgumentException(");
+    source.append("\"Unknown property \" + property);\n");
+    source.append("    }\n");
+    source.append("  }\n\n");
+
+    source.append("  @Override\n");
+    source.append("  @SuppressWarnings(\"unchecked\")\n");
+    source.append("  public void set(").append(typeName);
+    source.append(" object, int property, Object value) {\n");
+    source.append("    switch (property) {\n");
+    for (int i = 0; i < properties.size(); i++) {
+      Property property = properties.get(i);
+      TypeMirror propertyType = settableType(type, property);
+      if (propertyType == null) {
+        continue;
+      }
+      String cast = "(" + sourceName(boxed(propertyType)) + ") value";
+      source.append("      case ").append(i).append(":\n");
+      if (property.setter != null) {
+        source.append("        object.").append(property.setter.getSimpleName());
+        source.append("(").append(cast).append(");\n");
+      } else {
+        source.append("        object.").append(property.field.getSimpleName());
+        source.append(" = ").append(cast).append(";\n");
+      }
+      source.append("        return;\n");
+    }
+    source.append("      default:\n");
+    source.append("        throw new IllegalArgumentException(");
+    source.append("\"Unknown property \" + property);\n");
+    source.append("    }\n");
+    source.append("  }\n");
+    source.append("}\n");
+
+    try (Writer writer = processingEnv.getFiler().createSourceFile(mapperName, type).openWriter()) {
+      writer.write(source.toString());
+    }
+  }
+
+  /**
+   * Finds the properties of the class the way CustomClassMapper.BeanMapper does, and checks that
+   * the generated code can access the getters, setters and fields that it uses.
+   */
+  private List<Property> findProperties(Flavor flavor, TypeElement type)
+      throws InvalidClassException {
+    // Case insensitive mapping of properties to their case sensitive versions
+    Map<String, String> propertyNames = new HashMap<>();
+    Map<String, Property> properties = new LinkedHashMap<>();
+
+    // Add any public getters to properties (including isXyz())
+    for (ExecutableElement method :
+        ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+      if (shouldIncludeGetter(flavor, method)) {
+        Property property =
+            addProperty(type, propertyNames, properties, propertyName(flavor, method));
+        if (property.getter != null) {
+          throw new InvalidClassException(
+              method,
+              "Found conflicting getters for name " + method.getSimpleName() + " on class " + type);
+        }
+        property.getter = method;
+        if (hasAnnotation(method, flavor.annotation("ServerTimestamp"))) {
+          checkServerTimestamp(flavor, method, method.getReturnType());
+          property.serverTimestamp = true;
+        }
+      }
+    }
+
+    // Add any public fields to properties
+    for (VariableElement field :
+        ElementFilter.fieldsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+      if (shouldIncludeField(flavor, field)) {
+        Property property =
+            addProperty(type, propertyNames, properties, propertyName(flavor, field));
+        if (hasAnnotation(field, flavor.annotation("ServerTimestamp"))) {
+          checkServerTimestamp(flavor, field, field.asType());
+          property.serverTimestamp = true;
+        }
+      }
+    }
+
+    // Setters and non-public fields are used for known properties. They are looked up in the
+    // class hierarchy, with subclasses taking precedence.
+    Map<String, VariableElement> fields = new HashMap<>();
+    TypeElement currentClass = type;
+    while (currentClass != null
+        && !currentClass.getQualifiedName().contentEquals("java.lang.Object")) {
+      for (ExecutableElement method : ElementFilter.methodsIn(currentClass.getEnclosedElements())) {
+        if (!shouldIncludeSetter(flavor, method)) {
+          continue;
+        }
+        String propertyName = propertyName(flavor, method);
+        String existingPropertyName = propertyNames.get(propertyName.toLowerCase(Locale.US));
+        if (existingPropertyName == null) {
+          continue;
+        }
+        if (!existingPropertyName.equals(propertyName)) {
+          throw new InvalidClassException(
+              method,
+              "Found setter on "
+                  + currentClass
+                  + " with invalid case-sensitive name: "
+                  + method.getSimpleName());
+        }
+        Property property = properties.get(propertyName);
+        if (property.setter == null) {
+          checkAccessible(type, method, "Setter");
+          if (flavor.supportsServerTimestamps()
+              && hasAnnotation(method, flavor.annotation("ServerTimestamp"))) {
+            throw new InvalidClassException(
+                method,
+                "Method "
+                    + method.getSimpleName()
+                    + " is annotated with @ServerTimestamp but should not be. @ServerTimestamp can"
+                    + " only be applied to fields and getters, not setters.");
+          }
+          property.setter = method;
+        } else if (!isSetterOverride(method, property.setter)) {
+          if (currentClass == type) {
+            throw new InvalidClassException(
+                method,
+                "Class "
+                    + type
+                    + " has multiple setter overloads with name "
+                    + method.getSimpleName());
+          } else {
+            throw new InvalidClassException(
+                method,
+                "Found conflicting setters with name: "
+                    + method.getSimpleName()
+                    + " (conflicts with "
+                    + property.setter.getSimpleName()
+                    + " defined on "
+                    + property.setter.getEnclosingElement()
+                    + ")");
+          }
+        }
+      }
+
+      for (VariableElement field : ElementFilter.fieldsIn(currentClass.getEnclosedElements())) {
+        String propertyName = propertyName(flavor, field);
+        if (propertyNames.containsKey(propertyName.toLowerCase(Locale.US))
+            && !fields.containsKey(propertyName)) {
+          fields.put(propertyName, field);
+          Property property = properties.get(propertyName);
+          if (property == null) {
+            // Case sensitivity is checked at deserialization time
+            continue;
+          }
+          property.field = field;
+          if (hasAnnotation(field, flavor.annotation("ServerTimestamp"))) {
+            checkServerTimestamp(flavor, field, field.asType());
+            property.serverTimestamp = true;
+          }
+        }
+      }
+
+      TypeMirror superclass = currentClass.getSuperclass();
+      currentClass =
+          superclass.getKind() == TypeKind.DECLARED
+              ? (TypeElement) ((DeclaredType) superclass).asElement()
+              : null;
+    }
+
+    if (properties.isEmpty()) {
+      throw new InvalidClassException(type, "No properties to serialize found on class " + type);
+    }
+
+    for (Property property : properties.values()) {
+      if (property.getter == null) {
+        if (property.field == null) {
+          throw new InvalidClassException(
+              type, "Bean property without field or getter: " + property.name);
+        }
+        checkAccessible(type, property.field, "Field");
+      } else if (property.setter == null
+          && property.field != null
+          && !isAccessible(type, property.field)) {
+        throw new InvalidClassException(
+            property.field,
+            "Field "
+                + property.field.getSimpleName()
+                + " must not be private, or property "
+                + property.name
+                + " needs a setter, to generate a mapper for class "
+                + type
+                + ".");
+      }
+    }
+    return new ArrayList<>(properties.values());
+  }
+
+  private static Property addProperty(
+      TypeElement type,
+      Map<String, String> propertyNames,
+      Map<String, Property> properties,
+      String propertyName)
+      throws InvalidClassException {
+    String oldValue = propertyNames.put(propertyName.toLowerCase(Locale.US), propertyName);
+    if (oldValue != null && !propertyName.equals(oldValue)) {
+      throw new InvalidClassException(
+          type,
+          "Found two getters or fields with conflicting case sensitivity for property: "
+              + propertyName.toLowerCase(Locale.US));
+    }
+    Property property = properties.get(propertyName);
+    if (property == null) {
+      property = new Property(propertyName);
+      properties.put(propertyName, property);
+    }
+    return property;
+  }
+
+  /**
+   * Returns the type that the property is set with, as a member of the mapped class, or null if
+   * the property can't be set.
+   */
+  private TypeMirror settableType(TypeElement type, Property property) {
+    DeclaredType declaredType = (DeclaredType) type.asType();
+    if (property.setter != null) {
+      ExecutableType setterType =
+          (ExecutableType) processingEnv.getTypeUtils().asMemberOf(declaredType, property.setter);
+      return setterType.getParameterTypes().get(0);
+    } else if (property.field != null && isAccessible(type, property.field)) {
+      return processingEnv.getTypeUtils().asMemberOf(declaredType, property.field);
+    }
+    return null;
+  }
+
+  private boolean hasNoArgumentConstructor(TypeElement type) throws InvalidClassException {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      return false;
+    }
+    for (ExecutableElement constructor :
+        ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        if (constructor.getModifiers().contains(Modifier.PRIVATE)) {
+          throw new InvalidClassException(
+              constructor,
+              "The no-argument constructor of class "
+                  + type
+                  + " must not be private to generate a mapper for it.");
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Whether the generated mapper, which is in the package of the class, can access the member. */
+  private static boolean isAccessible(TypeElement type, Element member) {
+    Set<Modifier> modifiers = member.getModifiers();
+    if (modifiers.contains(Modifier.PRIVATE)) {
+      return false;
+    }
+    return modifiers.contains(Modifier.PUBLIC)
+        || packageOf(member).equals(packageOf(type));
+  }
+
+  private static void checkAccessible(TypeElement type, Element member, String kind)
+      throws InvalidClassException {
+    if (!isAccessible(type, member)) {
+      throw new InvalidClassException(
+          member,
+          kind
+              + " "
+              + member.getSimpleName()
+              + " must not be private, or package-private in another package, to generate a"
+              + " mapper for class "
+              + type
+              + ".");
+    }
+  }
+
+  private static void checkServerTimestamp(Flavor flavor, Element element, TypeMirror type)
+      throws InvalidClassException {
+    if (!flavor.supportsServerTimestamps()) {
+      return;
+    }
+    String typeName = type.toString();
+    if (!typeName.equals("java.util.Date") && !typeName.equals("com.google.firebase.Timestamp")) {
+      throw new InvalidClassException(
+          element,
+          (element.getKind() == ElementKind.FIELD ? "Field " : "Method ")
+              + element.getSimpleName()
+              + " is annotated with @ServerTimestamp but is "
+              + type
+              + " instead of Date or Timestamp.");
+    }
+  }
+
+  private static boolean shouldIncludeGetter(Flavor flavor, ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    if (!name.startsWith("get") && !name.startsWith("is")) {
+      return false;
+    }
+    // Exclude methods from Object.class
+    if (((TypeElement) method.getEnclosingElement())
+        .getQualifiedName()
+        .contentEquals("java.lang.Object")) {
+      return false;
+    }
+    Set<Modifier> modifiers = method.getModifiers();
+    return modifiers.contains(Modifier.PUBLIC)
+        && !modifiers.contains(Modifier.STATIC)
+        && method.getReturnType().getKind() != TypeKind.VOID
+        && method.getParameters().isEmpty()
+        && !hasAnnotation(method, flavor.annotation("Exclude"));
+  }
+
+  private static boolean shouldIncludeSetter(Flavor flavor, ExecutableElement method) {
+    if (!method.getSimpleName().toString().startsWith("set")) {
+      return false;
+    }
+    return !method.getModifiers().contains(Modifier.STATIC)
+        && method.getReturnType().getKind() == TypeKind.VOID
+        && method.getParameters().size() == 1
+        && !hasAnnotation(method, flavor.annotation("Exclude"));
+  }
+
+  private static boolean shouldIncludeField(Flavor flavor, VariableElement field) {
+    Set<Modifier> modifiers = field.getModifiers();
+    return modifiers.contains(Modifier.PUBLIC)
+        && !modifiers.contains(Modifier.STATIC)
+        && !modifiers.contains(Modifier.TRANSIENT)
+        && !hasAnnotation(field, flavor.annotation("Exclude"));
+  }
+
+  private boolean isSetterOverride(ExecutableElement base, ExecutableElement override) {
+    TypeMirror baseParameter = base.getParameters().get(0).asType();
+    TypeMirror overrideParameter = override.getParameters().get(0).asType();
+    return base.getSimpleName().equals(override.getSimpleName())
+        && processingEnv
+            .getTypeUtils()
+            .isSameType(
+                processingEnv.getTypeUtils().erasure(baseParameter),
+                processingEnv.getTypeUtils().erasure(overrideParameter));
+  }
+
+  private static String propertyName(Flavor flavor, VariableElement field) {
+    String annotatedName = annotatedName(flavor, field);
+    return annotatedName != null ? annotatedName : field.getSimpleName().toString();
+  }
+
+  private static String propertyName(Flavor flavor, ExecutableElement method) {
+    String annotatedName = annotatedName(flavor, method);
+    return annotatedName != null
+        ? annotatedName
+        : serializedName(method.getSimpleName().toString());
+  }
+
+  private static String annotatedName(Flavor flavor, Element element) {
+    AnnotationMirror annotation = getAnnotation(element, flavor.annotation("PropertyName"));
+    if (annotation == null) {
+      return null;
+    }
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("value")) {
+        return (String) entry.getValue().getValue();
+      }
+    }
+    return null;
+  }
+
+  private static String serializedName(String methodName) {
+    String[] prefixes = new String[] {"get", "set", "is"};
+    String methodPrefix = null;
+    for (String prefix : prefixes) {
+      if (methodName.startsWith(prefix)) {
+        methodPrefix = prefix;
+      }
+    }
+    String strippedName = methodName.substring(methodPrefix.length());
+
+    // Make sure the first word or upper-case prefix is converted to lower-case
+    char[] chars = strippedName.toCharArray();
+    int pos = 0;
+    while (pos < chars.length && Character.isUpperCase(chars[pos])) {
+      chars[pos] = Character.toLowerCase(chars[pos]);
+      pos++;
+    }
+    return new String(chars);
+  }
+
+  private static boolean hasAnnotation(Element element, String annotationName) {
+    return getAnnotation(element, annotationName) != null;
+  }
+
+  private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  private static PackageElement packageOf(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  private TypeMirror boxed(TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      return processingEnv
+          .getTypeUtils()
+          .boxedClass(processingEnv.getTypeUtils().getPrimitiveType(type.getKind()))
+          .asType();
+    }
+    return type;
+  }
+
+  /**
+   * Returns an expression that evaluates to the java.lang.reflect.Type of the given type, which
+   * CustomClassMapper converts property values to.
+   */
+  private String typeLiteral(String baseName, TypeMirror type) throws InvalidClassException {
+    String sourceName = sourceName(type);
+    if (type.getKind() == TypeKind.DECLARED
+        && ((DeclaredType) type).getTypeArguments().isEmpty()) {
+      return sourceName + ".class";
+    } else if (type.getKind().isPrimitive()
+        || (type.getKind() == TypeKind.ARRAY && !sourceName.contains("<"))) {
+      return sourceName + ".class";
+    }
+    return "new " + baseName + ".TypeToken<" + sourceName + ">() {}.getType()";
+  }
+
+  /** Returns the fully qualified source representation of the type, without annotations. */
+  private String sourceName(TypeMirror type) throws InvalidClassException {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case CHAR:
+      case FLOAT:
+      case DOUBLE:
+        return type.getKind().name().toLowerCase(Locale.US);
+      case ARRAY:
+        return sourceName(((ArrayType) type).getComponentType()) + "[]";
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        if (wildcard.getExtendsBound() != null) {
+          return "? extends " + sourceName(wildcard.getExtendsBound());
+        } else if (wildcard.getSuperBound() != null) {
+          return "? super " + sourceName(wildcard.getSuperBound());
+        }
+        return "?";
+      case DECLARED:
+        DeclaredType declaredType = (DeclaredType) type;
+        StringBuilder name =
+            new StringBuilder(
+                ((TypeElement) declaredType.asElement()).getQualifiedName().toString());
+        List<? extends TypeMirror> typeArguments = declaredType.getTypeArguments();
+        if (!typeArguments.isEmpty()) {
+          name.append("<");
+          for (int i = 0; i < typeArguments.size(); i++) {
+            if (i > 0) {
+              name.append(", ");
+            }
+            name.append(sourceName(typeArguments.get(i)));
+          }
+          name.append(">");
+        }
+        return name.toString();
+      default:
+        throw new InvalidClassException(
+            processingEnv.getTypeUtils().asElement(type),
+            "Can't generate a mapper for a property of type " + type + ".");
+    }
+  }
+
+  private static String stringLiteral(String value) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        literal.append('\\').append(c);
+      } else if (c < 0x20 || c > 0x7e) {
+        literal.append(String.format("\\u%04x", (int) c));
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.append('"').toString();
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.mapper;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MapperProcessorTest {
+
+  // Minimal versions of the SDK classes that generated code depends on.
+  private static final JavaFileObject GENERATE_MAPPER =
+      JavaFileObjects.forSourceLines(
+          "com.google.firebase.firestore.GenerateMapper",
+          "package com.google.firebase.firestore;",
+          "public @interface GenerateMapper {}");
+  private static final JavaFileObject SERVER_TIMESTAMP =
+      JavaFileObjects.forSourceLines(
+          "com.google.firebase.firestore.ServerTimestamp",
+          "package com.google.firebase.firestore;",
+          "public @interface ServerTimestamp {}");
+  private static final JavaFileObject GENERATED_MAPPER =
+      JavaFileObjects.forSourceLines(
+          "com.google.firebase.firestore.util.GeneratedMapper",
+          "package com.google.firebase.firestore.util;",
+          "import java.lang.reflect.Type;",
+          "public abstract class GeneratedMapper<T> {",
+          "  public static final class Property {",
+          "    public Property(String name, Type type, boolean serverTimestamp) {}",
+          "  }",
+          "  public abstract static class TypeToken<X> {",
+          "    public Type getType() { return null; }",
+          "  }",
+          "  public abstract Property[] getProperties();",
+          "  public abstract T newInstance();",
+          "  public abstract Object get(T object, int property);",
+          "  public abstract void set(T object, int property, Object value);",
+          "}");
+
+  private static Compilation compile(JavaFileObject source) {
+    return javac()
+        .withProcessors(new MapperProcessor())
+        .compile(GENERATE_MAPPER, SERVER_TIMESTAMP, GENERATED_MAPPER, source);
+  }
+
+  @Test
+  public void testGeneratesMapper() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Outer",
+                "package com.example;",
+                "import com.google.firebase.firestore.GenerateMapper;",
+                "import java.util.List;",
+                "public class Outer {",
+                "  @GenerateMapper",
+                "  public static class Bean {",
+                "    public String name;",
+                "    public List<String> tags;",
+                "    private int count;",
+                "    public int getCount() { return count; }",
+                "    public void setCount(int count) { this.count = count; }",
+                "  }",
+                "}"));
+    assertThat(compilation).succeeded();
+    assertThat(compilation)
+        .generatedSourceFile("com.example.Outer_Bean_FirestoreMapper")
+        .contentsAsUtf8String()
+        .contains("object.setCount((java.lang.Integer) value);");
+  }
+
+  @Test
+  public void testFailsForPrivateSetter() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Bean",
+                "package com.example;",
+                "import com.google.firebase.firestore.GenerateMapper;",
+                "@GenerateMapper",
+                "public class Bean {",
+                "  private String name;",
+                "  public String getName() { return name; }",
+                "  private void setName(String name) { this.name = name; }",
+                "}"));
+    assertThat(compilation).failed();
+    assertThat(compilation).hadErrorContaining("Setter setName must not be private");
+  }
+
+  @Test
+  public void testFailsForInvalidServerTimestamp() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Bean",
+                "package com.example;",
+                "import com.google.firebase.firestore.GenerateMapper;",
+                "import com.google.firebase.firestore.ServerTimestamp;",
+                "@GenerateMapper",
+                "public class Bean {",
+                "  @ServerTimestamp public String created;",
+                "}"));
+    assertThat(compilation).failed();
+    assertThat(compilation)
+        .hadErrorContaining("Field created is annotated with @ServerTimestamp but is");
+  }
+
+  @Test
+  public void testFailsForInnerClass() {
+    Compilation compilation =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Outer",
+                "package com.example;",
+                "import com.google.firebase.firestore.GenerateMapper;",
+                "public class Outer {",
+                "  @GenerateMapper",
+                "  public class Bean {",
+                "    public String name;",
+                "  }",
+                "}"));
+    assertThat(compilation).failed();
+    assertThat(compilation).hadErrorContaining("must be static");
+  }
+}